@@ -158,6 +158,15 @@ public interface Dataset extends Data, Metadata {
 	// TODO - move into Imglib
 	void setAxes(AxisType[] axes);
 
+	/**
+	 * Informs interested parties that the sample values of the given planes,
+	 * numbered as in {@link #getPlane(int)}, have changed. Listeners can then
+	 * limit their work to those planes.
+	 * 
+	 * @see imagej.data.event.DatasetUpdatedEvent#getPlanes()
+	 */
+	void updatePlanes(long... planes);
+
 	// -- Data methods --
 
 	/**
@@ -212,7 +212,7 @@ public boolean setPlaneSilently(final int planeNum, final Object newPlane) {
 	@Override
 	public boolean setPlane(final int planeNum, final Object newPlane) {
 		if (setPlaneSilently(planeNum, newPlane)) {
-			update(false);
+			updatePlanes(planeNum);
 			return true;
 		}
 		return false;
@@ -329,6 +329,12 @@ public void copyDataFrom(final Dataset other) {
 		setImgPlus(newImgPlus);
 	}
 
+	@Override
+	public void updatePlanes(final long... planes) {
+		setDirty(true);
+		publish(new DatasetUpdatedEvent(this, false, planes.clone()));
+	}
+
 	// -- Data methods --
 
 	@Override
@@ -640,6 +646,9 @@ else if (newPlane instanceof double[]) {
 	private void copyDataValues(final Img<? extends RealType<?>> input,
 		final Img<? extends RealType<?>> output)
 	{
+		// copy directly between primitive arrays when possible
+		if (PlaneStorage.copy(input, output)) return;
+
 		final long[] position = new long[output.numDimensions()];
 		final Cursor<? extends RealType<?>> outputCursor =
 			output.localizingCursor();
@@ -664,6 +673,10 @@ private Object copyOfPlane(final int planeNum) {
 				"Can't create an in memory plane of " + (w * h) +
 					" entities (MAX = " + Integer.MAX_VALUE + ")");
 		}
+		// copy directly from the primitive array when possible
+		final PlaneStorage storage = PlaneStorage.get(imgPlus, planeNum);
+		if (storage != null) return storage.copyOfPlane();
+
 		final Type<?> type = getType();
 		// might not be able to get a copy of native data
 		if (!(type instanceof NativeType<?>)) return null;
@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data;
+
+import imagej.command.CommandService;
+import imagej.options.OptionsService;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default service for running {@link ParallelLoop}s. Loops share one pool of
+ * daemon threads, one per available processor; idle threads are let go after
+ * a while and started again when needed.
+ */
+@Plugin(type = Service.class)
+public class DefaultParallelLoopService extends AbstractService implements
+	ParallelLoopService
+{
+
+	private static final String THREADS_OPTIONS =
+		"imagej.core.options.OptionsMemoryAndThreads";
+
+	private static final String STACK_THREADS = "stackThreads";
+
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	// -- instance variables --
+
+	private ThreadPoolExecutor executor;
+
+	// -- ParallelLoopService methods --
+
+	@Override
+	public int getThreadCount() {
+		final CommandService commandService =
+			getContext().getService(CommandService.class);
+		final OptionsService optionsService =
+			getContext().getService(OptionsService.class);
+		if (commandService != null && optionsService != null &&
+			commandService.getCommand(THREADS_OPTIONS) != null)
+		{
+			final Object threads =
+				optionsService.getOption(THREADS_OPTIONS, STACK_THREADS);
+			if (threads instanceof Number) {
+				final int count = ((Number) threads).intValue();
+				if (count > 0) return count;
+			}
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void run(final long size, final int threadCount,
+		final ParallelLoop.Body body)
+	{
+		ParallelLoop.runOn(executor(), size, threadCount, body);
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public synchronized void dispose() {
+		if (executor != null) executor.shutdown();
+		executor = null;
+	}
+
+	// -- private helpers --
+
+	private synchronized ThreadPoolExecutor executor() {
+		if (executor == null) {
+			final int poolSize = Runtime.getRuntime().availableProcessors();
+			final AtomicInteger threadNumber = new AtomicInteger();
+			executor =
+				new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS,
+					TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+
+						@Override
+						public Thread newThread(final Runnable r) {
+							final Thread thread =
+								new Thread(r, "ParallelLoop-" +
+									threadNumber.getAndIncrement());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+}
@@ -121,6 +121,14 @@ public void setPreferredChannel(long channelNumber) {
 		}
 		this.preferredChannel = channelNumber;
 	}
+
+	/**
+	 * Returns the preferred channel to draw on, or a negative number if drawing
+	 * takes place across all channels.
+	 */
+	public long getPreferredChannel() {
+		return preferredChannel;
+	}
 	
 	/** Return the Dataset associated with this DrawingTool. */
 	public Dataset getDataset() {
@@ -83,56 +83,7 @@ public FloodFiller(final DrawingTool tool) {
 	 * true if any pixels actually changed and false otherwise.
 	 */
 	public boolean fill4(final long u0, final long v0, final long[] position) {
-		final Dataset ds = tool.getDataset();
-		final RandomAccess<? extends RealType<?>> accessor =
-			ds.getImgPlus().randomAccess();
-		accessor.setPosition(position);
-		uAxis = tool.getUAxis();
-		vAxis = tool.getVAxis();
-		final ChannelCollection fillValues = tool.getChannels();
-		// avoid degenerate case
-		if (matches(accessor,u0,v0,fillValues)) return false;
-		final ChannelCollection origValues = getValues(accessor, u0, v0);
-		final long maxU = ds.dimension(uAxis) - 1;
-		final long maxV = ds.dimension(vAxis) - 1;
-		clearUV();
-		pushUV(u0, v0);
-		while (!uStack.isEmpty()) {
-			final long u = popU();
-			final long v = popV();
-			if (!matches(accessor,u,v,origValues)) continue;
-			long u1 = u;
-			long u2 = u;
-			// find start of scan-line
-			while (u1>=0 && matches(accessor,u1,v,origValues)) u1--;
-			u1++;
-		  // find end of scan-line
-			while (u2<=maxU && matches(accessor,u2,v,origValues)) u2++;                 
-			u2--;
-			// fill scan-line
-			tool.drawLine(u1, v, u2, v);
-			// find scan-lines above this one
-			boolean inScanLine = false;
-			for (long i=u1; i<=u2; i++) {
-				if (!inScanLine && v>0 && matches(accessor,i,v-1,origValues))
-					{pushUV(i, v-1); inScanLine = true;}
-				else if (inScanLine && v>0 &&
-									!matches(accessor,i,v-1,origValues))
-					inScanLine = false;
-			}
-			// find scan-lines below this one
-			inScanLine = false;
-			for (long i=u1; i<=u2; i++) {
-				if (!inScanLine && v<maxV &&
-							matches(accessor,i,v+1,origValues))
-					{pushUV(i, v+1); inScanLine = true;}
-				else if (inScanLine && v<maxV &&
-									!matches(accessor,i,v+1,origValues))
-					inScanLine = false;
-			}
-		}
-		// System.out.println("Stack allocated (but not necessarily used) "+uStack.stack.length);
-		return true;
+		return fill(u0, v0, position, false);
 	}
 
 	/**
@@ -140,80 +91,7 @@ else if (inScanLine && v<maxV &&
 	 * true if any pixels actually changed and false otherwise.
 	 */
 	public boolean fill8(final long u0, final long v0, final long[] position) {
-		final Dataset ds = tool.getDataset();
-		final RandomAccess<? extends RealType<?>> accessor =
-			ds.getImgPlus().randomAccess();
-		accessor.setPosition(position);
-		uAxis = tool.getUAxis();
-		vAxis = tool.getVAxis();
-		final ChannelCollection fillValues = tool.getChannels();
-		// avoid degenerate case
-		if (matches(accessor,u0,v0,fillValues)) return false;
-		final ChannelCollection origValues = getValues(accessor, u0, v0);
-		final long maxU = ds.dimension(uAxis) - 1;
-		final long maxV = ds.dimension(vAxis) - 1;
-		clearUV();
-		pushUV(u0, v0);
-		while(!uStack.isEmpty()) {
-			final long u = popU(); 
-			final long v = popV();
-			long u1 = u;
-			long u2 = u;
-			if (matches(accessor,u,v,origValues)) {
-				// find start of scan-line
-				while (u1>=0 && matches(accessor,u1,v,origValues)) u1--;
-				u1++;
-			  // find end of scan-line
-				while (u2<=maxU && matches(accessor,u2,v,origValues)) u2++;
-				u2--;
-				tool.drawLine(u1, v, u2, v); // fill scan-line
-			}
-			if (v > 0) {
-				if (u1 > 0) {
-					if (matches(accessor,u1-1,v-1,origValues)) {
-						pushUV(u1-1, v-1);
-					}
-				}
-				if (u2 < maxU) {
-					if (matches(accessor,u2+1,v-1,origValues)) {
-						pushUV(u2+1, v-1);
-					}
-				}
-			}
-			if (v < maxV) {
-				if (u1 > 0) {
-					if (matches(accessor,u1-1,v+1,origValues)) {
-						pushUV(u1-1, v+1);
-					}
-				}
-				if (u2 < maxU) {
-					if (matches(accessor,u2+1,v+1,origValues)) {
-						pushUV(u2+1, v+1);
-					}
-				}
-			}
-			// find scan-lines above this one
-			boolean inScanLine = false;
-			for (long i=u1; i<=u2; i++) {
-				if (!inScanLine && v>0 && matches(accessor,i,v-1,origValues))
-					{pushUV(i, v-1); inScanLine = true;}
-				else if (inScanLine && v>0 &&
-									!matches(accessor,i,v-1,origValues))
-					inScanLine = false;
-			}
-			// find scan-lines below this one
-			inScanLine = false;
-			for (long i=u1; i<=u2; i++) {
-				if (!inScanLine && v<maxV &&
-							matches(accessor,i,v+1,origValues))
-					{pushUV(i, v+1); inScanLine = true;}
-				else if (inScanLine && v<maxV &&
-									!matches(accessor,i,v+1,origValues))
-					inScanLine = false;
-			}
-		}
-		// System.out.println("Stack allocated (but not necessarily used) "+uStack.stack.length);
-		return true;
+		return fill(u0, v0, position, true);
 	}
 
 	// NOTE - ported from IJ1 but not yet in use anywhere
@@ -286,6 +164,124 @@ else if (inScanLine && v<maxV && !inParticle(acc,i,v+1,level1,level2))
 	
 	// -- private helpers --
 
+	/**
+	 * Fills the region of pixels connected to (u0,v0) whose channel values all
+	 * equal those of (u0,v0). Rows of the plane are read as arrays and compared
+	 * once, the region is collected as spans in a bit set of visited pixels, and
+	 * the fill value is then written back a row segment at a time.
+	 */
+	private boolean fill(final long u0, final long v0, final long[] position,
+		final boolean eightConnected)
+	{
+		final Dataset ds = tool.getDataset();
+		uAxis = tool.getUAxis();
+		vAxis = tool.getVAxis();
+		final RowAccess rows = new RowAccess(ds.getImgPlus(), uAxis, vAxis);
+		final int width = rows.getWidth();
+		final int height = rows.getHeight();
+		final int numChannels =
+			channelAxis == -1 ? 1 : (int) ds.dimension(channelAxis);
+		final long[] planes = new long[numChannels];
+		for (int c = 0; c < numChannels; c++) {
+			planes[c] = planeIndex(ds, position, c);
+		}
+		final ChannelCollection fillValues = tool.getChannels();
+		final double[] row = new double[width];
+		final double[] origValues = new double[numChannels];
+		boolean matchesFill = true;
+		for (int c = 0; c < numChannels; c++) {
+			rows.read(planes[c], (int) v0, row);
+			origValues[c] = row[(int) u0];
+			if (origValues[c] != fillValues.getChannelValue(c)) matchesFill = false;
+		}
+		// avoid degenerate case
+		if (matchesFill) return false;
+
+		final Spans spans = new Spans(rows, planes, origValues);
+		final int maxU = width - 1;
+		final int maxV = height - 1;
+		int minRow = (int) v0;
+		int maxRow = (int) v0;
+		clearUV();
+		pushUV(u0, v0);
+		while (!uStack.isEmpty()) {
+			final int u = (int) popU();
+			final int v = (int) popV();
+			if (!spans.isFillable(u, v)) continue;
+			int u1 = u;
+			int u2 = u;
+			// find start of scan-line
+			while (u1 > 0 && spans.isFillable(u1 - 1, v)) u1--;
+			// find end of scan-line
+			while (u2 < maxU && spans.isFillable(u2 + 1, v)) u2++;
+			spans.visit(v, u1, u2);
+			if (v < minRow) minRow = v;
+			if (v > maxRow) maxRow = v;
+			// find scan-lines above and below this one
+			final int start = eightConnected && u1 > 0 ? u1 - 1 : u1;
+			final int end = eightConnected && u2 < maxU ? u2 + 1 : u2;
+			if (v > 0) pushSpans(spans, start, end, v - 1);
+			if (v < maxV) pushSpans(spans, start, end, v + 1);
+		}
+
+		// write the visited spans, one row of one channel at a time
+		final long preferredChannel = tool.getPreferredChannel();
+		for (int v = minRow; v <= maxRow; v++) {
+			if (!spans.isVisited(v)) continue;
+			for (int c = 0; c < numChannels; c++) {
+				if (preferredChannel >= 0 && c != preferredChannel) continue;
+				final double value = fillValues.getChannelValue(c);
+				rows.read(planes[c], v, row);
+				int u = spans.nextVisited(v, 0);
+				while (u >= 0) {
+					final int runEnd = spans.nextUnvisited(v, u);
+					Arrays.fill(row, u, runEnd, value);
+					u = spans.nextVisited(v, runEnd);
+				}
+				rows.write(planes[c], v, row);
+			}
+		}
+		ds.setDirty(true);
+		return true;
+	}
+
+	/**
+	 * Pushes one seed for each run of fillable pixels within [start,end] of row
+	 * v.
+	 */
+	private void pushSpans(final Spans spans, final int start, final int end,
+		final int v)
+	{
+		boolean inScanLine = false;
+		for (int i = start; i <= end; i++) {
+			if (spans.isFillable(i, v)) {
+				if (!inScanLine) {
+					pushUV(i, v);
+					inScanLine = true;
+				}
+			}
+			else inScanLine = false;
+		}
+	}
+
+	/**
+	 * Computes the index of the plane that {@link RowAccess} uses for the given
+	 * position within the given channel.
+	 */
+	private long planeIndex(final Dataset ds, final long[] position,
+		final long channel)
+	{
+		long index = 0;
+		long stride = 1;
+		for (int d = 0; d < ds.numDimensions(); d++) {
+			if (d == uAxis || d == vAxis) continue;
+			final long pos = d == channelAxis ? channel : position[d];
+			index += stride * pos;
+			stride *= ds.dimension(d);
+		}
+		return index;
+	}
+
 	/**
 	 * Returns true if value of pixel is inside a given range
 	 */
@@ -307,57 +303,6 @@ private void setValues(DrawingTool tool, long numChan, double value) {
 		tool.setChannels(channels);
 	}
 	
-	/**
-	 * Returns true if the current pixel located at the given (u,v) coordinates is
-	 * the same as the specified color or gray values.
-	 */
-	private boolean	matches(
-		final RandomAccess<? extends RealType<?>> accessor, final long u,
-		final long v, final ChannelCollection channels)
-	{
-		accessor.setPosition(u, uAxis);
-		accessor.setPosition(v, vAxis);
-
-		// 0 channel image?
-		if (channelAxis == -1) {
-			final double val = accessor.get().getRealDouble();
-			return val == channels.getChannelValue(0);
-		}
-
-		// else image has 1 or more channels
-		long numChan = tool.getDataset().dimension(channelAxis);
-		for (long c = 0; c < numChan; c++) {
-			accessor.setPosition(c, channelAxis);
-			double value = accessor.get().getRealDouble();
-			// TODO - do we need a "near" rather than "equal" here?
-			if (value != channels.getChannelValue(c)) return false;
-		}
-		
-		return true;
-	}
-
-	/**
-	 * Records the values of all the channels at a given (u,v) coord in a Dataset.
-	 * The non-UV coords must be set on the accessor before calling this method.
-	 */
-	private ChannelCollection getValues(
-		final RandomAccess<? extends RealType<?>> accessor,
-		final long u, final long v)
-	{
-		final List<Double> channels = new LinkedList<Double>();
-		accessor.setPosition(u, uAxis);
-		accessor.setPosition(v, vAxis);
-		long numChannels = 1;
-		if (channelAxis != -1)
-			numChannels = tool.getDataset().dimension(channelAxis);
-		for (long c = 0; c < numChannels; c++) {
-			if (channelAxis != -1) accessor.setPosition(c, channelAxis);
-			final double val = accessor.get().getRealDouble();
-			channels.add(val);
-		}
-		return new ChannelCollection(channels);
-	}
-
 	/**
 	 * Pushes the specified (u,v) point on the working stacks.
 	 */
@@ -416,4 +361,96 @@ public long pop() {
 		}
 	}
 
+	/**
+	 * Tracks which pixels of a plane match the original seed values and which
+	 * have been visited by the fill, one bit per pixel. Rows are read and
+	 * compared lazily, the first time the fill reaches them.
+	 */
+	private static class Spans {
+
+		private final RowAccess rows;
+		private final long[] planes;
+		private final double[] values;
+		private final int width;
+		private final int wordsPerRow;
+		private final long[] matches;
+		private final long[] visited;
+		private final boolean[] loaded;
+		private final double[] row;
+
+		public Spans(final RowAccess rows, final long[] planes,
+			final double[] values)
+		{
+			this.rows = rows;
+			this.planes = planes;
+			this.values = values;
+			width = rows.getWidth();
+			wordsPerRow = (width + 63) >>> 6;
+			final int words = wordsPerRow * rows.getHeight();
+			matches = new long[words];
+			visited = new long[words];
+			loaded = new boolean[rows.getHeight()];
+			row = new double[width];
+		}
+
+		/** Returns true if (u,v) matches the seed and has not been visited. */
+		public boolean isFillable(final int u, final int v) {
+			if (!loaded[v]) load(v);
+			final int word = v * wordsPerRow + (u >>> 6);
+			final long bit = 1L << u;
+			return (matches[word] & bit) != 0 && (visited[word] & bit) == 0;
+		}
+
+		/** Marks pixels u1 through u2 of row v as visited. */
+		public void visit(final int v, final int u1, final int u2) {
+			for (int u = u1; u <= u2; u++) {
+				visited[v * wordsPerRow + (u >>> 6)] |= 1L << u;
+			}
+		}
+
+		/** Returns true if any pixel of row v has been visited. */
+		public boolean isVisited(final int v) {
+			return nextVisited(v, 0) >= 0;
+		}
+
+		/** Returns the first visited pixel of row v at or after u, or -1. */
+		public int nextVisited(final int v, final int u) {
+			for (int i = u; i < width; i++) {
+				final int word = v * wordsPerRow + (i >>> 6);
+				if (visited[word] == 0) {
+					i |= 63;
+					continue;
+				}
+				if ((visited[word] & (1L << i)) != 0) return i;
+			}
+			return -1;
+		}
+
+		/** Returns the first unvisited pixel of row v at or after u, or width. */
+		public int nextUnvisited(final int v, final int u) {
+			for (int i = u; i < width; i++) {
+				if ((visited[v * wordsPerRow + (i >>> 6)] & (1L << i)) == 0) return i;
+			}
+			return width;
+		}
+
+		private void load(final int v) {
+			final int offset = v * wordsPerRow;
+			for (int c = 0; c < planes.length; c++) {
+				rows.read(planes[c], v, row);
+				final double value = values[c];
+				for (int u = 0; u < width; u++) {
+					final boolean same = row[u] == value;
+					final long bit = 1L << u;
+					final int word = offset + (u >>> 6);
+					if (c == 0) {
+						if (same) matches[word] |= bit;
+					}
+					else if (!same) matches[word] &= ~bit;
+				}
+			}
+			loaded[v] = true;
+		}
+	}
+
 }
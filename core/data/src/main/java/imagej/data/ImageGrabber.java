@@ -73,7 +73,7 @@ public Dataset grab(DatasetView view, String outputName) {
 			throw new IllegalArgumentException("image is too big to fit into memory");
 		int xSize = (int) dims[0];
 		int ySize = (int) dims[1];
-		int[] argbPixels = view.getScreenImage().getData();
+		int[] argbPixels = screenImage.getData();
 		Dataset dataset = 
 				service.create(new UnsignedByteType(), dims, outputName,
 												new Axes[]{Axes.X, Axes.Y, Axes.CHANNEL});
@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package imagej.data;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.multithreading.Chunk;
+import net.imglib2.multithreading.SimpleMultiThreading;
+
+import org.scijava.Context;
+
+/**
+ * Runs a loop over a range of indices on several threads, each thread handling
+ * one contiguous chunk of the range. The chunks depend only upon the size of
+ * the range and the number of threads, so callers that combine per-chunk
+ * results in chunk order get the same answer on every run.
+ * <p>
+ * Chunks run on the threads of the context's {@link ParallelLoopService} and
+ * on the calling thread, which takes chunks too rather than just waiting for
+ * them. A loop can therefore be run from within another loop's body. Without
+ * a {@link ParallelLoopService} the chunks are run one after another on the
+ * calling thread.
+ * </p>
+ */
+public final class ParallelLoop {
+
+	private ParallelLoop() {
+		// prevent instantiation of utility class
+	}
+
+	/** The body of a loop, run once per chunk. */
+	public interface Body {
+
+		/**
+		 * Processes the indices from {@code start} up to but not including
+		 * {@code start + count}.
+		 *
+		 * @param chunk The index of the chunk, from 0 to the number of chunks - 1.
+		 */
+		void run(int chunk, long start, long count);
+	}
+
+	/**
+	 * Gets the number of threads ImageJ is configured to use for parallel work.
+	 * Falls back to the number of available processors if the context has no
+	 * {@link ParallelLoopService}.
+	 *
+	 * @see ParallelLoopService#getThreadCount()
+	 */
+	public static int getThreadCount(final Context context) {
+		final ParallelLoopService service = service(context);
+		if (service != null) return service.getThreadCount();
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/** Gets the number of chunks a range of the given size will be split into. */
+	public static int getChunkCount(final long size, final int threadCount) {
+		if (size <= 0) return 0;
+		return (int) Math.max(1, Math.min(threadCount, size));
+	}
+
+	/**
+	 * Runs the given body over the indices 0 to {@code size - 1}, split into at
+	 * most {@code threadCount} chunks, on the threads of the given context.
+	 * Returns once every chunk is done. If any chunk throws, the first such
+	 * exception is rethrown.
+	 */
+	public static void run(final Context context, final long size,
+		final int threadCount, final Body body)
+	{
+		final ParallelLoopService service = service(context);
+		if (service != null && getChunkCount(size, threadCount) > 1) {
+			service.run(size, threadCount, body);
+		}
+		else runOn(null, size, threadCount, body);
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Runs the chunks of a loop on the given executor and the calling thread,
+	 * or only on the calling thread if the executor is null.
+	 */
+	static void runOn(final Executor executor, final long size,
+		final int threadCount, final Body body)
+	{
+		final int chunkCount = getChunkCount(size, threadCount);
+		if (chunkCount == 0) return;
+		if (chunkCount == 1) {
+			body.run(0, 0, size);
+			return;
+		}
+		final ArrayList<Chunk> chunks =
+			SimpleMultiThreading.divideIntoChunks(size, chunkCount);
+		final Throwable[] failures = new Throwable[chunks.size()];
+		final AtomicInteger nextChunk = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(chunks.size());
+		final Runnable worker = new Runnable() {
+
+			@Override
+			public void run() {
+				while (true) {
+					final int chunk = nextChunk.getAndIncrement();
+					if (chunk >= failures.length) return;
+					try {
+						body.run(chunk, chunks.get(chunk).getStartPosition(), chunks
+							.get(chunk).getLoopSize());
+					}
+					catch (final Throwable t) {
+						failures[chunk] = t;
+					}
+					finally {
+						done.countDown();
+					}
+				}
+			}
+		};
+		if (executor != null) {
+			// the calling thread is one of the workers
+			for (int i = 1; i < chunks.size(); i++) {
+				try {
+					executor.execute(worker);
+				}
+				catch (final RejectedExecutionException e) {
+					break;
+				}
+			}
+		}
+		worker.run();
+		awaitUninterruptibly(done);
+		for (final Throwable t : failures) {
+			if (t == null) continue;
+			if (t instanceof RuntimeException) throw (RuntimeException) t;
+			if (t instanceof Error) throw (Error) t;
+			throw new IllegalStateException(t);
+		}
+	}
+
+	private static ParallelLoopService service(final Context context) {
+		if (context == null) return null;
+		return context.getService(ParallelLoopService.class);
+	}
+
+	private static void awaitUninterruptibly(final CountDownLatch latch) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				latch.await();
+				break;
+			}
+			catch (final InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+}
@@ -0,0 +1,473 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package imagej.data;
+
+import net.imglib2.Interval;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.PlanarAccess;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Direct access to the primitive array storage of one XY plane of an
+ * {@link Img}.
+ * <p>
+ * Planes are numbered the same way as {@link Dataset#getPlane(int)}: the
+ * combined index of all dimensions beyond X and Y, with the third dimension
+ * varying fastest. Storage is available for planar and array images whose
+ * pixels each occupy exactly one primitive array element, i.e. the 8, 16, 32
+ * and 64 bit integer types and the float and double types. Packed types (such
+ * as 1 and 12 bit) and other containers (such as cell images) are not
+ * supported; callers should fall back to cursors for those.
+ * </p>
+ */
+public final class PlaneStorage {
+
+	/** The kinds of primitive pixel storage supported. */
+	public enum Kind {
+		BYTE(true), UBYTE(false), SHORT(true), USHORT(false), INT(true),
+			UINT(false), LONG(true), FLOAT(true), DOUBLE(true);
+
+		private final boolean signed;
+
+		private Kind(final boolean signed) {
+			this.signed = signed;
+		}
+
+		/** Whether values of this kind can be negative. */
+		public boolean isSigned() {
+			return signed;
+		}
+
+		/** Whether values of this kind are integers. */
+		public boolean isInteger() {
+			return this != FLOAT && this != DOUBLE;
+		}
+	}
+
+	// -- instance variables --
+
+	private final Kind kind;
+	private final Object array;
+	private final int offset;
+	private final int length;
+
+	// -- constructor --
+
+	private PlaneStorage(final Kind kind, final Object array, final int offset,
+		final int length)
+	{
+		this.kind = kind;
+		this.array = array;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	// -- static utility methods --
+
+	/**
+	 * Gets the kind of primitive storage used for the given type, or null if
+	 * pixels of that type do not map one to one onto array elements.
+	 */
+	public static Kind getKind(final RealType<?> type) {
+		final Class<?> c = type.getClass();
+		if (c == ByteType.class) return Kind.BYTE;
+		if (c == UnsignedByteType.class) return Kind.UBYTE;
+		if (c == ShortType.class) return Kind.SHORT;
+		if (c == UnsignedShortType.class) return Kind.USHORT;
+		if (c == IntType.class) return Kind.INT;
+		if (c == UnsignedIntType.class) return Kind.UINT;
+		if (c == LongType.class) return Kind.LONG;
+		if (c == FloatType.class) return Kind.FLOAT;
+		if (c == DoubleType.class) return Kind.DOUBLE;
+		return null;
+	}
+
+	/** Gets the number of pixels in one XY plane of the given interval. */
+	public static long getPlaneSize(final Interval interval) {
+		final int n = interval.numDimensions();
+		if (n == 0) return 1;
+		final long w = interval.dimension(0);
+		final long h = n > 1 ? interval.dimension(1) : 1;
+		return w * h;
+	}
+
+	/** Gets the number of XY planes in the given interval. */
+	public static long getPlaneCount(final Interval interval) {
+		long count = 1;
+		for (int d = 2; d < interval.numDimensions(); d++) {
+			count *= interval.dimension(d);
+		}
+		return count;
+	}
+
+	/**
+	 * Gets whether the storage of every plane of the given image is available
+	 * through {@link #get(Img, long)}.
+	 */
+	public static boolean isSupported(final Img<? extends RealType<?>> img) {
+		final Img<?> container = unwrap(img);
+		if (getKind(img.firstElement()) == null) return false;
+		if (getPlaneSize(img) > Integer.MAX_VALUE) return false;
+		return container instanceof PlanarAccess || container instanceof ArrayImg;
+	}
+
+	/**
+	 * Gets the storage of the given plane of an image, or null if it cannot be
+	 * accessed directly.
+	 */
+	public static PlaneStorage get(final Img<? extends RealType<?>> img,
+		final long planeIndex)
+	{
+		if (!isSupported(img)) return null;
+		final Kind kind = getKind(img.firstElement());
+		final int planeSize = (int) getPlaneSize(img);
+		final Img<?> container = unwrap(img);
+		if (container instanceof PlanarAccess) {
+			final Object plane =
+				((PlanarAccess<?>) container).getPlane((int) planeIndex);
+			if (!(plane instanceof ArrayDataAccess)) return null;
+			final Object array = ((ArrayDataAccess<?>) plane).getCurrentStorageArray();
+			return new PlaneStorage(kind, array, 0, planeSize);
+		}
+		final long offset = planeIndex * planeSize;
+		if (offset + planeSize > Integer.MAX_VALUE) return null;
+		final Object access = ((ArrayImg<?, ?>) container).update(null);
+		if (!(access instanceof ArrayDataAccess)) return null;
+		final Object array = ((ArrayDataAccess<?>) access).getCurrentStorageArray();
+		return new PlaneStorage(kind, array, (int) offset, planeSize);
+	}
+
+	/**
+	 * Copies every plane of one image into another of the same dimensions,
+	 * directly between storage arrays. Pixels are copied verbatim when both
+	 * images are of the same type, and converted the way
+	 * {@link RealType#setReal(double)} would otherwise, without clamping.
+	 *
+	 * @return false if either image's storage is not accessible, or if the
+	 *         images differ in their dimensions, in which case nothing is
+	 *         copied.
+	 */
+	public static boolean copy(final Img<? extends RealType<?>> input,
+		final Img<? extends RealType<?>> output)
+	{
+		if (input.numDimensions() != output.numDimensions()) return false;
+		for (int d = 0; d < input.numDimensions(); d++) {
+			if (input.dimension(d) != output.dimension(d)) return false;
+		}
+		if (!isSupported(input) || !isSupported(output)) return false;
+		final long planeCount = getPlaneCount(output);
+		for (long p = 0; p < planeCount; p++) {
+			final PlaneStorage src = get(input, p);
+			final PlaneStorage dst = get(output, p);
+			if (src == null || dst == null) return false;
+			src.copyTo(dst);
+		}
+		return true;
+	}
+
+	// -- PlaneStorage methods --
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/** Gets the primitive array holding the plane. */
+	public Object getArray() {
+		return array;
+	}
+
+	/** Gets the index of the first pixel of the plane within the array. */
+	public int getOffset() {
+		return offset;
+	}
+
+	/** Gets the number of pixels in the plane. */
+	public int getLength() {
+		return length;
+	}
+
+	/** Gets the value of the i-th pixel of the plane. */
+	public double getReal(final int i) {
+		final int index = offset + i;
+		switch (kind) {
+			case BYTE:
+				return ((byte[]) array)[index];
+			case UBYTE:
+				return ((byte[]) array)[index] & 0xff;
+			case SHORT:
+				return ((short[]) array)[index];
+			case USHORT:
+				return ((short[]) array)[index] & 0xffff;
+			case INT:
+				return ((int[]) array)[index];
+			case UINT:
+				return ((int[]) array)[index] & 0xffffffffL;
+			case LONG:
+				return ((long[]) array)[index];
+			case FLOAT:
+				return ((float[]) array)[index];
+			default:
+				return ((double[]) array)[index];
+		}
+	}
+
+	/**
+	 * Sets the value of the i-th pixel of the plane. Integer kinds round the
+	 * value half away from zero and then truncate it to their width, as
+	 * {@link RealType#setReal(double)} does; no clamping is done.
+	 */
+	public void setReal(final int i, final double value) {
+		final int index = offset + i;
+		switch (kind) {
+			case BYTE:
+			case UBYTE:
+				((byte[]) array)[index] = (byte) round(value);
+				break;
+			case SHORT:
+			case USHORT:
+				((short[]) array)[index] = (short) round(value);
+				break;
+			case INT:
+			case UINT:
+				((int[]) array)[index] = (int) round(value);
+				break;
+			case LONG:
+				((long[]) array)[index] = round(value);
+				break;
+			case FLOAT:
+				((float[]) array)[index] = (float) value;
+				break;
+			default:
+				((double[]) array)[index] = value;
+		}
+	}
+
+	/**
+	 * Gets the values of {@code count} consecutive pixels of the plane, starting
+	 * with the i-th, into the given array.
+	 */
+	public void getReals(final int i, final double[] values, final int count) {
+		final int start = offset + i;
+		switch (kind) {
+			case BYTE: {
+				final byte[] a = (byte[]) array;
+				for (int j = 0; j < count; j++) {
+					values[j] = a[start + j];
+				}
+				break;
+			}
+			case UBYTE: {
+				final byte[] a = (byte[]) array;
+				for (int j = 0; j < count; j++) {
+					values[j] = a[start + j] & 0xff;
+				}
+				break;
+			}
+			case SHORT: {
+				final short[] a = (short[]) array;
+				for (int j = 0; j < count; j++) {
+					values[j] = a[start + j];
+				}
+				break;
+			}
+			case USHORT: {
+				final short[] a = (short[]) array;
+				for (int j = 0; j < count; j++) {
+					values[j] = a[start + j] & 0xffff;
+				}
+				break;
+			}
+			case INT: {
+				final int[] a = (int[]) array;
+				for (int j = 0; j < count; j++) {
+					values[j] = a[start + j];
+				}
+				break;
+			}
+			case UINT: {
+				final int[] a = (int[]) array;
+				for (int j = 0; j < count; j++) {
+					values[j] = a[start + j] & 0xffffffffL;
+				}
+				break;
+			}
+			case LONG: {
+				final long[] a = (long[]) array;
+				for (int j = 0; j < count; j++) {
+					values[j] = a[start + j];
+				}
+				break;
+			}
+			case FLOAT: {
+				final float[] a = (float[]) array;
+				for (int j = 0; j < count; j++) {
+					values[j] = a[start + j];
+				}
+				break;
+			}
+			default:
+				System.arraycopy(array, start, values, 0, count);
+		}
+	}
+
+	/**
+	 * Sets {@code count} consecutive pixels of the plane, starting with the i-th,
+	 * from the given array. Values are converted as by
+	 * {@link #setReal(int, double)}.
+	 */
+	public void setReals(final int i, final double[] values, final int count) {
+		final int start = offset + i;
+		switch (kind) {
+			case BYTE:
+			case UBYTE: {
+				final byte[] a = (byte[]) array;
+				for (int j = 0; j < count; j++) {
+					a[start + j] = (byte) round(values[j]);
+				}
+				break;
+			}
+			case SHORT:
+			case USHORT: {
+				final short[] a = (short[]) array;
+				for (int j = 0; j < count; j++) {
+					a[start + j] = (short) round(values[j]);
+				}
+				break;
+			}
+			case INT:
+			case UINT: {
+				final int[] a = (int[]) array;
+				for (int j = 0; j < count; j++) {
+					a[start + j] = (int) round(values[j]);
+				}
+				break;
+			}
+			case LONG: {
+				final long[] a = (long[]) array;
+				for (int j = 0; j < count; j++) {
+					a[start + j] = round(values[j]);
+				}
+				break;
+			}
+			case FLOAT: {
+				final float[] a = (float[]) array;
+				for (int j = 0; j < count; j++) {
+					a[start + j] = (float) values[j];
+				}
+				break;
+			}
+			default:
+				System.arraycopy(values, 0, array, start, count);
+		}
+	}
+
+	/**
+	 * Copies this plane into another plane of the same size. Storage of the
+	 * same kind is copied with {@link System#arraycopy}; otherwise each value
+	 * is converted as by {@link #setReal(int, double)}.
+	 */
+	public void copyTo(final PlaneStorage other) {
+		if (other.length != length) {
+			throw new IllegalArgumentException("Plane sizes differ: " + length +
+				" vs. " + other.length);
+		}
+		if (other.kind == kind) {
+			System.arraycopy(array, offset, other.array, other.offset, length);
+			return;
+		}
+		for (int i = 0; i < length; i++) {
+			other.setReal(i, getReal(i));
+		}
+	}
+
+	/** Creates a new primitive array holding a copy of the plane. */
+	public Object copyOfPlane() {
+		final Object copy;
+		switch (kind) {
+			case BYTE:
+			case UBYTE:
+				copy = new byte[length];
+				break;
+			case SHORT:
+			case USHORT:
+				copy = new short[length];
+				break;
+			case INT:
+			case UINT:
+				copy = new int[length];
+				break;
+			case LONG:
+				copy = new long[length];
+				break;
+			case FLOAT:
+				copy = new float[length];
+				break;
+			default:
+				copy = new double[length];
+		}
+		System.arraycopy(array, offset, copy, 0, length);
+		return copy;
+	}
+
+	// -- Helper methods --
+
+	/** Gets the container beneath any {@link ImgPlus} wrappers of an image. */
+	static Img<?> unwrap(final Img<?> img) {
+		Img<?> container = img;
+		while (container instanceof ImgPlus) {
+			container = ((ImgPlus<?>) container).getImg();
+		}
+		return container;
+	}
+
+	/** Rounds half away from zero, like ImgLib's integer types do. */
+	private static long round(final double value) {
+		return (long) (value + (value < 0 ? -0.5 : 0.5));
+	}
+
+}
@@ -0,0 +1,219 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.basictypeaccess.PlanarAccess;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Reads and writes rows of the planes of an image as arrays of doubles. By
+ * default the planes are the XY planes of the first two dimensions, but any two
+ * dimensions can be used. Rows of XY planes are copied straight out of and into
+ * the primitive storage of the image when {@link PlaneStorage} can reach it,
+ * and through a {@link RandomAccess} otherwise. Planes are numbered as in
+ * {@link PlaneStorage}, by the remaining dimensions with the lowest varying
+ * fastest.
+ * <p>
+ * A RowAccess is not thread safe; each thread should use its own.
+ * </p>
+ */
+public class RowAccess {
+
+	// -- instance variables --
+
+	private final Img<? extends RealType<?>> img;
+	private final int xAxis;
+	private final int yAxis;
+	private final int[] planeAxes;
+	private final int width;
+	private final int height;
+	private final long planeCount;
+	private final boolean direct;
+	private RandomAccess<? extends RealType<?>> access;
+	private PlaneStorage storage;
+	private long storagePlane = -1;
+
+	// -- constructor --
+
+	public RowAccess(final Img<? extends RealType<?>> img) {
+		this(img, 0, 1);
+	}
+
+	/**
+	 * Creates a RowAccess whose rows run along the given x axis and whose planes
+	 * span it and the given y axis. The y axis is ignored for one dimensional
+	 * images.
+	 */
+	public RowAccess(final Img<? extends RealType<?>> img, final int xAxis,
+		final int yAxis)
+	{
+		final int numDims = img.numDimensions();
+		final boolean hasY = numDims > 1;
+		if (xAxis < 0 || xAxis >= numDims ||
+			(hasY && (yAxis < 0 || yAxis >= numDims || yAxis == xAxis)))
+		{
+			throw new IllegalArgumentException("Invalid plane axes " + xAxis +
+				", " + yAxis);
+		}
+		if (img.dimension(xAxis) > Integer.MAX_VALUE ||
+			(hasY && img.dimension(yAxis) > Integer.MAX_VALUE))
+		{
+			throw new IllegalArgumentException("Plane is too large");
+		}
+		this.img = img;
+		this.xAxis = xAxis;
+		this.yAxis = hasY ? yAxis : -1;
+		planeAxes = new int[Math.max(0, numDims - (hasY ? 2 : 1))];
+		long count = 1;
+		for (int d = 0, i = 0; d < numDims; d++) {
+			if (d == xAxis || d == this.yAxis) continue;
+			planeAxes[i++] = d;
+			count *= img.dimension(d);
+		}
+		width = (int) img.dimension(xAxis);
+		height = hasY ? (int) img.dimension(yAxis) : 1;
+		planeCount = count;
+		direct =
+			xAxis == 0 && (!hasY || yAxis == 1) && PlaneStorage.isSupported(img);
+	}
+
+	// -- RowAccess methods --
+
+	/** Gets the number of pixels in a row. */
+	public int getWidth() {
+		return width;
+	}
+
+	/** Gets the number of rows in a plane. */
+	public int getHeight() {
+		return height;
+	}
+
+	/** Gets the number of planes. */
+	public long getPlaneCount() {
+		return planeCount;
+	}
+
+	/** Gets whether rows are copied directly from primitive storage. */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/** Reads row y of the given plane into the first width values of row. */
+	public void read(final long plane, final int y, final double[] row) {
+		final PlaneStorage planeStorage = storage(plane);
+		if (planeStorage != null) {
+			planeStorage.getReals(y * width, row, width);
+			return;
+		}
+		position(plane, y);
+		for (int x = 0; x < width; x++) {
+			access.setPosition(x, xAxis);
+			row[x] = access.get().getRealDouble();
+		}
+	}
+
+	/**
+	 * Writes the first width values of row into row y of the given plane. Values
+	 * are converted as by {@link RealType#setReal(double)}.
+	 */
+	public void write(final long plane, final int y, final double[] row) {
+		final PlaneStorage planeStorage = storage(plane);
+		if (planeStorage != null) {
+			planeStorage.setReals(y * width, row, width);
+			return;
+		}
+		position(plane, y);
+		for (int x = 0; x < width; x++) {
+			access.setPosition(x, xAxis);
+			access.get().setReal(row[x]);
+		}
+	}
+
+	// -- utility methods --
+
+	/**
+	 * Returns true if different rows of an image can be written from different
+	 * threads at once. Types whose pixels do not fill whole bytes pack several
+	 * pixels into each storage word, which neighboring rows may then share.
+	 */
+	public static boolean canWriteRowsInParallel(
+		final Img<? extends RealType<?>> img)
+	{
+		return img.firstElement().getBitsPerPixel() % 8 == 0;
+	}
+
+	/**
+	 * Returns true if different planes of an image, spanning the given x and y
+	 * axes, can be written from different threads at once. For types that do
+	 * not fill whole bytes this only holds when every XY plane of a planar image
+	 * has its own storage array.
+	 */
+	public static boolean canWritePlanesInParallel(
+		final Img<? extends RealType<?>> img, final int xAxis, final int yAxis)
+	{
+		if (canWriteRowsInParallel(img)) return true;
+		final int numDims = img.numDimensions();
+		return PlaneStorage.unwrap(img) instanceof PlanarAccess && xAxis == 0 &&
+			(numDims < 2 || yAxis == 1);
+	}
+
+	// -- private helpers --
+
+	private PlaneStorage storage(final long plane) {
+		if (!direct) return null;
+		if (plane != storagePlane) {
+			storage = PlaneStorage.get(img, plane);
+			storagePlane = plane;
+		}
+		return storage;
+	}
+
+	private void position(final long plane, final int y) {
+		if (access == null) access = img.randomAccess();
+		if (yAxis >= 0) access.setPosition(y, yAxis);
+		long index = plane;
+		for (final int d : planeAxes) {
+			final long size = img.dimension(d);
+			access.setPosition(index % size, d);
+			index /= size;
+		}
+	}
+
+}
@@ -35,7 +35,13 @@
 
 package imagej.data.animation;
 
+import imagej.data.display.DataView;
+import imagej.data.display.DatasetView;
 import imagej.data.display.ImageDisplay;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import net.imglib2.meta.Axes;
 import net.imglib2.meta.AxisType;
 
@@ -44,7 +50,8 @@
 /**
  * The Animation class takes care of running an animation along an axis.
  * Multiple animations can be running concurrently. Each animation runs in its
- * own thread.
+ * own thread. While an animation runs, the {@link DatasetView}s of its display
+ * render their planes in the background, prefetching the planes ahead.
  * 
  * @author Barry DeZonia
  * @author Curtis Rueden
@@ -57,6 +64,9 @@ public class Animation implements Runnable {
 	private boolean active;
 	private Thread thread;
 
+	/** The views switched to asynchronous rendering by this animation. */
+	private final List<DatasetView> asyncViews = new ArrayList<DatasetView>();
+
 	private AxisType axis;
 	private long first;
 	private long last;
@@ -98,6 +108,7 @@ public void start() {
 		if (axis == null) return; // no axis over which to animate
 		active = true;
 		if (thread == null) {
+			renderAsynchronously();
 			thread = new Thread(this);
 			thread.start();
 		}
@@ -114,6 +125,7 @@ public void stop() {
 				log.error("Error stopping animation", exc);
 			}
 			thread = null;
+			renderSynchronously();
 		}
 	}
 
@@ -236,6 +248,25 @@ else if (increment < 0 && currPos == first) {
 		display.setPosition(pos, axis);
 	}
 
+	/** Switches the display's dataset views to asynchronous rendering. */
+	private void renderAsynchronously() {
+		for (final DataView view : display) {
+			if (!(view instanceof DatasetView)) continue;
+			final DatasetView datasetView = (DatasetView) view;
+			if (datasetView.isAsynchronous()) continue;
+			datasetView.setAsynchronous(true);
+			asyncViews.add(datasetView);
+		}
+	}
+
+	/** Switches back the views switched to asynchronous rendering. */
+	private void renderSynchronously() {
+		for (final DatasetView view : asyncViews) {
+			view.setAsynchronous(false);
+		}
+		asyncViews.clear();
+	}
+
 	/** Ensures the position of the relevant axis is within the legal range. */
 	private void clampPosition() {
 		if (axis == null) return;
@@ -0,0 +1,317 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package imagej.data.display;
+
+import imagej.data.Dataset;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * A lazily built multi-resolution pyramid of the planes of a {@link Dataset}.
+ * <p>
+ * Level {@code n} of a plane bins the data into blocks of 2<sup>n</sup> x
+ * 2<sup>n</sup> pixels, taking either their mean or their maximum. A level is
+ * only computed the first time it is asked for, from the coarsest finer level
+ * of that plane already available (or from the data itself), and is kept until
+ * {@link #clear()} is called; typically when the data changes. The pyramids
+ * of the most recently used planes are retained, up to a fixed number of
+ * planes.
+ * </p>
+ */
+public class DatasetPyramid {
+
+	/** How the pixels of a block are combined into one pyramid pixel. */
+	public enum Mode {
+		MEAN, MAX
+	}
+
+	/** Default maximum number of planes whose pyramids are retained. */
+	public static final int DEFAULT_PLANE_CAPACITY = 32;
+
+	/** Maximum number of levels, to stay well clear of overflowing shifts. */
+	private static final int MAX_LEVELS = 30;
+
+	// -- instance variables --
+
+	private final Dataset dataset;
+
+	private final Mode mode;
+
+	private final LinkedHashMap<Long, Level[]> planes;
+
+	// -- constructors --
+
+	public DatasetPyramid(final Dataset dataset, final Mode mode) {
+		this(dataset, mode, DEFAULT_PLANE_CAPACITY);
+	}
+
+	public DatasetPyramid(final Dataset dataset, final Mode mode,
+		final int planeCapacity)
+	{
+		this.dataset = dataset;
+		this.mode = mode;
+		this.planes = new LinkedHashMap<Long, Level[]>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Long, Level[]> eldest)
+			{
+				return size() > planeCapacity;
+			}
+		};
+	}
+
+	// -- DatasetPyramid methods --
+
+	/** Gets the binning mode of the pyramid. */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Gets the coarsest pyramid level whose block size does not exceed the given
+	 * sampling step. A step of 1 maps to level 0, which is the data itself.
+	 */
+	public static int getLevelNumber(final int step) {
+		if (step <= 1) return 0;
+		return Math.min(MAX_LEVELS, 31 - Integer.numberOfLeadingZeros(step));
+	}
+
+	/**
+	 * Gets the given level of the plane at the given position, computing it if
+	 * needed. Returns null for level 0, and for levels too large to hold in a
+	 * single array; callers should then read the data itself.
+	 *
+	 * @param position The position of the plane; entries 0 and 1 are ignored.
+	 * @param levelNumber The level, where level n bins 2^n x 2^n pixels.
+	 */
+	public Level getLevel(final long[] position, final int levelNumber) {
+		if (levelNumber <= 0 || levelNumber > MAX_LEVELS) return null;
+		final long w = levelSize(dataset.dimension(0), levelNumber);
+		final long h = levelSize(dataset.dimension(1), levelNumber);
+		if (w * h > Integer.MAX_VALUE) return null;
+
+		final Long planeIndex = planeIndex(position);
+		Level[] levels = planes.get(planeIndex);
+		if (levels == null) {
+			levels = new Level[MAX_LEVELS + 1];
+			planes.put(planeIndex, levels);
+		}
+		if (levels[levelNumber] == null) {
+			// build from the coarsest level below this one already computed, which
+			// has the fewest values to bin, or else from the data
+			Level source = null;
+			for (int l = levelNumber - 1; l > 0 && source == null; l--) {
+				source = levels[l];
+			}
+			levels[levelNumber] =
+				source == null ? binData(position, levelNumber) : binLevel(source,
+					levelNumber);
+		}
+		return levels[levelNumber];
+	}
+
+	/** Discards all computed levels of all planes. */
+	public void clear() {
+		planes.clear();
+	}
+
+	// -- Helper methods --
+
+	private static long levelSize(final long size, final int levelNumber) {
+		final long blockSize = 1L << levelNumber;
+		return (size + blockSize - 1) / blockSize;
+	}
+
+	private long planeIndex(final long[] position) {
+		long index = 0;
+		long stride = 1;
+		for (int d = 2; d < position.length; d++) {
+			index += position[d] * stride;
+			stride *= dataset.dimension(d);
+		}
+		return index;
+	}
+
+	/** Bins the data of a plane directly into the given level. */
+	private Level binData(final long[] position, final int levelNumber) {
+		final int dataW = (int) dataset.dimension(0);
+		final int dataH = (int) dataset.dimension(1);
+		final RandomAccess<? extends RealType<?>> access =
+			dataset.getImgPlus().randomAccess();
+		access.setPosition(position);
+		final Binner binner = new Binner(dataW, dataH, levelNumber, levelNumber);
+		for (int y = 0; y < dataH; y++) {
+			access.setPosition(0, 0);
+			access.setPosition(y, 1);
+			for (int x = 0; x < dataW; x++) {
+				binner.add(x, access.get().getRealDouble(), 1);
+				access.fwd(0);
+			}
+			binner.endRow(y);
+		}
+		return binner.level;
+	}
+
+	/**
+	 * Bins a finer level into the given level. The number of data pixels behind
+	 * each source pixel is used as its weight, so that partial blocks at the
+	 * right and bottom edges produce the same means as binning the data.
+	 */
+	private Level binLevel(final Level source, final int levelNumber) {
+		final int shift = levelNumber - source.levelNumber;
+		final long dataW = dataset.dimension(0);
+		final long dataH = dataset.dimension(1);
+		final long srcBlock = source.getBlockSize();
+		final Binner binner =
+			new Binner(source.width, source.height, shift, levelNumber);
+		for (int y = 0; y < source.height; y++) {
+			final long rowWeight = Math.min(srcBlock, dataH - y * srcBlock);
+			final int offset = y * source.width;
+			for (int x = 0; x < source.width; x++) {
+				final long colWeight = Math.min(srcBlock, dataW - x * srcBlock);
+				binner.add(x, source.data[offset + x], colWeight * rowWeight);
+			}
+			binner.endRow(y);
+		}
+		return binner.level;
+	}
+
+	// -- Helper classes --
+
+	/** One binned level of a plane. */
+	public static class Level {
+
+		private final float[] data;
+		private final int width, height;
+		private final int levelNumber;
+
+		public Level(final int width, final int height, final int levelNumber) {
+			this.data = new float[width * height];
+			this.width = width;
+			this.height = height;
+			this.levelNumber = levelNumber;
+		}
+
+		/** Gets the level number; level n bins 2^n x 2^n data pixels. */
+		public int getLevelNumber() {
+			return levelNumber;
+		}
+
+		/** Gets the number of data pixels along each side of a block. */
+		public long getBlockSize() {
+			return 1L << levelNumber;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		/** Gets the binned value of the block containing the given data pixel. */
+		public float getValue(final long dataX, final long dataY) {
+			final int x = (int) (dataX >> levelNumber);
+			final int y = (int) (dataY >> levelNumber);
+			return data[y * width + x];
+		}
+	}
+
+	/**
+	 * Accumulates the rows of a source grid into blocks of 2^shift x 2^shift
+	 * source pixels.
+	 */
+	private class Binner {
+
+		private final int shift;
+		private final int srcHeight;
+		private final double[] sums;
+		private final double[] weights;
+		private final Level level;
+
+		public Binner(final int srcWidth, final int srcHeight, final int shift,
+			final int levelNumber)
+		{
+			this.shift = shift;
+			this.srcHeight = srcHeight;
+			final int width = (int) levelSize(srcWidth, shift);
+			final int height = (int) levelSize(srcHeight, shift);
+			level = new Level(width, height, levelNumber);
+			sums = new double[level.width];
+			weights = new double[level.width];
+			reset();
+		}
+
+		public void add(final int srcX, final double value, final long weight) {
+			final int x = srcX >> shift;
+			if (mode == Mode.MAX) {
+				if (value > sums[x]) sums[x] = value;
+			}
+			else {
+				sums[x] += value * weight;
+				weights[x] += weight;
+			}
+		}
+
+		/** Flushes the accumulated blocks if the given row ends a block row. */
+		public void endRow(final int srcY) {
+			final int blockSize = 1 << shift;
+			if ((srcY + 1) % blockSize != 0 && srcY != srcHeight - 1) return;
+			final int offset = (srcY >> shift) * level.width;
+			for (int x = 0; x < level.width; x++) {
+				final double value =
+					mode == Mode.MAX ? sums[x] : sums[x] / weights[x];
+				level.data[offset + x] = (float) value;
+			}
+			reset();
+		}
+
+		private void reset() {
+			final double initial =
+				mode == Mode.MAX ? Double.NEGATIVE_INFINITY : 0;
+			for (int x = 0; x < sums.length; x++) {
+				sums[x] = initial;
+				weights[x] = 0;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,422 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package imagej.data.display;
+
+import imagej.data.Dataset;
+import imagej.util.IntCoords;
+import imagej.util.RealCoords;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.converter.Converter;
+import net.imglib2.display.ARGBScreenImage;
+import net.imglib2.display.RealLUTConverter;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Renders a {@link Dataset} plane as a grid of fixed size screen tiles,
+ * instead of as one {@link ARGBScreenImage} spanning the whole XY plane.
+ * <p>
+ * Only the tiles requested (typically those intersecting the viewport of an
+ * {@link ImageCanvas}) are ever projected. When zoomed out, each tile samples
+ * the data with an integer step so that one tile pixel corresponds to roughly
+ * one screen pixel. Rendered tiles are kept in a bounded least recently used
+ * cache, keyed by plane position, sampling step and color mode, so that
+ * revisiting a region or plane does not project it again.
+ * </p>
+ * <p>
+ * If a {@link DatasetPyramid} is attached, zoomed out tiles are sampled from
+ * the coarsest pyramid level whose blocks do not exceed the sampling step,
+ * rather than from the full resolution data.
+ * </p>
+ */
+public class DatasetTileRenderer {
+
+	/** Default width and height of a tile, in screen pixels. */
+	public static final int DEFAULT_TILE_SIZE = 256;
+
+	/** Default maximum number of tiles kept in the cache. */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	// -- instance variables --
+
+	private final Dataset dataset;
+
+	private final List<RealLUTConverter<? extends RealType<?>>> converters;
+
+	private final int channelDimIndex;
+
+	private final int tileSize;
+
+	private int capacity;
+
+	private final LinkedHashMap<TileKey, Tile> cache;
+
+	private DatasetPyramid pyramid;
+
+	// -- constructors --
+
+	public DatasetTileRenderer(final Dataset dataset,
+		final List<RealLUTConverter<? extends RealType<?>>> converters,
+		final int channelDimIndex)
+	{
+		this(dataset, converters, channelDimIndex, DEFAULT_TILE_SIZE);
+	}
+
+	public DatasetTileRenderer(final Dataset dataset,
+		final List<RealLUTConverter<? extends RealType<?>>> converters,
+		final int channelDimIndex, final int tileSize)
+	{
+		if (tileSize <= 0) {
+			throw new IllegalArgumentException("Tile size must be > 0");
+		}
+		this.dataset = dataset;
+		this.converters = converters;
+		this.channelDimIndex = channelDimIndex;
+		this.tileSize = tileSize;
+		this.capacity = DEFAULT_CAPACITY;
+		this.cache = new LinkedHashMap<TileKey, Tile>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<TileKey, Tile> eldest)
+			{
+				return size() > DatasetTileRenderer.this.capacity;
+			}
+		};
+	}
+
+	// -- DatasetTileRenderer methods --
+
+	/** Gets the width and height of a tile, in screen pixels. */
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/** Gets the maximum number of tiles kept in the cache. */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/** Sets the maximum number of tiles kept in the cache. */
+	public void setCapacity(final int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be > 0");
+		}
+		this.capacity = capacity;
+		final Iterator<TileKey> iter = cache.keySet().iterator();
+		while (cache.size() > capacity && iter.hasNext()) {
+			iter.next();
+			iter.remove();
+		}
+	}
+
+	/** Gets the pyramid zoomed out tiles are sampled from, if any. */
+	public DatasetPyramid getPyramid() {
+		return pyramid;
+	}
+
+	/**
+	 * Sets the pyramid zoomed out tiles are sampled from. Passing null samples
+	 * all tiles from the full resolution data.
+	 */
+	public void setPyramid(final DatasetPyramid pyramid) {
+		this.pyramid = pyramid;
+		invalidate();
+	}
+
+	/** Gets the number of tiles currently cached. */
+	public int getCachedTileCount() {
+		return cache.size();
+	}
+
+	/**
+	 * Gets the data sampling step used at the given zoom factor. Zooming in never
+	 * needs more than every data pixel, so the step is 1 for zoom factors of 1 or
+	 * more.
+	 */
+	public static int getStep(final double zoomFactor) {
+		if (zoomFactor >= 1) return 1;
+		return Math.max(1, (int) Math.floor(1 / zoomFactor));
+	}
+
+	/**
+	 * Gets the tiles of the given plane which intersect the viewport of the given
+	 * canvas, rendering any of them that are not already cached.
+	 *
+	 * @param canvas The canvas whose viewport, pan and zoom define the tiles.
+	 * @param position The position of the plane; entries 0 and 1 are ignored.
+	 * @param composite Whether to composite all channels together.
+	 */
+	public List<Tile> getVisibleTiles(final ImageCanvas canvas,
+		final long[] position, final boolean composite)
+	{
+		final int step = getStep(canvas.getZoomFactor());
+		final RealCoords topLeft = canvas.panelToDataCoords(new IntCoords(0, 0));
+		final RealCoords bottomRight =
+			canvas.panelToDataCoords(new IntCoords(canvas.getViewportWidth(), canvas
+				.getViewportHeight()));
+		final long span = (long) tileSize * step;
+		final long maxCol = (dataset.dimension(0) - 1) / span;
+		final long maxRow = (dataset.dimension(1) - 1) / span;
+		final long firstCol = Math.max(0, (long) Math.floor(topLeft.x / span));
+		final long firstRow = Math.max(0, (long) Math.floor(topLeft.y / span));
+		final long lastCol =
+			Math.min(maxCol, (long) Math.floor(bottomRight.x / span));
+		final long lastRow =
+			Math.min(maxRow, (long) Math.floor(bottomRight.y / span));
+		final List<Tile> tiles = new ArrayList<Tile>();
+		for (long row = firstRow; row <= lastRow; row++) {
+			for (long col = firstCol; col <= lastCol; col++) {
+				tiles.add(getTile(position, composite, step, col, row));
+			}
+		}
+		return tiles;
+	}
+
+	/**
+	 * Gets a single tile, rendering it if it is not already cached.
+	 *
+	 * @param position The position of the plane; entries 0 and 1 are ignored.
+	 * @param composite Whether to composite all channels together.
+	 * @param step The data sampling step of the tile.
+	 * @param col The tile column, in units of tile size times step.
+	 * @param row The tile row, in units of tile size times step.
+	 */
+	public Tile getTile(final long[] position, final boolean composite,
+		final int step, final long col, final long row)
+	{
+		final TileKey key = new TileKey(position, composite, step, col, row);
+		Tile tile = cache.get(key);
+		if (tile == null) {
+			tile = render(key);
+			cache.put(key, tile);
+		}
+		return tile;
+	}
+
+	/**
+	 * Discards the cached tiles that depend on the given channel: composite tiles
+	 * and the tiles of planes at that channel position. This should be called
+	 * whenever the LUT or display range of the channel changes.
+	 */
+	public void invalidateChannel(final int c) {
+		final Iterator<TileKey> iter = cache.keySet().iterator();
+		while (iter.hasNext()) {
+			final TileKey key = iter.next();
+			if (key.composite || channelDimIndex < 0 ||
+				key.position[channelDimIndex] == c)
+			{
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Discards all cached tiles. This should be called whenever the underlying
+	 * data changes.
+	 */
+	public void invalidate() {
+		cache.clear();
+	}
+
+	// -- Helper methods --
+
+	private Tile render(final TileKey key) {
+		final int step = key.step;
+		final long span = (long) tileSize * step;
+		final long x0 = key.col * span;
+		final long y0 = key.row * span;
+		final int w =
+			(int) Math.min(tileSize, (dataset.dimension(0) - x0 + step - 1) / step);
+		final int h =
+			(int) Math.min(tileSize, (dataset.dimension(1) - y0 + step - 1) / step);
+		final ARGBScreenImage image = new ARGBScreenImage(w, h);
+		final int[] pixels = image.getData();
+
+		final long[] position = key.position.clone();
+		if (key.composite) {
+			for (int c = 0; c < converters.size(); c++) {
+				if (channelDimIndex >= 0) position[channelDimIndex] = c;
+				project(position, converters.get(c), pixels, x0, y0, w, h, step, true);
+			}
+		}
+		else {
+			final int c =
+				channelDimIndex < 0 ? 0 : (int) key.position[channelDimIndex];
+			project(position, converters.get(c), pixels, x0, y0, w, h, step, false);
+		}
+		return new Tile(image, x0, y0, step);
+	}
+
+	/**
+	 * Projects one channel of a tile region into the given ARGB pixels. When
+	 * compositing, color components are summed with those already present and
+	 * clamped at 255, matching the behavior of {@code CompositeXYProjector}.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void project(final long[] position, final Converter converter,
+		final int[] pixels, final long x0, final long y0, final int w,
+		final int h, final int step, final boolean composite)
+	{
+		final DatasetPyramid.Level level =
+			pyramid == null ? null : pyramid.getLevel(position, DatasetPyramid
+				.getLevelNumber(step));
+		final RandomAccess<? extends RealType<?>> access =
+			dataset.getImgPlus().randomAccess();
+		access.setPosition(position);
+		final FloatType binned = new FloatType();
+		final ARGBType argb = new ARGBType();
+		int index = 0;
+		for (int y = 0; y < h; y++) {
+			final long dataY = y0 + (long) y * step;
+			access.setPosition(dataY, 1);
+			access.setPosition(x0, 0);
+			for (int x = 0; x < w; x++) {
+				if (level == null) {
+					converter.convert(access.get(), argb);
+					access.move(step, 0);
+				}
+				else {
+					binned.set(level.getValue(x0 + (long) x * step, dataY));
+					converter.convert(binned, argb);
+				}
+				final int value = argb.get();
+				if (composite) {
+					final int old = pixels[index];
+					final int r = Math.min(255, ARGBType.red(old) + ARGBType.red(value));
+					final int g =
+						Math.min(255, ARGBType.green(old) + ARGBType.green(value));
+					final int b = Math.min(255, ARGBType.blue(old) + ARGBType.blue(value));
+					pixels[index] = ARGBType.rgba(r, g, b, 255);
+				}
+				else pixels[index] = value;
+				index++;
+			}
+		}
+	}
+
+	// -- Helper classes --
+
+	/** A rendered tile, along with its placement in data coordinates. */
+	public static class Tile {
+
+		private final ARGBScreenImage image;
+		private final long x, y;
+		private final int step;
+
+		public Tile(final ARGBScreenImage image, final long x, final long y,
+			final int step)
+		{
+			this.image = image;
+			this.x = x;
+			this.y = y;
+			this.step = step;
+		}
+
+		/** Gets the rendered ARGB pixels of the tile. */
+		public ARGBScreenImage getImage() {
+			return image;
+		}
+
+		/** Gets the X data coordinate of the tile's top left pixel. */
+		public long getX() {
+			return x;
+		}
+
+		/** Gets the Y data coordinate of the tile's top left pixel. */
+		public long getY() {
+			return y;
+		}
+
+		/** Gets the number of data pixels spanned by each tile pixel. */
+		public int getStep() {
+			return step;
+		}
+	}
+
+	/** Identifies a tile of a plane, at a given step and color mode. */
+	private class TileKey {
+
+		private final long[] position;
+		private final boolean composite;
+		private final int step;
+		private final long col, row;
+
+		public TileKey(final long[] position, final boolean composite,
+			final int step, final long col, final long row)
+		{
+			this.position = position.clone();
+			this.position[0] = 0;
+			this.position[1] = 0;
+			// NB - composite tiles do not depend upon the channel position
+			if (composite && channelDimIndex >= 0) {
+				this.position[channelDimIndex] = 0;
+			}
+			this.composite = composite;
+			this.step = step;
+			this.col = col;
+			this.row = row;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof TileKey)) return false;
+			final TileKey other = (TileKey) o;
+			return composite == other.composite && step == other.step &&
+				col == other.col && row == other.row &&
+				Arrays.equals(position, other.position);
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = Arrays.hashCode(position);
+			hash = 31 * hash + (composite ? 1 : 0);
+			hash = 31 * hash + step;
+			hash = 31 * hash + (int) (col ^ (col >>> 32));
+			hash = 31 * hash + (int) (row ^ (row >>> 32));
+			return hash;
+		}
+	}
+
+}
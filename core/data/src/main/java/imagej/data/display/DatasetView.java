@@ -58,10 +58,18 @@
  */
 public interface DatasetView extends DataView {
 
+	/**
+	 * Gets the screen image of the current plane. A tiled view keeps no such
+	 * image, and projects a new one each time this is called.
+	 */
 	ARGBScreenImage getScreenImage();
 
 	int getCompositeDimIndex();
 
+	/**
+	 * Gets the projector of the screen image, or null for a tiled view, whose
+	 * tiles are projected by {@link #getVisibleTiles(ImageCanvas)} instead.
+	 */
 	CompositeXYProjector<? extends RealType<?>> getProjector();
 
 	/** Gets the number of channels in the displayed data. */
@@ -146,4 +154,64 @@ public interface DatasetView extends DataView {
 
 	ColorRGB getColor(ChannelCollection channels);
 
+	/** Gets whether the view renders its current plane as cached tiles. */
+	boolean isTiled();
+
+	/**
+	 * Sets whether the view renders its current plane as cached tiles.
+	 * <p>
+	 * In tiled mode, only the tiles requested through
+	 * {@link #getVisibleTiles(ImageCanvas)} are projected. No full plane screen
+	 * image is kept: {@link #getProjector()} returns null, and
+	 * {@link #getScreenImage()} projects the whole plane anew for each call.
+	 * </p>
+	 */
+	void setTiled(boolean tiled);
+
+	/**
+	 * Gets the tiles of the current plane that intersect the viewport of the
+	 * given canvas, at its current zoom. Returns null when not in tiled mode.
+	 */
+	List<DatasetTileRenderer.Tile> getVisibleTiles(ImageCanvas canvas);
+
+	/**
+	 * Gets how zoomed out tiles are binned from the data, or null if they are
+	 * sampled from the full resolution data.
+	 */
+	DatasetPyramid.Mode getPyramidMode();
+
+	/**
+	 * Sets how zoomed out tiles are binned from the data. Tiles are then drawn
+	 * from the coarsest level of a {@link DatasetPyramid} that still meets the
+	 * display scale. Passing null samples the full resolution data instead.
+	 */
+	void setPyramidMode(DatasetPyramid.Mode mode);
+
+	/** Gets whether plane changes are rendered in the background. */
+	boolean isAsynchronous();
+
+	/**
+	 * Sets whether plane changes are rendered in the background. In asynchronous
+	 * mode, changing the position only shows the new plane immediately if it has
+	 * been rendered before; otherwise the plane is rendered on a separate thread,
+	 * rapid successive changes are coalesced, and neighboring planes are
+	 * prefetched. A {@link imagej.data.display.event.DataViewUpdatedEvent} is
+	 * published once the plane is shown. Running an
+	 * {@link imagej.data.animation.Animation} turns this mode on for as long as
+	 * the animation runs.
+	 */
+	void setAsynchronous(boolean asynchronous);
+
+	/**
+	 * Gets the number of planes on either side of the current one that are
+	 * prefetched in asynchronous mode.
+	 */
+	int getPrefetchDepth();
+
+	/**
+	 * Sets the number of planes on either side of the current one that are
+	 * prefetched in asynchronous mode.
+	 */
+	void setPrefetchDepth(int depth);
+
 }
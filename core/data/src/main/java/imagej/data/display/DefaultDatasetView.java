@@ -38,6 +38,7 @@
 import imagej.data.ChannelCollection;
 import imagej.data.Data;
 import imagej.data.Dataset;
+import imagej.data.ParallelLoop;
 import imagej.data.Position;
 import imagej.data.display.event.DataViewUpdatedEvent;
 import imagej.data.display.event.LutsChangedEvent;
@@ -67,6 +68,7 @@
 import org.scijava.event.EventHandler;
 import org.scijava.event.EventService;
 import org.scijava.plugin.Plugin;
+import org.scijava.thread.ThreadService;
 
 /**
  * A view into a {@link Dataset}, for use with a {@link ImageDisplay}.
@@ -95,6 +97,26 @@ public class DefaultDatasetView extends AbstractDataView implements DatasetView
 	private final ArrayList<RealLUTConverter<? extends RealType<?>>> converters =
 		new ArrayList<RealLUTConverter<? extends RealType<?>>>();
 
+	/** Whether all channels are composited together. */
+	private boolean composite;
+
+	/** Whether the plane is rendered as cached tiles. */
+	private boolean tiled;
+
+	/** Renders the plane as cached tiles, when in tiled mode. */
+	private DatasetTileRenderer tileRenderer;
+
+	/** How zoomed out tiles are binned, or null to sample the data. */
+	private DatasetPyramid.Mode pyramidMode = DatasetPyramid.Mode.MEAN;
+
+	/** Whether plane changes are rendered in the background. */
+	private boolean asynchronous;
+
+	private int prefetchDepth = PlaneRenderScheduler.DEFAULT_PREFETCH_DEPTH;
+
+	/** Renders planes in the background, when in asynchronous mode. */
+	private PlaneRenderScheduler scheduler;
+
 	// -- DatasetView methods --
 
 	@Override
@@ -105,6 +127,8 @@ public int getChannelCount() {
 
 	@Override
 	public ARGBScreenImage getScreenImage() {
+		// NB - a tiled view keeps no full plane, so project one for each request
+		if (tileRenderer != null) return projectPlane();
 		return screenImage;
 	}
 
@@ -138,6 +162,8 @@ public void setChannelRange(final int c, final double min, final double max) {
 
 		converters.get(c).setMin(min);
 		converters.get(c).setMax(max);
+		if (tileRenderer != null) tileRenderer.invalidateChannel(c);
+		if (scheduler != null) scheduler.cancel();
 	}
 
 	@Override
@@ -174,7 +200,8 @@ public void autoscale(final int c) {
 	public void setComposite(final boolean composite) {
 		if (!isInitialized()) return;
 
-		projector.setComposite(composite);
+		this.composite = composite;
+		if (projector != null) projector.setComposite(composite);
 	}
 
 	@Override
@@ -213,7 +240,6 @@ public void resetColorTables(final boolean grayscale) {
 
 	@Override
 	public ColorMode getColorMode() {
-		final boolean composite = projector.isComposite();
 		if (composite) {
 			return ColorMode.COMPOSITE;
 		}
@@ -232,8 +258,77 @@ public void setColorMode(final ColorMode colorMode) {
 		if (!isInitialized()) return;
 
 		resetColorTables(colorMode == ColorMode.GRAYSCALE);
-		projector.setComposite(colorMode == ColorMode.COMPOSITE);
-		projector.map();
+		setComposite(colorMode == ColorMode.COMPOSITE);
+		map();
+	}
+
+	@Override
+	public boolean isTiled() {
+		return tiled;
+	}
+
+	@Override
+	public void setTiled(final boolean tiled) {
+		if (this.tiled == tiled) return;
+		this.tiled = tiled;
+		if (isInitialized()) rebuild();
+	}
+
+	@Override
+	public List<DatasetTileRenderer.Tile> getVisibleTiles(
+		final ImageCanvas canvas)
+	{
+		if (tileRenderer == null) return null;
+
+		final long[] position = new long[getData().numDimensions()];
+		for (int d = 2; d < position.length; d++) {
+			position[d] = getLongPosition(getData().axis(d));
+		}
+		return tileRenderer.getVisibleTiles(canvas, position, composite);
+	}
+
+	@Override
+	public DatasetPyramid.Mode getPyramidMode() {
+		return pyramidMode;
+	}
+
+	@Override
+	public void setPyramidMode(final DatasetPyramid.Mode mode) {
+		if (pyramidMode == mode) return;
+		pyramidMode = mode;
+		if (tileRenderer != null) tileRenderer.setPyramid(createPyramid());
+	}
+
+	@Override
+	public boolean isAsynchronous() {
+		return asynchronous;
+	}
+
+	@Override
+	public void setAsynchronous(final boolean asynchronous) {
+		if (this.asynchronous == asynchronous) return;
+		this.asynchronous = asynchronous;
+		// NB - a tiled view has no plane to render, and will get its scheduler
+		// if it is rebuilt untiled
+		if (projector == null) return;
+		if (asynchronous) createScheduler();
+		else if (scheduler != null) {
+			scheduler.dispose();
+			scheduler = null;
+			// NB - the last requested plane may not have been shown yet
+			map();
+		}
+	}
+
+	@Override
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+
+	@Override
+	public void setPrefetchDepth(final int depth) {
+		prefetchDepth = depth;
+		if (scheduler != null) scheduler.setPrefetchDepth(depth);
 	}
 
 	// TODO - add this kind of mapping code to the Imglib Projector classes. Here
@@ -305,12 +400,12 @@ public Dataset getData() {
 
 	@Override
 	public int getPreferredWidth() {
-		return getScreenImage().image().getWidth(null);
+		return (int) getData().dimension(0);
 	}
 
 	@Override
 	public int getPreferredHeight() {
-		return getScreenImage().image().getHeight(null);
+		return (int) getData().dimension(1);
 	}
 
 	@Override
@@ -318,6 +413,12 @@ public void update() {
 		publish(new DataViewUpdatedEvent(this));
 	}
 
+	@Override
+	public void dispose() {
+		if (scheduler != null) scheduler.dispose();
+		super.dispose();
+	}
+
 	@Override
 	public void rebuild() {
 		// NB: Make sure any calls to updateLUTs are ignored. If they happen before
@@ -337,12 +438,12 @@ public void rebuild() {
 
 		final int width = (int) img.dimension(0);
 		final int height = (int) img.dimension(1);
-		screenImage = new ARGBScreenImage(width, height);
+		screenImage = tiled ? null : new ARGBScreenImage(width, height);
 
 		initializeView(isComposite());
 
 		updateLUTs();
-		projector.map();
+		map();
 	}
 
 	// -- PositionableByAxis methods --
@@ -354,6 +455,7 @@ public long getLongPosition(final AxisType axis) {
 		if (Axes.isXY(axis)) return 0;
 		final int dim = getData().getAxisIndex(axis);
 		if (dim < 0) return 0;
+		if (projector == null) return super.getLongPosition(axis);
 		// It is possible that projector is out of sync with data or view. Choose a
 		// sensible default value to avoid exceptions.
 		if (dim >= projector.numDimensions()) return 0;
@@ -367,18 +469,19 @@ public void setPosition(final long position, final AxisType axis) {
 		if (Axes.isXY(axis)) return;
 		final int dim = getData().getAxisIndex(axis);
 		if (dim < 0) return;
-		final long currentValue = projector.getLongPosition(dim);
+		final long currentValue = getLongPosition(axis);
 		if (position == currentValue) {
 			return; // no change
 		}
-		projector.setPosition(position, dim);
+		if (projector != null) projector.setPosition(position, dim);
 
 		// update color tables
 		if (dim != channelDimIndex) {
 			updateLUTs();
 		}
 
-		projector.map();
+		if (scheduler != null) renderAsynchronously(dim);
+		else map();
 
 		super.setPosition(position, axis);
 	}
@@ -410,7 +513,13 @@ protected void onEvent(final DatasetUpdatedEvent event) {
 		}
 		if (getData() == event.getObject()) {
 			if (event.isMetaDataOnly()) return;
-			projector.map();
+			if (tileRenderer != null) {
+				final DatasetPyramid pyramid = tileRenderer.getPyramid();
+				if (pyramid != null) pyramid.clear();
+				tileRenderer.invalidate();
+			}
+			if (scheduler != null) scheduler.invalidate();
+			map();
 		}
 	}
 
@@ -425,13 +534,16 @@ private boolean isComposite() {
 	}
 
 	private boolean isInitialized() {
-		return projector != null;
+		return projector != null || tileRenderer != null;
 	}
 
 	/** Uninitializes the view. */
 	private void uninitializeView() {
 		converters.clear();
 		projector = null;
+		tileRenderer = null;
+		if (scheduler != null) scheduler.dispose();
+		scheduler = null;
 	}
 
 	/** Initializes the view. */
@@ -446,19 +558,149 @@ private void initializeView(final boolean composite) {
 					getData().getImgPlus().getChannelMaximum(c), null);
 			converters.add(converter);
 		}
+		this.composite = composite;
+		if (tiled) {
+			tileRenderer =
+				new DatasetTileRenderer(getData(), converters, channelDimIndex);
+			tileRenderer.setPyramid(createPyramid());
+		}
+		else {
+			createProjector();
+			if (asynchronous) createScheduler();
+		}
+	}
+
+	/**
+	 * Creates the scheduler which renders planes in the background. Rendered
+	 * planes are handed over to the event dispatch thread to be shown.
+	 */
+	private void createScheduler() {
+		final PlaneShower shower = new PlaneShower();
+		scheduler =
+			new PlaneRenderScheduler(getData(), converters, channelDimIndex,
+				ParallelLoop.getThreadCount(getContext()),
+				PlaneRenderScheduler.DEFAULT_CAPACITY, shower,
+				new PlaneRenderScheduler.ColorTableSource() {
+
+					@Override
+					public ColorTable getColorTable(final long[] position,
+						final int channel)
+					{
+						final Position pos = getPlanePosition();
+						for (int d = 2; d < position.length; d++) {
+							pos.setPosition(position[d], d - 2);
+						}
+						return getLUT(pos, channel);
+					}
+				});
+		shower.source = scheduler;
+		scheduler.setPrefetchDepth(prefetchDepth);
+	}
+
+	/**
+	 * Runs the given code on the event dispatch thread, or right away if there
+	 * is no {@link ThreadService} to do so.
+	 */
+	private void queue(final Runnable runnable) {
+		final Context context = getContext();
+		final ThreadService threadService =
+			context == null ? null : context.getService(ThreadService.class);
+		if (threadService == null) runnable.run();
+		else threadService.queue(runnable);
+	}
+
+	/**
+	 * Shows the current plane from the scheduler's cache if it is there, or
+	 * else requests that it be rendered. Either way, the neighbors of the plane
+	 * along the given dimension are prefetched.
+	 */
+	private void renderAsynchronously(final int dim) {
+		final long[] position = new long[getData().numDimensions()];
+		for (int d = 2; d < position.length; d++) {
+			position[d] = projector.getLongPosition(d);
+		}
+		final int[] cached = scheduler.getCached(position, composite);
+		if (cached != null) showPlane(cached);
+		scheduler.request(position, composite, dim);
+	}
+
+	private boolean isCurrentPlane(final long[] position) {
+		final CompositeXYProjector<? extends RealType<?>> proj = projector;
+		if (proj == null) return false;
+		for (int d = 2; d < position.length; d++) {
+			if (composite && d == channelDimIndex) continue;
+			if (proj.getLongPosition(d) != position[d]) return false;
+		}
+		return true;
+	}
+
+	/** Copies rendered pixels into the screen image. */
+	private void showPlane(final int[] pixels) {
+		final ARGBScreenImage image = screenImage;
+		if (image == null) return;
+		synchronized (image) {
+			final int[] data = image.getData();
+			if (data.length != pixels.length) return;
+			System.arraycopy(pixels, 0, data, 0, pixels.length);
+		}
+	}
+
+	/** Creates the projector which maps the plane into the screen image. */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void createProjector() {
 		projector =
-			new CompositeXYProjector(getData().getImgPlus(), screenImage, converters,
-				channelDimIndex);
+			new MultithreadedCompositeXYProjector(getData().getImgPlus(),
+				screenImage, converters, channelDimIndex, getContext(), ParallelLoop
+					.getThreadCount(getContext()));
 		projector.setComposite(composite);
 	}
 
+	/**
+	 * Projects the current plane of a tiled view into a new full plane screen
+	 * image, for consumers that need the whole plane at once. Neither the image
+	 * nor its projector is kept.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private ARGBScreenImage projectPlane() {
+		final Dataset dataset = getData();
+		final ARGBScreenImage image =
+			new ARGBScreenImage((int) dataset.dimension(0), (int) dataset
+				.dimension(1));
+		final CompositeXYProjector<? extends RealType<?>> planeProjector =
+			new MultithreadedCompositeXYProjector(dataset.getImgPlus(), image,
+				converters, channelDimIndex, getContext(), ParallelLoop
+					.getThreadCount(getContext()));
+		planeProjector.setComposite(composite);
+		for (int d = 2; d < dataset.numDimensions(); d++) {
+			planeProjector.setPosition(super.getLongPosition(dataset.axis(d)), d);
+		}
+		planeProjector.map();
+		return image;
+	}
+
+	private DatasetPyramid createPyramid() {
+		if (pyramidMode == null) return null;
+		return new DatasetPyramid(getData(), pyramidMode);
+	}
+
+	/** Projects the full plane screen image, if there is one. */
+	private void map() {
+		if (projector != null) projector.map();
+	}
+
 	private void updateLUTs() {
 		if (!isInitialized()) return;
 
 		final int channelCount = getChannelCount();
 		for (int c = 0; c < channelCount; c++) {
 			final ColorTable lut = getCurrentLUT(c);
-			converters.get(c).setLUT(lut);
+			final RealLUTConverter<? extends RealType<?>> converter =
+				converters.get(c);
+			if (converter.getLUT() != lut) {
+				if (tileRenderer != null) tileRenderer.invalidateChannel(c);
+				if (scheduler != null) scheduler.cancel();
+			}
+			converter.setLUT(lut);
 		}
 
 		final Context context = getContext();
@@ -469,7 +711,11 @@ private void updateLUTs() {
 	}
 
 	private ColorTable getCurrentLUT(final int cPos) {
-		final Position pos = getPlanePosition();
+		return getLUT(getPlanePosition(), cPos);
+	}
+
+	/** Gets the LUT of a channel of the plane at the given position. */
+	private ColorTable getLUT(final Position pos, final int cPos) {
 		if (channelDimIndex >= 0) {
 			pos.setPosition(cPos, channelDimIndex - 2);
 		}
@@ -502,4 +748,34 @@ private RandomAccessibleInterval<RealType> channelData(final Dataset d,
 			mn, mx);
 	}
 
+	// -- Helper classes --
+
+	/**
+	 * Shows planes rendered by a {@link PlaneRenderScheduler}, on the event
+	 * dispatch thread, as long as that scheduler is still the view's and the
+	 * plane is still the current one.
+	 */
+	private class PlaneShower implements PlaneRenderScheduler.Listener {
+
+		/** The scheduler whose planes are shown. */
+		private PlaneRenderScheduler source;
+
+		@Override
+		public void planeRendered(final long[] position,
+			final boolean planeComposite, final int[] pixels)
+		{
+			queue(new Runnable() {
+
+				@Override
+				public void run() {
+					if (source == null || scheduler != source) return;
+					if (planeComposite != composite) return;
+					if (!isCurrentPlane(position)) return;
+					showPlane(pixels);
+					update();
+				}
+			});
+		}
+	}
+
 }
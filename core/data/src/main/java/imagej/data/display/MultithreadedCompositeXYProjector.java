@@ -0,0 +1,242 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package imagej.data.display;
+
+import imagej.data.ParallelLoop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converter;
+import net.imglib2.display.ARGBScreenImage;
+import net.imglib2.display.CompositeXYProjector;
+import net.imglib2.display.RealLUTConverter;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.RealType;
+
+import org.scijava.Context;
+
+/**
+ * A {@link CompositeXYProjector} which maps its plane on several threads.
+ * <p>
+ * The screen image is split into stripes of rows, one per thread. Each thread
+ * owns a copy of every channel converter, which is reused across calls to
+ * {@link #map()} and refreshed from the shared converters (display range and
+ * LUT) at the start of each call.
+ * </p>
+ * <p>
+ * A map in progress can be stopped early from another thread with
+ * {@link #cancel()}, in which case the screen image is left partially mapped.
+ * </p>
+ */
+public class MultithreadedCompositeXYProjector<A extends RealType<A>> extends
+	CompositeXYProjector<A>
+{
+
+	private final RandomAccessibleInterval<A> source;
+
+	private final ARGBScreenImage target;
+
+	private final List<RealLUTConverter<A>> converters;
+
+	private final int dimIndex;
+
+	private final Context context;
+
+	private final int threadCount;
+
+	/** Per thread copies of the converters, reused from one map to the next. */
+	private final List<List<RealLUTConverter<A>>> threadConverters =
+		new ArrayList<List<RealLUTConverter<A>>>();
+
+	private volatile boolean canceled;
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public MultithreadedCompositeXYProjector(
+		final RandomAccessibleInterval<A> source, final ARGBScreenImage target,
+		final ArrayList<RealLUTConverter<A>> converters, final int dimIndex,
+		final Context context, final int threadCount)
+	{
+		super(source, target, (ArrayList) converters, dimIndex);
+		this.source = source;
+		this.target = target;
+		this.converters = converters;
+		this.dimIndex = dimIndex;
+		this.context = context;
+		this.threadCount = Math.max(1, threadCount);
+	}
+
+	// -- MultithreadedCompositeXYProjector methods --
+
+	/** Gets the number of threads used to map a plane. */
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	/** Requests that the map in progress, if any, stop as soon as possible. */
+	public void cancel() {
+		canceled = true;
+	}
+
+	/** Gets whether the most recent map was canceled before it finished. */
+	public boolean isCanceled() {
+		return canceled;
+	}
+
+	// -- XYProjector methods --
+
+	@Override
+	public void map() {
+		final int width = (int) target.dimension(0);
+		final int height = (int) target.dimension(1);
+		final int[] pixels = target.getData();
+		final long[] position = new long[source.numDimensions()];
+		for (int d = 2; d < position.length; d++) {
+			position[d] = getLongPosition(d);
+		}
+		final boolean composite = isComposite();
+		canceled = false;
+		final int chunkCount = ParallelLoop.getChunkCount(height, threadCount);
+		refreshThreadConverters(chunkCount);
+
+		ParallelLoop.run(context, height, threadCount, new ParallelLoop.Body() {
+
+			@Override
+			public void run(final int chunk, final long start, final long count) {
+				mapRows(threadConverters.get(chunk), position, composite, pixels,
+					width, (int) start, (int) count);
+			}
+		});
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Makes sure there are converter copies for the given number of threads,
+	 * matching the current settings of the shared converters.
+	 */
+	private void refreshThreadConverters(final int count) {
+		while (threadConverters.size() < count) {
+			threadConverters.add(new ArrayList<RealLUTConverter<A>>());
+		}
+		for (int t = 0; t < count; t++) {
+			final List<RealLUTConverter<A>> copies = threadConverters.get(t);
+			while (copies.size() > converters.size()) {
+				copies.remove(copies.size() - 1);
+			}
+			for (int c = 0; c < converters.size(); c++) {
+				final RealLUTConverter<A> converter = converters.get(c);
+				if (c == copies.size()) {
+					copies.add(new RealLUTConverter<A>(converter.getMin(), converter
+						.getMax(), converter.getLUT()));
+				}
+				else {
+					final RealLUTConverter<A> copy = copies.get(c);
+					copy.setMin(converter.getMin());
+					copy.setMax(converter.getMax());
+					copy.setLUT(converter.getLUT());
+				}
+			}
+		}
+	}
+
+	/** Maps a stripe of rows with the given converters. */
+	private void mapRows(final List<RealLUTConverter<A>> rowConverters,
+		final long[] position, final boolean composite, final int[] pixels,
+		final int width, final int startRow, final int rowCount)
+	{
+		final RandomAccess<A> access = source.randomAccess();
+		access.setPosition(position);
+		final int startIndex = startRow * width;
+		final int endIndex = startIndex + rowCount * width;
+		if (composite) {
+			for (int i = startIndex; i < endIndex; i++) {
+				pixels[i] = 0;
+			}
+			final int channels =
+				dimIndex < 0 ? 1 : (int) source.dimension(dimIndex);
+			for (int c = 0; c < channels; c++) {
+				if (dimIndex >= 0) access.setPosition(source.min(dimIndex) + c, dimIndex);
+				mapChannel(access, rowConverters.get(c), true, pixels, width,
+					startRow, rowCount);
+			}
+		}
+		else {
+			final int c =
+				dimIndex < 0 ? 0 : (int) (position[dimIndex] - source.min(dimIndex));
+			mapChannel(access, rowConverters.get(c), false, pixels, width, startRow,
+				rowCount);
+		}
+	}
+
+	/**
+	 * Maps one channel of a stripe of rows. When compositing, color components
+	 * are summed with those already present and clamped at 255.
+	 */
+	private void mapChannel(final RandomAccess<A> access,
+		final Converter<A, ARGBType> converter, final boolean composite,
+		final int[] pixels, final int width, final int startRow,
+		final int rowCount)
+	{
+		final ARGBType argb = new ARGBType();
+		final long minX = source.min(0);
+		final long minY = source.min(1);
+		int index = startRow * width;
+		for (int y = startRow; y < startRow + rowCount; y++) {
+			if (canceled) return;
+			access.setPosition(minY + y, 1);
+			access.setPosition(minX, 0);
+			for (int x = 0; x < width; x++) {
+				converter.convert(access.get(), argb);
+				final int value = argb.get();
+				if (composite) {
+					final int old = pixels[index];
+					final int r = Math.min(255, ARGBType.red(old) + ARGBType.red(value));
+					final int g =
+						Math.min(255, ARGBType.green(old) + ARGBType.green(value));
+					final int b = Math.min(255, ARGBType.blue(old) + ARGBType.blue(value));
+					pixels[index] = ARGBType.rgba(r, g, b, 255);
+				}
+				else pixels[index] = value;
+				index++;
+				access.fwd(0);
+			}
+		}
+	}
+
+}
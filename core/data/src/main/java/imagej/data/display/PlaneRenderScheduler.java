@@ -0,0 +1,436 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package imagej.data.display;
+
+import imagej.data.Dataset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.display.ARGBScreenImage;
+import net.imglib2.display.ColorTable;
+import net.imglib2.display.RealLUTConverter;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Renders the planes of a {@link Dataset} in the background, keeping the most
+ * recently rendered planes in a bounded cache of ARGB buffers.
+ * <p>
+ * Requests are handled one at a time on a dedicated thread. A new request
+ * supersedes any pending or running one: pending requests are dropped without
+ * rendering anything, and a running render is canceled. Each request renders
+ * with the display ranges and LUTs the shared converters had when it was
+ * made, so the converters may keep changing on the caller's thread while the
+ * render thread works from its own copies. Once the requested
+ * plane is delivered, the neighboring planes along the axis which last
+ * changed are rendered into the cache as well, so that stepping through Z or T
+ * can show them immediately.
+ * </p>
+ * <p>
+ * Cached planes are keyed by the converter settings they were rendered with,
+ * so changing the display ranges or LUTs only makes the planes rendered with
+ * other settings unreachable, rather than discarding the whole cache. Planes
+ * which have LUTs of their own are prefetched with those LUTs, as given by a
+ * {@link ColorTableSource}.
+ * </p>
+ */
+public class PlaneRenderScheduler {
+
+	/** Default number of planes prefetched on each side of the current one. */
+	public static final int DEFAULT_PREFETCH_DEPTH = 2;
+
+	/** Default maximum number of rendered planes kept in the cache. */
+	public static final int DEFAULT_CAPACITY = 16;
+
+	/** Receives planes rendered in the background. */
+	public interface Listener {
+
+		/**
+		 * Called on the render thread when the most recently requested plane has
+		 * been rendered. Implementations showing the plane must hand it over to
+		 * their own thread themselves.
+		 */
+		void planeRendered(long[] position, boolean composite, int[] pixels);
+	}
+
+	/** Supplies the LUTs with which planes are shown. */
+	public interface ColorTableSource {
+
+		/**
+		 * Gets the LUT with which the given channel of the plane at the given
+		 * position is shown. Called on the thread which makes requests.
+		 */
+		ColorTable getColorTable(long[] position, int channel);
+	}
+
+	// -- instance variables --
+
+	private final Dataset dataset;
+
+	/** The shared converters, read when a request is made. */
+	private final List<RealLUTConverter<? extends RealType<?>>> converters;
+
+	/** The render thread's copies of the converters. */
+	private final ArrayList<RealLUTConverter<? extends RealType<?>>>
+		renderConverters = new ArrayList<RealLUTConverter<? extends RealType<?>>>();
+
+	private final int channelDimIndex;
+
+	private final Listener listener;
+
+	private final ColorTableSource colorTables;
+
+	private final ARGBScreenImage scratch;
+
+	private final MultithreadedCompositeXYProjector<?> projector;
+
+	private final LinkedHashMap<PlaneKey, int[]> cache;
+
+	private final AtomicLong generation = new AtomicLong();
+
+	private final ExecutorService executor;
+
+	private int prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+
+	// -- constructor --
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public PlaneRenderScheduler(final Dataset dataset,
+		final ArrayList<RealLUTConverter<? extends RealType<?>>> converters,
+		final int channelDimIndex, final int threadCount, final int capacity,
+		final Listener listener, final ColorTableSource colorTables)
+	{
+		this.dataset = dataset;
+		this.converters = converters;
+		for (final RealLUTConverter<? extends RealType<?>> converter : converters) {
+			renderConverters.add(new RealLUTConverter(converter.getMin(), converter
+				.getMax(), converter.getLUT()));
+		}
+		this.channelDimIndex = channelDimIndex;
+		this.listener = listener;
+		this.colorTables = colorTables;
+		scratch =
+			new ARGBScreenImage((int) dataset.dimension(0), (int) dataset
+				.dimension(1));
+		projector =
+			new MultithreadedCompositeXYProjector(dataset.getImgPlus(), scratch,
+				renderConverters, channelDimIndex, dataset.getContext(), threadCount);
+		cache = new LinkedHashMap<PlaneKey, int[]>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<PlaneKey, int[]> e)
+			{
+				return size() > capacity;
+			}
+		};
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, "PlaneRenderScheduler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	// -- PlaneRenderScheduler methods --
+
+	/** Gets the number of planes prefetched on each side of a request. */
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+
+	/** Sets the number of planes prefetched on each side of a request. */
+	public void setPrefetchDepth(final int prefetchDepth) {
+		this.prefetchDepth = Math.max(0, prefetchDepth);
+	}
+
+	/**
+	 * Gets the cached rendering of the given plane with the current settings of
+	 * the shared converters, or null if it has not been rendered (yet).
+	 */
+	public int[] getCached(final long[] position, final boolean composite) {
+		return getCached(position, composite, snapshotConverters(null));
+	}
+
+	/**
+	 * Requests that the given plane be rendered and delivered to the listener,
+	 * superseding any earlier request. If the plane is already cached, only its
+	 * neighbors are prefetched; callers should show the cached plane themselves,
+	 * as obtained from {@link #getCached(long[], boolean)}. The current settings
+	 * of the shared converters are captured here, as are the LUTs of the planes
+	 * to prefetch, so this must be called on the thread which changes them.
+	 *
+	 * @param position The position of the plane; entries 0 and 1 are ignored.
+	 * @param composite Whether to composite all channels together.
+	 * @param axisIndex The dimension along which to prefetch neighboring planes,
+	 *          or -1 for none.
+	 */
+	public void request(final long[] position, final boolean composite,
+		final int axisIndex)
+	{
+		final long requestGeneration = generation.incrementAndGet();
+		projector.cancel();
+		final long[] pos = position.clone();
+		final ConverterSettings[] settings = snapshotConverters(null);
+		final List<long[]> neighbors = getNeighbors(pos, composite, axisIndex);
+		final List<ConverterSettings[]> neighborSettings =
+			new ArrayList<ConverterSettings[]>();
+		for (final long[] neighbor : neighbors) {
+			neighborSettings.add(snapshotConverters(neighbor));
+		}
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				if (isSuperseded(requestGeneration)) return;
+				if (getCached(pos, composite, settings) == null) {
+					final int[] pixels =
+						render(pos, composite, settings, requestGeneration);
+					if (pixels == null) return;
+					listener.planeRendered(pos, composite, pixels);
+				}
+				for (int i = 0; i < neighbors.size(); i++) {
+					if (render(neighbors.get(i), composite, neighborSettings.get(i),
+						requestGeneration) == null) return;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Cancels any pending or running render, keeping the cached planes. This
+	 * should be called whenever the display settings change outside of a
+	 * request, so that no plane rendered with the old settings is delivered.
+	 */
+	public void cancel() {
+		generation.incrementAndGet();
+		projector.cancel();
+	}
+
+	/**
+	 * Discards all cached planes, and cancels any pending or running render.
+	 * This should be called whenever the data changes.
+	 */
+	public void invalidate() {
+		cancel();
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+	/** Stops the render thread. The scheduler cannot be used afterwards. */
+	public void dispose() {
+		invalidate();
+		executor.shutdownNow();
+	}
+
+	// -- Helper methods --
+
+	private boolean isSuperseded(final long requestGeneration) {
+		return generation.get() != requestGeneration;
+	}
+
+	/**
+	 * Captures the display ranges and LUTs of the shared converters. If a plane
+	 * position is given, the LUTs are those of that plane instead.
+	 */
+	private ConverterSettings[] snapshotConverters(final long[] position) {
+		final int count = Math.min(converters.size(), renderConverters.size());
+		final ConverterSettings[] settings = new ConverterSettings[count];
+		for (int c = 0; c < count; c++) {
+			final RealLUTConverter<? extends RealType<?>> converter =
+				converters.get(c);
+			final ColorTable lut =
+				position == null || colorTables == null ? converter.getLUT()
+					: colorTables.getColorTable(position, c);
+			settings[c] =
+				new ConverterSettings(converter.getMin(), converter.getMax(), lut);
+		}
+		return settings;
+	}
+
+	/** Sets the render thread's converters to match a snapshot. */
+	private void applyConverters(final ConverterSettings[] settings) {
+		for (int c = 0; c < settings.length; c++) {
+			final RealLUTConverter<? extends RealType<?>> converter =
+				renderConverters.get(c);
+			converter.setMin(settings[c].min);
+			converter.setMax(settings[c].max);
+			converter.setLUT(settings[c].lut);
+		}
+	}
+
+	private int[] getCached(final long[] position, final boolean composite,
+		final ConverterSettings[] settings)
+	{
+		synchronized (cache) {
+			return cache.get(new PlaneKey(position, composite, settings));
+		}
+	}
+
+	/**
+	 * Renders a plane with the given converter settings into the cache, unless
+	 * it is already there. Returns null if the request was superseded before the
+	 * plane was done.
+	 */
+	private int[] render(final long[] position, final boolean composite,
+		final ConverterSettings[] settings, final long requestGeneration)
+	{
+		final int[] cached = getCached(position, composite, settings);
+		if (cached != null) return cached;
+		applyConverters(settings);
+		for (int d = 2; d < position.length; d++) {
+			projector.setPosition(position[d], d);
+		}
+		projector.setComposite(composite);
+		projector.map();
+		if (projector.isCanceled() || isSuperseded(requestGeneration)) return null;
+		final int[] pixels = scratch.getData().clone();
+		synchronized (cache) {
+			if (isSuperseded(requestGeneration)) return null;
+			cache.put(new PlaneKey(position, composite, settings), pixels);
+		}
+		return pixels;
+	}
+
+	/** Gets the neighbors of a plane to prefetch, nearest first. */
+	private List<long[]> getNeighbors(final long[] position,
+		final boolean composite, final int axisIndex)
+	{
+		final List<long[]> neighbors = new ArrayList<long[]>();
+		if (axisIndex < 2 || axisIndex >= position.length) return neighbors;
+		if (composite && axisIndex == channelDimIndex) return neighbors;
+		final long size = dataset.dimension(axisIndex);
+		for (int i = 1; i <= prefetchDepth; i++) {
+			for (int sign = 1; sign >= -1; sign -= 2) {
+				final long p = position[axisIndex] + sign * i;
+				if (p < 0 || p >= size) continue;
+				final long[] neighbor = position.clone();
+				neighbor[axisIndex] = p;
+				neighbors.add(neighbor);
+			}
+		}
+		return neighbors;
+	}
+
+	// -- Helper classes --
+
+	/** The settings of a converter at the time of a request. */
+	private static class ConverterSettings {
+
+		private final double min;
+		private final double max;
+		private final ColorTable lut;
+
+		public ConverterSettings(final double min, final double max,
+			final ColorTable lut)
+		{
+			this.min = min;
+			this.max = max;
+			this.lut = lut;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof ConverterSettings)) return false;
+			final ConverterSettings other = (ConverterSettings) o;
+			// NB - LUTs are compared by identity, as the view swaps them
+			return Double.compare(min, other.min) == 0 &&
+				Double.compare(max, other.max) == 0 && lut == other.lut;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = Double.valueOf(min).hashCode();
+			hash = 31 * hash + Double.valueOf(max).hashCode();
+			return 31 * hash + System.identityHashCode(lut);
+		}
+	}
+
+	/** Identifies a plane rendered with particular converter settings. */
+	private class PlaneKey {
+
+		private final long[] position;
+		private final boolean composite;
+		private final ConverterSettings[] settings;
+
+		public PlaneKey(final long[] position, final boolean composite,
+			final ConverterSettings[] settings)
+		{
+			this.position = position.clone();
+			this.position[0] = 0;
+			this.position[1] = 0;
+			// NB - composite planes do not depend upon the channel position
+			if (composite && channelDimIndex >= 0) {
+				this.position[channelDimIndex] = 0;
+			}
+			this.composite = composite;
+			// NB - other planes depend only upon the converter of their channel
+			if (!composite && channelDimIndex >= 0 &&
+				position[channelDimIndex] < settings.length)
+			{
+				this.settings =
+					new ConverterSettings[] { settings[(int) position[channelDimIndex]] };
+			}
+			else this.settings = settings;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof PlaneKey)) return false;
+			final PlaneKey other = (PlaneKey) o;
+			return composite == other.composite &&
+				Arrays.equals(position, other.position) &&
+				Arrays.equals(settings, other.settings);
+		}
+
+		@Override
+		public int hashCode() {
+			final int hash = 31 * Arrays.hashCode(position) + (composite ? 1 : 0);
+			return 31 * hash + Arrays.hashCode(settings);
+		}
+	}
+
+}
@@ -51,11 +51,24 @@ public class DatasetUpdatedEvent extends DataUpdatedEvent {
 
 	private final Dataset dataset;
 	private final boolean metadataOnly;
+	private final long[] planes;
 
 	public DatasetUpdatedEvent(final Dataset dataset, boolean metadataOnly) {
+		this(dataset, metadataOnly, null);
+	}
+
+	/**
+	 * Creates an event for a change limited to the given planes, numbered as in
+	 * {@link Dataset#getPlane(int)}. A null array means any plane may have
+	 * changed.
+	 */
+	public DatasetUpdatedEvent(final Dataset dataset, boolean metadataOnly,
+		final long[] planes)
+	{
 		super(dataset);
 		this.dataset = dataset;
 		this.metadataOnly = metadataOnly;
+		this.planes = planes;
 	}
 
 	// -- ObjectEvent methods --
@@ -68,4 +81,12 @@ public Dataset getObject() {
 	public boolean isMetaDataOnly() {
 		return metadataOnly;
 	}
+
+	/**
+	 * Gets the planes whose sample values changed, or null if any plane may have
+	 * changed.
+	 */
+	public long[] getPlanes() {
+		return planes;
+	}
 }
@@ -0,0 +1,354 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data.measure;
+
+import imagej.data.Dataset;
+import imagej.data.ParallelLoop;
+import imagej.data.PlaneStorage;
+import imagej.data.RowAccess;
+import imagej.data.event.DatasetDeletedEvent;
+import imagej.data.event.DatasetRestructuredEvent;
+import imagej.data.event.DatasetUpdatedEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.scijava.event.EventHandler;
+import org.scijava.event.EventService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default service for computing histograms of {@link Dataset}s. Planes that
+ * are not yet known are scanned a row at a time on several threads, each
+ * thread counting into its own histogram which is then added to the plane's.
+ */
+@Plugin(type = Service.class)
+public class DefaultHistogramService extends AbstractService implements
+	HistogramService
+{
+
+	// -- Parameters --
+
+	@Parameter
+	private EventService eventService;
+
+	// -- instance variables --
+
+	private final Map<Dataset, Planes> cache = new HashMap<Dataset, Planes>();
+
+	// -- HistogramService methods --
+
+	@Override
+	public synchronized double[] getDataRange(final Dataset ds) {
+		final Planes planes = planes(ds);
+		scanRanges(ds, planes, 0, planes.min.length);
+		double min = Double.NaN, max = Double.NaN;
+		for (int p = 0; p < planes.min.length; p++) {
+			if (Double.isNaN(planes.min[p])) continue;
+			if (!(planes.min[p] >= min)) min = planes.min[p];
+			if (!(planes.max[p] <= max)) max = planes.max[p];
+		}
+		return new double[] { min, max };
+	}
+
+	@Override
+	public synchronized double[] getDataRange(final Dataset ds,
+		final long plane)
+	{
+		final Planes planes = planes(ds);
+		final int p = index(planes, plane);
+		scanRanges(ds, planes, p, p + 1);
+		return new double[] { planes.min[p], planes.max[p] };
+	}
+
+	@Override
+	public synchronized long[] getHistogram(final Dataset ds,
+		final int binCount, final double min, final double max)
+	{
+		final Planes planes = planes(ds);
+		scanHistograms(ds, planes, binCount, min, max, 0, planes.min.length);
+		if (planes.total == null) {
+			planes.total = new long[binCount];
+			for (final long[] histogram : planes.histograms) {
+				for (int b = 0; b < binCount; b++) {
+					planes.total[b] += histogram[b];
+				}
+			}
+		}
+		return planes.total.clone();
+	}
+
+	@Override
+	public synchronized long[] getHistogram(final Dataset ds,
+		final long plane, final int binCount, final double min, final double max)
+	{
+		final Planes planes = planes(ds);
+		final int p = index(planes, plane);
+		scanHistograms(ds, planes, binCount, min, max, p, p + 1);
+		return planes.histograms[p].clone();
+	}
+
+	@Override
+	public synchronized void invalidate(final Dataset ds) {
+		cache.remove(ds);
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		eventService.subscribe(this);
+	}
+
+	// -- event handlers --
+
+	@EventHandler
+	protected synchronized void onEvent(final DatasetUpdatedEvent evt) {
+		if (evt.isMetaDataOnly()) return;
+		final Planes planes = cache.get(evt.getObject());
+		if (planes == null) return;
+		final long[] changed = evt.getPlanes();
+		if (changed == null) {
+			cache.remove(evt.getObject());
+			return;
+		}
+		for (final long plane : changed) {
+			if (plane < 0 || plane >= planes.min.length) continue;
+			planes.rangeKnown[(int) plane] = false;
+			planes.histograms[(int) plane] = null;
+		}
+		planes.total = null;
+	}
+
+	@EventHandler
+	protected void onEvent(final DatasetRestructuredEvent evt) {
+		invalidate(evt.getObject());
+	}
+
+	@EventHandler
+	protected void onEvent(final DatasetDeletedEvent evt) {
+		invalidate(evt.getObject());
+	}
+
+	// -- helpers --
+
+	/** What is known about the planes of one {@link Dataset}. */
+	private static class Planes {
+
+		final double[] min, max;
+		final boolean[] rangeKnown;
+
+		// the binning the histograms were made with
+		int binCount;
+		double binMin, binMax;
+
+		final long[][] histograms;
+		long[] total;
+
+		Planes(final int count) {
+			min = new double[count];
+			max = new double[count];
+			rangeKnown = new boolean[count];
+			histograms = new long[count][];
+		}
+	}
+
+	private Planes planes(final Dataset ds) {
+		final long count = PlaneStorage.getPlaneCount(ds);
+		Planes planes = cache.get(ds);
+		if (planes == null || planes.min.length != count) {
+			if (count > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Too many planes: " + count);
+			}
+			planes = new Planes((int) count);
+			cache.put(ds, planes);
+		}
+		return planes;
+	}
+
+	private int index(final Planes planes, final long plane) {
+		if (plane < 0 || plane >= planes.min.length) {
+			throw new IllegalArgumentException("Plane index out of bounds: " +
+				plane);
+		}
+		return (int) plane;
+	}
+
+	/**
+	 * Finds the data range of the planes from first up to but not including
+	 * last whose range is not yet known.
+	 */
+	private void scanRanges(final Dataset ds, final Planes planes,
+		final int first, final int last)
+	{
+		final List<Integer> unknown = new ArrayList<Integer>();
+		for (int p = first; p < last; p++) {
+			if (planes.rangeKnown[p]) continue;
+			unknown.add(p);
+			planes.min[p] = Double.NaN;
+			planes.max[p] = Double.NaN;
+		}
+		if (unknown.isEmpty()) return;
+		final RowAccess shape = new RowAccess(ds.getImgPlus());
+		final int height = shape.getHeight();
+		final int threads = ParallelLoop.getThreadCount(getContext());
+		ParallelLoop.run(getContext(), (long) unknown.size() * height, threads,
+			new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count)
+				{
+					final RowAccess rows = new RowAccess(ds.getImgPlus());
+					final double[] row = new double[rows.getWidth()];
+					int plane = -1;
+					double min = Double.NaN, max = Double.NaN;
+					for (long unit = start; unit < start + count; unit++) {
+						final int p = unknown.get((int) (unit / height));
+						if (p != plane) {
+							if (plane >= 0) addRange(planes, plane, min, max);
+							plane = p;
+							min = max = Double.NaN;
+						}
+						rows.read(p, (int) (unit % height), row);
+						for (final double value : row) {
+							if (!(value >= min)) {
+								if (Double.isNaN(value)) continue;
+								min = value;
+							}
+							if (!(value <= max)) max = value;
+						}
+					}
+					if (plane >= 0) addRange(planes, plane, min, max);
+				}
+			});
+		for (final int p : unknown) {
+			planes.rangeKnown[p] = true;
+		}
+	}
+
+	/**
+	 * Makes sure the planes from first up to but not including last have a
+	 * histogram of the given binning, counting the planes that do not.
+	 */
+	private void scanHistograms(final Dataset ds, final Planes planes,
+		final int binCount, final double min, final double max, final int first,
+		final int last)
+	{
+		if (binCount < 1) {
+			throw new IllegalArgumentException("Invalid bin count: " + binCount);
+		}
+		if (planes.binCount != binCount || planes.binMin != min ||
+			planes.binMax != max)
+		{
+			for (int p = 0; p < planes.histograms.length; p++) {
+				planes.histograms[p] = null;
+			}
+			planes.total = null;
+			planes.binCount = binCount;
+			planes.binMin = min;
+			planes.binMax = max;
+		}
+		final List<Integer> unknown = new ArrayList<Integer>();
+		for (int p = first; p < last; p++) {
+			if (planes.histograms[p] != null) continue;
+			unknown.add(p);
+			planes.histograms[p] = new long[binCount];
+		}
+		if (unknown.isEmpty()) return;
+		planes.total = null;
+		final double scale = max > min ? binCount / (max - min) : 0;
+		final RowAccess shape = new RowAccess(ds.getImgPlus());
+		final int height = shape.getHeight();
+		final int threads = ParallelLoop.getThreadCount(getContext());
+		ParallelLoop.run(getContext(), (long) unknown.size() * height, threads,
+			new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count)
+				{
+					final RowAccess rows = new RowAccess(ds.getImgPlus());
+					final double[] row = new double[rows.getWidth()];
+					final long[] counts = new long[binCount];
+					int plane = -1;
+					for (long unit = start; unit < start + count; unit++) {
+						final int p = unknown.get((int) (unit / height));
+						if (p != plane) {
+							if (plane >= 0) addCounts(planes.histograms[plane], counts);
+							plane = p;
+						}
+						rows.read(p, (int) (unit % height), row);
+						for (final double value : row) {
+							// also rejects NaN
+							if (!(value >= min && value <= max)) continue;
+							final int bin = (int) ((value - min) * scale);
+							counts[bin < binCount ? bin : binCount - 1]++;
+						}
+					}
+					if (plane >= 0) addCounts(planes.histograms[plane], counts);
+				}
+			});
+	}
+
+	/** Widens the known range of a plane by that found by one thread. */
+	private static void addRange(final Planes planes, final int plane,
+		final double min, final double max)
+	{
+		if (Double.isNaN(min)) return;
+		synchronized (planes) {
+			if (!(planes.min[plane] <= min)) planes.min[plane] = min;
+			if (!(planes.max[plane] >= max)) planes.max[plane] = max;
+		}
+	}
+
+	/** Adds one thread's counts to a plane's histogram and clears them. */
+	private static void addCounts(final long[] histogram, final long[] counts) {
+		synchronized (histogram) {
+			for (int b = 0; b < counts.length; b++) {
+				histogram[b] += counts[b];
+			}
+		}
+		for (int b = 0; b < counts.length; b++) {
+			counts[b] = 0;
+		}
+	}
+
+}
@@ -36,36 +36,24 @@
 package imagej.data.measure;
 
 import imagej.data.Dataset;
+import imagej.data.ParallelLoop;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
 import net.imglib2.ops.function.Function;
 import net.imglib2.ops.function.real.RealAlphaTrimmedMeanFunction;
-import net.imglib2.ops.function.real.RealArithmeticMeanFunction;
 import net.imglib2.ops.function.real.RealContraharmonicMeanFunction;
-import net.imglib2.ops.function.real.RealGeometricMeanFunction;
-import net.imglib2.ops.function.real.RealHarmonicMeanFunction;
 import net.imglib2.ops.function.real.RealImageFunction;
-import net.imglib2.ops.function.real.RealMaxFunction;
-import net.imglib2.ops.function.real.RealMedianFunction;
-import net.imglib2.ops.function.real.RealMidpointFunction;
-import net.imglib2.ops.function.real.RealMinFunction;
-import net.imglib2.ops.function.real.RealPopulationKurtosisExcessFunction;
-import net.imglib2.ops.function.real.RealPopulationKurtosisFunction;
-import net.imglib2.ops.function.real.RealPopulationSkewFunction;
-import net.imglib2.ops.function.real.RealPopulationStdDevFunction;
-import net.imglib2.ops.function.real.RealPopulationVarianceFunction;
-import net.imglib2.ops.function.real.RealProductFunction;
-import net.imglib2.ops.function.real.RealSampleKurtosisExcessFunction;
-import net.imglib2.ops.function.real.RealSampleKurtosisFunction;
-import net.imglib2.ops.function.real.RealSampleSkewFunction;
-import net.imglib2.ops.function.real.RealSampleStdDevFunction;
-import net.imglib2.ops.function.real.RealSampleVarianceFunction;
-import net.imglib2.ops.function.real.RealSumFunction;
-import net.imglib2.ops.function.real.RealSumOfSquaredDeviationsFunction;
-import net.imglib2.ops.function.real.RealTrimmedMeanFunction;
 import net.imglib2.ops.function.real.RealWeightedAverageFunction;
 import net.imglib2.ops.function.real.RealWeightedSumFunction;
 import net.imglib2.ops.pointset.HyperVolumePointSet;
 import net.imglib2.ops.pointset.PointSet;
+import net.imglib2.ops.pointset.PointSetIterator;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.DoubleType;
 
@@ -74,16 +62,13 @@
 import org.scijava.service.Service;
 
 // TODO - make MeasurementService smarter. Compute values without always
-// revisiting the pixels. This current impl goes over pixels once for each
-// measurement. I will mock something up soon. BDZ
+// revisiting the pixels. The measure(Dataset, PointSet, EnumSet<Stat>) method
+// of this service batches the stats it knows but MeasurementService still goes
+// over pixels once for each measurement. BDZ
 
 // TODO - this service is limited to only the kinds of stats it knows. It can't
 // measure a user provided statistic. This can be done by calling the
 // MeasurementService more directly.
-// Also this service calcs one measure at a time. Our future MeasurementService
-// should be able to batch them together. It also might be nice to be able to
-// specify to this service gather min,var,stdev,median in an array of output
-// doubles.
 
 // TODO - see what IJ1 calculates and provide such methods here and in OPS
 
@@ -105,6 +90,11 @@ public class DefaultStatisticsService extends AbstractService implements
 	// @Parameter
 	// private MeasurementService mSrv;
 
+	// -- constants --
+
+	/** The smallest bounding volume worth measuring on several threads. */
+	private static final long MIN_PARALLEL_VOLUME = 1 << 16;
+
 	// -- StatisticsService methods --
 
 	@Override
@@ -124,10 +114,7 @@ public double alphaTrimmedMean(final Dataset ds, final double alpha) {
 
 	@Override
 	public double arithmeticMean(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealArithmeticMeanFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.ARITHMETIC_MEAN);
 	}
 
 	@Override
@@ -152,10 +139,7 @@ public double contraharmomicMean(final Dataset ds, final double order) {
 
 	@Override
 	public double geometricMean(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealGeometricMeanFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.GEOMETRIC_MEAN);
 	}
 
 	@Override
@@ -165,10 +149,7 @@ public double geometricMean(final Dataset ds) {
 
 	@Override
 	public double harmonicMean(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealHarmonicMeanFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.HARMONIC_MEAN);
 	}
 
 	@Override
@@ -178,10 +159,7 @@ public double harmonicMean(final Dataset ds) {
 
 	@Override
 	public double maximum(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealMaxFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.MAXIMUM);
 	}
 
 	@Override
@@ -191,10 +169,7 @@ public double maximum(final Dataset ds) {
 
 	@Override
 	public double median(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealMedianFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return orderStatistics(ds, region).getMedian();
 	}
 
 	@Override
@@ -204,10 +179,7 @@ public double median(final Dataset ds) {
 
 	@Override
 	public double midpoint(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealMidpointFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.MIDPOINT);
 	}
 
 	@Override
@@ -217,10 +189,7 @@ public double midpoint(final Dataset ds) {
 
 	@Override
 	public double minimum(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealMinFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.MINIMUM);
 	}
 
 	@Override
@@ -230,10 +199,7 @@ public double minimum(final Dataset ds) {
 
 	@Override
 	public double populationKurtosis(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealPopulationKurtosisFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.POPULATION_KURTOSIS);
 	}
 
 	@Override
@@ -245,10 +211,7 @@ public double populationKurtosis(final Dataset ds) {
 	public double
 		populationKurtosisExcess(final Dataset ds, final PointSet region)
 	{
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealPopulationKurtosisExcessFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.POPULATION_KURTOSIS_EXCESS);
 	}
 
 	@Override
@@ -258,10 +221,7 @@ public double populationKurtosisExcess(final Dataset ds) {
 
 	@Override
 	public double populationSkew(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealPopulationSkewFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.POPULATION_SKEW);
 	}
 
 	@Override
@@ -271,10 +231,7 @@ public double populationSkew(final Dataset ds) {
 
 	@Override
 	public double populationStdDev(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealPopulationStdDevFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.POPULATION_STD_DEV);
 	}
 
 	@Override
@@ -284,10 +241,7 @@ public double populationStdDev(final Dataset ds) {
 
 	@Override
 	public double populationVariance(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealPopulationVarianceFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.POPULATION_VARIANCE);
 	}
 
 	@Override
@@ -297,10 +251,7 @@ public double populationVariance(final Dataset ds) {
 
 	@Override
 	public double product(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealProductFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.PRODUCT);
 	}
 
 	@Override
@@ -310,10 +261,7 @@ public double product(final Dataset ds) {
 
 	@Override
 	public double sampleKurtosis(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealSampleKurtosisFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.SAMPLE_KURTOSIS);
 	}
 
 	@Override
@@ -323,10 +271,7 @@ public double sampleKurtosis(final Dataset ds) {
 
 	@Override
 	public double sampleKurtosisExcess(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealSampleKurtosisExcessFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.SAMPLE_KURTOSIS_EXCESS);
 	}
 
 	@Override
@@ -336,10 +281,7 @@ public double sampleKurtosisExcess(final Dataset ds) {
 
 	@Override
 	public double sampleSkew(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealSampleSkewFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.SAMPLE_SKEW);
 	}
 
 	@Override
@@ -349,10 +291,7 @@ public double sampleSkew(final Dataset ds) {
 
 	@Override
 	public double sampleStdDev(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealSampleStdDevFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.SAMPLE_STD_DEV);
 	}
 
 	@Override
@@ -362,10 +301,7 @@ public double sampleStdDev(final Dataset ds) {
 
 	@Override
 	public double sampleVariance(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealSampleVarianceFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.SAMPLE_VARIANCE);
 	}
 
 	@Override
@@ -375,10 +311,7 @@ public double sampleVariance(final Dataset ds) {
 
 	@Override
 	public double sum(final Dataset ds, final PointSet region) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealSumFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.SUM);
 	}
 
 	@Override
@@ -389,10 +322,7 @@ public double sum(final Dataset ds) {
 	@Override
 	public double sumOfSquaredDeviations(final Dataset ds, final PointSet region)
 	{
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealSumOfSquaredDeviationsFunction<DoubleType>(imgFunc);
-		return measure(func, region);
+		return measure(ds, region, Stat.SUM_OF_SQUARED_DEVIATIONS);
 	}
 
 	@Override
@@ -402,10 +332,7 @@ public double sumOfSquaredDeviations(final Dataset ds) {
 
 	@Override
 	public double trimmedMean(Dataset ds, PointSet region, int halfTrimSize) {
-		final Function<long[], DoubleType> imgFunc = imgFunc(ds);
-		final Function<PointSet, DoubleType> func =
-			new RealTrimmedMeanFunction<DoubleType>(imgFunc, halfTrimSize);
-		return measure(func, region);
+		return orderStatistics(ds, region).getTrimmedMean(halfTrimSize);
 	}
 
 	@Override
@@ -433,6 +360,31 @@ public double weightedSum(final Dataset ds, final PointSet region,
 		return measure(func, region);
 	}
 
+	@Override
+	public Map<Stat, Double> measure(final Dataset ds, final PointSet region,
+		final EnumSet<Stat> stats)
+	{
+		final List<PointSet> blocks = RegionBlocks.split(region);
+		return measure(ds, blocks, getThreadCount(region, blocks), stats);
+	}
+
+	@Override
+	public Map<Stat, Double> measure(final Dataset ds, final PointSet region,
+		final EnumSet<Stat> stats, final int threadCount)
+	{
+		if (threadCount < 1) {
+			throw new IllegalArgumentException("Thread count must be positive: " +
+				threadCount);
+		}
+		return measure(ds, RegionBlocks.split(region), threadCount, stats);
+	}
+
+	@Override
+	public Map<Stat, Double> measure(final Dataset ds, final EnumSet<Stat> stats)
+	{
+		return measure(ds, allOf(ds), stats);
+	}
+
 	@Override
 	public PointSet allOf(final Dataset ds) {
 		return new HyperVolumePointSet(ds.getDims());
@@ -446,6 +398,144 @@ private RealImageFunction<?, DoubleType> imgFunc(final Dataset ds) {
 		return new RealImageFunction(imgPlus, new DoubleType());
 	}
 
+	/** Measures the given statistics of a region split into blocks. */
+	private Map<Stat, Double> measure(final Dataset ds,
+		final List<PointSet> blocks, final int threadCount,
+		final EnumSet<Stat> stats)
+	{
+		final StatisticsAccumulator[] parts =
+			accumulate(ds, blocks, threadCount, stats);
+		final StatisticsAccumulator acc = merge(parts, stats);
+		final Map<Stat, Double> results = new EnumMap<Stat, Double>(Stat.class);
+		for (final Stat stat : stats) {
+			if (stat == Stat.MEDIAN) continue;
+			results.put(stat, acc.get(stat));
+		}
+		if (Stat.needsOrder(stats)) {
+			final OrderStatistics order =
+				orderStatistics(ds, blocks, threadCount, parts, acc);
+			results.put(Stat.MEDIAN, order.getMedian());
+		}
+		return results;
+	}
+
+	/**
+	 * Accumulates the given statistics of each block of a region separately.
+	 * Blocks are spread over the given number of threads.
+	 */
+	private StatisticsAccumulator[] accumulate(final Dataset ds,
+		final List<PointSet> blocks, final int threadCount,
+		final EnumSet<Stat> stats)
+	{
+		final StatisticsAccumulator[] parts =
+			new StatisticsAccumulator[blocks.size()];
+		ParallelLoop.run(getContext(), blocks.size(), threadCount,
+			new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count) {
+					final RandomAccess<? extends RealType<?>> access =
+						ds.getImgPlus().randomAccess();
+					for (int b = (int) start; b < start + count; b++) {
+						final StatisticsAccumulator acc = new StatisticsAccumulator(stats);
+						final PointSetIterator iter = blocks.get(b).copy().iterator();
+						while (iter.hasNext()) {
+							access.setPosition(iter.next());
+							acc.add(access.get().getRealDouble());
+						}
+						parts[b] = acc;
+					}
+				}
+			});
+		return parts;
+	}
+
+	/** Merges per-block statistics in block order. */
+	private StatisticsAccumulator merge(final StatisticsAccumulator[] parts,
+		final EnumSet<Stat> stats)
+	{
+		final StatisticsAccumulator acc = new StatisticsAccumulator(stats);
+		for (final StatisticsAccumulator part : parts) {
+			acc.merge(part);
+		}
+		return acc;
+	}
+
+	private OrderStatistics orderStatistics(final Dataset ds,
+		final PointSet region)
+	{
+		final List<PointSet> blocks = RegionBlocks.split(region);
+		final int threadCount = getThreadCount(region, blocks);
+		final EnumSet<Stat> stats = EnumSet.of(Stat.MEDIAN);
+		final StatisticsAccumulator[] parts =
+			accumulate(ds, blocks, threadCount, stats);
+		return orderStatistics(ds, blocks, threadCount, parts, merge(parts, stats));
+	}
+
+	/**
+	 * Gathers the values of a region in order. The count and range found by a
+	 * prior pass let integer data be counted in a histogram, and let each thread
+	 * size its share exactly.
+	 */
+	private OrderStatistics orderStatistics(final Dataset ds,
+		final List<PointSet> blocks, final int threadCount,
+		final StatisticsAccumulator[] parts, final StatisticsAccumulator acc)
+	{
+		final boolean integer = ds.isInteger();
+		final OrderStatistics[] chunks =
+			new OrderStatistics[ParallelLoop.getChunkCount(blocks.size(),
+				threadCount)];
+		ParallelLoop.run(getContext(), blocks.size(), threadCount,
+			new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count) {
+					long size = 0;
+					for (int b = (int) start; b < start + count; b++) {
+						size += parts[b].getCount();
+					}
+					final OrderStatistics order =
+						new OrderStatistics(size, acc.getMin(), acc.getMax(), integer);
+					final RandomAccess<? extends RealType<?>> access =
+						ds.getImgPlus().randomAccess();
+					for (int b = (int) start; b < start + count; b++) {
+						final PointSetIterator iter = blocks.get(b).copy().iterator();
+						while (iter.hasNext()) {
+							access.setPosition(iter.next());
+							order.add(access.get().getRealDouble());
+						}
+					}
+					chunks[chunk] = order;
+				}
+			});
+		if (chunks.length == 1) return chunks[0];
+		final OrderStatistics order =
+			new OrderStatistics(acc.getCount(), acc.getMin(), acc.getMax(), integer);
+		for (final OrderStatistics chunk : chunks) {
+			order.merge(chunk);
+		}
+		return order;
+	}
+
+	/**
+	 * Gets the number of threads to measure a region with. Small regions and
+	 * regions that cannot be split are measured on the calling thread.
+	 */
+	private int getThreadCount(final PointSet region, final List<PointSet> blocks)
+	{
+		if (blocks.size() < 2) return 1;
+		final long volume = RegionBlocks.getBoundingVolume(region);
+		if (volume < MIN_PARALLEL_VOLUME) return 1;
+		return ParallelLoop.getThreadCount(getContext());
+	}
+
+	/** Measures a single statistic the way {@link #measure} measures several. */
+	private double measure(final Dataset ds, final PointSet region,
+		final Stat stat)
+	{
+		return measure(ds, region, EnumSet.of(stat)).get(stat);
+	}
+
 	private double measure(final Function<PointSet, DoubleType> func,
 		final PointSet region)
 	{
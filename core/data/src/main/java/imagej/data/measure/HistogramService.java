@@ -0,0 +1,87 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data.measure;
+
+import imagej.data.Dataset;
+
+import org.scijava.service.Service;
+
+/**
+ * A service for computing histograms of {@link Dataset}s. Histograms are built
+ * a plane at a time and remembered, so asking again for the same binning is
+ * nearly free. Histograms of a whole {@link Dataset} are sums of the plane
+ * histograms. Planes are forgotten as they are named by
+ * {@link imagej.data.event.DatasetUpdatedEvent}s, and whole {@link Dataset}s
+ * when they are restructured or deleted.
+ * <p>
+ * Planes are numbered as in {@link Dataset#getPlane(int)}. Bins are of equal
+ * width and together span the given minimum to maximum inclusive; NaNs and
+ * values outside that range are not counted.
+ * </p>
+ */
+public interface HistogramService extends Service {
+
+	/**
+	 * Gets the smallest and largest values of a {@link Dataset}, ignoring NaNs,
+	 * as a two element array. Both are NaN if there are no other values.
+	 */
+	double[] getDataRange(Dataset ds);
+
+	/**
+	 * Gets the smallest and largest values of one plane of a {@link Dataset},
+	 * ignoring NaNs, as a two element array. Both are NaN if there are no other
+	 * values.
+	 */
+	double[] getDataRange(Dataset ds, long plane);
+
+	/**
+	 * Gets the histogram of all the values of a {@link Dataset}. The returned
+	 * array belongs to the caller.
+	 */
+	long[] getHistogram(Dataset ds, int binCount, double min, double max);
+
+	/**
+	 * Gets the histogram of the values of one plane of a {@link Dataset}. The
+	 * returned array belongs to the caller.
+	 */
+	long[] getHistogram(Dataset ds, long plane, int binCount, double min,
+		double max);
+
+	/** Forgets everything remembered about a {@link Dataset}. */
+	void invalidate(Dataset ds);
+
+}
@@ -0,0 +1,203 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data.measure;
+
+import java.util.Arrays;
+
+/**
+ * Gathers the values of a region so that statistics depending on their order,
+ * such as the median and trimmed means, can be computed. Integer values whose
+ * range is small enough are counted in a histogram rather than stored one by
+ * one; other values are stored and sorted on first use.
+ * <p>
+ * The number of values and their range must be known up front, typically from
+ * a {@link StatisticsAccumulator} filled during a prior pass.
+ * </p>
+ */
+public class OrderStatistics {
+
+	// -- constants --
+
+	/** The largest number of bins the histogram of integer values may have. */
+	public static final int MAX_BINS = 1 << 16;
+
+	// -- instance variables --
+
+	private final double min;
+	private final long[] histogram;
+	private final double[] values;
+	private long added;
+	private boolean sorted;
+
+	// -- constructor --
+
+	/**
+	 * Creates an OrderStatistics for the given number of values.
+	 * 
+	 * @param count The number of values that will be added.
+	 * @param min The smallest value that will be added.
+	 * @param max The largest value that will be added.
+	 * @param integer True if all the values are integers.
+	 * @throws IllegalArgumentException if there are too many non-integer values
+	 *           to hold in memory.
+	 */
+	public OrderStatistics(final long count, final double min,
+		final double max, final boolean integer)
+	{
+		this.min = min;
+		if (integer && count > 0 && max - min < MAX_BINS) {
+			histogram = new long[(int) (max - min) + 1];
+			values = null;
+		}
+		else {
+			if (count > Integer.MAX_VALUE - 8) {
+				throw new IllegalArgumentException("Too many values to order: " +
+					count);
+			}
+			histogram = null;
+			values = new double[(int) count];
+		}
+	}
+
+	// -- OrderStatistics methods --
+
+	/** Adds a value. No more values than the declared count may be added. */
+	public void add(final double value) {
+		if (histogram != null) histogram[(int) (value - min)]++;
+		else values[(int) added] = value;
+		added++;
+		sorted = false;
+	}
+
+	/**
+	 * Adds all the values of another OrderStatistics, which must have been
+	 * created for the same range of values.
+	 */
+	public void merge(final OrderStatistics other) {
+		if (other.added == 0) return;
+		final boolean counted = histogram != null;
+		if (counted != (other.histogram != null) ||
+			(counted && (other.min != min ||
+				other.histogram.length != histogram.length)))
+		{
+			throw new IllegalArgumentException("Incompatible order statistics");
+		}
+		if (counted) {
+			for (int bin = 0; bin < histogram.length; bin++) {
+				histogram[bin] += other.histogram[bin];
+			}
+		}
+		else {
+			System.arraycopy(other.values, 0, values, (int) added,
+				(int) other.added);
+		}
+		added += other.added;
+		sorted = false;
+	}
+
+	/** Returns the number of values added so far. */
+	public long getCount() {
+		return added;
+	}
+
+	/**
+	 * Returns the value of the given rank: the k-th smallest value, counting
+	 * from zero.
+	 */
+	public double get(final long rank) {
+		if (rank < 0 || rank >= added) {
+			throw new IndexOutOfBoundsException("Rank " + rank + " of " + added);
+		}
+		if (histogram == null) {
+			sort();
+			return values[(int) rank];
+		}
+		long seen = 0;
+		for (int bin = 0; bin < histogram.length; bin++) {
+			seen += histogram[bin];
+			if (seen > rank) return min + bin;
+		}
+		throw new IllegalStateException("Histogram count mismatch");
+	}
+
+	/**
+	 * Returns the median of the values added so far. For an even number of
+	 * values it is the mean of the middle two. Returns NaN if there are none.
+	 */
+	public double getMedian() {
+		if (added == 0) return Double.NaN;
+		final long half = added / 2;
+		if (added % 2 == 1) return get(half);
+		return (get(half - 1) + get(half)) / 2;
+	}
+
+	/**
+	 * Returns the mean of the values added so far once the given number of
+	 * values has been dropped from each end. Returns NaN if none remain.
+	 */
+	public double getTrimmedMean(final long halfTrimSize) {
+		final long from = halfTrimSize;
+		final long to = added - halfTrimSize;
+		if (from < 0 || to <= from) return Double.NaN;
+		double sum = 0;
+		if (histogram == null) {
+			sort();
+			for (int i = (int) from; i < to; i++) {
+				sum += values[i];
+			}
+		}
+		else {
+			long rank = 0;
+			for (int bin = 0; bin < histogram.length && rank < to; bin++) {
+				final long lo = Math.max(rank, from);
+				final long hi = Math.min(rank + histogram[bin], to);
+				if (hi > lo) sum += (hi - lo) * (min + bin);
+				rank += histogram[bin];
+			}
+		}
+		return sum / (to - from);
+	}
+
+	// -- private helpers --
+
+	private void sort() {
+		if (sorted) return;
+		Arrays.sort(values, 0, (int) added);
+		sorted = true;
+	}
+
+}
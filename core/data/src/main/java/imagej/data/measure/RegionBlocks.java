@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data.measure;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.ops.condition.Condition;
+import net.imglib2.ops.pointset.ConditionalPointSet;
+import net.imglib2.ops.pointset.HyperVolumePointSet;
+import net.imglib2.ops.pointset.PointSet;
+
+/**
+ * Splits a {@link PointSet} region into blocks of whole slices along its
+ * slowest varying axis, so that the blocks can be measured on separate threads.
+ * The blocks depend only upon the bounds of the region, never on the number of
+ * threads, so merging per-block results in block order gives the same answer
+ * however many threads did the work.
+ * <p>
+ * {@link HyperVolumePointSet}s are split into smaller hypervolumes and
+ * {@link ConditionalPointSet}s into blocks that test each point for inclusion
+ * in the region, which is what iterating them does anyway. Any other kind of
+ * region is returned as a single block since walking its bounding box could
+ * cost far more than walking the region itself.
+ * </p>
+ */
+public final class RegionBlocks {
+
+	/** The largest number of blocks a region is split into. */
+	public static final int MAX_BLOCKS = 64;
+
+	private RegionBlocks() {
+		// prevent instantiation of utility class
+	}
+
+	/** Splits the given region into blocks. */
+	public static List<PointSet> split(final PointSet region) {
+		final List<PointSet> blocks = new ArrayList<PointSet>();
+		final boolean hyperVolume = region instanceof HyperVolumePointSet;
+		if (!hyperVolume && !(region instanceof ConditionalPointSet)) {
+			blocks.add(region);
+			return blocks;
+		}
+		final long[] min = region.findBoundMin();
+		final long[] max = region.findBoundMax();
+		int axis = min.length - 1;
+		while (axis > 0 && max[axis] == min[axis]) {
+			axis--;
+		}
+		final long extent = max[axis] - min[axis] + 1;
+		final long slicesPerBlock = (extent + MAX_BLOCKS - 1) / MAX_BLOCKS;
+		for (long first = min[axis]; first <= max[axis]; first += slicesPerBlock) {
+			final long[] blockMin = min.clone();
+			final long[] blockMax = max.clone();
+			blockMin[axis] = first;
+			blockMax[axis] = Math.min(first + slicesPerBlock - 1, max[axis]);
+			final PointSet volume = new HyperVolumePointSet(blockMin, blockMax);
+			if (hyperVolume) blocks.add(volume);
+			else {
+				final Condition<long[]> inside = new InsideCondition(region);
+				blocks.add(new ConditionalPointSet(volume, inside));
+			}
+		}
+		return blocks;
+	}
+
+	/** Returns the number of points in the bounding box of the given region. */
+	public static long getBoundingVolume(final PointSet region) {
+		final long[] min = region.findBoundMin();
+		final long[] max = region.findBoundMax();
+		long volume = 1;
+		for (int i = 0; i < min.length; i++) {
+			volume *= max[i] - min[i] + 1;
+		}
+		return volume;
+	}
+
+	// -- helper classes --
+
+	/** Tests whether points are included in a region. */
+	private static class InsideCondition implements Condition<long[]> {
+
+		private final PointSet region;
+
+		public InsideCondition(final PointSet region) {
+			this.region = region;
+		}
+
+		@Override
+		public boolean isTrue(final long[] val) {
+			return region.includes(val);
+		}
+
+		@Override
+		public InsideCondition copy() {
+			return new InsideCondition(region.copy());
+		}
+
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data.measure;
+
+import java.util.EnumSet;
+
+import net.imglib2.ops.pointset.PointSet;
+
+/**
+ * The statistics that {@link StatisticsService#measure} can compute together
+ * in a single visit of a {@link PointSet} region.
+ */
+public enum Stat {
+
+	/** The arithmetic mean. */
+	ARITHMETIC_MEAN,
+
+	/** The geometric mean: the exponential of the mean of the logs. */
+	GEOMETRIC_MEAN,
+
+	/** The harmonic mean: N divided by the sum of the reciprocals. */
+	HARMONIC_MEAN,
+
+	/** The maximum value. */
+	MAXIMUM,
+
+	/** The median value. For an even N it is the mean of the middle two. */
+	MEDIAN,
+
+	/** The point midway between the minimum and the maximum. */
+	MIDPOINT,
+
+	/** The minimum value. */
+	MINIMUM,
+
+	/** The (biased) kurtosis: m4 / m2^2. */
+	POPULATION_KURTOSIS,
+
+	/** The (biased) kurtosis excess: m4 / m2^2 - 3. */
+	POPULATION_KURTOSIS_EXCESS,
+
+	/** The (biased) skew: m3 / m2^1.5. */
+	POPULATION_SKEW,
+
+	/** The square root of the (biased) variance. */
+	POPULATION_STD_DEV,
+
+	/** The sum of squared deviations divided by N. */
+	POPULATION_VARIANCE,
+
+	/** The product of all the values. */
+	PRODUCT,
+
+	/** The (unbiased) kurtosis: the sample kurtosis excess plus 3. */
+	SAMPLE_KURTOSIS,
+
+	/**
+	 * The (unbiased) kurtosis excess: (N-1) / ((N-2)(N-3)) * ((N+1) g2 + 6)
+	 * where g2 is the population kurtosis excess.
+	 */
+	SAMPLE_KURTOSIS_EXCESS,
+
+	/**
+	 * The (unbiased) skew: sqrt(N(N-1)) / (N-2) * g1 where g1 is the population
+	 * skew.
+	 */
+	SAMPLE_SKEW,
+
+	/** The square root of the (unbiased) variance. */
+	SAMPLE_STD_DEV,
+
+	/** The sum of squared deviations divided by N-1. */
+	SAMPLE_VARIANCE,
+
+	/** The sum of all the values. */
+	SUM,
+
+	/** The sum of squared deviations from the mean. */
+	SUM_OF_SQUARED_DEVIATIONS;
+
+	/**
+	 * Returns true if the given statistics include any that need the values in
+	 * order, and thus a second visit of the region.
+	 */
+	public static boolean needsOrder(final EnumSet<Stat> stats) {
+		return stats.contains(MEDIAN);
+	}
+
+}
@@ -0,0 +1,319 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data.measure;
+
+import java.util.EnumSet;
+
+/**
+ * Accumulates the moment based and extreme value {@link Stat}s of a stream of
+ * values in a single pass. The central moments are updated online (Welford's
+ * method extended to the third and fourth moments) so that no value has to be
+ * kept around or visited twice, and the results do not suffer from the
+ * cancellation that summing raw powers does.
+ * <p>
+ * An accumulator can be limited to the statistics it will be asked for, in
+ * which case only the terms those need are updated for each value: the mean
+ * alone needs no higher moments, and the extremes need no moments at all.
+ * {@link Stat#MEDIAN} is not available from an accumulator; see
+ * {@link OrderStatistics}. Asking for it keeps the extremes, which
+ * {@link OrderStatistics} needs.
+ * </p>
+ */
+public class StatisticsAccumulator {
+
+	// -- instance variables --
+
+	/** The highest central moment updated, from 0 (none) to 4. */
+	private final int moments;
+	private final boolean extremes;
+	private final boolean sums;
+	private final boolean logs;
+	private final boolean reciprocals;
+	private final boolean products;
+
+	private long n;
+	private double mean;
+	private double m2;
+	private double m3;
+	private double m4;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	private double sum;
+	private double sumOfLogs;
+	private double sumOfReciprocals;
+	private double product = 1;
+
+	// -- constructors --
+
+	/** Creates an accumulator of every statistic it can compute. */
+	public StatisticsAccumulator() {
+		this(EnumSet.allOf(Stat.class));
+	}
+
+	/** Creates an accumulator of only the given statistics. */
+	public StatisticsAccumulator(final EnumSet<Stat> stats) {
+		int order = 0;
+		for (final Stat stat : stats) {
+			order = Math.max(order, momentOrder(stat));
+		}
+		moments = order;
+		extremes =
+			stats.contains(Stat.MINIMUM) || stats.contains(Stat.MAXIMUM) ||
+				stats.contains(Stat.MIDPOINT) || stats.contains(Stat.MEDIAN);
+		sums = stats.contains(Stat.SUM);
+		logs = stats.contains(Stat.GEOMETRIC_MEAN);
+		reciprocals = stats.contains(Stat.HARMONIC_MEAN);
+		products = stats.contains(Stat.PRODUCT);
+	}
+
+	// -- StatisticsAccumulator methods --
+
+	/** Adds a value to the accumulated statistics. */
+	public void add(final double value) {
+		n++;
+		if (moments > 0) {
+			final double delta = value - mean;
+			final double deltaN = delta / n;
+			mean += deltaN;
+			if (moments > 1) {
+				final double term1 = delta * deltaN * (n - 1);
+				if (moments > 2) {
+					final double deltaN2 = deltaN * deltaN;
+					if (moments > 3) {
+						m4 +=
+							term1 * deltaN2 * ((double) n * n - 3 * n + 3) + 6 * deltaN2 *
+								m2 - 4 * deltaN * m3;
+					}
+					m3 += term1 * deltaN * (n - 2) - 3 * deltaN * m2;
+				}
+				m2 += term1;
+			}
+		}
+		if (extremes) {
+			if (value < min) min = value;
+			if (value > max) max = value;
+		}
+		if (sums) sum += value;
+		if (logs) sumOfLogs += Math.log(value);
+		if (reciprocals) sumOfReciprocals += 1 / value;
+		if (products) product *= value;
+	}
+
+	/**
+	 * Adds the values accumulated by another accumulator, as if they had been
+	 * added to this one. The moments are combined with the pairwise update
+	 * formulas of Chan et al. and Pebay, which stay accurate when partial results
+	 * over large blocks are merged. Both accumulators should accumulate the same
+	 * statistics.
+	 */
+	public void merge(final StatisticsAccumulator other) {
+		if (other.n == 0) return;
+		if (n == 0) {
+			n = other.n;
+			mean = other.mean;
+			m2 = other.m2;
+			m3 = other.m3;
+			m4 = other.m4;
+		}
+		else {
+			final double na = n;
+			final double nb = other.n;
+			final double nt = na + nb;
+			final double delta = other.mean - mean;
+			final double delta2 = delta * delta;
+			final double newM2 = m2 + other.m2 + delta2 * na * nb / nt;
+			final double newM3 =
+				m3 + other.m3 + delta2 * delta * na * nb * (na - nb) / (nt * nt) + 3 *
+					delta * (na * other.m2 - nb * m2) / nt;
+			final double newM4 =
+				m4 + other.m4 + delta2 * delta2 * na * nb * (na * na - na * nb + nb * nb) /
+					(nt * nt * nt) + 6 * delta2 * (na * na * other.m2 + nb * nb * m2) /
+					(nt * nt) + 4 * delta * (na * other.m3 - nb * m3) / nt;
+			n += other.n;
+			mean += delta * nb / nt;
+			m2 = newM2;
+			m3 = newM3;
+			m4 = newM4;
+		}
+		if (other.min < min) min = other.min;
+		if (other.max > max) max = other.max;
+		sum += other.sum;
+		sumOfLogs += other.sumOfLogs;
+		sumOfReciprocals += other.sumOfReciprocals;
+		product *= other.product;
+	}
+
+	/** Returns the number of values accumulated so far. */
+	public long getCount() {
+		return n;
+	}
+
+	/** Returns the smallest value accumulated so far. */
+	public double getMin() {
+		return min;
+	}
+
+	/** Returns the largest value accumulated so far. */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the value of the given statistic for the values accumulated so far,
+	 * or NaN if it is undefined for that few values.
+	 * 
+	 * @throws IllegalArgumentException if the statistic needs the values in
+	 *           order, or was not among those this accumulator was created for
+	 */
+	public double get(final Stat stat) {
+		if (!isAccumulated(stat)) {
+			throw new IllegalArgumentException("Statistic " + stat +
+				" was not accumulated");
+		}
+		final double count = n;
+		switch (stat) {
+			case ARITHMETIC_MEAN:
+				return n == 0 ? Double.NaN : mean;
+			case GEOMETRIC_MEAN:
+				return n == 0 ? Double.NaN : Math.exp(sumOfLogs / count);
+			case HARMONIC_MEAN:
+				return n == 0 ? Double.NaN : count / sumOfReciprocals;
+			case MAXIMUM:
+				return n == 0 ? Double.NaN : max;
+			case MIDPOINT:
+				return n == 0 ? Double.NaN : (min + max) / 2;
+			case MINIMUM:
+				return n == 0 ? Double.NaN : min;
+			case POPULATION_KURTOSIS:
+				return populationKurtosis();
+			case POPULATION_KURTOSIS_EXCESS:
+				return populationKurtosis() - 3;
+			case POPULATION_SKEW:
+				return populationSkew();
+			case POPULATION_STD_DEV:
+				return Math.sqrt(get(Stat.POPULATION_VARIANCE));
+			case POPULATION_VARIANCE:
+				return n == 0 ? Double.NaN : m2 / count;
+			case PRODUCT:
+				return product;
+			case SAMPLE_KURTOSIS:
+				return sampleKurtosisExcess() + 3;
+			case SAMPLE_KURTOSIS_EXCESS:
+				return sampleKurtosisExcess();
+			case SAMPLE_SKEW:
+				if (n < 3) return Double.NaN;
+				return Math.sqrt(count * (count - 1)) / (count - 2) * populationSkew();
+			case SAMPLE_STD_DEV:
+				return Math.sqrt(get(Stat.SAMPLE_VARIANCE));
+			case SAMPLE_VARIANCE:
+				return n < 2 ? Double.NaN : m2 / (count - 1);
+			case SUM:
+				return sum;
+			case SUM_OF_SQUARED_DEVIATIONS:
+				return m2;
+			default:
+				throw new IllegalArgumentException("Statistic " + stat +
+					" cannot be accumulated in a single pass");
+		}
+	}
+
+	// -- private helpers --
+
+	/** Gets the highest central moment the given statistic depends upon. */
+	private static int momentOrder(final Stat stat) {
+		switch (stat) {
+			case ARITHMETIC_MEAN:
+				return 1;
+			case POPULATION_STD_DEV:
+			case POPULATION_VARIANCE:
+			case SAMPLE_STD_DEV:
+			case SAMPLE_VARIANCE:
+			case SUM_OF_SQUARED_DEVIATIONS:
+				return 2;
+			case POPULATION_SKEW:
+			case SAMPLE_SKEW:
+				return 3;
+			case POPULATION_KURTOSIS:
+			case POPULATION_KURTOSIS_EXCESS:
+			case SAMPLE_KURTOSIS:
+			case SAMPLE_KURTOSIS_EXCESS:
+				return 4;
+			default:
+				return 0;
+		}
+	}
+
+	private boolean isAccumulated(final Stat stat) {
+		switch (stat) {
+			case GEOMETRIC_MEAN:
+				return logs;
+			case HARMONIC_MEAN:
+				return reciprocals;
+			case MAXIMUM:
+			case MIDPOINT:
+			case MINIMUM:
+				return extremes;
+			case PRODUCT:
+				return products;
+			case SUM:
+				return sums;
+			case MEDIAN:
+				// NB - reported as not available by get()
+				return true;
+			default:
+				return momentOrder(stat) <= moments;
+		}
+	}
+
+	private double populationSkew() {
+		if (n == 0) return Double.NaN;
+		return Math.sqrt(n) * m3 / Math.pow(m2, 1.5);
+	}
+
+	private double populationKurtosis() {
+		if (n == 0) return Double.NaN;
+		return n * m4 / (m2 * m2);
+	}
+
+	private double sampleKurtosisExcess() {
+		if (n < 4) return Double.NaN;
+		final double count = n;
+		final double g2 = populationKurtosis() - 3;
+		return (count - 1) / ((count - 2) * (count - 3)) * ((count + 1) * g2 + 6);
+	}
+
+}
@@ -36,21 +36,22 @@
 package imagej.data.measure;
 
 import imagej.data.Dataset;
+
+import java.util.EnumSet;
+import java.util.Map;
+
 import net.imglib2.ops.pointset.PointSet;
 
 import org.scijava.service.Service;
 
 // TODO - make MeasurementService smarter. Compute values without always
-// revisiting the pixels. This current impl goes over pixels once for each
-// measurement. I will mock something up soon. BDZ
+// revisiting the pixels. The measure(Dataset, PointSet, EnumSet<Stat>) method
+// of this service batches the stats it knows but MeasurementService still goes
+// over pixels once for each measurement. BDZ
 
 // TODO - this service is limited to only the kinds of stats it knows. It can't
 // measure a user provided statistic. This can be done by calling the
 // MeasurementService more directly.
-// Also this service calcs one measure at a time. Our future MeasurementService
-// should be able to batch them together. It also might be nice to be able to
-// specify to this service gather min,var,stdev,median in an array of output
-// doubles.
 
 // TODO - see what IJ1 calculates and provide such methods here and in OPS
 
@@ -536,6 +537,45 @@ public interface StatisticsService extends Service {
 	 */
 	double weightedSum(Dataset ds, PointSet region, double[] weights);
 
+	/**
+	 * Measures a set of statistics of the values within a {@link PointSet}
+	 * region of a {@link Dataset} together. All the moment based and extreme
+	 * value statistics are computed in a single visit of the region; a second
+	 * visit is only made if {@link Stat#MEDIAN} is requested.
+	 * 
+	 * @param ds The Dataset to measure
+	 * @param region The PointSet region upon which to calculate
+	 * @param stats The statistics to compute
+	 * @return The measured values, keyed by statistic
+	 */
+	Map<Stat, Double> measure(Dataset ds, PointSet region, EnumSet<Stat> stats);
+
+	/**
+	 * Measures a set of statistics of the values within a {@link PointSet}
+	 * region of a {@link Dataset} together, on at most the given number of
+	 * threads. Regions are always measured in the same blocks, which are merged
+	 * in the same order, so the results do not depend on the number of threads.
+	 * 
+	 * @param ds The Dataset to measure
+	 * @param region The PointSet region upon which to calculate
+	 * @param stats The statistics to compute
+	 * @param threadCount The number of threads to use; 1 measures the region
+	 *          on the calling thread
+	 * @return The measured values, keyed by statistic
+	 */
+	Map<Stat, Double> measure(Dataset ds, PointSet region, EnumSet<Stat> stats,
+		int threadCount);
+
+	/**
+	 * Measures a set of statistics of the values within a {@link Dataset}
+	 * together.
+	 * 
+	 * @param ds The Dataset to measure
+	 * @param stats The statistics to compute
+	 * @return The measured values, keyed by statistic
+	 */
+	Map<Stat, Double> measure(Dataset ds, EnumSet<Stat> stats);
+
 	/**
 	 * A convenience function for defining a {@link PointSet} that encompasses all
 	 * the points within a {@link Dataset}.
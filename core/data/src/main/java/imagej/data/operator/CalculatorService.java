@@ -35,6 +35,9 @@
 
 package imagej.data.operator;
 
+import imagej.data.ParallelLoop;
+import imagej.data.RowAccess;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -44,6 +47,7 @@
 import net.imglib2.img.Img;
 import net.imglib2.img.array.ArrayImgFactory;
 import net.imglib2.ops.img.ImageCombiner;
+import net.imglib2.ops.operation.BinaryOperation;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.DoubleType;
 
@@ -132,8 +136,123 @@ public List<String> getOperatorNames() {
 			new ArrayImgFactory<DoubleType>(), new DoubleType());
 	}
 
+	/**
+	 * Combines two input {@link Img}s pixel by pixel using a given
+	 * {@link CalculatorOp}, writing the results straight into an output
+	 * {@link Img} of any type. Only the region of overlap between all three
+	 * {@link Img}s is written, and results are clamped to the range of the
+	 * output type. The output may be one of the inputs.
+	 * <p>
+	 * Unlike {@link #combine(Img, Img, CalculatorOp)} no intermediate image is
+	 * made: rows are streamed from the inputs to the output, and the rows of
+	 * every plane are divided among several threads. Outputs packing several
+	 * pixels into each storage word are only divided by whole planes of planar
+	 * images, and are otherwise written on one thread.
+	 * </p>
+	 * 
+	 * @param img1 data input Img 1
+	 * @param img2 data input Img 2
+	 * @param op The CalculatorOp algorithm used to combine the two inputs
+	 * @param output The Img the combined data is written into
+	 */
+	public <U extends RealType<U>, V extends RealType<V>> void combine(
+		final Img<U> img1, final Img<V> img2, final CalculatorOp<U, V> op,
+		final Img<? extends RealType<?>> output)
+	{
+		final long[] span = getOverlap(img1, img2);
+		if (output.numDimensions() != span.length) {
+			throw new IllegalArgumentException(
+				"Output has a different number of dimensions than the inputs");
+		}
+		for (int d = 0; d < span.length; d++) {
+			span[d] = Math.min(span[d], output.dimension(d));
+			if (span[d] == 0) return;
+		}
+		final int width = (int) span[0];
+		final int height = span.length > 1 ? (int) span[1] : 1;
+		long planes = 1;
+		for (int d = 2; d < span.length; d++) {
+			planes *= span[d];
+		}
+		final double min = output.firstElement().getMinValue();
+		final double max = output.firstElement().getMaxValue();
+		// NB - packed types may only be split between threads by whole planes
+		final boolean byRows = RowAccess.canWriteRowsInParallel(output);
+		final int rowsPerUnit = byRows ? 1 : height;
+		final int threads =
+			byRows || RowAccess.canWritePlanesInParallel(output, 0, 1)
+				? ParallelLoop.getThreadCount(getContext()) : 1;
+		ParallelLoop.run(getContext(), planes * height / rowsPerUnit, threads,
+			new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count) {
+					final RowAccess rows1 = new RowAccess(img1);
+					final RowAccess rows2 = new RowAccess(img2);
+					final RowAccess rowsOut = new RowAccess(output);
+					final double[] row1 = new double[rows1.getWidth()];
+					final double[] row2 = new double[rows2.getWidth()];
+					final double[] rowOut = new double[rowsOut.getWidth()];
+					final BinaryOperation<U, V, DoubleType> localOp = op.copy();
+					final U in1 = img1.firstElement().createVariable();
+					final V in2 = img2.firstElement().createVariable();
+					final DoubleType result = new DoubleType();
+					final long first = start * rowsPerUnit;
+					final long last = (start + count) * rowsPerUnit;
+					for (long unit = first; unit < last; unit++) {
+						final long plane = unit / height;
+						final int y = (int) (unit % height);
+						rows1.read(planeIndex(img1, span, plane), y, row1);
+						rows2.read(planeIndex(img2, span, plane), y, row2);
+						final long outPlane = planeIndex(output, span, plane);
+						if (width < rowOut.length) rowsOut.read(outPlane, y, rowOut);
+						for (int x = 0; x < width; x++) {
+							in1.setReal(row1[x]);
+							in2.setReal(row2[x]);
+							localOp.compute(in1, in2, result);
+							final double value = result.getRealDouble();
+							rowOut[x] = value < min ? min : value > max ? max : value;
+						}
+						rowsOut.write(outPlane, y, rowOut);
+					}
+				}
+			});
+	}
+
+	/**
+	 * Gets the dimensions of the region of overlap between two {@link Img}s,
+	 * which must have the same number of dimensions.
+	 */
+	public long[] getOverlap(final Img<?> img1, final Img<?> img2) {
+		if (img1.numDimensions() != img2.numDimensions()) {
+			throw new IllegalArgumentException(
+				"Images have different numbers of dimensions");
+		}
+		final long[] span = new long[img1.numDimensions()];
+		for (int d = 0; d < span.length; d++) {
+			span[d] = Math.min(img1.dimension(d), img2.dimension(d));
+		}
+		return span;
+	}
+
 	// -- helpers --
 
+	/**
+	 * Converts the index of a plane of a region at the origin of an image into
+	 * the index of that plane in the image.
+	 */
+	private static long planeIndex(final Img<?> img, final long[] span,
+		final long plane)
+	{
+		long index = plane, result = 0, stride = 1;
+		for (int d = 2; d < span.length; d++) {
+			result += (index % span[d]) * stride;
+			index /= span[d];
+			stride *= img.dimension(d);
+		}
+		return result;
+	}
+
 	@SuppressWarnings("rawtypes")
 	private void findOperators() {
 		List<PluginInfo<CalculatorOp>> pluginInfos =
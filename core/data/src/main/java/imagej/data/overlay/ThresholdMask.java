@@ -0,0 +1,290 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data.overlay;
+
+import imagej.data.Dataset;
+import imagej.data.ParallelLoop;
+import imagej.data.RowAccess;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.imglib2.ops.condition.Condition;
+
+/**
+ * Packed bit masks recording, for each point of a {@link Dataset}, whether its
+ * value is less than, within or greater than a range. NaN values are in none
+ * of the three. The masks of a plane are computed the first time a point of
+ * the plane is asked about, its rows divided among several threads, and kept
+ * until the range or the plane's data changes. Once the kept masks outgrow a
+ * memory limit, those of the least recently used planes are dropped, so a
+ * mask left materialized does not end up holding a bit per point of the whole
+ * Dataset.
+ * <p>
+ * Each row of a mask starts on a fresh word, so rows can be filled
+ * independently.
+ * </p>
+ */
+class ThresholdMask {
+
+	/** The relationships between a value and the range that can be tested. */
+	enum Relation {
+		LESS, WITHIN, GREATER, OUTSIDE
+	}
+
+	// -- constants --
+
+	/**
+	 * The default share of the maximum heap that the masks of computed planes
+	 * may occupy.
+	 */
+	public static final double DEFAULT_MEMORY_FRACTION = 0.05;
+
+	// -- instance variables --
+
+	private final Dataset dataset;
+	private final int threads;
+	private final int width, height;
+	private final int wordsPerRow;
+	private final long[] planeStrides;
+	private double min, max;
+
+	private final long planeCount;
+
+	// the masks of recently used planes, indexed by Relation ordinal
+	private final Map<Long, long[][]> planes;
+
+	// bumped whenever any mask is discarded, so conditions drop their caches
+	private volatile int generation;
+
+	// -- constructor --
+
+	public ThresholdMask(final Dataset dataset, final int threads,
+		final double min, final double max)
+	{
+		this(dataset, threads, min, max, (long) (DEFAULT_MEMORY_FRACTION * Runtime
+			.getRuntime().maxMemory()));
+	}
+
+	/**
+	 * Creates masks that drop the least recently used planes once they occupy
+	 * more than the given number of bytes. The masks of one plane are always
+	 * kept.
+	 */
+	public ThresholdMask(final Dataset dataset, final int threads,
+		final double min, final double max, final long maxBytes)
+	{
+		this.dataset = dataset;
+		this.threads = threads;
+		this.min = min;
+		this.max = max;
+		final RowAccess shape = new RowAccess(dataset.getImgPlus());
+		width = shape.getWidth();
+		height = shape.getHeight();
+		wordsPerRow = (width + 63) / 64;
+		if ((long) wordsPerRow * height > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Dataset is too large to mask");
+		}
+		planeCount = shape.getPlaneCount();
+		final long planeBytes =
+			8L * Relation.values().length * wordsPerRow * height;
+		final long maxPlanes = Math.max(1, maxBytes / Math.max(1, planeBytes));
+		planes = new LinkedHashMap<Long, long[][]>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Long, long[][]> e) {
+				return size() > maxPlanes;
+			}
+		};
+		planeStrides = new long[Math.max(0, dataset.numDimensions() - 2)];
+		long stride = 1;
+		for (int i = 0; i < planeStrides.length; i++) {
+			planeStrides[i] = stride;
+			stride *= dataset.dimension(i + 2);
+		}
+	}
+
+	// -- ThresholdMask methods --
+
+	/** Changes the range, discarding every mask. */
+	public synchronized void setRange(final double newMin, final double newMax) {
+		min = newMin;
+		max = newMax;
+		invalidate();
+	}
+
+	/** Discards the masks of every plane. */
+	public synchronized void invalidate() {
+		planes.clear();
+		generation++;
+	}
+
+	/** Discards the masks of the given planes. */
+	public synchronized void invalidate(final long[] changed) {
+		for (final long p : changed) {
+			if (p >= 0 && p < planeCount) planes.remove(p);
+		}
+		generation++;
+	}
+
+	/** Creates a condition that tests points against one of the masks. */
+	public Condition<long[]> createCondition(final Relation relation) {
+		return new MaskCondition(this, relation);
+	}
+
+	/**
+	 * Classifies a point as {@link ThresholdOverlay#classify(long[])} does.
+	 */
+	public int classify(final long[] point) {
+		final long[][] masks = masks(planeIndex(point));
+		final int x = (int) point[0];
+		final int y = point.length > 1 ? (int) point[1] : 0;
+		if (isSet(masks[Relation.WITHIN.ordinal()], x, y)) return 0;
+		if (isSet(masks[Relation.LESS.ordinal()], x, y)) return -1;
+		if (isSet(masks[Relation.GREATER.ordinal()], x, y)) return 1;
+		return Integer.MAX_VALUE;
+	}
+
+	/** Gets the number of planes whose masks are currently kept. */
+	synchronized int getCachedPlaneCount() {
+		return planes.size();
+	}
+
+	// -- helpers --
+
+	private long planeIndex(final long[] point) {
+		long plane = 0;
+		for (int i = 0; i < planeStrides.length; i++) {
+			plane += point[i + 2] * planeStrides[i];
+		}
+		return plane;
+	}
+
+	private boolean isSet(final long[] mask, final int x, final int y) {
+		final long word = mask[y * wordsPerRow + (x >>> 6)];
+		return (word & (1L << (x & 63))) != 0;
+	}
+
+	/** Gets the masks of a plane, computing them if necessary. */
+	private synchronized long[][] masks(final long plane) {
+		long[][] masks = planes.get(plane);
+		if (masks == null) {
+			masks = compute(plane);
+			planes.put(plane, masks);
+		}
+		return masks;
+	}
+
+	private long[][] compute(final long plane) {
+		final int words = wordsPerRow * height;
+		final long[] less = new long[words];
+		final long[] within = new long[words];
+		final long[] greater = new long[words];
+		final double lo = min, hi = max;
+		ParallelLoop.run(dataset.getContext(), height, threads,
+			new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count) {
+					final RowAccess rows = new RowAccess(dataset.getImgPlus());
+					final double[] row = new double[width];
+					for (int y = (int) start; y < start + count; y++) {
+						rows.read(plane, y, row);
+						final int base = y * wordsPerRow;
+						for (int x = 0; x < width; x++) {
+							final double value = row[x];
+							final long bit = 1L << (x & 63);
+							final int w = base + (x >>> 6);
+							if (value < lo) less[w] |= bit;
+							else if (value > hi) greater[w] |= bit;
+							else if (value == value) within[w] |= bit; // not NaN
+						}
+					}
+				}
+			});
+		final long[] outside = new long[words];
+		for (int w = 0; w < words; w++) {
+			outside[w] = less[w] | greater[w];
+		}
+		final long[][] masks = new long[Relation.values().length][];
+		masks[Relation.LESS.ordinal()] = less;
+		masks[Relation.WITHIN.ordinal()] = within;
+		masks[Relation.GREATER.ordinal()] = greater;
+		masks[Relation.OUTSIDE.ordinal()] = outside;
+		return masks;
+	}
+
+	// -- helper classes --
+
+	/**
+	 * Tests points against one mask. Each condition remembers the mask of the
+	 * last plane it looked at, so a copy should be made for each thread.
+	 */
+	private static class MaskCondition implements Condition<long[]> {
+
+		private final ThresholdMask owner;
+		private final Relation relation;
+		private long cachedPlane = -1;
+		private long[] cachedMask;
+		private int cachedGeneration;
+
+		public MaskCondition(final ThresholdMask owner, final Relation relation) {
+			this.owner = owner;
+			this.relation = relation;
+		}
+
+		@Override
+		public boolean isTrue(final long[] point) {
+			final long plane = owner.planeIndex(point);
+			final int gen = owner.generation;
+			if (plane != cachedPlane || gen != cachedGeneration) {
+				cachedMask = owner.masks(plane)[relation.ordinal()];
+				cachedPlane = plane;
+				cachedGeneration = gen;
+			}
+			final int y = point.length > 1 ? (int) point[1] : 0;
+			return owner.isSet(cachedMask, (int) point[0], y);
+		}
+
+		@Override
+		public MaskCondition copy() {
+			return new MaskCondition(owner, relation);
+		}
+
+	}
+
+}
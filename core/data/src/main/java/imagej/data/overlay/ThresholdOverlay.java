@@ -36,7 +36,9 @@
 package imagej.data.overlay;
 
 import imagej.data.Dataset;
+import imagej.data.ParallelLoop;
 import imagej.data.event.DatasetRestructuredEvent;
+import imagej.data.event.DatasetUpdatedEvent;
 import imagej.data.event.OverlayUpdatedEvent;
 import imagej.display.Displayable;
 import imagej.util.ColorRGB;
@@ -64,6 +66,12 @@
 /**
  * A {@link ThresholdOverlay} is an {@link Overlay} that represents the set of
  * points whose data values are in a range prescribed by API user.
+ * <p>
+ * By default its point sets test the underlying data each time they are
+ * iterated. In materialized mode they test packed bit masks instead, which are
+ * computed a plane at a time from the data once per range and kept until the
+ * range or the data changes.
+ * </p>
  * 
  * @author Barry DeZonia
  */
@@ -89,6 +97,7 @@ public class ThresholdOverlay extends AbstractOverlay
 	private ColorRGB colorWithin;
 	private ColorRGB colorGreater;
 	private String defaultName;
+	private ThresholdMask mask;
 
 	// -- ThresholdOverlay methods --
 
@@ -146,14 +155,33 @@ public void setRange(double min, double max) {
 		conditionWithin.setMax(max);
 		conditionLess.setValue(min);
 		conditionGreater.setValue(max);
+		if (mask != null) mask.setRange(min, max);
 		// make sure all pointsets know they've changed
-		pointsGreater.setCondition(conditionGreater);
-		pointsLess.setCondition(conditionLess);
-		pointsWithin.setCondition(conditionWithin);
-		pointsOutside.setCondition(conditionOutside);
+		setPointSetConditions();
 		setDefaultName(changed);
 	}
 
+	/**
+	 * Returns true if the point sets of this overlay are backed by bit masks of
+	 * the data rather than by tests of the data itself.
+	 */
+	public boolean isMaterialized() {
+		return mask != null;
+	}
+
+	/**
+	 * Sets whether the point sets of this overlay are backed by bit masks of the
+	 * data. Materialized point sets cost one bit per pixel per set and a scan of
+	 * each plane after every change of range, but iterating them and testing
+	 * points against them no longer reads the data. This suits ranges that are
+	 * set once and then used many times, for rendering and measurement.
+	 */
+	public void setMaterialized(boolean materialized) {
+		if (materialized == isMaterialized()) return;
+		mask = materialized ? createMask() : null;
+		setPointSetConditions();
+	}
+
 	/**
 	 * Gets the lower end of the range of interest for this overlay.
 	 */
@@ -323,6 +351,7 @@ public void setColorWithin(ColorRGB c) {
 	 * @return -1, 0, or 1
 	 */
 	public int classify(long[] point) {
+		if (mask != null) return mask.classify(point);
 		function.compute(point, variable);
 		double val = variable.getRealDouble();
 		if (Double.isNaN(val)) return Integer.MAX_VALUE;
@@ -431,6 +460,7 @@ public ThresholdOverlay duplicate() {
 		overlay.setColorWithin(getColorWithin());
 		overlay.setColorLess(getColorLess());
 		overlay.setColorGreater(getColorGreater());
+		overlay.setMaterialized(isMaterialized());
 		return overlay;
 	}
 
@@ -456,6 +486,17 @@ protected void onEvent(DatasetRestructuredEvent evt) {
 		}
 	}
 
+	@EventHandler
+	protected void onEvent(DatasetUpdatedEvent evt) {
+		if (evt.getObject() != dataset || evt.isMetaDataOnly()) return;
+		if (mask != null) {
+			if (evt.getPlanes() == null) mask.invalidate();
+			else mask.invalidate(evt.getPlanes());
+		}
+		// the point sets must recompute their bounds
+		setPointSetConditions();
+	}
+
 	// -- helpers --
 
 	@SuppressWarnings({ "unchecked", "rawtypes" })
@@ -496,15 +537,41 @@ private void reinit() {
 		pointsWithin.setPointSet(volume);
 		pointsLess.setPointSet(volume);
 		pointsGreater.setPointSet(volume);
+		pointsOutside.setPointSet(volume);
+		if (mask != null) mask = createMask();
 		// let ConditionalPointSets know they need bounds recalc via setCondition()
-		pointsWithin.setCondition(conditionWithin);
-		pointsLess.setCondition(conditionLess);
-		pointsGreater.setCondition(conditionGreater);
-		pointsOutside.setCondition(conditionOutside);
+		setPointSetConditions();
 		// regionAdapter does not need any changes
 		setDefaultName(false);
 	}
 
+	// Gives each point set the condition it should test: the data itself, or the
+	// bit masks when materialized.
+
+	private void setPointSetConditions() {
+		if (mask == null) {
+			pointsWithin.setCondition(conditionWithin);
+			pointsLess.setCondition(conditionLess);
+			pointsGreater.setCondition(conditionGreater);
+			pointsOutside.setCondition(conditionOutside);
+		}
+		else {
+			pointsWithin.setCondition(mask
+				.createCondition(ThresholdMask.Relation.WITHIN));
+			pointsLess.setCondition(mask
+				.createCondition(ThresholdMask.Relation.LESS));
+			pointsGreater.setCondition(mask
+				.createCondition(ThresholdMask.Relation.GREATER));
+			pointsOutside.setCondition(mask
+				.createCondition(ThresholdMask.Relation.OUTSIDE));
+		}
+	}
+
+	private ThresholdMask createMask() {
+		return new ThresholdMask(dataset, ParallelLoop
+			.getThreadCount(getContext()), getRangeMin(), getRangeMax());
+	}
+
 	private void initAttributes() {
 		setAlpha(255);
 		setFillColor(Colors.RED);
@@ -0,0 +1,384 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import imagej.render.RenderingService;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+import net.imglib2.type.numeric.RealType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Unit tests for {@link FloodFiller}, comparing its fills with those of the
+ * original pixel-by-pixel implementation.
+ */
+public class FloodFillerTest {
+
+	private Context context;
+
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class, RenderingService.class);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testFill4() {
+		final Dataset ds = createDataset(40, 30, 1, 1);
+		for (int seed = 0; seed < 8; seed++) {
+			assertSameFill(ds, 5 * seed, 3 * seed, false, -1);
+		}
+	}
+
+	@Test
+	public void testFill8() {
+		final Dataset ds = createDataset(40, 30, 1, 2);
+		for (int seed = 0; seed < 8; seed++) {
+			assertSameFill(ds, 5 * seed, 3 * seed, true, -1);
+		}
+	}
+
+	@Test
+	public void testWideRows() {
+		// rows spanning several words of the visited bit sets
+		for (final int width : new int[] { 63, 64, 65, 130, 200 }) {
+			final Dataset ds = createDataset(width, 12, 1, width);
+			assertSameFill(ds, width - 1, 6, false, -1);
+			assertSameFill(ds, width / 2, 0, true, -1);
+			assertSameFill(ds, 0, 11, false, -1);
+		}
+	}
+
+	@Test
+	public void testChannels() {
+		final Dataset ds = createDataset(70, 20, 3, 3);
+		assertSameFill(ds, 10, 10, false, -1);
+		assertSameFill(ds, 69, 19, true, -1);
+	}
+
+	@Test
+	public void testPreferredChannel() {
+		final Dataset ds = createDataset(70, 20, 3, 4);
+		for (int c = 0; c < 3; c++) {
+			assertSameFill(ds, 30, 5, false, c);
+			assertSameFill(ds, 31, 15, true, c);
+		}
+	}
+
+	@Test
+	public void testFillValueAlreadyPresent() {
+		final Dataset ds = createDataset(20, 20, 1, 5);
+		final DrawingTool tool = createTool(ds, -1);
+		final RandomAccess<? extends RealType<?>> access =
+			ds.getImgPlus().randomAccess();
+		access.setPosition(new long[] { 3, 4 });
+		tool.setChannels(channels(access.get().getRealDouble()));
+		final FloodFiller filler = new FloodFiller(tool);
+		assertFalse(filler.fill4(3, 4, new long[2]));
+		assertFalse(filler.fill8(3, 4, new long[2]));
+	}
+
+	// -- helper methods --
+
+	/**
+	 * Creates an 8-bit Dataset of small random values, so that equal values
+	 * form irregular connected regions.
+	 */
+	private Dataset createDataset(final int width, final int height,
+		final int channels, final long seed)
+	{
+		final DatasetService datasetService =
+			context.getService(DatasetService.class);
+		final Dataset ds;
+		if (channels == 1) {
+			ds =
+				datasetService.create(new long[] { width, height }, "temp",
+					new AxisType[] { Axes.X, Axes.Y }, 8, false, false);
+		}
+		else {
+			ds =
+				datasetService.create(new long[] { width, height, channels },
+					"temp", new AxisType[] { Axes.X, Axes.Y, Axes.CHANNEL }, 8, false,
+					false);
+		}
+		final Random random = new Random(seed);
+		final Cursor<? extends RealType<?>> cursor = ds.getImgPlus().cursor();
+		while (cursor.hasNext()) {
+			cursor.next();
+			cursor.get().setReal(random.nextInt(5) < 3 ? 0 : 1);
+		}
+		return ds;
+	}
+
+	private DrawingTool createTool(final Dataset ds,
+		final long preferredChannel)
+	{
+		final DrawingTool tool =
+			new DrawingTool(ds, context.getService(RenderingService.class));
+		tool.setUAxis(0);
+		tool.setVAxis(1);
+		tool.setPreferredChannel(preferredChannel);
+		return tool;
+	}
+
+	private ChannelCollection channels(final double... values) {
+		final List<Double> list = new LinkedList<Double>();
+		for (final double value : values)
+			list.add(value);
+		return new ChannelCollection(list);
+	}
+
+	/**
+	 * Fills copies of a Dataset from (u0,v0) with both flood fill
+	 * implementations and checks that they change the same pixels.
+	 */
+	private void assertSameFill(final Dataset ds, final long u0, final long v0,
+		final boolean eightConnected, final long preferredChannel)
+	{
+		final int numChannels = ds.getImgPlus().numDimensions() > 2 ?
+			(int) ds.dimension(2) : 1;
+		final double[] fillValues = new double[numChannels];
+		for (int c = 0; c < numChannels; c++)
+			fillValues[c] = 7 + c;
+		final long[] position = new long[ds.numDimensions()];
+
+		final Dataset expected = ds.duplicate();
+		final DrawingTool expectedTool = createTool(expected, preferredChannel);
+		expectedTool.setChannels(channels(fillValues));
+		final OldFloodFiller oldFiller = new OldFloodFiller(expectedTool);
+		final boolean expectedResult =
+			eightConnected ? oldFiller.fill8(u0, v0, position) : oldFiller.fill4(
+				u0, v0, position);
+
+		final Dataset actual = ds.duplicate();
+		final DrawingTool actualTool = createTool(actual, preferredChannel);
+		actualTool.setChannels(channels(fillValues));
+		final FloodFiller filler = new FloodFiller(actualTool);
+		final boolean actualResult =
+			eightConnected ? filler.fill8(u0, v0, position) : filler.fill4(u0, v0,
+				position);
+
+		assertEquals(expectedResult, actualResult);
+		final String message =
+			Arrays.toString(ds.getDims()) + " from (" + u0 + "," + v0 + ")" +
+				(eightConnected ? " 8-connected" : " 4-connected") +
+				" preferring channel " + preferredChannel;
+		final Cursor<? extends RealType<?>> cursor =
+			expected.getImgPlus().localizingCursor();
+		final RandomAccess<? extends RealType<?>> access =
+			actual.getImgPlus().randomAccess();
+		while (cursor.hasNext()) {
+			cursor.next();
+			access.setPosition(cursor);
+			assertEquals(message, cursor.get().getRealDouble(), access.get()
+				.getRealDouble(), 0);
+		}
+	}
+
+	// -- helper classes --
+
+	/**
+	 * The flood fill as {@link FloodFiller} did it before it read whole rows:
+	 * pixel by pixel through a {@link RandomAccess}, drawing each scan-line with
+	 * the {@link DrawingTool}.
+	 */
+	private static class OldFloodFiller {
+
+		private final DrawingTool tool;
+		private final int channelAxis;
+		private int uAxis;
+		private int vAxis;
+		private final LinkedList<long[]> stack = new LinkedList<long[]>();
+
+		public OldFloodFiller(final DrawingTool tool) {
+			this.tool = tool;
+			channelAxis = tool.getDataset().getAxisIndex(Axes.CHANNEL);
+		}
+
+		public boolean fill4(final long u0, final long v0, final long[] position)
+		{
+			final Dataset ds = tool.getDataset();
+			final RandomAccess<? extends RealType<?>> accessor =
+				ds.getImgPlus().randomAccess();
+			accessor.setPosition(position);
+			uAxis = tool.getUAxis();
+			vAxis = tool.getVAxis();
+			final ChannelCollection fillValues = tool.getChannels();
+			if (matches(accessor, u0, v0, fillValues)) return false;
+			final ChannelCollection origValues = getValues(accessor, u0, v0);
+			final long maxU = ds.dimension(uAxis) - 1;
+			final long maxV = ds.dimension(vAxis) - 1;
+			stack.clear();
+			stack.push(new long[] { u0, v0 });
+			while (!stack.isEmpty()) {
+				final long[] uv = stack.pop();
+				final long u = uv[0];
+				final long v = uv[1];
+				if (!matches(accessor, u, v, origValues)) continue;
+				long u1 = u;
+				long u2 = u;
+				while (u1 >= 0 && matches(accessor, u1, v, origValues))
+					u1--;
+				u1++;
+				while (u2 <= maxU && matches(accessor, u2, v, origValues))
+					u2++;
+				u2--;
+				tool.drawLine(u1, v, u2, v);
+				if (v > 0) pushScanLines(accessor, u1, u2, v - 1, origValues);
+				if (v < maxV) pushScanLines(accessor, u1, u2, v + 1, origValues);
+			}
+			return true;
+		}
+
+		public boolean fill8(final long u0, final long v0, final long[] position)
+		{
+			final Dataset ds = tool.getDataset();
+			final RandomAccess<? extends RealType<?>> accessor =
+				ds.getImgPlus().randomAccess();
+			accessor.setPosition(position);
+			uAxis = tool.getUAxis();
+			vAxis = tool.getVAxis();
+			final ChannelCollection fillValues = tool.getChannels();
+			if (matches(accessor, u0, v0, fillValues)) return false;
+			final ChannelCollection origValues = getValues(accessor, u0, v0);
+			final long maxU = ds.dimension(uAxis) - 1;
+			final long maxV = ds.dimension(vAxis) - 1;
+			stack.clear();
+			stack.push(new long[] { u0, v0 });
+			while (!stack.isEmpty()) {
+				final long[] uv = stack.pop();
+				final long u = uv[0];
+				final long v = uv[1];
+				long u1 = u;
+				long u2 = u;
+				if (matches(accessor, u, v, origValues)) {
+					while (u1 >= 0 && matches(accessor, u1, v, origValues))
+						u1--;
+					u1++;
+					while (u2 <= maxU && matches(accessor, u2, v, origValues))
+						u2++;
+					u2--;
+					tool.drawLine(u1, v, u2, v);
+				}
+				for (final long dv : new long[] { -1, 1 }) {
+					final long nv = v + dv;
+					if (nv < 0 || nv > maxV) continue;
+					if (u1 > 0 && matches(accessor, u1 - 1, nv, origValues)) {
+						stack.push(new long[] { u1 - 1, nv });
+					}
+					if (u2 < maxU && matches(accessor, u2 + 1, nv, origValues)) {
+						stack.push(new long[] { u2 + 1, nv });
+					}
+				}
+				if (v > 0) pushScanLines(accessor, u1, u2, v - 1, origValues);
+				if (v < maxV) pushScanLines(accessor, u1, u2, v + 1, origValues);
+			}
+			return true;
+		}
+
+		private void pushScanLines(
+			final RandomAccess<? extends RealType<?>> accessor, final long u1,
+			final long u2, final long v, final ChannelCollection origValues)
+		{
+			boolean inScanLine = false;
+			for (long i = u1; i <= u2; i++) {
+				final boolean match = matches(accessor, i, v, origValues);
+				if (!inScanLine && match) {
+					stack.push(new long[] { i, v });
+					inScanLine = true;
+				}
+				else if (inScanLine && !match) inScanLine = false;
+			}
+		}
+
+		private boolean matches(
+			final RandomAccess<? extends RealType<?>> accessor, final long u,
+			final long v, final ChannelCollection channels)
+		{
+			accessor.setPosition(u, uAxis);
+			accessor.setPosition(v, vAxis);
+			if (channelAxis == -1) {
+				return accessor.get().getRealDouble() == channels.getChannelValue(0);
+			}
+			final long numChan = tool.getDataset().dimension(channelAxis);
+			for (long c = 0; c < numChan; c++) {
+				accessor.setPosition(c, channelAxis);
+				if (accessor.get().getRealDouble() != channels.getChannelValue(c)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private ChannelCollection getValues(
+			final RandomAccess<? extends RealType<?>> accessor, final long u,
+			final long v)
+		{
+			final List<Double> channels = new LinkedList<Double>();
+			accessor.setPosition(u, uAxis);
+			accessor.setPosition(v, vAxis);
+			long numChannels = 1;
+			if (channelAxis != -1) {
+				numChannels = tool.getDataset().dimension(channelAxis);
+			}
+			for (long c = 0; c < numChannels; c++) {
+				if (channelAxis != -1) accessor.setPosition(c, channelAxis);
+				channels.add(accessor.get().getRealDouble());
+			}
+			return new ChannelCollection(channels);
+		}
+	}
+
+}
@@ -0,0 +1,142 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package imagej.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link PlaneStorage}.
+ */
+public class PlaneStorageTest {
+
+	private static final long[] DIMENSIONS = { 5, 3, 2, 4 };
+
+	private void fill(final Img<UnsignedByteType> img) {
+		final Cursor<UnsignedByteType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			final int x = cursor.getIntPosition(0);
+			final int y = cursor.getIntPosition(1);
+			final int c = cursor.getIntPosition(2);
+			final int z = cursor.getIntPosition(3);
+			cursor.get().set(200 + 10 * z + 5 * c + 3 * y + x - 40);
+		}
+	}
+
+	@Test
+	public void testPlaneOrder() {
+		final Img<UnsignedByteType> planar =
+			new PlanarImgFactory<UnsignedByteType>().create(DIMENSIONS,
+				new UnsignedByteType());
+		final Img<UnsignedByteType> array =
+			new ArrayImgFactory<UnsignedByteType>().create(DIMENSIONS,
+				new UnsignedByteType());
+		fill(planar);
+		fill(array);
+		final long planeCount = PlaneStorage.getPlaneCount(planar);
+		assertEquals(8, planeCount);
+		for (long p = 0; p < planeCount; p++) {
+			final PlaneStorage a = PlaneStorage.get(planar, p);
+			final PlaneStorage b = PlaneStorage.get(array, p);
+			assertEquals(15, a.getLength());
+			assertArrayEquals((byte[]) a.copyOfPlane(), (byte[]) b.copyOfPlane());
+		}
+		// the last pixel of the last plane: x=4, y=2, c=1, z=3
+		final PlaneStorage last = PlaneStorage.get(array, planeCount - 1);
+		assertEquals(200 + 30 + 5 + 6 + 4 - 40, last.getReal(14), 0);
+	}
+
+	@Test
+	public void testCopyConvertsTypes() {
+		final Img<UnsignedByteType> input =
+			new PlanarImgFactory<UnsignedByteType>().create(DIMENSIONS,
+				new UnsignedByteType());
+		final Img<FloatType> output =
+			new ArrayImgFactory<FloatType>().create(DIMENSIONS, new FloatType());
+		fill(input);
+		assertTrue(PlaneStorage.copy(input, output));
+		final RandomAccess<UnsignedByteType> in = input.randomAccess();
+		final Cursor<FloatType> out = output.localizingCursor();
+		while (out.hasNext()) {
+			out.fwd();
+			in.setPosition(out);
+			assertEquals(in.get().getRealDouble(), out.get().getRealDouble(), 0);
+		}
+	}
+
+	@Test
+	public void testCopyRequiresSameDimensions() {
+		final Img<UnsignedByteType> input =
+			new PlanarImgFactory<UnsignedByteType>().create(new long[] { 20, 10 },
+				new UnsignedByteType());
+		final Img<UnsignedByteType> output =
+			new PlanarImgFactory<UnsignedByteType>().create(new long[] { 10, 20 },
+				new UnsignedByteType());
+		input.firstElement().set(7);
+		assertFalse(PlaneStorage.copy(input, output));
+		assertEquals(0, output.firstElement().get());
+	}
+
+	@Test
+	public void testUnsupportedContainer() {
+		final Img<UnsignedByteType> cells =
+			new CellImgFactory<UnsignedByteType>().create(DIMENSIONS,
+				new UnsignedByteType());
+		assertFalse(PlaneStorage.isSupported(cells));
+		assertNull(PlaneStorage.get(cells, 0));
+		final Img<UnsignedByteType> planar =
+			new PlanarImgFactory<UnsignedByteType>().create(DIMENSIONS,
+				new UnsignedByteType());
+		assertNotNull(PlaneStorage.get(planar, 0));
+		assertFalse(PlaneStorage.copy(cells, planar));
+	}
+
+}
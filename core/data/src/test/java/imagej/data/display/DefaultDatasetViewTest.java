@@ -0,0 +1,240 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data.display;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import imagej.data.Dataset;
+import imagej.data.DatasetService;
+import imagej.data.ParallelLoopService;
+import imagej.data.animation.Animation;
+import imagej.util.RealCoords;
+import imagej.util.RealRect;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.imglib2.Cursor;
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+import net.imglib2.type.numeric.RealType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Unit tests for the tiled and asynchronous modes of
+ * {@link DefaultDatasetView}. Tiles, whole planes projected on request and
+ * planes rendered in the background are compared with the screen image of a
+ * view that renders synchronously.
+ */
+public class DefaultDatasetViewTest {
+
+	private static final int WIDTH = 600, HEIGHT = 300;
+
+	private Context context;
+	private Dataset dataset;
+
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class, ParallelLoopService.class);
+		dataset =
+			context.getService(DatasetService.class).create(
+				new long[] { WIDTH, HEIGHT, 3 }, "planes",
+				new AxisType[] { Axes.X, Axes.Y, Axes.Z }, 8, false, false);
+		// uniform 2x2 blocks, so that binned tiles match sampled ones
+		final Cursor<? extends RealType<?>> cursor =
+			dataset.getImgPlus().localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			final long x = cursor.getLongPosition(0) / 2;
+			final long y = cursor.getLongPosition(1) / 2;
+			final long z = cursor.getLongPosition(2);
+			cursor.get().setReal((7 * x + 13 * y + 29 * z) % 256);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testTiledViewKeepsNoPlane() {
+		final DefaultDatasetView view = createView(true);
+		assertNull(view.getProjector());
+		final int[] expected = createView(false).getScreenImage().getData();
+		final int[] pixels = view.getScreenImage().getData();
+		assertEquals(expected.length, pixels.length);
+		for (int i = 0; i < pixels.length; i++) {
+			assertEquals(expected[i], pixels[i]);
+		}
+		assertNotSame(view.getScreenImage(), view.getScreenImage());
+		assertNull(view.getProjector());
+	}
+
+	@Test
+	public void testVisibleTiles() {
+		final DefaultDatasetView plain = createView(false);
+		assertNull(plain.getVisibleTiles(createCanvas()));
+		final int[] expected = plain.getScreenImage().getData();
+		final DatasetPyramid.Mode[] modes =
+			{ null, DatasetPyramid.Mode.MEAN, DatasetPyramid.Mode.MAX };
+		for (final DatasetPyramid.Mode mode : modes) {
+			final DefaultDatasetView view = createView(true);
+			view.setPyramidMode(mode);
+			for (final double zoom : new double[] { 1, 0.5 }) {
+				final ImageCanvas canvas = createCanvas();
+				canvas.setZoom(zoom);
+				canvas.setPanCenter(new RealCoords(WIDTH / 2, HEIGHT / 2));
+				assertTiles(expected, view.getVisibleTiles(canvas), canvas);
+			}
+		}
+	}
+
+	@Test
+	public void testAsynchronousPlanes() throws InterruptedException {
+		final int[] expected2 = createView(false, 2).getScreenImage().getData();
+		final int[] expected0 = createView(false, 0).getScreenImage().getData();
+		final DefaultDatasetView view = createView(false);
+		view.setAsynchronous(true);
+		assertTrue(view.isAsynchronous());
+		view.setPosition(2, Axes.Z);
+		final long end = System.currentTimeMillis() + 10000;
+		while (!Arrays.equals(expected2, view.getScreenImage().getData())) {
+			assertTrue("plane not shown", System.currentTimeMillis() < end);
+			Thread.sleep(10);
+		}
+		view.setAsynchronous(false);
+		view.setPosition(0, Axes.Z);
+		assertArrayEquals(expected0, view.getScreenImage().getData());
+	}
+
+	@Test
+	public void testAnimationRendersAsynchronously() {
+		final DefaultDatasetView view = createView(false);
+		final DefaultImageDisplay display = new DefaultImageDisplay();
+		display.setContext(context);
+		display.add(view);
+		display.rebuild();
+		final Animation animation = new Animation(display);
+		assertFalse(view.isAsynchronous());
+		animation.start();
+		assertTrue(view.isAsynchronous());
+		animation.stop();
+		assertFalse(view.isAsynchronous());
+	}
+
+	// -- Helper methods --
+
+	/** Creates a view of the dataset showing its second Z plane. */
+	private DefaultDatasetView createView(final boolean tiled) {
+		return createView(tiled, 1);
+	}
+
+	/** Creates a view of the dataset showing the given Z plane. */
+	private DefaultDatasetView createView(final boolean tiled, final long z) {
+		final DefaultDatasetView view = new DefaultDatasetView();
+		view.setContext(context);
+		view.initialize(dataset);
+		view.setTiled(tiled);
+		view.rebuild();
+		view.setPosition(z, Axes.Z);
+		return view;
+	}
+
+	private ImageCanvas createCanvas() {
+		final ImageDisplay display = new DefaultImageDisplay() {
+
+			@Override
+			public RealRect getPlaneExtents() {
+				return new RealRect(0, 0, WIDTH, HEIGHT);
+			}
+		};
+		display.setContext(context);
+		final ImageCanvas canvas = new DefaultImageCanvas(display);
+		canvas.setViewportSize(150, 100);
+		return canvas;
+	}
+
+	/**
+	 * Checks that the tiles cover the viewport of the canvas, and that each tile
+	 * pixel matches the plane pixel at the top left of the data it spans.
+	 */
+	private void assertTiles(final int[] expected,
+		final List<DatasetTileRenderer.Tile> tiles, final ImageCanvas canvas)
+	{
+		assertNotNull(tiles);
+		final int step = DatasetTileRenderer.getStep(canvas.getZoomFactor());
+		final RealCoords center = canvas.getPanCenter();
+		final double zoom = canvas.getZoomFactor();
+		final double halfWidth = canvas.getViewportWidth() / 2.0 / zoom;
+		final double halfHeight = canvas.getViewportHeight() / 2.0 / zoom;
+		long minX = Long.MAX_VALUE, minY = Long.MAX_VALUE;
+		long maxX = Long.MIN_VALUE, maxY = Long.MIN_VALUE;
+		for (final DatasetTileRenderer.Tile tile : tiles) {
+			assertEquals(step, tile.getStep());
+			final int w = (int) tile.getImage().dimension(0);
+			final int h = (int) tile.getImage().dimension(1);
+			final int[] pixels = tile.getImage().getData();
+			for (int j = 0; j < h; j++) {
+				for (int i = 0; i < w; i++) {
+					final long x = tile.getX() + (long) i * step;
+					final long y = tile.getY() + (long) j * step;
+					assertEquals("at " + x + "," + y, expected[(int) (y * WIDTH + x)],
+						pixels[j * w + i]);
+				}
+			}
+			minX = Math.min(minX, tile.getX());
+			minY = Math.min(minY, tile.getY());
+			maxX = Math.max(maxX, tile.getX() + (long) w * step);
+			maxY = Math.max(maxY, tile.getY() + (long) h * step);
+		}
+		assertTrue(minX <= Math.max(0, center.x - halfWidth));
+		assertTrue(minY <= Math.max(0, center.y - halfHeight));
+		assertTrue(maxX >= Math.min(WIDTH, center.x + halfWidth));
+		assertTrue(maxY >= Math.min(HEIGHT, center.y + halfHeight));
+	}
+
+}
@@ -0,0 +1,234 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data.display;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import imagej.data.Dataset;
+import imagej.data.DatasetService;
+import imagej.data.ParallelLoopService;
+
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.display.ColorTable;
+import net.imglib2.display.RealLUTConverter;
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Unit tests for {@link PlaneRenderScheduler}. Planes are given LUTs of their
+ * own, which the converter takes on as the current plane changes, the way
+ * {@link DefaultDatasetView} does.
+ */
+public class PlaneRenderSchedulerTest {
+
+	private static final int WIDTH = 40, HEIGHT = 20, DEPTH = 5;
+
+	private static final ColorTable[] LUTS = { ColorTables.RED,
+		ColorTables.GREEN, ColorTables.BLUE, ColorTables.CYAN,
+		ColorTables.MAGENTA };
+
+	private static final long TIMEOUT = 10000;
+
+	private Context context;
+	private Dataset dataset;
+	private ArrayList<RealLUTConverter<? extends RealType<?>>> converters;
+	private BlockingQueue<int[]> delivered;
+	private PlaneRenderScheduler scheduler;
+
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class, ParallelLoopService.class);
+		dataset =
+			context.getService(DatasetService.class).create(
+				new long[] { WIDTH, HEIGHT, DEPTH }, "planes",
+				new AxisType[] { Axes.X, Axes.Y, Axes.Z }, 8, false, false);
+		final Cursor<? extends RealType<?>> cursor =
+			dataset.getImgPlus().localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			final long x = cursor.getLongPosition(0);
+			final long y = cursor.getLongPosition(1);
+			final long z = cursor.getLongPosition(2);
+			cursor.get().setReal((x + 3 * y + 11 * z) % 256);
+		}
+		dataset.initializeColorTables(DEPTH);
+		for (int z = 0; z < DEPTH; z++) {
+			dataset.setColorTable(LUTS[z], z);
+		}
+		converters = new ArrayList<RealLUTConverter<? extends RealType<?>>>();
+		converters.add(new RealLUTConverter<UnsignedByteType>(0, 255, LUTS[0]));
+		delivered = new LinkedBlockingQueue<int[]>();
+		scheduler =
+			new PlaneRenderScheduler(dataset, converters, -1, 2,
+				PlaneRenderScheduler.DEFAULT_CAPACITY,
+				new PlaneRenderScheduler.Listener() {
+
+					@Override
+					public void planeRendered(final long[] position,
+						final boolean composite, final int[] pixels)
+					{
+						delivered.add(pixels);
+					}
+				}, new PlaneRenderScheduler.ColorTableSource() {
+
+					@Override
+					public ColorTable getColorTable(final long[] position,
+						final int channel)
+					{
+						return dataset.getColorTable((int) position[2]);
+					}
+				});
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.dispose();
+		context.dispose();
+	}
+
+	@Test
+	public void testRequest() throws InterruptedException {
+		moveTo(2);
+		scheduler.request(position(2), false, -1);
+		final int[] pixels = delivered.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+		assertNotNull(pixels);
+		assertPlane(2, 0, 255, pixels);
+		assertPlane(2, 0, 255, scheduler.getCached(position(2), false));
+	}
+
+	@Test
+	public void testPrefetchWithPlaneLUTs() throws InterruptedException {
+		moveTo(2);
+		scheduler.request(position(2), false, 2);
+		assertNotNull(delivered.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+		for (final int z : new int[] { 3, 1, 4, 0 }) {
+			moveTo(z);
+			assertPlane(z, 0, 255, awaitCached(z));
+		}
+		// taking on the LUT of another plane does not discard the cache
+		moveTo(2);
+		assertPlane(2, 0, 255, scheduler.getCached(position(2), false));
+	}
+
+	@Test
+	public void testRangeChange() throws InterruptedException {
+		moveTo(1);
+		scheduler.request(position(1), false, -1);
+		assertNotNull(delivered.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+		converters.get(0).setMax(127);
+		assertNull(scheduler.getCached(position(1), false));
+		scheduler.request(position(1), false, -1);
+		final int[] pixels = delivered.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+		assertNotNull(pixels);
+		assertPlane(1, 0, 127, pixels);
+		// the plane rendered with the old range is still there
+		converters.get(0).setMax(255);
+		assertPlane(1, 0, 255, scheduler.getCached(position(1), false));
+	}
+
+	@Test
+	public void testInvalidate() throws InterruptedException {
+		moveTo(0);
+		scheduler.request(position(0), false, -1);
+		assertNotNull(delivered.poll(TIMEOUT, TimeUnit.MILLISECONDS));
+		scheduler.invalidate();
+		assertNull(scheduler.getCached(position(0), false));
+	}
+
+	// -- Helper methods --
+
+	/** Gives the converter the LUT of the given plane, as the view does. */
+	private void moveTo(final int z) {
+		converters.get(0).setLUT(LUTS[z]);
+	}
+
+	private long[] position(final int z) {
+		return new long[] { 0, 0, z };
+	}
+
+	private int[] awaitCached(final int z) throws InterruptedException {
+		final long end = System.currentTimeMillis() + TIMEOUT;
+		while (System.currentTimeMillis() < end) {
+			final int[] pixels = scheduler.getCached(position(z), false);
+			if (pixels != null) return pixels;
+			Thread.sleep(10);
+		}
+		return null;
+	}
+
+	/**
+	 * Checks rendered pixels against the plane converted with its own LUT and
+	 * the given display range.
+	 */
+	private void assertPlane(final int z, final double min, final double max,
+		final int[] pixels)
+	{
+		assertNotNull(pixels);
+		assertEquals(WIDTH * HEIGHT, pixels.length);
+		final RealLUTConverter<RealType<?>> converter =
+			new RealLUTConverter<RealType<?>>(min, max, LUTS[z]);
+		final RandomAccess<? extends RealType<?>> access =
+			dataset.getImgPlus().randomAccess();
+		final ARGBType argb = new ARGBType();
+		access.setPosition(z, 2);
+		for (int y = 0; y < HEIGHT; y++) {
+			access.setPosition(y, 1);
+			for (int x = 0; x < WIDTH; x++) {
+				access.setPosition(x, 0);
+				converter.convert(access.get(), argb);
+				assertEquals("at " + x + "," + y + "," + z, argb.get(),
+					pixels[y * WIDTH + x]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,189 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data.measure;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import imagej.data.Dataset;
+import imagej.data.DatasetService;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Unit tests for {@link DefaultHistogramService}.
+ */
+public class DefaultHistogramServiceTest {
+
+	private static final int WIDTH = 4, HEIGHT = 3, PLANES = 3;
+
+	private Context context;
+	private HistogramService histogramService;
+	private Dataset ds;
+	private RandomAccess<FloatType> access;
+
+	/**
+	 * Creates three planes of 4 x 3: the values 0 to 11, the same with every
+	 * third value NaN, and nothing but NaN.
+	 */
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class, HistogramService.class);
+		histogramService = context.getService(HistogramService.class);
+		final Img<FloatType> img =
+			new PlanarImgFactory<FloatType>().create(new long[] { WIDTH, HEIGHT,
+				PLANES }, new FloatType());
+		ds =
+			context.getService(DatasetService.class).create(
+				new ImgPlus<FloatType>(img));
+		access = img.randomAccess();
+		for (int i = 0; i < WIDTH * HEIGHT; i++) {
+			set(0, i, i);
+			set(1, i, i % 3 == 0 ? Float.NaN : i);
+			set(2, i, Float.NaN);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testDataRangeSkipsNaN() {
+		assertArrayEquals(new double[] { 0, 11 }, histogramService.getDataRange(
+			ds, 0), 0);
+		assertArrayEquals(new double[] { 1, 11 }, histogramService.getDataRange(
+			ds, 1), 0);
+		final double[] none = histogramService.getDataRange(ds, 2);
+		assertEquals(Double.NaN, none[0], 0);
+		assertEquals(Double.NaN, none[1], 0);
+		assertArrayEquals(new double[] { 0, 11 }, histogramService
+			.getDataRange(ds), 0);
+	}
+
+	@Test
+	public void testBinEdges() {
+		// one value per bin, the maximum going in the last bin, and the values
+		// outside the range not at all
+		assertArrayEquals(new long[] { 1, 1, 1, 1, 1, 1, 2 }, histogramService
+			.getHistogram(ds, 0, 7, 2, 9));
+		assertArrayEquals(new long[] { 12 }, histogramService.getHistogram(ds, 0,
+			1, 0, 11));
+		assertArrayEquals(new long[] { 4, 4, 4, 0 }, histogramService
+			.getHistogram(ds, 0, 4, 0, 16));
+		// an empty range only counts values equal to it, in the first bin
+		assertArrayEquals(new long[] { 1, 0, 0 }, histogramService.getHistogram(
+			ds, 0, 3, 5, 5));
+	}
+
+	@Test
+	public void testNaNNotCounted() {
+		assertArrayEquals(new long[] { 1, 1, 2, 1, 2 }, histogramService
+			.getHistogram(ds, 1, 5, 0, 10));
+		assertArrayEquals(new long[] { 0, 0, 0, 0, 0 }, histogramService
+			.getHistogram(ds, 2, 5, 0, 10));
+		assertArrayEquals(new long[] { 3, 3, 4, 3, 5 }, histogramService
+			.getHistogram(ds, 5, 0, 10));
+	}
+
+	@Test
+	public void testPlanesScannedOnlyWhenAsked() {
+		assertArrayEquals(new long[] { 12 }, histogramService.getHistogram(ds, 0,
+			1, 0, 100));
+		assertArrayEquals(new double[] { 0, 11 }, histogramService.getDataRange(
+			ds, 0), 0);
+		// plane 1 has not been asked about, so no event is needed to see this
+		set(1, 0, 50);
+		assertArrayEquals(new long[] { 9 }, histogramService.getHistogram(ds, 1,
+			1, 0, 100));
+		assertArrayEquals(new double[] { 1, 50 }, histogramService.getDataRange(
+			ds, 1), 0);
+	}
+
+	@Test
+	public void testInvalidation() {
+		final long[] plane0 = histogramService.getHistogram(ds, 0, 4, 0, 100);
+		final long[] plane1 = histogramService.getHistogram(ds, 1, 4, 0, 100);
+		final double[] range0 = histogramService.getDataRange(ds, 0);
+		assertArrayEquals(new long[] { 12, 0, 0, 0 }, plane0);
+		assertArrayEquals(new long[] { 8, 0, 0, 0 }, plane1);
+
+		// without an event the planes are remembered
+		set(0, 0, 99);
+		set(1, 0, 99);
+		assertArrayEquals(plane0, histogramService.getHistogram(ds, 0, 4, 0, 100));
+		assertArrayEquals(plane1, histogramService.getHistogram(ds, 1, 4, 0, 100));
+		assertArrayEquals(range0, histogramService.getDataRange(ds, 0), 0);
+
+		// an event naming plane 1 forgets only plane 1
+		ds.updatePlanes(1);
+		assertArrayEquals(plane0, histogramService.getHistogram(ds, 0, 4, 0, 100));
+		assertArrayEquals(new long[] { 8, 0, 0, 1 }, histogramService
+			.getHistogram(ds, 1, 4, 0, 100));
+		assertArrayEquals(new long[] { 20, 0, 0, 1 }, histogramService
+			.getHistogram(ds, 4, 0, 100));
+
+		// a different binning, or an event naming no planes, forgets them all
+		assertArrayEquals(new long[] { 11, 1 }, histogramService.getHistogram(ds,
+			0, 2, 0, 100));
+		set(0, 1, 99);
+		ds.update();
+		assertArrayEquals(new long[] { 10, 2 }, histogramService.getHistogram(ds,
+			0, 2, 0, 100));
+		assertArrayEquals(new double[] { 2, 99 }, histogramService.getDataRange(
+			ds, 0), 0);
+	}
+
+	// -- helper methods --
+
+	/** Sets the i-th value of a plane, counting along the rows. */
+	private void set(final int plane, final int i, final float value) {
+		access.setPosition(i % WIDTH, 0);
+		access.setPosition(i / WIDTH, 1);
+		access.setPosition(plane, 2);
+		access.get().set(value);
+	}
+
+}
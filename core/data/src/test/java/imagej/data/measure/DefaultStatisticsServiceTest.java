@@ -0,0 +1,253 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data.measure;
+
+import static org.junit.Assert.assertEquals;
+import imagej.data.Dataset;
+import imagej.data.DatasetService;
+import imagej.data.ParallelLoopService;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+import net.imglib2.ops.function.Function;
+import net.imglib2.ops.function.real.RealArithmeticMeanFunction;
+import net.imglib2.ops.function.real.RealGeometricMeanFunction;
+import net.imglib2.ops.function.real.RealHarmonicMeanFunction;
+import net.imglib2.ops.function.real.RealImageFunction;
+import net.imglib2.ops.function.real.RealMaxFunction;
+import net.imglib2.ops.function.real.RealMedianFunction;
+import net.imglib2.ops.function.real.RealMidpointFunction;
+import net.imglib2.ops.function.real.RealMinFunction;
+import net.imglib2.ops.function.real.RealPopulationKurtosisExcessFunction;
+import net.imglib2.ops.function.real.RealPopulationKurtosisFunction;
+import net.imglib2.ops.function.real.RealPopulationSkewFunction;
+import net.imglib2.ops.function.real.RealPopulationStdDevFunction;
+import net.imglib2.ops.function.real.RealPopulationVarianceFunction;
+import net.imglib2.ops.function.real.RealProductFunction;
+import net.imglib2.ops.function.real.RealSampleKurtosisExcessFunction;
+import net.imglib2.ops.function.real.RealSampleKurtosisFunction;
+import net.imglib2.ops.function.real.RealSampleSkewFunction;
+import net.imglib2.ops.function.real.RealSampleStdDevFunction;
+import net.imglib2.ops.function.real.RealSampleVarianceFunction;
+import net.imglib2.ops.function.real.RealSumFunction;
+import net.imglib2.ops.function.real.RealSumOfSquaredDeviationsFunction;
+import net.imglib2.ops.function.real.RealTrimmedMeanFunction;
+import net.imglib2.ops.pointset.HyperVolumePointSet;
+import net.imglib2.ops.pointset.PointSet;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Unit tests for {@link DefaultStatisticsService}.
+ */
+public class DefaultStatisticsServiceTest {
+
+	private static final long[] DIMS = { 40, 30, 5 };
+
+	private static final AxisType[] AXES = { Axes.X, Axes.Y, Axes.Z };
+
+	private static final int[] THREAD_COUNTS = { 2, 3, 8 };
+
+	private Context context;
+	private StatisticsService statisticsService;
+	private Dataset floats, bytes;
+	private PointSet[] regions;
+
+	/**
+	 * Creates a float dataset of values between 0.5 and 1.5, whose product stays
+	 * in range, and a byte dataset of values between 1 and 255, whose product
+	 * overflows to infinity.
+	 * Both are measured over their whole extent, an inner volume and a single
+	 * plane.
+	 */
+	@Before
+	public void setUp() {
+		context =
+			new Context(DatasetService.class, StatisticsService.class,
+				ParallelLoopService.class);
+		statisticsService = context.getService(StatisticsService.class);
+		final DatasetService datasetService =
+			context.getService(DatasetService.class);
+		final Random random = new Random(42);
+		floats = datasetService.create(new FloatType(), DIMS, "floats", AXES);
+		final Cursor<? extends RealType<?>> floatCursor =
+			floats.getImgPlus().cursor();
+		while (floatCursor.hasNext()) {
+			floatCursor.next().setReal(0.5 + random.nextDouble());
+		}
+		bytes =
+			datasetService.create(new UnsignedByteType(), DIMS, "bytes", AXES);
+		final Cursor<? extends RealType<?>> byteCursor =
+			bytes.getImgPlus().cursor();
+		while (byteCursor.hasNext()) {
+			byteCursor.next().setReal(1 + random.nextInt(255));
+		}
+		regions =
+			new PointSet[] { new HyperVolumePointSet(DIMS),
+				new HyperVolumePointSet(new long[] { 3, 2, 1 },
+					new long[] { 36, 26, 3 }),
+				new HyperVolumePointSet(new long[] { 0, 0, 2 },
+					new long[] { 39, 29, 2 }) };
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	/**
+	 * Tests that the single statistic methods give the values of the ops
+	 * functions they used to be computed with.
+	 */
+	@Test
+	public void testSingleStatistics() {
+		for (final Dataset ds : new Dataset[] { floats, bytes }) {
+			final Function<long[], DoubleType> img = imgFunc(ds);
+			for (final PointSet region : regions) {
+				assertClose(evaluate(new RealArithmeticMeanFunction<DoubleType>(img),
+					region), statisticsService.arithmeticMean(ds, region));
+				assertClose(evaluate(new RealGeometricMeanFunction<DoubleType>(img),
+					region), statisticsService.geometricMean(ds, region));
+				assertClose(evaluate(new RealHarmonicMeanFunction<DoubleType>(img),
+					region), statisticsService.harmonicMean(ds, region));
+				assertClose(evaluate(new RealMaxFunction<DoubleType>(img), region),
+					statisticsService.maximum(ds, region));
+				assertClose(evaluate(new RealMedianFunction<DoubleType>(img), region),
+					statisticsService.median(ds, region));
+				assertClose(evaluate(new RealMidpointFunction<DoubleType>(img),
+					region), statisticsService.midpoint(ds, region));
+				assertClose(evaluate(new RealMinFunction<DoubleType>(img), region),
+					statisticsService.minimum(ds, region));
+				assertClose(evaluate(
+					new RealPopulationKurtosisFunction<DoubleType>(img), region),
+					statisticsService.populationKurtosis(ds, region));
+				assertClose(evaluate(
+					new RealPopulationKurtosisExcessFunction<DoubleType>(img), region),
+					statisticsService.populationKurtosisExcess(ds, region));
+				assertClose(evaluate(new RealPopulationSkewFunction<DoubleType>(img),
+					region), statisticsService.populationSkew(ds, region));
+				assertClose(evaluate(
+					new RealPopulationStdDevFunction<DoubleType>(img), region),
+					statisticsService.populationStdDev(ds, region));
+				assertClose(evaluate(
+					new RealPopulationVarianceFunction<DoubleType>(img), region),
+					statisticsService.populationVariance(ds, region));
+				assertClose(evaluate(new RealProductFunction<DoubleType>(img), region),
+					statisticsService.product(ds, region));
+				assertClose(evaluate(new RealSampleKurtosisFunction<DoubleType>(img),
+					region), statisticsService.sampleKurtosis(ds, region));
+				assertClose(evaluate(
+					new RealSampleKurtosisExcessFunction<DoubleType>(img), region),
+					statisticsService.sampleKurtosisExcess(ds, region));
+				assertClose(evaluate(new RealSampleSkewFunction<DoubleType>(img),
+					region), statisticsService.sampleSkew(ds, region));
+				assertClose(evaluate(new RealSampleStdDevFunction<DoubleType>(img),
+					region), statisticsService.sampleStdDev(ds, region));
+				assertClose(evaluate(
+					new RealSampleVarianceFunction<DoubleType>(img), region),
+					statisticsService.sampleVariance(ds, region));
+				assertClose(evaluate(new RealSumFunction<DoubleType>(img), region),
+					statisticsService.sum(ds, region));
+				assertClose(evaluate(
+					new RealSumOfSquaredDeviationsFunction<DoubleType>(img), region),
+					statisticsService.sumOfSquaredDeviations(ds, region));
+				assertClose(evaluate(new RealTrimmedMeanFunction<DoubleType>(img, 7),
+					region), statisticsService.trimmedMean(ds, region, 7));
+			}
+		}
+	}
+
+	/**
+	 * Tests that measuring on several threads gives exactly the values found on
+	 * the calling thread.
+	 */
+	@Test
+	public void testParallelMatchesSerial() {
+		final EnumSet<Stat> stats = EnumSet.allOf(Stat.class);
+		for (final Dataset ds : new Dataset[] { floats, bytes }) {
+			for (final PointSet region : regions) {
+				final Map<Stat, Double> serial =
+					statisticsService.measure(ds, region, stats, 1);
+				for (final int threadCount : THREAD_COUNTS) {
+					assertEquals(serial, statisticsService.measure(ds, region, stats,
+						threadCount));
+				}
+				assertEquals(serial, statisticsService.measure(ds, region, stats));
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoThreads() {
+		statisticsService.measure(floats, regions[0], EnumSet.of(Stat.SUM), 0);
+	}
+
+	// -- Helper methods --
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Function<long[], DoubleType> imgFunc(final Dataset ds) {
+		final Img<? extends RealType<?>> img = ds.getImgPlus();
+		return new RealImageFunction(img, new DoubleType());
+	}
+
+	private double evaluate(final Function<PointSet, DoubleType> func,
+		final PointSet region)
+	{
+		final DoubleType output = new DoubleType();
+		func.compute(region, output);
+		return output.getRealDouble();
+	}
+
+	/** Asserts two values agree to within rounding of their magnitude. */
+	private void assertClose(final double expected, final double actual) {
+		assertEquals(expected, actual, 1e-9 * Math.max(1, Math.abs(expected)));
+	}
+
+}
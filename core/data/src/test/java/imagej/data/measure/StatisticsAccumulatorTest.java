@@ -0,0 +1,176 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data.measure;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link StatisticsAccumulator} and {@link OrderStatistics}.
+ */
+public class StatisticsAccumulatorTest {
+
+	private static final double[] DATA = { 1e9 + 4, 1e9 + 7, 1e9 + 13,
+		1e9 + 16, 1e9 + 2, 1e9 + 9, 1e9 + 9 };
+
+	@Test
+	public void testMomentsMatchTwoPass() {
+		final StatisticsAccumulator acc = new StatisticsAccumulator();
+		for (final double v : DATA) {
+			acc.add(v);
+		}
+		final int n = DATA.length;
+		double mean = 0;
+		for (final double v : DATA) {
+			mean += v;
+		}
+		mean /= n;
+		double s2 = 0, s3 = 0, s4 = 0;
+		for (final double v : DATA) {
+			final double d = v - mean;
+			s2 += d * d;
+			s3 += d * d * d;
+			s4 += d * d * d * d;
+		}
+		final double m2 = s2 / n, m3 = s3 / n, m4 = s4 / n;
+		assertEquals(n, acc.getCount());
+		assertEquals(mean, acc.get(Stat.ARITHMETIC_MEAN), 1e-6);
+		assertEquals(s2, acc.get(Stat.SUM_OF_SQUARED_DEVIATIONS), 1e-6);
+		assertEquals(s2 / (n - 1), acc.get(Stat.SAMPLE_VARIANCE), 1e-6);
+		assertEquals(m3 / Math.pow(m2, 1.5), acc.get(Stat.POPULATION_SKEW), 1e-6);
+		assertEquals(m4 / (m2 * m2), acc.get(Stat.POPULATION_KURTOSIS), 1e-6);
+		assertEquals(1e9 + 2, acc.get(Stat.MINIMUM), 0);
+		assertEquals(1e9 + 16, acc.get(Stat.MAXIMUM), 0);
+		assertEquals(1e9 + 9, acc.get(Stat.MIDPOINT), 0);
+	}
+
+	@Test
+	public void testMergeMatchesSequential() {
+		final StatisticsAccumulator all = new StatisticsAccumulator();
+		final StatisticsAccumulator merged = new StatisticsAccumulator();
+		for (int split = 0; split <= DATA.length; split += 3) {
+			final StatisticsAccumulator part = new StatisticsAccumulator();
+			for (int i = split; i < Math.min(split + 3, DATA.length); i++) {
+				all.add(DATA[i]);
+				part.add(DATA[i]);
+			}
+			merged.merge(part);
+		}
+		assertEquals(all.getCount(), merged.getCount());
+		for (final Stat stat : Stat.values()) {
+			if (stat == Stat.MEDIAN) continue;
+			final double expected = all.get(stat);
+			assertEquals(stat.toString(), expected, merged.get(stat), Math
+				.abs(expected) * 1e-6);
+		}
+	}
+
+	@Test
+	public void testLimitedMatchesFull() {
+		final StatisticsAccumulator all = new StatisticsAccumulator();
+		for (final double v : DATA) {
+			all.add(v);
+		}
+		for (final Stat stat : Stat.values()) {
+			if (stat == Stat.MEDIAN) continue;
+			final StatisticsAccumulator one =
+				new StatisticsAccumulator(EnumSet.of(stat));
+			for (final double v : DATA) {
+				one.add(v);
+			}
+			assertEquals(stat.toString(), all.get(stat), one.get(stat), 0);
+		}
+		final StatisticsAccumulator median =
+			new StatisticsAccumulator(EnumSet.of(Stat.MEDIAN));
+		for (final double v : DATA) {
+			median.add(v);
+		}
+		assertEquals(1e9 + 2, median.getMin(), 0);
+		assertEquals(1e9 + 16, median.getMax(), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnrequestedStat() {
+		final StatisticsAccumulator acc =
+			new StatisticsAccumulator(EnumSet.of(Stat.ARITHMETIC_MEAN));
+		acc.add(1);
+		acc.get(Stat.SAMPLE_VARIANCE);
+	}
+
+	@Test
+	public void testEmpty() {
+		final StatisticsAccumulator acc = new StatisticsAccumulator();
+		assertTrue(Double.isNaN(acc.get(Stat.ARITHMETIC_MEAN)));
+		assertTrue(Double.isNaN(acc.get(Stat.SAMPLE_VARIANCE)));
+		assertEquals(0, acc.get(Stat.SUM), 0);
+		assertTrue(Double.isNaN(new OrderStatistics(0, 0, 0, true).getMedian()));
+	}
+
+	@Test
+	public void testHistogramAndSortedAgree() {
+		final double[] values = { 5, 3, 3, 9, 1, 7, 3, 8 };
+		final OrderStatistics counted = new OrderStatistics(8, 1, 9, true);
+		final OrderStatistics sorted = new OrderStatistics(8, 1, 9, false);
+		for (final double v : values) {
+			counted.add(v);
+			sorted.add(v);
+		}
+		assertEquals(4, counted.getMedian(), 0);
+		assertEquals(4, sorted.getMedian(), 0);
+		for (int rank = 0; rank < values.length; rank++) {
+			assertEquals(sorted.get(rank), counted.get(rank), 0);
+		}
+		// drops 1, 3 and 8, 9
+		assertEquals((3 + 3 + 5 + 7) / 4.0, counted.getTrimmedMean(2), 0);
+		assertEquals((3 + 3 + 5 + 7) / 4.0, sorted.getTrimmedMean(2), 0);
+		assertTrue(Double.isNaN(counted.getTrimmedMean(4)));
+		final OrderStatistics halves = new OrderStatistics(8, 1, 9, true);
+		for (int half = 0; half < 2; half++) {
+			final OrderStatistics part = new OrderStatistics(4, 1, 9, true);
+			for (int i = 4 * half; i < 4 * half + 4; i++) {
+				part.add(values[i]);
+			}
+			halves.merge(part);
+		}
+		assertEquals(counted.getMedian(), halves.getMedian(), 0);
+	}
+
+}
@@ -0,0 +1,222 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data.operator;
+
+import static org.junit.Assert.assertEquals;
+import imagej.data.ParallelLoopService;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.Unsigned12BitType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Unit tests for {@link CalculatorService}. Images combined straight into an
+ * output are compared with the {@link Img}&lt;DoubleType&gt; of the original
+ * combine method copied into the output pixel by pixel, with values clamped
+ * to the range of the output type.
+ */
+public class CalculatorServiceTest {
+
+	private Context context;
+	private CalculatorService calculatorService;
+	private Random random;
+
+	@Before
+	public void setUp() {
+		context = new Context(CalculatorService.class, ParallelLoopService.class);
+		calculatorService = context.getService(CalculatorService.class);
+		random = new Random(42);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testNewOutput() {
+		final Img<UnsignedByteType> img1 =
+			create(new PlanarImgFactory<UnsignedByteType>(), new UnsignedByteType(),
+				70, 9, 3);
+		final Img<ShortType> img2 =
+			create(new ArrayImgFactory<ShortType>(), new ShortType(), 66, 11, 2);
+		final long[] overlap = { 66, 9, 2 };
+		assertCombine(img1, img2, new OpAdd<UnsignedByteType, ShortType>(),
+			new ArrayImgFactory<FloatType>().create(overlap, new FloatType()));
+		assertCombine(img1, img2, new OpSubtract<UnsignedByteType, ShortType>(),
+			new PlanarImgFactory<UnsignedByteType>().create(overlap,
+				new UnsignedByteType()));
+		assertCombine(img1, img2, new OpMultiply<UnsignedByteType, ShortType>(),
+			new ArrayImgFactory<ShortType>().create(overlap, new ShortType()));
+		assertCombine(img1, img2, new OpMax<UnsignedByteType, ShortType>(),
+			new PlanarImgFactory<Unsigned12BitType>().create(overlap,
+				new Unsigned12BitType()));
+		assertCombine(img1, img2, new OpMin<UnsignedByteType, ShortType>(),
+			new ArrayImgFactory<BitType>().create(overlap, new BitType()));
+	}
+
+	@Test
+	public void testInPlace() {
+		final Img<ShortType> img2 =
+			create(new ArrayImgFactory<ShortType>(), new ShortType(), 130, 5, 4);
+		assertInPlace(new PlanarImgFactory<UnsignedByteType>(),
+			new UnsignedByteType(), img2);
+		assertInPlace(new ArrayImgFactory<FloatType>(), new FloatType(), img2);
+		assertInPlace(new PlanarImgFactory<BitType>(), new BitType(), img2);
+		assertInPlace(new ArrayImgFactory<BitType>(), new BitType(), img2);
+		assertInPlace(new PlanarImgFactory<Unsigned12BitType>(),
+			new Unsigned12BitType(), img2);
+		assertInPlace(new ArrayImgFactory<Unsigned12BitType>(),
+			new Unsigned12BitType(), img2);
+	}
+
+	@Test
+	public void testUnequalExtents() {
+		final Img<FloatType> img1 =
+			create(new ArrayImgFactory<FloatType>(), new FloatType(), 20, 8, 3);
+		final Img<FloatType> img2 =
+			create(new ArrayImgFactory<FloatType>(), new FloatType(), 25, 6, 3);
+		assertCombine(img1, img2, new OpDifference<FloatType, FloatType>(),
+			create(new PlanarImgFactory<UnsignedByteType>(), new UnsignedByteType(),
+				12, 10, 2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDimensionMismatch() {
+		final Img<FloatType> img1 =
+			create(new ArrayImgFactory<FloatType>(), new FloatType(), 4, 4, 2);
+		final Img<FloatType> img2 =
+			create(new ArrayImgFactory<FloatType>(), new FloatType(), 4, 4);
+		calculatorService.combine(img1, img2, new OpAdd<FloatType, FloatType>(),
+			img1);
+	}
+
+	// -- helper methods --
+
+	/** Combines an image of the given kind with img2 into itself. */
+	private <T extends RealType<T> & NativeType<T>> void assertInPlace(
+		final ImgFactory<T> factory, final T type, final Img<ShortType> img2)
+	{
+		final Img<T> img1 = create(factory, type, 140, 5, 3);
+		final Img<T> before = img1.copy();
+		final Img<DoubleType> expected =
+			calculatorService.combine(before, img2, new OpAdd<T, ShortType>());
+		calculatorService.combine(img1, img2, new OpAdd<T, ShortType>(), img1);
+		assertImagesEqual(expected, before, img1);
+	}
+
+	/** Combines two images into an output and checks it against the original. */
+	private <U extends RealType<U>, V extends RealType<V>> void assertCombine(
+		final Img<U> img1, final Img<V> img2, final CalculatorOp<U, V> op,
+		final Img<? extends RealType<?>> output)
+	{
+		final Img<DoubleType> expected = calculatorService.combine(img1, img2, op);
+		final Img<? extends RealType<?>> before = output.copy();
+		calculatorService.combine(img1, img2, op, output);
+		assertImagesEqual(expected, before, output);
+	}
+
+	/**
+	 * Checks that the pixels of output within the region of expected hold its
+	 * values clamped to the output type, and that the others are unchanged.
+	 */
+	private void assertImagesEqual(final Img<DoubleType> expected,
+		final Img<? extends RealType<?>> before,
+		final Img<? extends RealType<?>> output)
+	{
+		final RealType<?> type = output.firstElement();
+		final RealType<?> value = type.createVariable();
+		final double min = type.getMinValue(), max = type.getMaxValue();
+		final RandomAccess<DoubleType> expectedAccess = expected.randomAccess();
+		final RandomAccess<? extends RealType<?>> beforeAccess =
+			before.randomAccess();
+		final Cursor<? extends RealType<?>> cursor = output.localizingCursor();
+		final long[] pos = new long[output.numDimensions()];
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.localize(pos);
+			boolean inside = true;
+			for (int d = 0; d < pos.length; d++) {
+				inside &= pos[d] < expected.dimension(d);
+			}
+			if (inside) {
+				expectedAccess.setPosition(pos);
+				final double v = expectedAccess.get().getRealDouble();
+				value.setReal(v < min ? min : v > max ? max : v);
+			}
+			else {
+				beforeAccess.setPosition(pos);
+				value.setReal(beforeAccess.get().getRealDouble());
+			}
+			assertEquals(Arrays.toString(pos), value.getRealDouble(), cursor.get()
+				.getRealDouble(), 0);
+		}
+	}
+
+	/** Creates an image filled with random values spanning its type's range. */
+	private <T extends RealType<T> & NativeType<T>> Img<T> create(
+		final ImgFactory<T> factory, final T type, final long... dims)
+	{
+		final Img<T> img = factory.create(dims, type);
+		final double min = Math.max(type.getMinValue(), -1000);
+		final double max = Math.min(type.getMaxValue(), 1000);
+		for (final T t : img) {
+			t.setReal(min + Math.floor(random.nextDouble() * (max - min + 1)));
+		}
+		return img;
+	}
+
+}
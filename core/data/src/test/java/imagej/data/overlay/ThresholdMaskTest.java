@@ -0,0 +1,243 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.data.overlay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import imagej.data.Dataset;
+import imagej.data.DatasetService;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.ops.pointset.PointSet;
+import net.imglib2.ops.pointset.PointSetIterator;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Unit tests for {@link ThresholdMask}. A materialized {@link ThresholdOverlay}
+ * must classify points and fill its point sets exactly as one that tests the
+ * data directly, before and after its range or its data changes.
+ */
+public class ThresholdMaskTest {
+
+	/** Rows that span more than one word of a mask, in four planes. */
+	private static final long[] DIMENSIONS = { 70, 5, 2, 2 };
+
+	private Context context;
+	private Dataset ds;
+	private RandomAccess<FloatType> access;
+	private ThresholdOverlay direct;
+	private ThresholdOverlay materialized;
+
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class);
+		final Img<FloatType> img =
+			new PlanarImgFactory<FloatType>().create(DIMENSIONS, new FloatType());
+		ds =
+			context.getService(DatasetService.class).create(
+				new ImgPlus<FloatType>(img));
+		access = img.randomAccess();
+		final Random random = new Random(3);
+		final long[] pos = new long[DIMENSIONS.length];
+		for (int i = 0; i < size(); i++) {
+			set(i, random.nextInt(10) == 0 ? Float.NaN : random.nextInt(100), pos);
+		}
+		direct = new ThresholdOverlay(context, ds, 25, 60);
+		materialized = new ThresholdOverlay(context, ds, 25, 60);
+		materialized.setMaterialized(true);
+		assertFalse(direct.isMaterialized());
+		assertTrue(materialized.isMaterialized());
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testModesAgree() {
+		assertAgree(25, 60);
+	}
+
+	@Test
+	public void testRangeChange() {
+		assertAgree(25, 60);
+		direct.setRange(-10, 40.5);
+		materialized.setRange(-10, 40.5);
+		assertAgree(-10, 40.5);
+		// a single value, and the whole range
+		direct.setRange(50, 50);
+		materialized.setRange(50, 50);
+		assertAgree(50, 50);
+		direct.setRange(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+		materialized.setRange(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+		assertAgree(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+	}
+
+	@Test
+	public void testDataChange() {
+		assertAgree(25, 60);
+		final long[] pos = new long[DIMENSIONS.length];
+		final int planeSize = (int) (DIMENSIONS[0] * DIMENSIONS[1]);
+
+		// change plane 2 and announce it alone
+		for (int i = 2 * planeSize; i < 3 * planeSize; i += 7) {
+			set(i, i % 3 == 0 ? Float.NaN : 100 - value(i, pos), pos);
+		}
+		ds.updatePlanes(2);
+		assertAgree(25, 60);
+
+		// change every plane and announce that any may have changed
+		for (int i = 0; i < size(); i += 5) {
+			set(i, i % 4 == 0 ? 30 : Float.NaN, pos);
+		}
+		ds.update();
+		assertAgree(25, 60);
+	}
+
+	@Test
+	public void testBoundedCache() {
+		// room for the masks of a single plane only
+		final ThresholdMask mask = new ThresholdMask(ds, 2, 25, 60, 1);
+		final long[] pos = new long[DIMENSIONS.length];
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = 0; i < size(); i++) {
+				value(i, pos);
+				assertEquals("at " + Arrays.toString(pos), direct.classify(pos), mask
+					.classify(pos));
+				assertEquals(1, mask.getCachedPlaneCount());
+			}
+		}
+	}
+
+	// -- helper methods --
+
+	/**
+	 * Checks that both overlays classify every point by its value and that
+	 * their point sets hold exactly the points of each class.
+	 */
+	private void assertAgree(final double min, final double max) {
+		final BitSet less = new BitSet(), within = new BitSet();
+		final BitSet greater = new BitSet(), outside = new BitSet();
+		final long[] pos = new long[DIMENSIONS.length];
+		for (int i = 0; i < size(); i++) {
+			final float value = value(i, pos);
+			final int expected;
+			if (Float.isNaN(value)) expected = Integer.MAX_VALUE;
+			else if (value < min) expected = -1;
+			else if (value > max) expected = 1;
+			else expected = 0;
+			final String where = "at " + Arrays.toString(pos);
+			assertEquals(where, expected, direct.classify(pos));
+			assertEquals(where, expected, materialized.classify(pos));
+			if (expected == -1) less.set(i);
+			if (expected == 0) within.set(i);
+			if (expected == 1) greater.set(i);
+			if (expected == -1 || expected == 1) outside.set(i);
+		}
+		for (final ThresholdOverlay overlay : new ThresholdOverlay[] { direct,
+			materialized })
+		{
+			assertEquals(less, points(overlay.getPointsLess()));
+			assertEquals(within, points(overlay.getPointsWithin()));
+			assertEquals(greater, points(overlay.getPointsGreater()));
+			assertEquals(outside, points(overlay.getPointsOutside()));
+		}
+	}
+
+	/** Gets the indices of the points of a point set. */
+	private BitSet points(final PointSet points) {
+		final BitSet indices = new BitSet();
+		final PointSetIterator iter = points.iterator();
+		while (iter.hasNext()) {
+			indices.set(index(iter.next()));
+		}
+		return indices;
+	}
+
+	private int size() {
+		int size = 1;
+		for (final long d : DIMENSIONS) {
+			size *= d;
+		}
+		return size;
+	}
+
+	/** Numbers points along X first, then Y and then the other dimensions. */
+	private int index(final long[] pos) {
+		int index = 0;
+		for (int d = DIMENSIONS.length - 1; d >= 0; d--) {
+			index = index * (int) DIMENSIONS[d] + (int) pos[d];
+		}
+		return index;
+	}
+
+	/** Sets pos to the point of the given index. */
+	private void position(final int index, final long[] pos) {
+		int i = index;
+		for (int d = 0; d < DIMENSIONS.length; d++) {
+			pos[d] = i % DIMENSIONS[d];
+			i /= DIMENSIONS[d];
+		}
+	}
+
+	private float value(final int index, final long[] pos) {
+		position(index, pos);
+		access.setPosition(pos);
+		return access.get().get();
+	}
+
+	private void set(final int index, final float value, final long[] pos) {
+		position(index, pos);
+		access.setPosition(pos);
+		access.get().set(value);
+	}
+
+}
@@ -197,6 +197,9 @@ public void legacyImageChanged(final ImagePlus imp) {
 		// in FunctionsMethods code. This code was for addressing bug #554
 		// if (FunctionsMethods.InsideBatchDrawing > 0) return;
 
+		// the current slice is the one legacy ImageJ just redrew
+		imageMap.getDirtyPlanes().markDirty(imp, imp.getCurrentSlice());
+
 		// create a display if it doesn't exist yet.
 		imageMap.registerLegacyImage(imp);
 
@@ -36,14 +36,19 @@
 package imagej.legacy;
 
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.gui.ImageWindow;
 import ij.gui.Roi;
 import imagej.data.Dataset;
 import imagej.data.display.ImageDisplay;
 import imagej.data.display.ImageDisplayService;
+import imagej.data.event.DatasetRestructuredEvent;
+import imagej.data.event.DatasetUpdatedEvent;
 import imagej.data.overlay.Overlay;
 import imagej.display.event.DisplayDeletedEvent;
+import imagej.legacy.translate.DatasetImageStack;
 import imagej.legacy.translate.DefaultImageTranslator;
+import imagej.legacy.translate.DirtyPlanes;
 import imagej.legacy.translate.Harmonizer;
 import imagej.legacy.translate.ImageTranslator;
 import imagej.legacy.translate.LegacyUtils;
@@ -109,6 +114,12 @@ public class LegacyImageMap extends AbstractContextual {
 	 */
 	private final DefaultImageTranslator imageTranslator;
 
+	/**
+	 * The planes changed on either side since each {@link ImagePlus} was last
+	 * harmonized with its {@link Dataset}.
+	 */
+	private final DirtyPlanes dirtyPlanes;
+
 	/**
 	 * The legacy service corresponding to this image map.
 	 */
@@ -123,6 +134,7 @@ public LegacyImageMap(final DefaultLegacyService legacyService) {
 		imagePlusTable = new ConcurrentHashMap<ImageDisplay, ImagePlus>();
 		displayTable = new ConcurrentHashMap<ImagePlus, ImageDisplay>();
 		imageTranslator = new DefaultImageTranslator(context);
+		dirtyPlanes = new DirtyPlanes();
 	}
 
 	// -- LegacyImageMap methods --
@@ -165,9 +177,33 @@ public ImagePlus registerDisplay(final ImageDisplay display) {
 		return imp;
 	}
 
+	/**
+	 * Turns the {@link DatasetImageStack}s of the mapped images into ordinary
+	 * stacks. This must be done before legacy plugins get to see the images,
+	 * since they may use the final voxel accessors of {@link ImageStack}, which
+	 * cannot read from a {@link Dataset}.
+	 */
+	public void detachDatasetStacks() {
+		for (final ImagePlus imp : getImagePlusInstances()) {
+			final ImageStack stack = imp.getStack();
+			if (stack instanceof DatasetImageStack) {
+				((DatasetImageStack) stack).detach();
+			}
+		}
+	}
+
+	/**
+	 * Gets the {@link DirtyPlanes} tracking which planes of the mapped images
+	 * need harmonizing.
+	 */
+	public DirtyPlanes getDirtyPlanes() {
+		return dirtyPlanes;
+	}
+
 	public synchronized void toggleLegacyMode(boolean toggle) {
 		final Harmonizer harmonizer =
-				new Harmonizer(legacyService.getContext(), imageTranslator);
+				new Harmonizer(legacyService.getContext(), imageTranslator,
+					dirtyPlanes);
 		if (toggle) {
 			// make sure that all ImageDisplays have a corresponding ImagePlus
 			final ImageDisplayService imageDisplayService =
@@ -198,6 +234,7 @@ public synchronized void toggleLegacyMode(boolean toggle) {
 				harmonizer.updateLegacyImage(display, imp);
 				harmonizer.registerType(imp);
 			}
+			detachDatasetStacks();
 		} else {
 			for (ImagePlus imp : displayTable.keySet()) {
 				final ImageWindow window = imp.getWindow();
@@ -305,6 +342,7 @@ private void removeMapping(final ImageDisplay display, final ImagePlus imp) {
 		}
 		if (imp != null) {
 			displayTable.remove(imp);
+			dirtyPlanes.forget(imp);
 			LegacyUtils.deleteImagePlus(imp);
 		}
 	}
@@ -339,4 +377,15 @@ protected void onEvent(final DisplayDeletedEvent event) {
 		}
 	}
 
+	@EventHandler
+	protected void onEvent(final DatasetUpdatedEvent event) {
+		if (event.isMetaDataOnly()) return;
+		dirtyPlanes.markDirty(event.getObject(), event.getPlanes());
+	}
+
+	@EventHandler
+	protected void onEvent(final DatasetRestructuredEvent event) {
+		dirtyPlanes.forget(event.getObject());
+	}
+
 }
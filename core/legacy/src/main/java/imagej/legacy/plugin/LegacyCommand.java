@@ -168,7 +168,8 @@ public LegacyCommandThread() {
 			this.map = legacyService.getImageMap();
 			final ImageTranslator imageTranslator =
 				new DefaultImageTranslator(context);
-			this.harmonizer = new Harmonizer(context, imageTranslator);
+			this.harmonizer =
+				new Harmonizer(context, imageTranslator, map.getDirtyPlanes());
 		}
 
 		@Override
@@ -182,6 +183,10 @@ public void run() {
 
 			updateImagePlusesFromDisplays();
 
+			// NB - legacy plugins cannot be kept from using the voxel accessors of
+			// the stacks, which only ordinary stacks support
+			map.detachDatasetStacks();
+
 			//reportStackIssues("Before IJ1 plugin run");
 			
 			// must happen after updateImagePlusesFromDisplays()
@@ -332,8 +337,8 @@ private boolean whitelisted(final Thread thread) {
 		// rather than having harmonization or something else fail.
 
 		private void updateImagePlusesFromDisplays() {
-			// TODO - track events and keep a dirty bit, then only harmonize those
-			// displays that have changed. See ticket #546.
+			// NB - the harmonizer only copies the planes it knows to be dirty. See
+			// ticket #546.
 			final List<ImageDisplay> imageDisplays =
 				imageDisplayService.getImageDisplays();
 			for (final ImageDisplay display : imageDisplays) {
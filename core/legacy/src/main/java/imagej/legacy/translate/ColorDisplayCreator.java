@@ -71,7 +71,7 @@ public class ColorDisplayCreator implements DisplayCreator {
 
 	public ColorDisplayCreator(final Context context) {
 		this.context = context;
-		pixelHarmonizer = new ColorPixelHarmonizer();
+		pixelHarmonizer = new ColorPixelHarmonizer(context);
 		colorTableHarmonizer = new ColorTableHarmonizer(context);
 		metadataHarmonizer = new MetadataHarmonizer();
 		compositeHarmonizer = new CompositeHarmonizer();
@@ -94,7 +94,9 @@ public ImageDisplay createDisplay(final ImagePlus imp,
 		final AxisType[] preferredOrder, boolean isBinaryImp)
 	{
 		final Dataset ds = makeColorDataset(imp, preferredOrder);
-		pixelHarmonizer.updateDataset(ds, imp);
+		final SliceProgress progress =
+			new SliceProgress(context, imp.getStackSize());
+		pixelHarmonizer.updateDataset(ds, imp, null, progress);
 		metadataHarmonizer.updateDataset(ds, imp);
 		compositeHarmonizer.updateDataset(ds, imp);
 
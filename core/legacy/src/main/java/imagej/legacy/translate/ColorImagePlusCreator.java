@@ -64,7 +64,7 @@ public class ColorImagePlusCreator implements ImagePlusCreator {
 
 	public ColorImagePlusCreator(Context context) {
 		this.context = context;
-		pixelHarmonizer = new ColorPixelHarmonizer();
+		pixelHarmonizer = new ColorPixelHarmonizer(context);
 		metadataHarmonizer = new MetadataHarmonizer();
 		positionHarmonizer = new PositionHarmonizer();
 		nameHarmonizer = new NameHarmonizer();
@@ -33,125 +33,251 @@
  * #L%
  */
 
+
 package imagej.legacy.translate;
 
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.process.ImageProcessor;
 import imagej.data.Dataset;
-import net.imglib2.RandomAccess;
+import imagej.data.ParallelLoop;
+import imagej.data.RowAccess;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import net.imglib2.meta.Axes;
-import net.imglib2.type.numeric.RealType;
+
+import org.scijava.Context;
 
 /**
  * Supports bidirectional synchronization between color {@link ImagePlus}es and
  * merged {@link Dataset}s.
+ * <p>
+ * Pixels are transferred a row at a time between the int arrays of the
+ * {@link ImageStack} and the red, green and blue planes of the Dataset (via
+ * {@link RowAccess}), with the stack slices spread over the threads configured
+ * for ImageJ.
+ * </p>
  * 
  * @author Barry DeZonia
  */
 public class ColorPixelHarmonizer implements DataHarmonizer {
 
+	private final Context context;
+
+	public ColorPixelHarmonizer(final Context context) {
+		this.context = context;
+	}
+
 	/**
 	 * Assigns the data values of a color {@link Dataset} from a paired
 	 * {@link ImagePlus}. Assumes the Dataset and ImagePlus have compatible
-	 * dimensions and are both of type color. Gets values via
-	 * {@link ImageProcessor}::get(). Does not change the Dataset's metadata.
+	 * dimensions and are both of type color. Gets values as
+	 * {@link ImageProcessor}::get() would. Does not change the Dataset's
+	 * metadata.
 	 */
 	@Override
 	public void updateDataset(final Dataset ds, final ImagePlus imp) {
+		updateDataset(ds, imp, null);
+	}
+
+	/**
+	 * Assigns the data values of a color {@link Dataset} from the given slices of
+	 * a paired {@link ImagePlus}. The slices array is indexed by stack position
+	 * (from 1) as returned by {@link DirtyPlanes#getDirtySlices}; a null array
+	 * updates all slices. Only the planes actually written are reported through
+	 * {@link Dataset#updatePlanes(long...)}.
+	 */
+	public void updateDataset(final Dataset ds, final ImagePlus imp,
+		final boolean[] slices)
+	{
+		updateDataset(ds, imp, slices, null);
+	}
+
+	/**
+	 * Assigns the data values of a {@link Dataset} from the given slices of a
+	 * paired {@link ImagePlus} as {@link #updateDataset(Dataset, ImagePlus,
+	 * boolean[])} does, reporting each translated slice to the given
+	 * {@link SliceProgress} if it is not null.
+	 */
+	void updateDataset(final Dataset ds, final ImagePlus imp,
+		final boolean[] slices, final SliceProgress progress)
+	{
 		final int xIndex = ds.getAxisIndex(Axes.X);
 		final int yIndex = ds.getAxisIndex(Axes.Y);
-		final int cIndex = ds.getAxisIndex(Axes.CHANNEL);
-		final int zIndex = ds.getAxisIndex(Axes.Z);
-		final int tIndex = ds.getAxisIndex(Axes.TIME);
-		final int x = imp.getWidth();
-		final int y = imp.getHeight();
-		final int c = imp.getNChannels();
-		final int z = imp.getNSlices();
-		final int t = imp.getNFrames();
-		int imagejPlaneNumber = 1;
-		final RandomAccess<? extends RealType<?>> accessor =
-			ds.getImgPlus().randomAccess();
-		for (int ti = 0; ti < t; ti++) {
-			if (tIndex >= 0) accessor.setPosition(ti, tIndex);
-			for (int zi = 0; zi < z; zi++) {
-				if (zIndex >= 0) accessor.setPosition(zi, zIndex);
-				for (int ci = 0; ci < c; ci++) {
-					final ImageProcessor proc =
-						imp.getStack().getProcessor(imagejPlaneNumber++);
-					for (int yi = 0; yi < y; yi++) {
-						accessor.setPosition(yi, yIndex);
-						for (int xi = 0; xi < x; xi++) {
-							accessor.setPosition(xi, xIndex);
-							final int value = proc.get(xi, yi);
-							final int rValue = (value >> 16) & 0xff;
-							final int gValue = (value >> 8) & 0xff;
-							final int bValue = (value >> 0) & 0xff;
-							accessor.setPosition(ci * 3 + 0, cIndex);
-							accessor.get().setReal(rValue);
-							accessor.setPosition(ci * 3 + 1, cIndex);
-							accessor.get().setReal(gValue);
-							accessor.setPosition(ci * 3 + 2, cIndex);
-							accessor.get().setReal(bValue);
+		final ImageStack stack = imp.getStack();
+		final List<long[][]> positions = new ArrayList<long[][]>();
+		final List<Integer> stackSlices = new ArrayList<Integer>();
+		findSlices(ds, imp, slices, positions, stackSlices);
+		// NB - virtual stacks load their slices one at a time
+		final int threads =
+			stack.isVirtual() ? 1 : ParallelLoop.getThreadCount(context);
+		ParallelLoop.run(context, stackSlices.size(), threads,
+			new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count) {
+					final RowAccess rows = new RowAccess(ds.getImgPlus(), xIndex, yIndex);
+					final int width = rows.getWidth();
+					final double[][] channels = new double[3][width];
+					for (long i = start; i < start + count; i++) {
+						final int slice = stackSlices.get((int) i);
+						final long[] planes = rowPlanes(ds, positions.get((int) i));
+						final Object pixels = stack.getPixels(slice);
+						final ImageProcessor proc =
+							pixels instanceof int[] ? null : stack.getProcessor(slice);
+						for (int y = 0; y < rows.getHeight(); y++) {
+							final int offset = y * width;
+							for (int x = 0; x < width; x++) {
+								final int value =
+									proc == null ? ((int[]) pixels)[offset + x] : proc.get(x, y);
+								channels[0][x] = (value >> 16) & 0xff;
+								channels[1][x] = (value >> 8) & 0xff;
+								channels[2][x] = (value >> 0) & 0xff;
+							}
+							for (int k = 0; k < 3; k++)
+								rows.write(planes[k], y, channels[k]);
 						}
+						if (progress != null) progress.sliceDone();
 					}
 				}
+			});
+		if (progress != null) progress.finish();
+		if (slices == null) ds.update();
+		else if (positions.size() > 0) {
+			final long[] dims = ds.getDims();
+			final long[] planes = new long[3 * positions.size()];
+			int p = 0;
+			for (final long[][] channelPositions : positions) {
+				for (final long[] pos : channelPositions)
+					planes[p++] = DirtyPlanes.planeIndex(dims, pos);
 			}
+			ds.updatePlanes(planes);
 		}
-		ds.update();
 	}
 
 	/**
 	 * Assigns the data values of a color {@link ImagePlus} from a paired
 	 * {@link Dataset}. Assumes the Dataset and ImagePlus have compatible
 	 * dimensions and that the data planes are not directly mapped. Also assumes
-	 * that the Dataset has isRGBMerged() true. Sets values via
-	 * {@link ImageProcessor}::set(). Does not change the ImagePlus' metadata.
+	 * that the Dataset has isRGBMerged() true. Sets values as
+	 * {@link ImageProcessor}::set() would. Does not change the ImagePlus'
+	 * metadata.
 	 */
 	@Override
 	public void updateLegacyImage(final Dataset ds, final ImagePlus imp) {
+		updateLegacyImage(ds, imp, null);
+	}
+
+	/**
+	 * Assigns the data values of the given slices of a color {@link ImagePlus}
+	 * from a paired {@link Dataset}. The slices array is indexed by stack
+	 * position (from 1) as returned by {@link DirtyPlanes#getDirtySlices}; a null
+	 * array updates all slices.
+	 */
+	public void updateLegacyImage(final Dataset ds, final ImagePlus imp,
+		final boolean[] slices)
+	{
 		final int xIndex = ds.getAxisIndex(Axes.X);
 		final int yIndex = ds.getAxisIndex(Axes.Y);
+		final ImageStack stack = imp.getStack();
+		final List<long[][]> positions = new ArrayList<long[][]>();
+		final List<Integer> stackSlices = new ArrayList<Integer>();
+		findSlices(ds, imp, slices, positions, stackSlices);
+		// NB - virtual stacks load their slices one at a time
+		final int threads =
+			stack.isVirtual() ? 1 : ParallelLoop.getThreadCount(context);
+		ParallelLoop.run(context, stackSlices.size(), threads,
+			new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count) {
+					final RowAccess rows = new RowAccess(ds.getImgPlus(), xIndex, yIndex);
+					final int width = rows.getWidth();
+					final double[][] channels = new double[3][width];
+					for (long i = start; i < start + count; i++) {
+						final int slice = stackSlices.get((int) i);
+						final long[] planes = rowPlanes(ds, positions.get((int) i));
+						final Object pixels = stack.getPixels(slice);
+						final ImageProcessor proc =
+							pixels instanceof int[] ? null : stack.getProcessor(slice);
+						for (int y = 0; y < rows.getHeight(); y++) {
+							for (int k = 0; k < 3; k++)
+								rows.read(planes[k], y, channels[k]);
+							final int offset = y * width;
+							for (int x = 0; x < width; x++) {
+								final int rValue = ((int) channels[0][x]) & 0xff;
+								final int gValue = ((int) channels[1][x]) & 0xff;
+								final int bValue = ((int) channels[2][x]) & 0xff;
+								final int intValue =
+									(0xff << 24) | (rValue << 16) | (gValue << 8) | (bValue);
+								if (proc == null) ((int[]) pixels)[offset + x] = intValue;
+								else proc.set(x, y, intValue);
+							}
+						}
+					}
+				}
+			});
+	}
+
+	// -- private interface --
+
+	/**
+	 * Lists the stack slices to harmonize along with the {@link Dataset}
+	 * positions (ignoring X and Y) of the red, green and blue planes each one
+	 * maps to. Slices are ordered by channel, then z, then time as in legacy
+	 * ImageJ.
+	 */
+	private void findSlices(final Dataset ds, final ImagePlus imp,
+		final boolean[] slices, final List<long[][]> positions,
+		final List<Integer> stackSlices)
+	{
+		final int numDims = ds.getDims().length;
 		final int cIndex = ds.getAxisIndex(Axes.CHANNEL);
 		final int zIndex = ds.getAxisIndex(Axes.Z);
 		final int tIndex = ds.getAxisIndex(Axes.TIME);
-		final int x = imp.getWidth();
-		final int y = imp.getHeight();
 		final int c = imp.getNChannels();
 		final int z = imp.getNSlices();
 		final int t = imp.getNFrames();
 		int imagejPlaneNumber = 1;
-		final RandomAccess<? extends RealType<?>> accessor =
-			ds.getImgPlus().randomAccess();
 		for (int ti = 0; ti < t; ti++) {
-			if (tIndex >= 0) accessor.setPosition(ti, tIndex);
 			for (int zi = 0; zi < z; zi++) {
-				if (zIndex >= 0) accessor.setPosition(zi, zIndex);
 				for (int ci = 0; ci < c; ci++) {
-					final ImageProcessor proc =
-						imp.getStack().getProcessor(imagejPlaneNumber++);
-					for (int yi = 0; yi < y; yi++) {
-						accessor.setPosition(yi, yIndex);
-						for (int xi = 0; xi < x; xi++) {
-							accessor.setPosition(xi, xIndex);
-
-							accessor.setPosition(3 * ci + 0, cIndex);
-							final int rValue = ((int) accessor.get().getRealDouble()) & 0xff;
-
-							accessor.setPosition(3 * ci + 1, cIndex);
-							final int gValue = ((int) accessor.get().getRealDouble()) & 0xff;
-
-							accessor.setPosition(3 * ci + 2, cIndex);
-							final int bValue = ((int) accessor.get().getRealDouble()) & 0xff;
-
-							final int intValue =
-								(0xff << 24) | (rValue << 16) | (gValue << 8) | (bValue);
-
-							proc.set(xi, yi, intValue);
-						}
+					final int slice = imagejPlaneNumber++;
+					if (slices != null && !slices[slice]) continue;
+					final long[][] channelPositions = new long[3][numDims];
+					for (int k = 0; k < 3; k++) {
+						final long[] pos = channelPositions[k];
+						if (tIndex >= 0) pos[tIndex] = ti;
+						if (zIndex >= 0) pos[zIndex] = zi;
+						pos[cIndex] = 3 * ci + k;
 					}
+					positions.add(channelPositions);
+					stackSlices.add(slice);
 				}
 			}
 		}
 	}
 
+	/**
+	 * Computes the {@link RowAccess} plane numbers of the given {@link Dataset}
+	 * positions.
+	 */
+	private long[] rowPlanes(final Dataset ds, final long[][] positions) {
+		final long[] dims = ds.getDims();
+		final int xIndex = ds.getAxisIndex(Axes.X);
+		final int yIndex = ds.getAxisIndex(Axes.Y);
+		final long[] planes = new long[positions.length];
+		for (int i = 0; i < positions.length; i++) {
+			long offset = 1;
+			for (int d = 0; d < dims.length; d++) {
+				if (d == xIndex || d == yIndex) continue;
+				planes[i] += offset * positions[i][d];
+				offset *= dims[d];
+			}
+		}
+		return planes;
+	}
+
 }
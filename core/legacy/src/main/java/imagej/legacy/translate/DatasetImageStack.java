@@ -0,0 +1,602 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.legacy.translate;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import imagej.data.Dataset;
+import imagej.data.RowAccess;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.imglib2.meta.Axes;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ShortType;
+
+/**
+ * A legacy ImageJ {@link ImageStack} whose slices are the planes of a gray
+ * {@link Dataset}, converted on demand rather than duplicated up front. Slices
+ * are converted the same way {@link GrayPixelHarmonizer} would when they are
+ * first requested, and stay in memory once converted. A slice that changed is
+ * written back into the Dataset when {@link #flush()} is called. Changes are
+ * detected by comparing fingerprints of the slice pixels, so unchanged slices
+ * never lose precision by being converted back.
+ * <p>
+ * Only when the converted slices outgrow a memory limit are the least recently
+ * used ones written back and dropped. Slices still in use are never dropped:
+ * the current slice of the {@link ImagePlus} given to
+ * {@link #setImagePlus(ImagePlus)} and every slice with a processor from
+ * {@link #getProcessor(int)} that is still reachable keep their pixel arrays.
+ * A dropped slice whose pixel array was handed out by {@link #getPixels(int)}
+ * is remembered for as long as that array is reachable: changes made to it are
+ * still written back, and it is handed out again when the slice is next asked
+ * for.
+ * </p>
+ * <p>
+ * Legacy ImageJ treats virtual stacks as read only, so the stack does not
+ * report itself as virtual. Operations that add or remove slices, or ask for
+ * every pixel array at once, first turn it into an ordinary in-memory stack
+ * that is no longer backed by the Dataset. The final voxel accessors of
+ * {@link ImageStack} cannot be redirected, so the stack must be
+ * {@link #detach() detached} before it is given to code that may use them,
+ * such as legacy plugins.
+ * </p>
+ */
+public class DatasetImageStack extends ImageStack {
+
+	// -- constants --
+
+	/**
+	 * The default share of the maximum heap that converted slices may occupy
+	 * before the least recently used ones are dropped.
+	 */
+	public static final double DEFAULT_MEMORY_FRACTION = 0.25;
+
+	// -- instance variables --
+
+	private final Dataset ds;
+	private final int bitDepth;
+	private final long maxBytes;
+	private final long[][] positions;
+	private final String[] labels;
+	private final Map<Integer, Slice> cache;
+	private final Map<Integer, ReleasedSlice> released =
+		new HashMap<Integer, ReleasedSlice>();
+	private WeakReference<ImagePlus> imp;
+	private boolean written;
+	private boolean detached;
+
+	// -- constructors --
+
+	/**
+	 * Creates a stack backed by a {@link Dataset}, whose slices have the given
+	 * bit depth (8, 16 or 32).
+	 */
+	public DatasetImageStack(final Dataset ds, final int bitDepth) {
+		this(ds, bitDepth, (long) (DEFAULT_MEMORY_FRACTION * Runtime
+			.getRuntime().maxMemory()));
+	}
+
+	/**
+	 * Creates a stack backed by a {@link Dataset}, whose slices have the given
+	 * bit depth (8, 16 or 32), dropping unused converted slices once they
+	 * occupy more than the given number of bytes.
+	 */
+	public DatasetImageStack(final Dataset ds, final int bitDepth,
+		final long maxBytes)
+	{
+		super(width(ds), height(ds));
+		if (bitDepth != 8 && bitDepth != 16 && bitDepth != 32) {
+			throw new IllegalArgumentException("Unsupported bit depth " + bitDepth);
+		}
+		this.ds = ds;
+		this.bitDepth = bitDepth;
+		this.maxBytes = maxBytes;
+		positions = slicePositions(ds);
+		labels = new String[positions.length];
+		cache = new LinkedHashMap<Integer, Slice>(16, 0.75f, true);
+	}
+
+	// -- DatasetImageStack methods --
+
+	/** Gets the {@link Dataset} backing this stack. */
+	public Dataset getDataset() {
+		return ds;
+	}
+
+	/**
+	 * Sets the {@link ImagePlus} displaying this stack, whose current slice is
+	 * never dropped from memory.
+	 */
+	public synchronized void setImagePlus(final ImagePlus imp) {
+		this.imp = imp == null ? null : new WeakReference<ImagePlus>(imp);
+	}
+
+	/**
+	 * Returns true if this stack has been turned into an ordinary stack that no
+	 * longer reads from or writes to its {@link Dataset}.
+	 */
+	public synchronized boolean isDetached() {
+		return detached;
+	}
+
+	/**
+	 * Writes every changed slice back into the {@link Dataset}. Does not update
+	 * the Dataset. Returns true if any data was written since the last flush,
+	 * including slices written back as they dropped out of memory.
+	 */
+	public synchronized boolean flush() {
+		if (detached) return false;
+		for (final Map.Entry<Integer, Slice> entry : cache.entrySet()) {
+			writeBack(entry.getKey(), entry.getValue());
+		}
+		final Iterator<Map.Entry<Integer, ReleasedSlice>> iter =
+			released.entrySet().iterator();
+		while (iter.hasNext()) {
+			final Map.Entry<Integer, ReleasedSlice> entry = iter.next();
+			final ReleasedSlice slice = entry.getValue();
+			final Object pixels = slice.pixels.get();
+			if (pixels == null) {
+				iter.remove();
+				continue;
+			}
+			final long fingerprint = DirtyPlanes.fingerprint(pixels);
+			if (fingerprint == slice.fingerprint) continue;
+			store(entry.getKey(), pixels);
+			slice.fingerprint = fingerprint;
+			written = true;
+		}
+		final boolean result = written;
+		written = false;
+		return result;
+	}
+
+	/**
+	 * Refreshes the slices held in memory from the {@link Dataset}, discarding
+	 * any unflushed changes. The pixel arrays keep their identity so processors
+	 * that refer to them stay valid.
+	 */
+	public synchronized void reload() {
+		if (detached) return;
+		for (final Map.Entry<Integer, Slice> entry : cache.entrySet()) {
+			final Slice slice = entry.getValue();
+			load(entry.getKey(), slice.pixels);
+			slice.fingerprint = DirtyPlanes.fingerprint(slice.pixels);
+			slice.modified = false;
+		}
+		for (final Map.Entry<Integer, ReleasedSlice> entry : released.entrySet()) {
+			final ReleasedSlice slice = entry.getValue();
+			final Object pixels = slice.pixels.get();
+			if (pixels == null) continue;
+			load(entry.getKey(), pixels);
+			slice.fingerprint = DirtyPlanes.fingerprint(pixels);
+		}
+		written = false;
+	}
+
+	/**
+	 * Turns this stack into an ordinary in-memory stack holding every slice,
+	 * after writing every changed slice back into the {@link Dataset}. Pixel
+	 * arrays already handed out stay part of the stack.
+	 */
+	public synchronized void detach() {
+		if (detached) return;
+		flush();
+		final Object[] arrays = new Object[positions.length];
+		for (int n = 1; n <= arrays.length; n++) {
+			Slice slice = cache.get(n);
+			if (slice == null) slice = adopt(n);
+			if (slice != null) arrays[n - 1] = slice.pixels;
+			else {
+				arrays[n - 1] = createPixels();
+				load(n, arrays[n - 1]);
+			}
+		}
+		cache.clear();
+		released.clear();
+		detached = true;
+		for (int n = 1; n <= arrays.length; n++) {
+			super.addSlice(labels[n - 1], arrays[n - 1]);
+		}
+	}
+
+	// -- ImageStack methods --
+
+	@Override
+	public synchronized Object getPixels(final int n) {
+		if (detached) return super.getPixels(n);
+		final Slice slice = slice(n);
+		slice.handedOut = true;
+		return slice.pixels;
+	}
+
+	@Override
+	public synchronized void setPixels(final Object pixels, final int n) {
+		if (detached) {
+			super.setPixels(pixels, n);
+			return;
+		}
+		checkSlice(n);
+		final Slice slice = cache.get(n);
+		if (slice != null && slice.pixels == pixels) return;
+		if (!isSliceArray(pixels)) {
+			throw new IllegalArgumentException("Pixel array type mismatch");
+		}
+		final Slice replacement = new Slice(pixels, 0);
+		replacement.modified = true;
+		replacement.handedOut = true;
+		released.remove(n);
+		cache.put(n, replacement);
+		evict(n);
+	}
+
+	@Override
+	public synchronized ImageProcessor getProcessor(final int n) {
+		if (detached) return super.getProcessor(n);
+		final Slice slice = slice(n);
+		final int w = getWidth();
+		final int h = getHeight();
+		final ImageProcessor proc;
+		if (bitDepth == 8) {
+			proc = new ByteProcessor(w, h, (byte[]) slice.pixels, getColorModel());
+		}
+		else if (bitDepth == 16) {
+			proc =
+				new ShortProcessor(w, h, (short[]) slice.pixels, getColorModel());
+		}
+		else {
+			proc =
+				new FloatProcessor(w, h, (float[]) slice.pixels, getColorModel());
+		}
+		slice.processors.add(new WeakReference<ImageProcessor>(proc));
+		// NB - the pixels outlive the processor if anyone asks it for them
+		slice.handedOut = true;
+		return proc;
+	}
+
+	@Override
+	public synchronized int getSize() {
+		if (detached) return super.getSize();
+		return positions.length;
+	}
+
+	@Override
+	public synchronized String getSliceLabel(final int n) {
+		if (detached) return super.getSliceLabel(n);
+		checkSlice(n);
+		return labels[n - 1];
+	}
+
+	@Override
+	public synchronized void setSliceLabel(final String label, final int n) {
+		if (detached) {
+			super.setSliceLabel(label, n);
+			return;
+		}
+		checkSlice(n);
+		labels[n - 1] = label;
+	}
+
+	@Override
+	public synchronized String[] getSliceLabels() {
+		if (detached) return super.getSliceLabels();
+		return labels.clone();
+	}
+
+	@Override
+	public synchronized Object[] getImageArray() {
+		detach();
+		return super.getImageArray();
+	}
+
+	@Override
+	public synchronized void addSlice(final String sliceLabel,
+		final Object pixels)
+	{
+		detach();
+		super.addSlice(sliceLabel, pixels);
+	}
+
+	@Override
+	public synchronized void addSlice(final String sliceLabel,
+		final ImageProcessor ip, final int n)
+	{
+		detach();
+		super.addSlice(sliceLabel, ip, n);
+	}
+
+	@Override
+	public synchronized void deleteSlice(final int n) {
+		detach();
+		super.deleteSlice(n);
+	}
+
+	@Override
+	public synchronized void deleteLastSlice() {
+		detach();
+		super.deleteLastSlice();
+	}
+
+	@Override
+	public boolean isVirtual() {
+		return false;
+	}
+
+	// -- private interface --
+
+	/** Gets a slice, converting it from the {@link Dataset} if needed. */
+	private Slice slice(final int n) {
+		checkSlice(n);
+		Slice slice = cache.get(n);
+		if (slice == null) {
+			slice = adopt(n);
+			if (slice == null) {
+				final Object pixels = createPixels();
+				load(n, pixels);
+				slice = new Slice(pixels, DirtyPlanes.fingerprint(pixels));
+			}
+			cache.put(n, slice);
+			evict(n);
+		}
+		return slice;
+	}
+
+	/**
+	 * Takes back a dropped slice whose pixel array is still reachable, keeping
+	 * the fingerprint it was last synced with so later changes are written back.
+	 * Returns null if there is no such slice.
+	 */
+	private Slice adopt(final int n) {
+		final ReleasedSlice releasedSlice = released.remove(n);
+		if (releasedSlice == null) return null;
+		final Object pixels = releasedSlice.pixels.get();
+		if (pixels == null) return null;
+		final Slice slice = new Slice(pixels, releasedSlice.fingerprint);
+		slice.handedOut = true;
+		return slice;
+	}
+
+	/**
+	 * Drops the least recently used slices while the slices in memory exceed
+	 * the memory limit, keeping the given slice and any slice still in use.
+	 */
+	private void evict(final int keep) {
+		final long sliceBytes = (long) getWidth() * getHeight() * bitDepth / 8;
+		long bytes = cache.size() * sliceBytes;
+		final Iterator<Map.Entry<Integer, Slice>> iter =
+			cache.entrySet().iterator();
+		while (bytes > maxBytes && iter.hasNext()) {
+			final Map.Entry<Integer, Slice> entry = iter.next();
+			final int n = entry.getKey();
+			if (n == keep || isInUse(n, entry.getValue())) continue;
+			final Slice slice = entry.getValue();
+			writeBack(n, slice);
+			if (slice.handedOut) {
+				released.put(n, new ReleasedSlice(slice.pixels, slice.fingerprint));
+			}
+			iter.remove();
+			bytes -= sliceBytes;
+		}
+	}
+
+	/**
+	 * Returns true if a slice is the current slice of the {@link ImagePlus}
+	 * showing this stack, or has processors that are still reachable.
+	 */
+	private boolean isInUse(final int n, final Slice slice) {
+		final ImagePlus owner = imp == null ? null : imp.get();
+		if (owner != null && owner.getCurrentSlice() == n) return true;
+		final Iterator<WeakReference<ImageProcessor>> iter =
+			slice.processors.iterator();
+		while (iter.hasNext()) {
+			if (iter.next().get() != null) return true;
+			iter.remove();
+		}
+		return false;
+	}
+
+	/** Writes a slice back into the {@link Dataset} if it changed. */
+	private void writeBack(final int n, final Slice slice) {
+		if (!slice.modified &&
+			DirtyPlanes.fingerprint(slice.pixels) == slice.fingerprint)
+		{
+			return;
+		}
+		store(n, slice.pixels);
+		slice.fingerprint = DirtyPlanes.fingerprint(slice.pixels);
+		slice.modified = false;
+		written = true;
+	}
+
+	/** Converts a {@link Dataset} plane into the given slice pixels. */
+	private void load(final int n, final Object pixels) {
+		final RealType<?> type = ds.getType();
+		final boolean signed16BitData = type instanceof ShortType;
+		final boolean bitData = type instanceof BitType;
+		final RowAccess rows = rowAccess();
+		final long plane = GrayPixelHarmonizer.rowPlane(ds, positions[n - 1]);
+		final int width = rows.getWidth();
+		final double[] row = new double[width];
+		for (int y = 0; y < rows.getHeight(); y++) {
+			rows.read(plane, y, row);
+			for (int x = 0; x < width; x++) {
+				double value = row[x];
+				if (signed16BitData) value += 32768.0;
+				else if (bitData) if (value > 0) value = 255;
+				row[x] = value;
+			}
+			GrayPixelHarmonizer.writeRow(pixels, null, y, width, row);
+		}
+	}
+
+	/** Converts the given slice pixels into a {@link Dataset} plane. */
+	private void store(final int n, final Object pixels) {
+		final RealType<?> type = ds.getType();
+		final double typeMin = type.getMinValue();
+		final double typeMax = type.getMaxValue();
+		final boolean signed16BitData = type instanceof ShortType;
+		final RowAccess rows = rowAccess();
+		final long plane = GrayPixelHarmonizer.rowPlane(ds, positions[n - 1]);
+		final int width = rows.getWidth();
+		final double[] row = new double[width];
+		for (int y = 0; y < rows.getHeight(); y++) {
+			GrayPixelHarmonizer.readRow(pixels, null, y, width, row);
+			for (int x = 0; x < width; x++) {
+				double value = row[x];
+				if (signed16BitData) value -= 32768.0;
+				if (value < typeMin) value = typeMin;
+				else if (value > typeMax) value = typeMax;
+				row[x] = value;
+			}
+			rows.write(plane, y, row);
+		}
+	}
+
+	private RowAccess rowAccess() {
+		return new RowAccess(ds.getImgPlus(), ds.getAxisIndex(Axes.X), ds
+			.getAxisIndex(Axes.Y));
+	}
+
+	private Object createPixels() {
+		final int size = getWidth() * getHeight();
+		if (bitDepth == 8) return new byte[size];
+		if (bitDepth == 16) return new short[size];
+		return new float[size];
+	}
+
+	private boolean isSliceArray(final Object pixels) {
+		if (bitDepth == 8) return pixels instanceof byte[];
+		if (bitDepth == 16) return pixels instanceof short[];
+		return pixels instanceof float[];
+	}
+
+	private void checkSlice(final int n) {
+		if (n < 1 || n > positions.length) {
+			throw new IllegalArgumentException("Argument out of range: " + n);
+		}
+	}
+
+	/**
+	 * Lists the {@link Dataset} position (ignoring X and Y) of each slice, in
+	 * legacy ImageJ order: by channel, then z, then time.
+	 */
+	private static long[][] slicePositions(final Dataset ds) {
+		final int[] dimIndices = new int[5];
+		final int[] dimValues = new int[5];
+		LegacyUtils.getImagePlusDims(ds, dimIndices, dimValues);
+		final long[] dims = ds.getDims();
+		final int zIndex = dimIndices[3];
+		final int tIndex = dimIndices[4];
+		final int cCount = dimValues[2];
+		final int zCount = dimValues[3];
+		final int tCount = dimValues[4];
+		final long[][] positions = new long[cCount * zCount * tCount][];
+		int i = 0;
+		for (int t = 0; t < tCount; t++) {
+			for (int z = 0; z < zCount; z++) {
+				for (int c = 0; c < cCount; c++) {
+					final long[] pos = new long[dims.length];
+					if (tIndex >= 0) pos[tIndex] = t;
+					if (zIndex >= 0) pos[zIndex] = z;
+					LegacyUtils.fillChannelIndices(dims, ds.getAxes(), c, pos);
+					positions[i++] = pos;
+				}
+			}
+		}
+		return positions;
+	}
+
+	private static int width(final Dataset ds) {
+		return (int) ds.getDims()[ds.getAxisIndex(Axes.X)];
+	}
+
+	private static int height(final Dataset ds) {
+		return (int) ds.getDims()[ds.getAxisIndex(Axes.Y)];
+	}
+
+	// -- helper classes --
+
+	/**
+	 * A converted slice, the fingerprint of its pixels when last synced and the
+	 * processors that share them.
+	 */
+	private static class Slice {
+
+		private final Object pixels;
+		private long fingerprint;
+		private boolean modified;
+
+		/** Whether the pixels may be referenced outside of this stack. */
+		private boolean handedOut;
+
+		/** Processors handed out for the pixels, while they are reachable. */
+		private final List<WeakReference<ImageProcessor>> processors =
+			new ArrayList<WeakReference<ImageProcessor>>();
+
+		public Slice(final Object pixels, final long fingerprint) {
+			this.pixels = pixels;
+			this.fingerprint = fingerprint;
+		}
+	}
+
+	/**
+	 * A dropped slice whose pixels were handed out, and the fingerprint of the
+	 * pixels when last synced.
+	 */
+	private static class ReleasedSlice {
+
+		private final WeakReference<Object> pixels;
+		private long fingerprint;
+
+		public ReleasedSlice(final Object pixels, final long fingerprint) {
+			this.pixels = new WeakReference<Object>(pixels);
+			this.fingerprint = fingerprint;
+		}
+	}
+
+}
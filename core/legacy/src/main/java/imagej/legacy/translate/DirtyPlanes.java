@@ -0,0 +1,382 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.legacy.translate;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import imagej.data.Dataset;
+import imagej.data.ParallelLoop;
+import imagej.data.RowAccess;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+
+/**
+ * Tracks which planes of paired {@link Dataset}s and {@link ImagePlus}es have
+ * changed since they were last harmonized, so that the pixel harmonizers only
+ * need to copy those.
+ * <p>
+ * Changes on the modern side are reported through {@link #markDirty(Dataset,
+ * long[])}, typically from {@link imagej.data.event.DatasetUpdatedEvent}s.
+ * Once such an event has named the changed planes, the planes it names are
+ * trusted to be the only ones changed. Only when no event arrived since the
+ * last synchronization, since modern code can write into a {@link Dataset}
+ * without publishing one, are the planes compared against fingerprints taken
+ * at that time.
+ * </p>
+ * <p>
+ * Changes on the legacy side are reported through {@link #markDirty(ImagePlus,
+ * int)} when known. Legacy ImageJ only reports the slice it redraws though,
+ * while legacy plugins can write into any slice of an {@link ImageStack}, so
+ * every slice is also compared against its fingerprint. Fingerprints are
+ * taken from the pixel arrays of the slices, and of the Dataset planes when
+ * they are stored as arrays, on several threads. Whenever a pair has no usable
+ * history (first synchronization, virtual stack, changed dimensions, or X and
+ * Y not being the first two axes) all slices are reported dirty.
+ * </p>
+ */
+public class DirtyPlanes {
+
+	// -- instance variables --
+
+	private final Map<ImagePlus, Entry> entries =
+		new WeakHashMap<ImagePlus, Entry>();
+
+	// -- public interface --
+
+	/**
+	 * Records that the given planes of a {@link Dataset}, numbered as in
+	 * {@link Dataset#getPlane(int)}, have changed. A null array marks all planes.
+	 */
+	public synchronized void markDirty(final Dataset ds, final long[] planes) {
+		for (final Entry entry : entries.values()) {
+			if (entry.ds != ds || entry.planes == null) continue;
+			if (planes == null) entry.planes = null;
+			else {
+				for (final long plane : planes)
+					entry.planes.add(plane);
+				entry.planesReported = true;
+			}
+		}
+	}
+
+	/**
+	 * Records that the given slice (numbered from 1) of an {@link ImagePlus}'
+	 * {@link ImageStack} has changed.
+	 */
+	public synchronized void markDirty(final ImagePlus imp, final int slice) {
+		final Entry entry = entries.get(imp);
+		if (entry != null) entry.slices.add(slice);
+	}
+
+	/** Forgets everything known about a {@link Dataset}. */
+	public synchronized void forget(final Dataset ds) {
+		markDirty(ds, null);
+	}
+
+	/** Forgets everything known about an {@link ImagePlus}. */
+	public synchronized void forget(final ImagePlus imp) {
+		entries.remove(imp);
+	}
+
+	/**
+	 * Gets the slices of an {@link ImagePlus}' {@link ImageStack} that differ
+	 * from its paired {@link Dataset} since they were last marked clean. The
+	 * returned array is indexed by slice number (from 1). Returns null when all
+	 * slices must be considered dirty.
+	 */
+	public synchronized boolean[] getDirtySlices(final Dataset ds,
+		final ImagePlus imp)
+	{
+		final Entry entry = entries.get(imp);
+		if (entry == null || entry.ds != ds || entry.planes == null) return null;
+		final ImageStack stack = imp.getStack();
+		if (stack.isVirtual()) return null;
+		if (entry.fingerprints.length != stack.getSize() + 1) return null;
+		final long[][] planeMap = planesOfSlices(ds, imp);
+		if (planeMap == null || planeMap.length != entry.fingerprints.length) {
+			return null;
+		}
+		final boolean[] dirty = new boolean[planeMap.length];
+		for (int slice = 1; slice < planeMap.length; slice++) {
+			boolean changed = entry.slices.contains(slice);
+			for (int i = 0; !changed && i < planeMap[slice].length; i++) {
+				changed = entry.planes.contains(planeMap[slice][i]);
+			}
+			dirty[slice] = changed;
+		}
+		// NB - planes named by events are trusted to be the only changed ones
+		final boolean comparePlanes = !entry.planesReported;
+		runOnSlices(ds, planeMap.length - 1, new ParallelLoop.Body() {
+
+			@Override
+			public void run(final int chunk, final long start, final long count) {
+				for (int slice = (int) start + 1; slice <= start + count; slice++) {
+					if (dirty[slice]) continue;
+					final Object pixels = stack.getPixels(slice);
+					if (!isPrimitive(pixels) ||
+						fingerprint(pixels) != entry.fingerprints[slice])
+					{
+						dirty[slice] = true;
+					}
+					else if (comparePlanes) {
+						final long planes = fingerprint(ds, planeMap[slice]);
+						dirty[slice] = planes != entry.planeFingerprints[slice];
+					}
+				}
+			}
+		});
+		return dirty;
+	}
+
+	/**
+	 * Records that an {@link ImagePlus} and a {@link Dataset} are in sync after
+	 * the given slices (as returned by {@link #getDirtySlices}, or null for all
+	 * slices) have been harmonized.
+	 */
+	public synchronized void markClean(final Dataset ds, final ImagePlus imp,
+		final boolean[] slices)
+	{
+		final ImageStack stack = imp.getStack();
+		final long[][] planeMap = planesOfSlices(ds, imp);
+		if (stack.isVirtual() || planeMap == null ||
+			planeMap.length != stack.getSize() + 1)
+		{
+			entries.remove(imp);
+			return;
+		}
+		final int size = stack.getSize();
+		Entry entry = entries.get(imp);
+		boolean[] changed = slices;
+		if (entry == null || entry.ds != ds ||
+			entry.fingerprints.length != size + 1)
+		{
+			entry = new Entry(ds, size);
+			entries.put(imp, entry);
+			changed = null;
+		}
+		if (changed != null && changed.length != size + 1) changed = null;
+		final Entry e = entry;
+		final boolean[] update = changed;
+		runOnSlices(ds, size, new ParallelLoop.Body() {
+
+			@Override
+			public void run(final int chunk, final long start, final long count) {
+				for (int slice = (int) start + 1; slice <= start + count; slice++) {
+					if (update != null && !update[slice]) continue;
+					e.fingerprints[slice] = fingerprint(stack.getPixels(slice));
+					e.planeFingerprints[slice] = fingerprint(ds, planeMap[slice]);
+				}
+			}
+		});
+		entry.planes = new HashSet<Long>();
+		entry.planesReported = false;
+		entry.slices.clear();
+	}
+
+	// -- package access --
+
+	/**
+	 * Computes the number of the {@link Dataset} plane (as in
+	 * {@link Dataset#getPlane(int)}) containing the given position. Assumes X
+	 * and Y are the first two axes.
+	 */
+	static long planeIndex(final long[] dims, final long[] pos) {
+		long offset = 1;
+		long index = 0;
+		for (int i = 2; i < dims.length; i++) {
+			index += offset * pos[i];
+			offset *= dims[i];
+		}
+		return index;
+	}
+
+	/** Returns true if a pixel array is one of the legacy ImageJ types. */
+	static boolean isPrimitive(final Object pixels) {
+		return pixels instanceof byte[] || pixels instanceof short[] ||
+			pixels instanceof float[] || pixels instanceof int[];
+	}
+
+	/** Computes a 64-bit FNV-1a style hash of a primitive pixel array. */
+	static long fingerprint(final Object pixels) {
+		long hash = 0xcbf29ce484222325L;
+		final long prime = 0x100000001b3L;
+		if (pixels instanceof byte[]) {
+			for (final byte v : (byte[]) pixels)
+				hash = (hash ^ v) * prime;
+		}
+		else if (pixels instanceof short[]) {
+			for (final short v : (short[]) pixels)
+				hash = (hash ^ v) * prime;
+		}
+		else if (pixels instanceof float[]) {
+			for (final float v : (float[]) pixels)
+				hash = (hash ^ Float.floatToRawIntBits(v)) * prime;
+		}
+		else if (pixels instanceof int[]) {
+			for (final int v : (int[]) pixels)
+				hash = (hash ^ v) * prime;
+		}
+		else if (pixels instanceof long[]) {
+			for (final long v : (long[]) pixels)
+				hash = (hash ^ v) * prime;
+		}
+		else if (pixels instanceof double[]) {
+			for (final double v : (double[]) pixels)
+				hash = (hash ^ Double.doubleToRawLongBits(v)) * prime;
+		}
+		return hash;
+	}
+
+	/**
+	 * Computes a 64-bit FNV-1a style hash of the given {@link Dataset} planes,
+	 * from their storage arrays where the Dataset has them and from their values
+	 * otherwise.
+	 */
+	static long fingerprint(final Dataset ds, final long[] planes) {
+		long hash = 0xcbf29ce484222325L;
+		final long prime = 0x100000001b3L;
+		RowAccess rows = null;
+		double[] row = null;
+		for (final long plane : planes) {
+			final Object storage =
+				plane > Integer.MAX_VALUE ? null : ds.getPlane((int) plane, false);
+			if (storage != null) {
+				hash = (hash ^ fingerprint(storage)) * prime;
+				continue;
+			}
+			if (rows == null) {
+				rows = new RowAccess(ds.getImgPlus());
+				row = new double[rows.getWidth()];
+			}
+			for (int y = 0; y < rows.getHeight(); y++) {
+				rows.read(plane, y, row);
+				for (final double v : row)
+					hash = (hash ^ Double.doubleToRawLongBits(v)) * prime;
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Determines which {@link Dataset} planes each {@link ImageStack} slice is
+	 * made from, indexed by slice number (from 1). Returns null if the Dataset
+	 * planes are not XY planes.
+	 */
+	static long[][] planesOfSlices(final Dataset ds, final ImagePlus imp) {
+		final AxisType[] axes = ds.getAxes();
+		if (axes.length < 2 || axes[0] != Axes.X || axes[1] != Axes.Y) return null;
+		final long[] dims = ds.getDims();
+		final int cIndex = ds.getAxisIndex(Axes.CHANNEL);
+		final int zIndex = ds.getAxisIndex(Axes.Z);
+		final int tIndex = ds.getAxisIndex(Axes.TIME);
+		final boolean color = imp.getType() == ImagePlus.COLOR_RGB;
+		if (color && cIndex < 0) return null;
+		final int cSize = imp.getNChannels();
+		final int zSize = imp.getNSlices();
+		final int tSize = imp.getNFrames();
+		final long[][] planeMap = new long[cSize * zSize * tSize + 1][];
+		final long[] pos = new long[dims.length];
+		int slice = 1;
+		for (int t = 0; t < tSize; t++) {
+			if (tIndex >= 0) pos[tIndex] = t;
+			for (int z = 0; z < zSize; z++) {
+				if (zIndex >= 0) pos[zIndex] = z;
+				for (int c = 0; c < cSize; c++) {
+					if (color) {
+						final long[] planes = new long[3];
+						for (int k = 0; k < 3; k++) {
+							pos[cIndex] = 3 * c + k;
+							planes[k] = planeIndex(dims, pos);
+						}
+						planeMap[slice++] = planes;
+					}
+					else {
+						LegacyUtils.fillChannelIndices(dims, axes, c, pos);
+						planeMap[slice++] = new long[] { planeIndex(dims, pos) };
+					}
+				}
+			}
+		}
+		return planeMap;
+	}
+
+	// -- helper methods --
+
+	/** Runs a loop over the given number of slices on several threads. */
+	private static void runOnSlices(final Dataset ds, final int size,
+		final ParallelLoop.Body body)
+	{
+		ParallelLoop.run(ds.getContext(), size, ParallelLoop.getThreadCount(ds
+			.getContext()), body);
+	}
+
+	// -- helper classes --
+
+	/** The synchronization history of one {@link ImagePlus}. */
+	private static class Entry {
+
+		private final Dataset ds;
+
+		/** Fingerprint of each slice (from 1) at the last synchronization. */
+		private final long[] fingerprints;
+
+		/** Fingerprint of the Dataset planes of each slice at that time. */
+		private final long[] planeFingerprints;
+
+		/** Dataset planes changed since then, or null if unknown. */
+		private Set<Long> planes;
+
+		/** Whether events have named the changed planes since then. */
+		private boolean planesReported;
+
+		/** Slices reported changed since then. */
+		private final Set<Integer> slices = new HashSet<Integer>();
+
+		public Entry(final Dataset ds, final int size) {
+			this.ds = ds;
+			fingerprints = new long[size + 1];
+			planeFingerprints = new long[size + 1];
+		}
+	}
+
+}
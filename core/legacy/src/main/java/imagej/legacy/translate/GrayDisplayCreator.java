@@ -36,15 +36,12 @@
 package imagej.legacy.translate;
 
 import ij.ImagePlus;
-import ij.process.ImageProcessor;
 import imagej.data.Dataset;
 import imagej.data.DatasetService;
 import imagej.data.display.ImageDisplay;
 import imagej.display.DisplayService;
-import net.imglib2.RandomAccess;
 import net.imglib2.meta.Axes;
 import net.imglib2.meta.AxisType;
-import net.imglib2.type.numeric.RealType;
 
 import org.scijava.Context;
 
@@ -61,6 +58,7 @@ public class GrayDisplayCreator implements DisplayCreator {
 	private final Context context;
 
 	private final GrayPixelHarmonizer pixelHarmonizer;
+	private final ColorPixelHarmonizer colorPixelHarmonizer;
 	private final ColorTableHarmonizer colorTableHarmonizer;
 	private final MetadataHarmonizer metadataHarmonizer;
 	private final CompositeHarmonizer compositeHarmonizer;
@@ -77,7 +75,8 @@ public class GrayDisplayCreator implements DisplayCreator {
 
 	public GrayDisplayCreator(final Context context) {
 		this.context = context;
-		pixelHarmonizer = new GrayPixelHarmonizer();
+		pixelHarmonizer = new GrayPixelHarmonizer(context);
+		colorPixelHarmonizer = new ColorPixelHarmonizer(context);
 		colorTableHarmonizer = new ColorTableHarmonizer(context);
 		metadataHarmonizer = new MetadataHarmonizer();
 		compositeHarmonizer = new CompositeHarmonizer();
@@ -109,7 +108,11 @@ private ImageDisplay colorCase(final ImagePlus imp,
 		final AxisType[] preferredOrder,@SuppressWarnings("unused") boolean isBinaryImp)
 	{
 		final Dataset ds = makeGrayDatasetFromColorImp(imp, preferredOrder);
-		setDatasetGrayDataFromColorImp(ds, imp);
+		// NB - a multichannel color ImagePlus maps onto three gray channels per
+		// color channel exactly as a merged color Dataset does
+		final SliceProgress progress =
+			new SliceProgress(context, imp.getStackSize());
+		colorPixelHarmonizer.updateDataset(ds, imp, null, progress);
 		metadataHarmonizer.updateDataset(ds, imp);
 		compositeHarmonizer.updateDataset(ds, imp);
 
@@ -143,7 +146,9 @@ private ImageDisplay grayCase(final ImagePlus imp,
 		}
 		else {
 			ds = makeGrayDatasetFromGrayImp(imp, preferredOrder, isBinaryImp);
-			pixelHarmonizer.updateDataset(ds, imp);
+			final SliceProgress progress =
+				new SliceProgress(context, imp.getStackSize());
+			pixelHarmonizer.updateDataset(ds, imp, null, progress);
 		}
 		metadataHarmonizer.updateDataset(ds, imp);
 		compositeHarmonizer.updateDataset(ds, imp);
@@ -203,57 +208,6 @@ private Dataset makeGrayDatasetFromColorImp(final ImagePlus imp,
 		return ds;
 	}
 
-	/**
-	 * Assigns the data values of a gray {@link Dataset} from a paired
-	 * multichannel color {@link ImagePlus}. Assumes the Dataset and ImagePlus
-	 * have compatible dimensions. Gets values via {@link ImageProcessor}::get().
-	 * Does not change the Dataset's metadata.
-	 */
-	private void setDatasetGrayDataFromColorImp(final Dataset ds,
-		final ImagePlus imp)
-	{
-		final int xIndex = ds.getAxisIndex(Axes.X);
-		final int yIndex = ds.getAxisIndex(Axes.Y);
-		final int cIndex = ds.getAxisIndex(Axes.CHANNEL);
-		final int zIndex = ds.getAxisIndex(Axes.Z);
-		final int tIndex = ds.getAxisIndex(Axes.TIME);
-		final int x = imp.getWidth();
-		final int y = imp.getHeight();
-		final int c = imp.getNChannels();
-		final int z = imp.getNSlices();
-		final int t = imp.getNFrames();
-		int imagejPlaneNumber = 1;
-		final RandomAccess<? extends RealType<?>> accessor =
-			ds.getImgPlus().randomAccess();
-		for (int ti = 0; ti < t; ti++) {
-			if (tIndex >= 0) accessor.setPosition(ti, tIndex);
-			for (int zi = 0; zi < z; zi++) {
-				if (zIndex >= 0) accessor.setPosition(zi, zIndex);
-				for (int ci = 0; ci < c; ci++) {
-					final ImageProcessor proc =
-						imp.getStack().getProcessor(imagejPlaneNumber++);
-					for (int yi = 0; yi < y; yi++) {
-						accessor.setPosition(yi, yIndex);
-						for (int xi = 0; xi < x; xi++) {
-							accessor.setPosition(xi, xIndex);
-							final int value = proc.get(xi, yi);
-							final int rValue = (value >> 16) & 0xff;
-							final int gValue = (value >> 8) & 0xff;
-							final int bValue = (value >> 0) & 0xff;
-							accessor.setPosition(ci * 3 + 0, cIndex);
-							accessor.get().setReal(rValue);
-							accessor.setPosition(ci * 3 + 1, cIndex);
-							accessor.get().setReal(gValue);
-							accessor.setPosition(ci * 3 + 2, cIndex);
-							accessor.get().setReal(bValue);
-						}
-					}
-				}
-			}
-		}
-		ds.update();
-	}
-
 	/**
 	 * Makes a planar {@link Dataset} whose dimensions match a given
 	 * {@link ImagePlus}. Assumes it will never be called with
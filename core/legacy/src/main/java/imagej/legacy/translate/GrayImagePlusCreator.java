@@ -58,7 +58,6 @@ public class GrayImagePlusCreator implements ImagePlusCreator {
 
 	private final Context context;
 	
-	private final GrayPixelHarmonizer pixelHarmonizer;
 	private final ColorTableHarmonizer colorTableHarmonizer;
 	private final MetadataHarmonizer metadataHarmonizer;
 	private final PlaneHarmonizer planeHarmonizer;
@@ -69,7 +68,6 @@ public class GrayImagePlusCreator implements ImagePlusCreator {
 
 	public GrayImagePlusCreator(Context context) {
 		this.context = context;
-		pixelHarmonizer = new GrayPixelHarmonizer();
 		colorTableHarmonizer = new ColorTableHarmonizer(context);
 		metadataHarmonizer = new MetadataHarmonizer();
 		planeHarmonizer = new PlaneHarmonizer(context);
@@ -89,12 +87,14 @@ public ImagePlus createLegacyImage(final ImageDisplay display) {
 		}
 		else {
 			imp = makeNearestTypeGrayImagePlus(dataset);
-			pixelHarmonizer.updateLegacyImage(dataset, imp);
 		}
 		metadataHarmonizer.updateLegacyImage(dataset, imp);
 		if (shouldBeComposite(dataset, imp)) {
 			imp = makeCompositeImage(imp);
 		}
+		if (imp.getStack() instanceof DatasetImageStack) {
+			((DatasetImageStack) imp.getStack()).setImagePlus(imp);
+		}
 		colorTableHarmonizer.updateLegacyImage(display, imp);
 		positionHarmonizer.updateLegacyImage(display, imp);
 		nameHarmonizer.updateLegacyImage(display, imp);
@@ -190,12 +190,28 @@ private ImagePlus makeExactImagePlus(final Dataset ds) {
 	 * Makes an {@link ImagePlus} from a {@link Dataset} whose dimensions match.
 	 * The type of the ImagePlus is a legacy ImageJ type that can best represent
 	 * the data with the least loss of data. Sometimes the legacy and modern types
-	 * are the same type and sometimes they are not. The data values and metadata
-	 * are not assigned. Assumes it will never be sent a color Dataset.
+	 * are the same type and sometimes they are not. The data values are read
+	 * from the Dataset on demand through a {@link DatasetImageStack} rather than
+	 * duplicated up front. The metadata is not assigned. Assumes it will never
+	 * be sent a color Dataset.
 	 */
 	private ImagePlus makeNearestTypeGrayImagePlus(final Dataset ds) {
-		final PlaneMaker planeMaker = getPlaneMaker(ds);
-		return makeImagePlus(ds, planeMaker, false);
+		final int[] dimIndices = new int[5];
+		final int[] dimValues = new int[5];
+		LegacyUtils.getImagePlusDims(ds, dimIndices, dimValues);
+
+		final ImageStack stack =
+			new DatasetImageStack(ds, getPlaneMaker(ds).getBitDepth());
+
+		final ImagePlus imp = new ImagePlus(ds.getName(), stack);
+
+		imp.setDimensions(dimValues[2], dimValues[3], dimValues[4]);
+
+		imp.setOpenAsHyperStack(imp.getNDimensions() > 3);
+
+		if (ds.getType() instanceof ShortType) markAsSigned16Bit(imp);
+
+		return imp;
 	}
 
 	// TODO - is this logic correct? Specifically is testing compChanCnt
@@ -251,6 +267,9 @@ else if (bitsPerPixel <= 16) {
 	private interface PlaneMaker {
 
 		Object makePlane(int w, int h);
+
+		/** Gets the legacy ImageJ bit depth of the planes made. */
+		int getBitDepth();
 	}
 
 	/** Makes planes of bytes given width & height. */
@@ -264,6 +283,11 @@ public BytePlaneMaker() {
 		public Object makePlane(final int w, final int h) {
 			return new byte[w * h];
 		}
+
+		@Override
+		public int getBitDepth() {
+			return 8;
+		}
 	}
 
 	/** Makes planes of shorts given width & height. */
@@ -277,6 +301,11 @@ public ShortPlaneMaker() {
 		public Object makePlane(final int w, final int h) {
 			return new short[w * h];
 		}
+
+		@Override
+		public int getBitDepth() {
+			return 16;
+		}
 	}
 
 	/** Makes planes of floats given width & height. */
@@ -290,5 +319,10 @@ public FloatPlaneMaker() {
 		public Object makePlane(final int w, final int h) {
 			return new float[w * h];
 		}
+
+		@Override
+		public int getBitDepth() {
+			return 32;
+		}
 	}
 }
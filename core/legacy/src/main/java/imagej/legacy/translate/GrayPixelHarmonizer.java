@@ -33,132 +33,307 @@
  * #L%
  */
 
+
 package imagej.legacy.translate;
 
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.process.ImageProcessor;
 import imagej.data.Dataset;
-import net.imglib2.RandomAccess;
+import imagej.data.ParallelLoop;
+import imagej.data.RowAccess;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import net.imglib2.meta.Axes;
-import net.imglib2.meta.AxisType;
 import net.imglib2.type.logic.BitType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.ShortType;
 
+import org.scijava.Context;
+
 /**
  * Supports bidirectional synchronization between {@link ImagePlus}es and gray
  * {@link Dataset}s. Single channel color {@link ImagePlus}es are not supported
  * here. But multichannel color {@link ImagePlus}es are handled and treated as
  * gray data.
+ * <p>
+ * Pixels are transferred a row at a time between the primitive arrays of the
+ * {@link ImageStack} and the Dataset (via {@link RowAccess}), with the stack
+ * slices spread over the threads configured for ImageJ.
+ * </p>
  * 
  * @author Barry DeZonia
  */
 public class GrayPixelHarmonizer implements DataHarmonizer {
 
+	private final Context context;
+
+	public GrayPixelHarmonizer(final Context context) {
+		this.context = context;
+	}
+
 	/**
 	 * Assigns the data values of a {@link Dataset} from a paired
 	 * {@link ImagePlus}. Assumes the Dataset and ImagePlus have compatible
 	 * dimensions and that the data planes are not directly mapped. Gets values
-	 * via {@link ImageProcessor}::getf(). In cases where there is a narrowing of
-	 * data into modern ImageJ types the data is range clamped. Does not change
-	 * the Dataset's metadata.
+	 * as {@link ImageProcessor}::getf() would. In cases where there is a
+	 * narrowing of data into modern ImageJ types the data is range clamped. Does
+	 * not change the Dataset's metadata.
 	 */
 	@Override
 	public void updateDataset(final Dataset ds, final ImagePlus imp) {
+		updateDataset(ds, imp, null);
+	}
+
+	/**
+	 * Assigns the data values of a {@link Dataset} from the given slices of a
+	 * paired {@link ImagePlus}. The slices array is indexed by stack position
+	 * (from 1) as returned by {@link DirtyPlanes#getDirtySlices}; a null array
+	 * updates all slices. Only the planes actually written are reported through
+	 * {@link Dataset#updatePlanes(long...)}.
+	 */
+	public void updateDataset(final Dataset ds, final ImagePlus imp,
+		final boolean[] slices)
+	{
+		updateDataset(ds, imp, slices, null);
+	}
+
+	/**
+	 * Assigns the data values of a {@link Dataset} from the given slices of a
+	 * paired {@link ImagePlus} as {@link #updateDataset(Dataset, ImagePlus,
+	 * boolean[])} does, reporting each translated slice to the given
+	 * {@link SliceProgress} if it is not null.
+	 */
+	void updateDataset(final Dataset ds, final ImagePlus imp,
+		final boolean[] slices, final SliceProgress progress)
+	{
 		final RealType<?> type = ds.getType();
 		final double typeMin = type.getMinValue();
 		final double typeMax = type.getMaxValue();
 		final boolean signed16BitData = type instanceof ShortType;
-		final RandomAccess<? extends RealType<?>> accessor =
-			ds.getImgPlus().randomAccess();
-		final long[] dims = ds.getDims();
-		final AxisType[] axes = ds.getAxes();
 		final int xIndex = ds.getAxisIndex(Axes.X);
 		final int yIndex = ds.getAxisIndex(Axes.Y);
-		final int zIndex = ds.getAxisIndex(Axes.Z);
-		final int tIndex = ds.getAxisIndex(Axes.TIME);
-		final int xSize = imp.getWidth();
-		final int ySize = imp.getHeight();
-		final int zSize = imp.getNSlices();
-		final int tSize = imp.getNFrames();
-		final int cSize = imp.getNChannels();
 		final ImageStack stack = imp.getStack();
-		int planeNum = 1;
-		final long[] pos = new long[dims.length];
-		for (int t = 0; t < tSize; t++) {
-			if (tIndex >= 0) pos[tIndex] = t;
-			for (int z = 0; z < zSize; z++) {
-				if (zIndex >= 0) pos[zIndex] = z;
-				for (int c = 0; c < cSize; c++) {
-					LegacyUtils.fillChannelIndices(dims, axes, c, pos);
-					final ImageProcessor proc = stack.getProcessor(planeNum++);
-					for (int x = 0; x < xSize; x++) {
-						if (xIndex >= 0) pos[xIndex] = x;
-						for (int y = 0; y < ySize; y++) {
-							if (yIndex >= 0) pos[yIndex] = y;
-							accessor.setPosition(pos);
-							double value = proc.getf(x, y);
-							if (signed16BitData) value -= 32768.0;
-							if (value < typeMin) value = typeMin;
-							else if (value > typeMax) value = typeMax;
-							accessor.get().setReal(value);
+		final List<long[]> positions = new ArrayList<long[]>();
+		final List<Integer> stackSlices = new ArrayList<Integer>();
+		findSlices(ds, imp, slices, positions, stackSlices);
+		// NB - virtual stacks load their slices one at a time
+		final int threads =
+			!stack.isVirtual() &&
+				RowAccess.canWritePlanesInParallel(ds.getImgPlus(), xIndex, yIndex)
+				? ParallelLoop.getThreadCount(context) : 1;
+		ParallelLoop.run(context, stackSlices.size(), threads,
+			new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count) {
+					final RowAccess rows = new RowAccess(ds.getImgPlus(), xIndex, yIndex);
+					final int width = rows.getWidth();
+					final double[] row = new double[width];
+					for (long i = start; i < start + count; i++) {
+						final int slice = stackSlices.get((int) i);
+						final long plane = rowPlane(ds, positions.get((int) i));
+						final Object pixels = stack.getPixels(slice);
+						ImageProcessor proc = null;
+						if (!isGrayArray(pixels)) proc = stack.getProcessor(slice);
+						for (int y = 0; y < rows.getHeight(); y++) {
+							readRow(pixels, proc, y, width, row);
+							for (int x = 0; x < width; x++) {
+								double value = row[x];
+								if (signed16BitData) value -= 32768.0;
+								if (value < typeMin) value = typeMin;
+								else if (value > typeMax) value = typeMax;
+								row[x] = value;
+							}
+							rows.write(plane, y, row);
 						}
+						if (progress != null) progress.sliceDone();
 					}
 				}
+			});
+		if (progress != null) progress.finish();
+		if (slices == null) ds.update();
+		else if (positions.size() > 0) {
+			final long[] planes = new long[positions.size()];
+			for (int i = 0; i < planes.length; i++) {
+				planes[i] = DirtyPlanes.planeIndex(ds.getDims(), positions.get(i));
 			}
+			ds.updatePlanes(planes);
 		}
-		ds.update();
 	}
 
 	/**
 	 * Assigns the data values of an {@link ImagePlus} from a paired
 	 * {@link Dataset}. Assumes the Dataset and ImagePlus are not directly mapped.
 	 * It is possible that multiple modern ImageJ axes are encoded as a single set
-	 * of channels in the ImagePlus. Sets values via {@link ImageProcessor}
-	 * ::setf(). Some special case code is in place to assure that BitType images
-	 * go to legacy ImageJ as 0/255 value images. Does not change the ImagePlus'
-	 * metadata.
+	 * of channels in the ImagePlus. Sets values as {@link ImageProcessor}
+	 * ::setf() would. Some special case code is in place to assure that BitType
+	 * images go to legacy ImageJ as 0/255 value images. Does not change the
+	 * ImagePlus' metadata.
 	 */
 	@Override
 	public void updateLegacyImage(final Dataset ds, final ImagePlus imp) {
+		updateLegacyImage(ds, imp, null);
+	}
+
+	/**
+	 * Assigns the data values of the given slices of an {@link ImagePlus} from a
+	 * paired {@link Dataset}. The slices array is indexed by stack position (from
+	 * 1) as returned by {@link DirtyPlanes#getDirtySlices}; a null array updates
+	 * all slices.
+	 */
+	public void updateLegacyImage(final Dataset ds, final ImagePlus imp,
+		final boolean[] slices)
+	{
 		final RealType<?> type = ds.getType();
 		final boolean signed16BitData = type instanceof ShortType;
 		final boolean bitData = type instanceof BitType;
-		final RandomAccess<? extends RealType<?>> accessor =
-			ds.getImgPlus().randomAccess();
+		final int xIndex = ds.getAxisIndex(Axes.X);
+		final int yIndex = ds.getAxisIndex(Axes.Y);
+		final ImageStack stack = imp.getStack();
+		final List<long[]> positions = new ArrayList<long[]>();
+		final List<Integer> stackSlices = new ArrayList<Integer>();
+		findSlices(ds, imp, slices, positions, stackSlices);
+		// NB - virtual stacks load their slices one at a time
+		final int threads =
+			stack.isVirtual() ? 1 : ParallelLoop.getThreadCount(context);
+		ParallelLoop.run(context, stackSlices.size(), threads,
+			new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count) {
+					final RowAccess rows = new RowAccess(ds.getImgPlus(), xIndex, yIndex);
+					final int width = rows.getWidth();
+					final double[] row = new double[width];
+					for (long i = start; i < start + count; i++) {
+						final int slice = stackSlices.get((int) i);
+						final long plane = rowPlane(ds, positions.get((int) i));
+						final Object pixels = stack.getPixels(slice);
+						ImageProcessor proc = null;
+						if (!isGrayArray(pixels)) proc = stack.getProcessor(slice);
+						for (int y = 0; y < rows.getHeight(); y++) {
+							rows.read(plane, y, row);
+							for (int x = 0; x < width; x++) {
+								double value = row[x];
+								if (signed16BitData) value += 32768.0;
+								else if (bitData) if (value > 0) value = 255;
+								row[x] = value;
+							}
+							writeRow(pixels, proc, y, width, row);
+						}
+					}
+				}
+			});
+	}
+
+	// -- package access --
+
+	/**
+	 * Computes the {@link RowAccess} plane number of a {@link Dataset} position.
+	 */
+	static long rowPlane(final Dataset ds, final long[] pos) {
 		final long[] dims = ds.getDims();
-		final AxisType[] axes = ds.getAxes();
 		final int xIndex = ds.getAxisIndex(Axes.X);
 		final int yIndex = ds.getAxisIndex(Axes.Y);
+		long offset = 1;
+		long plane = 0;
+		for (int d = 0; d < dims.length; d++) {
+			if (d == xIndex || d == yIndex) continue;
+			plane += offset * pos[d];
+			offset *= dims[d];
+		}
+		return plane;
+	}
+
+	/** Returns true if a pixel array can be read and written a row at a time. */
+	static boolean isGrayArray(final Object pixels) {
+		return pixels instanceof byte[] || pixels instanceof short[] ||
+			pixels instanceof float[];
+	}
+
+	/** Reads row y of a stack slice as {@link ImageProcessor}::getf() would. */
+	static void readRow(final Object pixels, final ImageProcessor proc,
+		final int y, final int width, final double[] row)
+	{
+		final int offset = y * width;
+		if (pixels instanceof byte[]) {
+			final byte[] values = (byte[]) pixels;
+			for (int x = 0; x < width; x++)
+				row[x] = values[offset + x] & 0xff;
+		}
+		else if (pixels instanceof short[]) {
+			final short[] values = (short[]) pixels;
+			for (int x = 0; x < width; x++)
+				row[x] = values[offset + x] & 0xffff;
+		}
+		else if (pixels instanceof float[]) {
+			final float[] values = (float[]) pixels;
+			for (int x = 0; x < width; x++)
+				row[x] = values[offset + x];
+		}
+		else {
+			for (int x = 0; x < width; x++)
+				row[x] = proc.getf(x, y);
+		}
+	}
+
+	/** Writes row y of a stack slice as {@link ImageProcessor}::setf() would. */
+	static void writeRow(final Object pixels, final ImageProcessor proc,
+		final int y, final int width, final double[] row)
+	{
+		final int offset = y * width;
+		if (pixels instanceof byte[]) {
+			final byte[] values = (byte[]) pixels;
+			for (int x = 0; x < width; x++)
+				values[offset + x] = (byte) (float) row[x];
+		}
+		else if (pixels instanceof short[]) {
+			final short[] values = (short[]) pixels;
+			for (int x = 0; x < width; x++)
+				values[offset + x] = (short) (float) row[x];
+		}
+		else if (pixels instanceof float[]) {
+			final float[] values = (float[]) pixels;
+			for (int x = 0; x < width; x++)
+				values[offset + x] = (float) row[x];
+		}
+		else {
+			for (int x = 0; x < width; x++)
+				proc.setf(x, y, (float) row[x]);
+		}
+	}
+
+	// -- private interface --
+
+	/**
+	 * Lists the stack slices to harmonize along with the {@link Dataset}
+	 * position (ignoring X and Y) each one maps to. Slices are ordered by
+	 * channel, then z, then time as in legacy ImageJ.
+	 */
+	private void findSlices(final Dataset ds, final ImagePlus imp,
+		final boolean[] slices, final List<long[]> positions,
+		final List<Integer> stackSlices)
+	{
+		final long[] dims = ds.getDims();
 		final int zIndex = ds.getAxisIndex(Axes.Z);
 		final int tIndex = ds.getAxisIndex(Axes.TIME);
-		final int xSize = imp.getWidth();
-		final int ySize = imp.getHeight();
 		final int zSize = imp.getNSlices();
 		final int tSize = imp.getNFrames();
 		final int cSize = imp.getNChannels();
-		final ImageStack stack = imp.getStack();
 		int planeNum = 1;
-		final long[] pos = new long[dims.length];
 		for (int t = 0; t < tSize; t++) {
-			if (tIndex >= 0) pos[tIndex] = t;
 			for (int z = 0; z < zSize; z++) {
-				if (zIndex >= 0) pos[zIndex] = z;
 				for (int c = 0; c < cSize; c++) {
-					LegacyUtils.fillChannelIndices(dims, axes, c, pos);
-					final ImageProcessor proc = stack.getProcessor(planeNum++);
-					for (int x = 0; x < xSize; x++) {
-						if (xIndex >= 0) pos[xIndex] = x;
-						for (int y = 0; y < ySize; y++) {
-							if (yIndex >= 0) pos[yIndex] = y;
-							accessor.setPosition(pos);
-							double value = accessor.get().getRealDouble();
-							if (signed16BitData) value += 32768.0;
-							else if (bitData) if (value > 0) value = 255;
-							proc.setf(x, y, (float)value);
-						}
-					}
+					final int slice = planeNum++;
+					if (slices != null && !slices[slice]) continue;
+					final long[] pos = new long[dims.length];
+					if (tIndex >= 0) pos[tIndex] = t;
+					if (zIndex >= 0) pos[zIndex] = z;
+					LegacyUtils.fillChannelIndices(dims, ds.getAxes(), c, pos);
+					positions.add(pos);
+					stackSlices.add(slice);
 				}
 			}
 		}
@@ -68,6 +68,7 @@ public class Harmonizer {
 
 	private final ImageTranslator imageTranslator;
 	private final Map<ImagePlus, Integer> bitDepthMap;
+	private final DirtyPlanes dirtyPlanes;
 
 	private final GrayPixelHarmonizer grayPixelHarmonizer;
 	private final ColorPixelHarmonizer colorPixelHarmonizer;
@@ -82,11 +83,23 @@ public class Harmonizer {
 	// -- constructor --
 
 	public Harmonizer(final Context context, final ImageTranslator trans) {
+		this(context, trans, null);
+	}
+
+	/**
+	 * Creates a harmonizer that consults the given {@link DirtyPlanes} so that
+	 * only changed planes are copied between {@link Dataset}s and
+	 * {@link ImagePlus}es. With a null tracker every plane is always copied.
+	 */
+	public Harmonizer(final Context context, final ImageTranslator trans,
+		final DirtyPlanes dirtyPlanes)
+	{
 		this.context = context;
 		imageTranslator = trans;
+		this.dirtyPlanes = dirtyPlanes;
 		bitDepthMap = new HashMap<ImagePlus, Integer>();
-		grayPixelHarmonizer = new GrayPixelHarmonizer();
-		colorPixelHarmonizer = new ColorPixelHarmonizer();
+		grayPixelHarmonizer = new GrayPixelHarmonizer(context);
+		colorPixelHarmonizer = new ColorPixelHarmonizer(context);
 		colorTableHarmonizer = new ColorTableHarmonizer(context);
 		metadataHarmonizer = new MetadataHarmonizer();
 		compositeHarmonizer = new CompositeHarmonizer();
@@ -127,13 +140,22 @@ else if (ds.getType() instanceof UnsignedByteType) {
 			{
 				rebuildImagePlusData(display, imp);
 			}
+			else if (isBackedBy(imp, ds)) {
+				((DatasetImageStack) imp.getStack()).reload();
+			}
 			else if (imp.getType() == ImagePlus.COLOR_RGB) {
-				colorPixelHarmonizer.updateLegacyImage(ds, imp);
+				final boolean[] slices = getDirtySlices(ds, imp);
+				colorPixelHarmonizer.updateLegacyImage(ds, imp, slices);
+				markClean(ds, imp, slices);
 			}
 			else if (LegacyUtils.datasetIsIJ1Compatible(ds)) {
 				planeHarmonizer.updateLegacyImage(ds, imp);
 			}
-			else grayPixelHarmonizer.updateLegacyImage(ds, imp);
+			else {
+				final boolean[] slices = getDirtySlices(ds, imp);
+				grayPixelHarmonizer.updateLegacyImage(ds, imp, slices);
+				markClean(ds, imp, slices);
+			}
 		}
 		metadataHarmonizer.updateLegacyImage(ds, imp);
 		colorTableHarmonizer.updateLegacyImage(display, imp);
@@ -185,13 +207,22 @@ public void updateDisplay(final ImageDisplay display, final ImagePlus imp) {
 			rebuildDatasetData(ds, imp, isBinaryImp);
 		}
 		else { // ImagePlus type and shape unchanged
-			if (imp.getType() == ImagePlus.COLOR_RGB) {
-				colorPixelHarmonizer.updateDataset(ds, imp);
+			if (isBackedBy(imp, ds)) {
+				if (((DatasetImageStack) imp.getStack()).flush()) ds.update();
+			}
+			else if (imp.getType() == ImagePlus.COLOR_RGB) {
+				final boolean[] slices = getDirtySlices(ds, imp);
+				colorPixelHarmonizer.updateDataset(ds, imp, slices);
+				markClean(ds, imp, slices);
 			}
 			else if (LegacyUtils.datasetIsIJ1Compatible(ds)) {
 				planeHarmonizer.updateDataset(ds, imp);
 			}
-			else grayPixelHarmonizer.updateDataset(ds, imp);
+			else {
+				final boolean[] slices = getDirtySlices(ds, imp);
+				grayPixelHarmonizer.updateDataset(ds, imp, slices);
+				markClean(ds, imp, slices);
+			}
 		}
 		metadataHarmonizer.updateDataset(ds, imp);
 		compositeHarmonizer.updateDataset(ds, imp);
@@ -231,6 +262,37 @@ public void resetTypeTracking() {
 
 	// -- private interface --
 
+	/**
+	 * Returns true if the {@link ImageStack} of an {@link ImagePlus} reads its
+	 * pixels straight from the given {@link Dataset}.
+	 */
+	private boolean isBackedBy(final ImagePlus imp, final Dataset ds) {
+		final ImageStack stack = imp.getStack();
+		if (!(stack instanceof DatasetImageStack)) return false;
+		final DatasetImageStack dsStack = (DatasetImageStack) stack;
+		return dsStack.getDataset() == ds && !dsStack.isDetached();
+	}
+
+	/**
+	 * Gets the slices of an {@link ImagePlus} that need harmonizing with a
+	 * {@link Dataset}, or null if they all do.
+	 */
+	private boolean[] getDirtySlices(final Dataset ds, final ImagePlus imp) {
+		if (dirtyPlanes == null) return null;
+		return dirtyPlanes.getDirtySlices(ds, imp);
+	}
+
+	/**
+	 * Records that the given slices of an {@link ImagePlus} have just been
+	 * harmonized with a {@link Dataset}.
+	 */
+	private void markClean(final Dataset ds, final ImagePlus imp,
+		final boolean[] slices)
+	{
+		if (dirtyPlanes == null) return;
+		dirtyPlanes.markClean(ds, imp, slices);
+	}
+
 	/**
 	 * Returns true if an {@link ImagePlus}' type is the best fit for a given
 	 * {@link Dataset}. Best fit means the legacy ImageJ type that is the best at
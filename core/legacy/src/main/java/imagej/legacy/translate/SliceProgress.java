@@ -0,0 +1,91 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.legacy.translate;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.scijava.Context;
+import org.scijava.event.StatusService;
+
+/**
+ * Reports through the {@link StatusService} how many stack slices have been
+ * translated. Only used when a whole {@link ij.ImagePlus} is translated into a
+ * new display, not for the routine harmonization around each legacy command.
+ * Safe to call from several threads at once. Single slice translations are not
+ * reported, and progress is only published when it moves by at least a
+ * percent.
+ */
+class SliceProgress {
+
+	// -- instance variables --
+
+	private final StatusService statusService;
+	private final int total;
+	private final AtomicInteger done = new AtomicInteger();
+	private final AtomicInteger reported = new AtomicInteger();
+
+	// -- constructor --
+
+	SliceProgress(final Context context, final int total) {
+		this.statusService =
+			total > 1 && context != null ? context.getService(StatusService.class)
+				: null;
+		this.total = total;
+	}
+
+	// -- SliceProgress methods --
+
+	/** Records that one more slice has been translated. */
+	void sliceDone() {
+		if (statusService == null) return;
+		final int count = done.incrementAndGet();
+		final int percent = (int) (100L * count / total);
+		final int last = reported.get();
+		if (percent > last && reported.compareAndSet(last, percent)) {
+			// NB - report the percentage just claimed, since other threads may
+			// have finished more slices in the meantime
+			statusService.showProgress(percent, 100);
+		}
+	}
+
+	/** Clears the progress once every slice has been translated. */
+	void finish() {
+		if (statusService == null) return;
+		statusService.showProgress(total, total);
+	}
+
+}
@@ -0,0 +1,250 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.legacy.translate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import imagej.data.Dataset;
+import imagej.data.DatasetService;
+import imagej.data.ParallelLoopService;
+
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+import net.imglib2.type.numeric.RealType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Unit tests for {@link ColorPixelHarmonizer}. The row at a time transfers are
+ * checked against the pixel at a time {@link ImageProcessor}::get() and set()
+ * mapping they replaced.
+ */
+public class ColorPixelHarmonizerTest {
+
+	private static final int WIDTH = 5, HEIGHT = 4, SLICES = 2;
+
+	private static final AxisType[] AXES = { Axes.X, Axes.Y, Axes.CHANNEL,
+		Axes.Z };
+
+	private Context context;
+	private DatasetService datasetService;
+	private ColorPixelHarmonizer harmonizer;
+	private Random random;
+
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class, ParallelLoopService.class);
+		datasetService = context.getService(DatasetService.class);
+		harmonizer = new ColorPixelHarmonizer(context);
+		random = new Random(42);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testUpdateDataset() {
+		assertUpdateDataset(true);
+	}
+
+	@Test
+	public void testNonPrimitiveToDataset() {
+		assertUpdateDataset(false);
+	}
+
+	@Test
+	public void testUpdateLegacyImage() {
+		assertUpdateLegacyImage(8, false, true);
+	}
+
+	@Test
+	public void testNarrowingToLegacyImage() {
+		assertUpdateLegacyImage(32, true, true);
+	}
+
+	@Test
+	public void testNonPrimitiveToLegacyImage() {
+		assertUpdateLegacyImage(8, false, false);
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Asserts that harmonizing a Dataset from a stack of random int pixels, or
+	 * byte pixels if not rgb, gives the values of the per pixel mapping.
+	 */
+	private void assertUpdateDataset(final boolean rgb) {
+		final ImageStack stack = new ImageStack(WIDTH, HEIGHT);
+		for (int i = 0; i < SLICES; i++) {
+			final Object pixels = pixels(rgb);
+			if (rgb) {
+				final int[] values = (int[]) pixels;
+				for (int p = 0; p < values.length; p++)
+					values[p] = random.nextInt();
+			}
+			else random.nextBytes((byte[]) pixels);
+			stack.addSlice("" + i, pixels);
+		}
+		final Dataset ds = create(8, false, false);
+		final Dataset expected = create(8, false, false);
+		harmonizer.updateDataset(ds, imagePlus(stack));
+		updateDatasetPerPixel(expected, imagePlus(stack));
+		final Cursor<? extends RealType<?>> cursor = ds.getImgPlus().cursor();
+		final RandomAccess<? extends RealType<?>> access =
+			expected.getImgPlus().randomAccess();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			access.setPosition(cursor);
+			assertEquals(access.get().getRealDouble(), cursor.get()
+				.getRealDouble(), 0);
+		}
+	}
+
+	/**
+	 * Asserts that harmonizing a stack of int pixels, or byte pixels if not rgb,
+	 * from a Dataset of the given kind gives the pixels of the per pixel
+	 * mapping. Floating point values have fractions and go beyond 255.
+	 */
+	private void assertUpdateLegacyImage(final int bitsPerPixel,
+		final boolean floating, final boolean rgb)
+	{
+		final Dataset ds = create(bitsPerPixel, floating, floating);
+		final Cursor<? extends RealType<?>> cursor = ds.getImgPlus().cursor();
+		while (cursor.hasNext()) {
+			final RealType<?> value = cursor.next();
+			if (floating) value.setReal(1000 * random.nextDouble());
+			else value.setReal(random.nextInt(256));
+		}
+		final ImageStack actual = new ImageStack(WIDTH, HEIGHT);
+		final ImageStack expected = new ImageStack(WIDTH, HEIGHT);
+		for (int i = 0; i < SLICES; i++) {
+			actual.addSlice("" + i, pixels(rgb));
+			expected.addSlice("" + i, pixels(rgb));
+		}
+		harmonizer.updateLegacyImage(ds, imagePlus(actual));
+		updateLegacyImagePerPixel(ds, imagePlus(expected));
+		for (int n = 1; n <= SLICES; n++) {
+			if (rgb) {
+				assertArrayEquals((int[]) expected.getPixels(n), (int[]) actual
+					.getPixels(n));
+			}
+			else {
+				assertArrayEquals((byte[]) expected.getPixels(n), (byte[]) actual
+					.getPixels(n));
+			}
+		}
+	}
+
+	private Dataset create(final int bitsPerPixel, final boolean signed,
+		final boolean floating)
+	{
+		return datasetService.create(new long[] { WIDTH, HEIGHT, 3, SLICES },
+			"temp", AXES, bitsPerPixel, signed, floating);
+	}
+
+	private Object pixels(final boolean rgb) {
+		final int size = WIDTH * HEIGHT;
+		return rgb ? new int[size] : new byte[size];
+	}
+
+	private ImagePlus imagePlus(final ImageStack stack) {
+		final ImagePlus imp = new ImagePlus("temp", stack);
+		imp.setDimensions(1, SLICES, 1);
+		return imp;
+	}
+
+	/** Harmonizes a Dataset a pixel at a time via get(). */
+	private void updateDatasetPerPixel(final Dataset ds, final ImagePlus imp) {
+		final RandomAccess<? extends RealType<?>> accessor =
+			ds.getImgPlus().randomAccess();
+		for (int z = 0; z < SLICES; z++) {
+			accessor.setPosition(z, 3);
+			final ImageProcessor proc = imp.getStack().getProcessor(z + 1);
+			for (int y = 0; y < HEIGHT; y++) {
+				accessor.setPosition(y, 1);
+				for (int x = 0; x < WIDTH; x++) {
+					accessor.setPosition(x, 0);
+					final int value = proc.get(x, y);
+					accessor.setPosition(0, 2);
+					accessor.get().setReal((value >> 16) & 0xff);
+					accessor.setPosition(1, 2);
+					accessor.get().setReal((value >> 8) & 0xff);
+					accessor.setPosition(2, 2);
+					accessor.get().setReal((value >> 0) & 0xff);
+				}
+			}
+		}
+	}
+
+	/** Harmonizes a stack a pixel at a time via set(). */
+	private void updateLegacyImagePerPixel(final Dataset ds,
+		final ImagePlus imp)
+	{
+		final RandomAccess<? extends RealType<?>> accessor =
+			ds.getImgPlus().randomAccess();
+		for (int z = 0; z < SLICES; z++) {
+			accessor.setPosition(z, 3);
+			final ImageProcessor proc = imp.getStack().getProcessor(z + 1);
+			for (int y = 0; y < HEIGHT; y++) {
+				accessor.setPosition(y, 1);
+				for (int x = 0; x < WIDTH; x++) {
+					accessor.setPosition(x, 0);
+					final int[] rgb = new int[3];
+					for (int c = 0; c < 3; c++) {
+						accessor.setPosition(c, 2);
+						rgb[c] = ((int) accessor.get().getRealDouble()) & 0xff;
+					}
+					proc.set(x, y, (0xff << 24) | (rgb[0] << 16) | (rgb[1] << 8) |
+						rgb[2]);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,242 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.legacy.translate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import imagej.data.Dataset;
+import imagej.data.DatasetService;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+import net.imglib2.type.numeric.RealType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Unit tests for {@link DatasetImageStack}.
+ */
+public class DatasetImageStackTest {
+
+	private static final int WIDTH = 5;
+	private static final int HEIGHT = 4;
+	private static final int SLICES = 6;
+
+	/** Room for a single converted 16-bit slice. */
+	private static final long ONE_SLICE = WIDTH * HEIGHT * 2;
+
+	private Context context;
+	private Dataset ds;
+
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class);
+		final DatasetService datasetService =
+			context.getService(DatasetService.class);
+		final AxisType[] axes = { Axes.X, Axes.Y, Axes.Z };
+		ds =
+			datasetService.create(new long[] { WIDTH, HEIGHT, SLICES }, "temp",
+				axes, 16, true, false);
+		final Cursor<? extends RealType<?>> cursor = ds.getImgPlus().cursor();
+		int val = 0;
+		while (cursor.hasNext()) {
+			cursor.next();
+			cursor.get().setReal(val++ * 97 % 2000 - 1000);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testNotVirtual() {
+		final DatasetImageStack stack = new DatasetImageStack(ds, 16);
+		assertFalse(stack.isVirtual());
+		assertEquals(SLICES, stack.getSize());
+	}
+
+	@Test
+	public void testConversion() {
+		final DatasetImageStack stack = new DatasetImageStack(ds, 16, ONE_SLICE);
+		for (int z = 0; z < SLICES; z++) {
+			final short[] pixels = (short[]) stack.getPixels(z + 1);
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++) {
+					assertEquals(value(x, y, z) + 32768,
+						pixels[y * WIDTH + x] & 0xffff, 0);
+				}
+			}
+		}
+		assertFalse(stack.flush());
+	}
+
+	@Test
+	public void testRoundTrip() {
+		final DatasetImageStack stack = new DatasetImageStack(ds, 16, ONE_SLICE);
+		final double[] expected = values();
+
+		// edit a slice through its pixels, then push it out of memory, which
+		// writes it back
+		final short[] pixels = (short[]) stack.getPixels(2);
+		pixels[3] = (short) (1234 + 32768);
+		expected[WIDTH * HEIGHT + 3] = 1234;
+		for (int n = 3; n <= SLICES; n++)
+			stack.getPixels(n);
+		assertEquals(1234, value(3, 0, 1), 0);
+
+		// edit another slice through a processor that stays in use
+		final ImageProcessor proc = stack.getProcessor(5);
+		proc.set(1, 2, 40000);
+		expected[4 * WIDTH * HEIGHT + 2 * WIDTH + 1] = 40000 - 32768;
+		for (int n = 1; n <= SLICES; n++)
+			stack.getPixels(n);
+		assertSame(proc.getPixels(), stack.getPixels(5));
+
+		assertTrue(stack.flush());
+		assertValuesEqual(expected, values());
+		assertEquals(1234 + 32768, ((short[]) stack.getPixels(2))[3] & 0xffff);
+		assertFalse(stack.flush());
+	}
+
+	@Test
+	public void testCurrentSliceKept() {
+		final DatasetImageStack stack = new DatasetImageStack(ds, 16, ONE_SLICE);
+		final ImagePlus imp = new ImagePlus("temp", stack);
+		stack.setImagePlus(imp);
+		imp.setSlice(3);
+		final Object pixels = imp.getProcessor().getPixels();
+		assertSame(stack.getPixels(3), pixels);
+		for (int n = 1; n <= SLICES; n++)
+			stack.getPixels(n);
+		assertSame(pixels, stack.getPixels(3));
+	}
+
+	@Test
+	public void testHandedOutPixels() {
+		final DatasetImageStack stack = new DatasetImageStack(ds, 16, ONE_SLICE);
+		final short[] pixels = (short[]) stack.getPixels(2);
+		for (int n = 3; n <= SLICES; n++)
+			stack.getPixels(n);
+		assertFalse(stack.flush());
+
+		// the slice was dropped, but its pixels are still written back
+		pixels[3] = (short) (1234 + 32768);
+		assertTrue(stack.flush());
+		assertEquals(1234, value(3, 0, 1), 0);
+		assertSame(pixels, stack.getPixels(2));
+		assertFalse(stack.flush());
+
+		// and refreshed from the Dataset
+		setValue(3, 0, 1, -5);
+		stack.getPixels(1);
+		stack.reload();
+		assertEquals(-5 + 32768, pixels[3] & 0xffff);
+	}
+
+	@Test
+	public void testDetach() {
+		final DatasetImageStack stack = new DatasetImageStack(ds, 16, ONE_SLICE);
+		final short[] pixels = (short[]) stack.getPixels(2);
+		for (int n = 3; n <= SLICES; n++)
+			stack.getPixels(n);
+		pixels[3] = (short) (1234 + 32768);
+		stack.detach();
+		assertTrue(stack.isDetached());
+		assertEquals(1234, value(3, 0, 1), 0);
+		assertSame(pixels, stack.getPixels(2));
+		assertEquals(SLICES, stack.getSize());
+		// the final voxel accessors read the slices of an ordinary stack
+		for (int z = 0; z < SLICES; z++) {
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++) {
+					assertEquals(value(x, y, z) + 32768, stack.getVoxel(x, y, z), 0);
+				}
+			}
+		}
+	}
+
+	// -- helper methods --
+
+	private double value(final int x, final int y, final int z) {
+		final RandomAccess<? extends RealType<?>> access =
+			ds.getImgPlus().randomAccess();
+		access.setPosition(new long[] { x, y, z });
+		return access.get().getRealDouble();
+	}
+
+	private void setValue(final int x, final int y, final int z,
+		final double value)
+	{
+		final RandomAccess<? extends RealType<?>> access =
+			ds.getImgPlus().randomAccess();
+		access.setPosition(new long[] { x, y, z });
+		access.get().setReal(value);
+	}
+
+	private double[] values() {
+		final double[] values = new double[WIDTH * HEIGHT * SLICES];
+		int i = 0;
+		for (int z = 0; z < SLICES; z++) {
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++) {
+					values[i++] = value(x, y, z);
+				}
+			}
+		}
+		return values;
+	}
+
+	private void assertValuesEqual(final double[] expected,
+		final double[] actual)
+	{
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("index " + i, expected[i], actual[i], 0);
+		}
+	}
+
+}
@@ -0,0 +1,263 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.legacy.translate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import ij.ImagePlus;
+import ij.ImageStack;
+import imagej.data.Dataset;
+import imagej.data.DatasetService;
+import imagej.data.ParallelLoopService;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Unit tests for {@link DirtyPlanes}.
+ */
+public class DirtyPlanesTest {
+
+	private static final int CHANNELS = 2;
+	private static final int SLICES = 3;
+
+	private Context context;
+	private Dataset ds;
+	private ImagePlus imp;
+	private DirtyPlanes dirtyPlanes;
+
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class, ParallelLoopService.class);
+		final DatasetService datasetService =
+			context.getService(DatasetService.class);
+		final AxisType[] axes = { Axes.X, Axes.Y, Axes.CHANNEL, Axes.Z };
+		ds =
+			datasetService.create(new long[] { 4, 3, CHANNELS, SLICES }, "temp",
+				axes, 8, false, false);
+		final Cursor<? extends RealType<?>> cursor = ds.getImgPlus().cursor();
+		int val = 0;
+		while (cursor.hasNext()) {
+			cursor.next();
+			cursor.get().setReal(val++ % 256);
+		}
+		final ImageStack stack = new ImageStack(4, 3);
+		for (int i = 0; i < CHANNELS * SLICES; i++) {
+			final byte[] pixels = new byte[12];
+			for (int j = 0; j < pixels.length; j++)
+				pixels[j] = (byte) (12 * i + j);
+			stack.addSlice("" + i, pixels);
+		}
+		imp = new ImagePlus("temp", stack);
+		imp.setDimensions(CHANNELS, SLICES, 1);
+		dirtyPlanes = new DirtyPlanes();
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testPlanesOfSlices() {
+		final long[][] planeMap = DirtyPlanes.planesOfSlices(ds, imp);
+		assertNotNull(planeMap);
+		assertArrayEquals(new long[][] { null, { 0 }, { 1 }, { 2 }, { 3 }, { 4 },
+			{ 5 } }, planeMap);
+
+		// color images are made from three channel planes per slice
+		final ImageStack stack = new ImageStack(4, 3);
+		stack.addSlice("", new int[12]);
+		stack.addSlice("", new int[12]);
+		final ImagePlus color = new ImagePlus("color", stack);
+		color.setDimensions(1, 2, 1);
+		final Dataset rgb =
+			context.getService(DatasetService.class).create(
+				new long[] { 4, 3, 3, 2 }, "rgb",
+				new AxisType[] { Axes.X, Axes.Y, Axes.CHANNEL, Axes.Z }, 8, false,
+				false);
+		assertArrayEquals(new long[][] { null, { 0, 1, 2 }, { 3, 4, 5 } },
+			DirtyPlanes.planesOfSlices(rgb, color));
+
+		// planes that are not XY planes cannot be mapped
+		final Dataset yx =
+			context.getService(DatasetService.class).create(
+				new long[] { 3, 4, CHANNELS, SLICES }, "yx",
+				new AxisType[] { Axes.Y, Axes.X, Axes.CHANNEL, Axes.Z }, 8, false,
+				false);
+		assertNull(DirtyPlanes.planesOfSlices(yx, imp));
+	}
+
+	@Test
+	public void testUnknownPairIsDirty() {
+		assertNull(dirtyPlanes.getDirtySlices(ds, imp));
+	}
+
+	@Test
+	public void testMarkClean() {
+		dirtyPlanes.markClean(ds, imp, null);
+		assertClean(dirtyPlanes.getDirtySlices(ds, imp));
+
+		// a clean pair stays clean when only some slices were harmonized
+		final boolean[] some = new boolean[CHANNELS * SLICES + 1];
+		some[2] = true;
+		dirtyPlanes.markClean(ds, imp, some);
+		assertClean(dirtyPlanes.getDirtySlices(ds, imp));
+
+		// another Dataset is not paired with this ImagePlus
+		final Dataset other = ds.duplicate();
+		assertNull(dirtyPlanes.getDirtySlices(other, imp));
+	}
+
+	@Test
+	public void testSilentImagePlusEdit() {
+		dirtyPlanes.markClean(ds, imp, null);
+		((byte[]) imp.getStack().getPixels(4))[5]++;
+		assertDirty(dirtyPlanes.getDirtySlices(ds, imp), 4);
+		dirtyPlanes.markClean(ds, imp, dirtyPlanes.getDirtySlices(ds, imp));
+		assertClean(dirtyPlanes.getDirtySlices(ds, imp));
+	}
+
+	@Test
+	public void testSilentDatasetEdit() {
+		dirtyPlanes.markClean(ds, imp, null);
+		// channel 1, z 2 is plane 5 and slice 6
+		final RandomAccess<? extends RealType<?>> access =
+			ds.getImgPlus().randomAccess();
+		access.setPosition(new long[] { 1, 2, 1, 2 });
+		access.get().setReal(access.get().getRealDouble() + 1);
+		assertDirty(dirtyPlanes.getDirtySlices(ds, imp), 6);
+		dirtyPlanes.markClean(ds, imp, dirtyPlanes.getDirtySlices(ds, imp));
+		assertClean(dirtyPlanes.getDirtySlices(ds, imp));
+	}
+
+	@Test
+	public void testSilentArrayDatasetEdit() {
+		// planes not stored as arrays of their own are compared by value
+		ds =
+			context.getService(DatasetService.class).create(
+				new ArrayImgFactory<UnsignedByteType>(), new UnsignedByteType(),
+				new long[] { 4, 3, CHANNELS, SLICES }, "array",
+				new AxisType[] { Axes.X, Axes.Y, Axes.CHANNEL, Axes.Z });
+		dirtyPlanes.markClean(ds, imp, null);
+		assertClean(dirtyPlanes.getDirtySlices(ds, imp));
+		final RandomAccess<? extends RealType<?>> access =
+			ds.getImgPlus().randomAccess();
+		access.setPosition(new long[] { 3, 0, 0, 1 });
+		access.get().setReal(7);
+		assertDirty(dirtyPlanes.getDirtySlices(ds, imp), 3);
+	}
+
+	@Test
+	public void testEventsAreTrusted() {
+		dirtyPlanes.markClean(ds, imp, null);
+		// plane 5 is changed silently, plane 2 with an event
+		final RandomAccess<? extends RealType<?>> access =
+			ds.getImgPlus().randomAccess();
+		access.setPosition(new long[] { 1, 2, 1, 2 });
+		access.get().setReal(access.get().getRealDouble() + 1);
+		dirtyPlanes.markDirty(ds, new long[] { 2 });
+		assertDirty(dirtyPlanes.getDirtySlices(ds, imp), 3);
+		dirtyPlanes.markClean(ds, imp, dirtyPlanes.getDirtySlices(ds, imp));
+
+		// without events the silent change is found again
+		assertDirty(dirtyPlanes.getDirtySlices(ds, imp), 6);
+
+		// slices are still compared, since legacy ImageJ reports only one
+		dirtyPlanes.markClean(ds, imp, null);
+		((byte[]) imp.getStack().getPixels(4))[5]++;
+		dirtyPlanes.markDirty(ds, new long[] { 2 });
+		assertDirty(dirtyPlanes.getDirtySlices(ds, imp), 3, 4);
+	}
+
+	@Test
+	public void testMarkDirty() {
+		dirtyPlanes.markClean(ds, imp, null);
+		dirtyPlanes.markDirty(ds, new long[] { 2 });
+		assertDirty(dirtyPlanes.getDirtySlices(ds, imp), 3);
+		dirtyPlanes.markClean(ds, imp, null);
+
+		dirtyPlanes.markDirty(imp, 1);
+		assertDirty(dirtyPlanes.getDirtySlices(ds, imp), 1);
+		dirtyPlanes.markClean(ds, imp, null);
+
+		dirtyPlanes.markDirty(ds, null);
+		assertNull(dirtyPlanes.getDirtySlices(ds, imp));
+		dirtyPlanes.markClean(ds, imp, null);
+
+		dirtyPlanes.forget(imp);
+		assertNull(dirtyPlanes.getDirtySlices(ds, imp));
+	}
+
+	@Test
+	public void testChangedStackIsDirty() {
+		dirtyPlanes.markClean(ds, imp, null);
+		imp.getStack().deleteLastSlice();
+		imp.setDimensions(1, CHANNELS * SLICES - 1, 1);
+		assertNull(dirtyPlanes.getDirtySlices(ds, imp));
+	}
+
+	// -- helper methods --
+
+	private void assertClean(final boolean[] dirty) {
+		assertDirty(dirty);
+	}
+
+	private void assertDirty(final boolean[] dirty, final int... slices) {
+		assertNotNull(dirty);
+		final boolean[] expected = new boolean[CHANNELS * SLICES + 1];
+		for (final int slice : slices)
+			expected[slice] = true;
+		for (int slice = 1; slice < expected.length; slice++) {
+			if (expected[slice]) assertTrue("slice " + slice, dirty[slice]);
+			else assertFalse("slice " + slice, dirty[slice]);
+		}
+	}
+
+}
@@ -0,0 +1,307 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.legacy.translate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import imagej.data.Dataset;
+import imagej.data.DatasetService;
+import imagej.data.ParallelLoopService;
+
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ShortType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Unit tests for {@link GrayPixelHarmonizer}. The row at a time transfers are
+ * checked against the pixel at a time {@link ImageProcessor}::getf() and
+ * setf() mapping they replaced.
+ */
+public class GrayPixelHarmonizerTest {
+
+	private static final int WIDTH = 5, HEIGHT = 4, SLICES = 3;
+
+	private static final AxisType[] AXES = { Axes.X, Axes.Y, Axes.Z };
+
+	private Context context;
+	private DatasetService datasetService;
+	private GrayPixelHarmonizer harmonizer;
+	private Random random;
+
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class, ParallelLoopService.class);
+		datasetService = context.getService(DatasetService.class);
+		harmonizer = new GrayPixelHarmonizer(context);
+		random = new Random(42);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testUnsignedBytesToDataset() {
+		assertUpdateDataset(8, false, false, stack(byte[].class));
+	}
+
+	@Test
+	public void testSigned16BitToDataset() {
+		assertUpdateDataset(16, true, false, stack(short[].class));
+	}
+
+	@Test
+	public void testClampingToDataset() {
+		assertUpdateDataset(8, false, false, stack(float[].class));
+		assertUpdateDataset(16, true, false, stack(float[].class));
+	}
+
+	@Test
+	public void testNonPrimitiveToDataset() {
+		assertUpdateDataset(32, true, true, stack(int[].class));
+	}
+
+	@Test
+	public void testUnsignedBytesToLegacyImage() {
+		assertUpdateLegacyImage(8, false, false, byte[].class);
+	}
+
+	@Test
+	public void testSigned16BitToLegacyImage() {
+		assertUpdateLegacyImage(16, true, false, short[].class);
+	}
+
+	@Test
+	public void testBitsToLegacyImage() {
+		final Dataset ds = assertUpdateLegacyImage(1, false, false, byte[].class);
+		assertEquals(BitType.class, ds.getType().getClass());
+	}
+
+	@Test
+	public void testNarrowingToLegacyImage() {
+		assertUpdateLegacyImage(32, true, true, byte[].class);
+		assertUpdateLegacyImage(32, true, true, short[].class);
+	}
+
+	@Test
+	public void testNonPrimitiveToLegacyImage() {
+		assertUpdateLegacyImage(32, true, true, int[].class);
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Asserts that harmonizing a Dataset of the given kind from the given stack
+	 * gives the values of the per pixel mapping.
+	 */
+	private void assertUpdateDataset(final int bitsPerPixel,
+		final boolean signed, final boolean floating, final ImageStack stack)
+	{
+		final Dataset ds = create(bitsPerPixel, signed, floating);
+		final Dataset expected = create(bitsPerPixel, signed, floating);
+		harmonizer.updateDataset(ds, imagePlus(stack));
+		updateDatasetPerPixel(expected, imagePlus(stack));
+		final Cursor<? extends RealType<?>> cursor = ds.getImgPlus().cursor();
+		final RandomAccess<? extends RealType<?>> access =
+			expected.getImgPlus().randomAccess();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			access.setPosition(cursor);
+			assertEquals(access.get().getRealDouble(), cursor.get()
+				.getRealDouble(), 0);
+		}
+	}
+
+	/**
+	 * Asserts that harmonizing a stack of the given pixel type from a Dataset of
+	 * the given kind gives the pixels of the per pixel mapping. Returns the
+	 * Dataset.
+	 */
+	private Dataset assertUpdateLegacyImage(final int bitsPerPixel,
+		final boolean signed, final boolean floating, final Class<?> pixelType)
+	{
+		final Dataset ds = create(bitsPerPixel, signed, floating);
+		final Cursor<? extends RealType<?>> cursor = ds.getImgPlus().cursor();
+		final double min = ds.getType().getMinValue();
+		final double max = ds.getType().getMaxValue();
+		while (cursor.hasNext()) {
+			final RealType<?> value = cursor.next();
+			if (floating) value.setReal(70000 * random.nextDouble() - 1000);
+			else value.setReal(min + random.nextInt((int) (max - min) + 1));
+		}
+		final ImageStack actual = new ImageStack(WIDTH, HEIGHT);
+		final ImageStack expected = new ImageStack(WIDTH, HEIGHT);
+		for (int i = 0; i < SLICES; i++) {
+			actual.addSlice("" + i, pixels(pixelType, false));
+			expected.addSlice("" + i, pixels(pixelType, false));
+		}
+		harmonizer.updateLegacyImage(ds, imagePlus(actual));
+		updateLegacyImagePerPixel(ds, imagePlus(expected));
+		for (int n = 1; n <= SLICES; n++) {
+			assertPixelsEqual(expected.getPixels(n), actual.getPixels(n));
+		}
+		return ds;
+	}
+
+	private Dataset create(final int bitsPerPixel, final boolean signed,
+		final boolean floating)
+	{
+		return datasetService.create(new long[] { WIDTH, HEIGHT, SLICES },
+			"temp", AXES, bitsPerPixel, signed, floating);
+	}
+
+	/** Creates a stack of random pixels of the given type. */
+	private ImageStack stack(final Class<?> pixelType) {
+		final ImageStack stack = new ImageStack(WIDTH, HEIGHT);
+		for (int i = 0; i < SLICES; i++) {
+			stack.addSlice("" + i, pixels(pixelType, true));
+		}
+		return stack;
+	}
+
+	/**
+	 * Creates a slice of pixels of the given type. Random floats lie outside
+	 * the range of bytes and shorts, with fractions.
+	 */
+	private Object pixels(final Class<?> pixelType, final boolean fill) {
+		final int size = WIDTH * HEIGHT;
+		if (pixelType == byte[].class) {
+			final byte[] pixels = new byte[size];
+			if (fill) random.nextBytes(pixels);
+			return pixels;
+		}
+		if (pixelType == short[].class) {
+			final short[] pixels = new short[size];
+			for (int i = 0; fill && i < size; i++)
+				pixels[i] = (short) random.nextInt(65536);
+			return pixels;
+		}
+		if (pixelType == float[].class) {
+			final float[] pixels = new float[size];
+			for (int i = 0; fill && i < size; i++)
+				pixels[i] = (float) (70000 * random.nextDouble() - 1000);
+			return pixels;
+		}
+		final int[] pixels = new int[size];
+		for (int i = 0; fill && i < size; i++)
+			pixels[i] = random.nextInt(0x1000000);
+		return pixels;
+	}
+
+	private ImagePlus imagePlus(final ImageStack stack) {
+		final ImagePlus imp = new ImagePlus("temp", stack);
+		imp.setDimensions(1, SLICES, 1);
+		return imp;
+	}
+
+	private void assertPixelsEqual(final Object expected, final Object actual) {
+		if (expected instanceof byte[]) {
+			assertArrayEquals((byte[]) expected, (byte[]) actual);
+		}
+		else if (expected instanceof short[]) {
+			assertArrayEquals((short[]) expected, (short[]) actual);
+		}
+		else if (expected instanceof float[]) {
+			assertArrayEquals((float[]) expected, (float[]) actual, 0);
+		}
+		else assertArrayEquals((int[]) expected, (int[]) actual);
+	}
+
+	/** Harmonizes a Dataset a pixel at a time via getf(). */
+	private void updateDatasetPerPixel(final Dataset ds, final ImagePlus imp) {
+		final RealType<?> type = ds.getType();
+		final boolean signed16BitData = type instanceof ShortType;
+		final RandomAccess<? extends RealType<?>> accessor =
+			ds.getImgPlus().randomAccess();
+		for (int z = 0; z < SLICES; z++) {
+			accessor.setPosition(z, 2);
+			final ImageProcessor proc = imp.getStack().getProcessor(z + 1);
+			for (int x = 0; x < WIDTH; x++) {
+				accessor.setPosition(x, 0);
+				for (int y = 0; y < HEIGHT; y++) {
+					accessor.setPosition(y, 1);
+					double value = proc.getf(x, y);
+					if (signed16BitData) value -= 32768.0;
+					if (value < type.getMinValue()) value = type.getMinValue();
+					else if (value > type.getMaxValue()) value = type.getMaxValue();
+					accessor.get().setReal(value);
+				}
+			}
+		}
+	}
+
+	/** Harmonizes a stack a pixel at a time via setf(). */
+	private void updateLegacyImagePerPixel(final Dataset ds,
+		final ImagePlus imp)
+	{
+		final RealType<?> type = ds.getType();
+		final boolean signed16BitData = type instanceof ShortType;
+		final boolean bitData = type instanceof BitType;
+		final RandomAccess<? extends RealType<?>> accessor =
+			ds.getImgPlus().randomAccess();
+		for (int z = 0; z < SLICES; z++) {
+			accessor.setPosition(z, 2);
+			final ImageProcessor proc = imp.getStack().getProcessor(z + 1);
+			for (int x = 0; x < WIDTH; x++) {
+				accessor.setPosition(x, 0);
+				for (int y = 0; y < HEIGHT; y++) {
+					accessor.setPosition(y, 1);
+					double value = accessor.get().getRealDouble();
+					if (signed16BitData) value += 32768.0;
+					else if (bitData) if (value > 0) value = 255;
+					proc.setf(x, y, (float) value);
+				}
+			}
+		}
+	}
+
+}
@@ -99,7 +99,8 @@ public int getMaxMemory() {
 
 	/**
 	 * Returns the number of stack threads that should be allocated for use by
-	 * ImageJ.
+	 * ImageJ. This is also the number of threads used to project image planes
+	 * for display.
 	 */
 	public int getStackThreads() {
 		return stackThreads;
@@ -0,0 +1,478 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package imagej.core.commands.assign;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An equation of the language of EquationDataValues compiled into a program
+ * for a stack machine whose values are whole rows of pixels. Each instruction
+ * works on a row at a time, so the cost of interpreting it is shared by every
+ * pixel of the row.
+ * <p>
+ * Only a core of the language is compiled: numbers, the constants E and PI,
+ * the image value img, axis variables, +, -, *, /, a single unchained ^ of an
+ * unsigned base, parentheses and the common functions of {@link Math}.
+ * {@link #compile(String, int)} returns null for anything else, and callers
+ * should then evaluate the equation as before.
+ * </p>
+ */
+public class CompiledEquation {
+
+	// -- constants --
+
+	private static final int CONSTANT = 0, AXIS = 1, IMAGE = 2, NEGATE = 3,
+			ADD = 4, SUBTRACT = 5, MULTIPLY = 6, DIVIDE = 7, POWER = 8,
+			FUNCTION = 9;
+
+	private static final List<String> FUNCTIONS = Arrays.asList("abs", "acos",
+		"asin", "atan", "cbrt", "ceil", "cos", "cosh", "exp", "expm1", "floor",
+		"log", "log10", "log1p", "signum", "sin", "sinh", "sqrt", "tan", "tanh");
+
+	// -- instance variables --
+
+	private final int[] code;
+	private final double[] constants;
+	private final int maxDepth;
+	private final boolean usesImage;
+
+	// -- constructor --
+
+	private CompiledEquation(final int[] code, final double[] constants,
+		final int maxDepth, final boolean usesImage)
+	{
+		this.code = code;
+		this.constants = constants;
+		this.maxDepth = maxDepth;
+		this.usesImage = usesImage;
+	}
+
+	// -- CompiledEquation methods --
+
+	/**
+	 * Compiles an equation over an image of the given dimensionality, returning
+	 * null if it uses anything outside the compiled core of the language or is
+	 * not a valid equation.
+	 */
+	public static CompiledEquation compile(final String equation,
+		final int numDims)
+	{
+		try {
+			return new Compiler(equation, numDims).compile();
+		}
+		catch (final IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/** Returns true if the equation refers to the value of the image. */
+	public boolean usesImage() {
+		return usesImage;
+	}
+
+	/**
+	 * Creates an evaluator for rows of up to the given length. Evaluators are
+	 * not thread safe; each thread should use its own.
+	 */
+	public Evaluator createEvaluator(final int length) {
+		return new Evaluator(length);
+	}
+
+	// -- helper classes --
+
+	/** Evaluates the equation a row at a time. */
+	public class Evaluator {
+
+		private final double[][] stack;
+
+		private Evaluator(final int length) {
+			stack = new double[maxDepth][length];
+		}
+
+		/**
+		 * Evaluates the equation at count points starting at position and
+		 * running along the x axis. The image values of those points are taken
+		 * from image starting at offset, and the results are stored in result
+		 * from offset on.
+		 */
+		public void evaluate(final long[] position, final int xAxis,
+			final int count, final double[] image, final int offset,
+			final double[] result)
+		{
+			int sp = 0;
+			for (int pc = 0; pc < code.length; pc++) {
+				switch (code[pc]) {
+					case CONSTANT: {
+						Arrays.fill(stack[sp++], 0, count, constants[code[++pc]]);
+						break;
+					}
+					case AXIS: {
+						final int axis = code[++pc];
+						final double[] s = stack[sp++];
+						if (axis == xAxis) {
+							final long x0 = position[xAxis];
+							for (int i = 0; i < count; i++) {
+								s[i] = x0 + i;
+							}
+						}
+						else Arrays.fill(s, 0, count, position[axis]);
+						break;
+					}
+					case IMAGE: {
+						System.arraycopy(image, offset, stack[sp++], 0, count);
+						break;
+					}
+					case NEGATE: {
+						final double[] s = stack[sp - 1];
+						for (int i = 0; i < count; i++) {
+							s[i] = -s[i];
+						}
+						break;
+					}
+					case FUNCTION: {
+						apply(code[++pc], stack[sp - 1], count);
+						break;
+					}
+					default: {
+						final double[] a = stack[sp - 2], b = stack[--sp];
+						combine(code[pc], a, b, count);
+					}
+				}
+			}
+			System.arraycopy(stack[0], 0, result, offset, count);
+		}
+
+		private void combine(final int op, final double[] a, final double[] b,
+			final int count)
+		{
+			switch (op) {
+				case ADD:
+					for (int i = 0; i < count; i++) {
+						a[i] += b[i];
+					}
+					break;
+				case SUBTRACT:
+					for (int i = 0; i < count; i++) {
+						a[i] -= b[i];
+					}
+					break;
+				case MULTIPLY:
+					for (int i = 0; i < count; i++) {
+						a[i] *= b[i];
+					}
+					break;
+				case DIVIDE:
+					for (int i = 0; i < count; i++) {
+						a[i] /= b[i];
+					}
+					break;
+				case POWER:
+					for (int i = 0; i < count; i++) {
+						a[i] = Math.pow(a[i], b[i]);
+					}
+					break;
+				default:
+					throw new IllegalStateException("Unknown instruction " + op);
+			}
+		}
+
+		private void apply(final int function, final double[] s, final int count)
+		{
+			for (int i = 0; i < count; i++) {
+				s[i] = call(function, s[i]);
+			}
+		}
+
+		private double call(final int function, final double v) {
+			switch (function) {
+				case 0: return Math.abs(v);
+				case 1: return Math.acos(v);
+				case 2: return Math.asin(v);
+				case 3: return Math.atan(v);
+				case 4: return Math.cbrt(v);
+				case 5: return Math.ceil(v);
+				case 6: return Math.cos(v);
+				case 7: return Math.cosh(v);
+				case 8: return Math.exp(v);
+				case 9: return Math.expm1(v);
+				case 10: return Math.floor(v);
+				case 11: return Math.log(v);
+				case 12: return Math.log10(v);
+				case 13: return Math.log1p(v);
+				case 14: return Math.signum(v);
+				case 15: return Math.sin(v);
+				case 16: return Math.sinh(v);
+				case 17: return Math.sqrt(v);
+				case 18: return Math.tan(v);
+				case 19: return Math.tanh(v);
+				default:
+					throw new IllegalStateException("Unknown function " + function);
+			}
+		}
+	}
+
+	/**
+	 * A recursive descent compiler. Throws IllegalArgumentException for
+	 * anything it does not compile.
+	 */
+	private static class Compiler {
+
+		private final List<String> tokens = new ArrayList<String>();
+		private final int numDims;
+		private final List<String> axes = new ArrayList<String>();
+		private final List<Integer> code = new ArrayList<Integer>();
+		private final List<Double> constants = new ArrayList<Double>();
+		private int next;
+		private int depth, maxDepth;
+		private boolean usesImage;
+
+		private Compiler(final String equation, final int numDims) {
+			this.numDims = numDims;
+			tokenize(equation);
+		}
+
+		private CompiledEquation compile() {
+			if (peek("[")) {
+				expect("[");
+				do {
+					final String name = identifier();
+					if (axes.contains(name)) fail();
+					axes.add(name);
+				}
+				while (accept(","));
+				expect("]");
+				expect(",");
+				if (axes.size() > numDims) fail();
+			}
+			expression();
+			if (next != tokens.size()) fail();
+			final int[] program = new int[code.size()];
+			for (int i = 0; i < program.length; i++) {
+				program[i] = code.get(i);
+			}
+			final double[] values = new double[constants.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = constants.get(i);
+			}
+			return new CompiledEquation(program, values, maxDepth, usesImage);
+		}
+
+		private void expression() {
+			term();
+			while (true) {
+				if (accept("+")) {
+					term();
+					emit(ADD, -1);
+				}
+				else if (accept("-")) {
+					term();
+					emit(SUBTRACT, -1);
+				}
+				else return;
+			}
+		}
+
+		private void term() {
+			factor();
+			while (true) {
+				if (accept("*")) {
+					factor();
+					emit(MULTIPLY, -1);
+				}
+				else if (accept("/")) {
+					factor();
+					emit(DIVIDE, -1);
+				}
+				else return;
+			}
+		}
+
+		private void factor() {
+			final boolean signed = unary();
+			if (accept("^")) {
+				// how signs and chains bind is left to the interpreter
+				if (signed) fail();
+				unary();
+				emit(POWER, -1);
+				if (peek("^")) fail();
+			}
+		}
+
+		/** Compiles a possibly signed atom, returning true if it was signed. */
+		private boolean unary() {
+			if (accept("-")) {
+				unary();
+				emit(NEGATE, 0);
+				return true;
+			}
+			if (accept("+")) {
+				unary();
+				return true;
+			}
+			atom();
+			return false;
+		}
+
+		private void atom() {
+			if (accept("(")) {
+				expression();
+				expect(")");
+				return;
+			}
+			final String token = take();
+			if (Character.isDigit(token.charAt(0)) || token.charAt(0) == '.') {
+				constant(Double.parseDouble(token));
+				return;
+			}
+			if (!isIdentifier(token)) fail();
+			if (accept("(")) {
+				final int function = FUNCTIONS.indexOf(token);
+				if (function < 0) fail();
+				expression();
+				expect(")");
+				code.add(FUNCTION);
+				code.add(function);
+				return;
+			}
+			final int axis = axes.indexOf(token);
+			if (axis >= 0) {
+				code.add(AXIS);
+				code.add(axis);
+				push();
+			}
+			else if (token.equals("img")) {
+				code.add(IMAGE);
+				push();
+				usesImage = true;
+			}
+			else if (token.equals("E")) constant(Math.E);
+			else if (token.equals("PI")) constant(Math.PI);
+			else fail();
+		}
+
+		private void constant(final double value) {
+			code.add(CONSTANT);
+			code.add(constants.size());
+			constants.add(value);
+			push();
+		}
+
+		private void emit(final int instruction, final int depthChange) {
+			code.add(instruction);
+			depth += depthChange;
+		}
+
+		private void push() {
+			depth++;
+			maxDepth = Math.max(maxDepth, depth);
+		}
+
+		// -- tokens --
+
+		private void tokenize(final String equation) {
+			int i = 0;
+			final int n = equation.length();
+			while (i < n) {
+				final char c = equation.charAt(i);
+				if (Character.isWhitespace(c)) {
+					i++;
+				}
+				else if (Character.isDigit(c) || c == '.') {
+					int j = i;
+					while (j < n &&
+						(Character.isDigit(equation.charAt(j)) || equation.charAt(j) == '.'))
+					{
+						j++;
+					}
+					tokens.add(equation.substring(i, j));
+					i = j;
+				}
+				else if (Character.isLetter(c) || c == '_') {
+					int j = i;
+					while (j < n &&
+						(Character.isLetterOrDigit(equation.charAt(j)) || equation
+							.charAt(j) == '_'))
+					{
+						j++;
+					}
+					tokens.add(equation.substring(i, j));
+					i = j;
+				}
+				else if ("+-*/^(),[]".indexOf(c) >= 0) {
+					tokens.add(String.valueOf(c));
+					i++;
+				}
+				else fail();
+			}
+		}
+
+		private static boolean isIdentifier(final String token) {
+			return Character.isLetter(token.charAt(0)) || token.charAt(0) == '_';
+		}
+
+		private String identifier() {
+			final String token = take();
+			if (!isIdentifier(token)) fail();
+			return token;
+		}
+
+		private boolean peek(final String token) {
+			return next < tokens.size() && tokens.get(next).equals(token);
+		}
+
+		private boolean accept(final String token) {
+			if (!peek(token)) return false;
+			next++;
+			return true;
+		}
+
+		private void expect(final String token) {
+			if (!accept(token)) fail();
+		}
+
+		private String take() {
+			if (next >= tokens.size()) fail();
+			return tokens.get(next++);
+		}
+
+		private static void fail() {
+			throw new IllegalArgumentException("Not compiled");
+		}
+	}
+
+}
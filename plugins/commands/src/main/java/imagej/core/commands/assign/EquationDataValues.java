@@ -38,7 +38,9 @@
 import imagej.command.Command;
 import imagej.command.ContextCommand;
 import imagej.data.Dataset;
+import imagej.data.ParallelLoop;
 import imagej.data.Position;
+import imagej.data.RowAccess;
 import imagej.data.display.DatasetView;
 import imagej.data.display.ImageDisplay;
 import imagej.data.display.ImageDisplayService;
@@ -51,7 +53,9 @@
 import java.net.URL;
 
 import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
 import net.imglib2.meta.Axes;
+import net.imglib2.ops.condition.Condition;
 import net.imglib2.ops.condition.UVInsideRoiCondition;
 import net.imglib2.ops.function.Function;
 import net.imglib2.ops.img.ImageAssignment;
@@ -70,7 +74,9 @@
 
 /**
  * Fills a region of a Dataset with the point by point calculation of a user
- * specified equation.
+ * specified equation. Equations within the core of the language are compiled
+ * by {@link CompiledEquation} and evaluated a row at a time on several threads;
+ * others are evaluated by the ops function tree they parse into.
  * 
  * @author Barry DeZonia
  */
@@ -137,6 +143,15 @@ public void run() {
 			cancel("Equation parsing error: "+result.get2());
 			return;
 		}
+		final CompiledEquation equation =
+			CompiledEquation.compile(equationString, dataset.numDimensions());
+		if (equation != null && !(dataset.isInteger() &&
+				dataset.getType().getBitsPerPixel() > 32))
+		{
+			assignRows(equation);
+			dataset.update();
+			return;
+		}
 		InputIteratorFactory<long[]> factory = new PointInputIteratorFactory();
 		Function<long[],DoubleType> function = result.get1();
 		@SuppressWarnings("unchecked")
@@ -174,6 +189,85 @@ public void setEquation(String equationString) {
 	
 	// -- private helpers --
 
+	/**
+	 * Assigns the region a row at a time, dividing the rows of every plane
+	 * within the region among several threads. Types packing several pixels
+	 * into each storage word are only divided by whole planes of planar images,
+	 * and are otherwise assigned on one thread.
+	 */
+	private void assignRows(final CompiledEquation equation) {
+		final ImgPlus<? extends RealType<?>> img = dataset.getImgPlus();
+		final int xIndex = dataset.getAxisIndex(Axes.X);
+		final int yIndex = dataset.getAxisIndex(Axes.Y);
+		final int x0 = (int) Math.max(0, origin[xIndex]);
+		final int x1 =
+			(int) Math.min(img.dimension(xIndex), origin[xIndex] + span[xIndex]);
+		final int y0 = (int) Math.max(0, origin[yIndex]);
+		final int y1 =
+			(int) Math.min(img.dimension(yIndex), origin[yIndex] + span[yIndex]);
+		final int height = y1 - y0;
+		if (x0 >= x1 || height <= 0) return;
+
+		// the other axes, lowest first, as RowAccess numbers planes
+		final int numDims = img.numDimensions();
+		final int[] planeAxes = new int[numDims - 2];
+		for (int d = 0, i = 0; d < numDims; d++) {
+			if (d != xIndex && d != yIndex) planeAxes[i++] = d;
+		}
+		long planeCount = 1;
+		for (final int d : planeAxes) {
+			planeCount *= span[d];
+		}
+
+		// NB - packed types may only be split between threads by whole planes
+		final boolean byRows = RowAccess.canWriteRowsInParallel(img);
+		final int rowsPerUnit = byRows ? 1 : height;
+		final int threads =
+			byRows || RowAccess.canWritePlanesInParallel(img, xIndex, yIndex)
+				? ParallelLoop.getThreadCount(getContext()) : 1;
+		ParallelLoop.run(getContext(), planeCount * height / rowsPerUnit,
+			threads, new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count) {
+					final RowAccess rows = new RowAccess(img, xIndex, yIndex);
+					final double[] row = new double[rows.getWidth()];
+					final double[] values = new double[rows.getWidth()];
+					final CompiledEquation.Evaluator evaluator =
+						equation.createEvaluator(x1 - x0);
+					final Condition<long[]> cond =
+						condition == null ? null : condition.copy();
+					final long[] position = new long[numDims];
+					final long first = start * rowsPerUnit;
+					final long last = (start + count) * rowsPerUnit;
+					for (long unit = first; unit < last; unit++) {
+						// find the plane and row within the region
+						long index = unit / height;
+						long plane = 0, stride = 1;
+						for (final int d : planeAxes) {
+							position[d] = origin[d] + index % span[d];
+							index /= span[d];
+							plane += position[d] * stride;
+							stride *= img.dimension(d);
+						}
+						final int y = y0 + (int) (unit % height);
+						position[yIndex] = y;
+						position[xIndex] = x0;
+						rows.read(plane, y, row);
+						evaluator.evaluate(position, xIndex, x1 - x0, row, x0, values);
+						for (int x = x0; x < x1; x++) {
+							if (cond != null) {
+								position[xIndex] = x;
+								if (!cond.isTrue(position)) continue;
+							}
+							row[x] = values[x];
+						}
+						rows.write(plane, y, row);
+					}
+				}
+			});
+	}
+
 	private String setRegion(final ImageDisplay disp, boolean allPlanes) {
 		dataset = imgDispService.getActiveDataset(disp);
 		final Overlay overlay = overlayService.getActiveOverlay(disp);
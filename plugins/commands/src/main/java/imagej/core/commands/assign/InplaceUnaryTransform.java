@@ -36,10 +36,13 @@
 package imagej.core.commands.assign;
 
 import imagej.data.Dataset;
+import imagej.data.ParallelLoop;
 import imagej.data.Position;
+import imagej.data.RowAccess;
 import imagej.data.display.ImageDisplay;
 import imagej.data.overlay.Overlay;
 import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
 import net.imglib2.meta.Axes;
 import net.imglib2.ops.condition.Condition;
 import net.imglib2.ops.condition.UVInsideRoiCondition;
@@ -50,6 +53,7 @@
 import net.imglib2.ops.input.PointInputIteratorFactory;
 import net.imglib2.ops.operation.complex.unary.ComplexUnaryOperation;
 import net.imglib2.type.numeric.ComplexType;
+import net.imglib2.type.numeric.RealType;
 
 /**
  * Helper class for use by many plugins that apply a {@link
@@ -57,6 +61,13 @@
  * current selection of the active {@link Dataset} of the given {@link
  * ImageDisplay}. The given {@link ComplexUnaryOperation} is applied on a pixel
  * by pixel basis.
+ * <p>
+ * When the operation produces real values, the region is transformed a row at
+ * a time straight through the primitive storage of the image, with the rows
+ * divided among several threads and every channel of a merged RGB image done
+ * in the same pass. Otherwise the transform is done by {@link
+ * ImageAssignment}s.
+ * </p>
  * 
  * @author Barry DeZonia
  */
@@ -68,10 +79,15 @@
 	private final ImageAssignment<I,O,long[]> assigner2;
 	private final ImageAssignment<I,O,long[]> assigner3;
 	private final Dataset dataset;
+	private final ComplexUnaryOperation<O,O> operation;
+	private final O outType;
 	private long[] origin;
 	private long[] span;
 	private Condition<long[]> condition;
 
+	/** The region transformed in one pass by the row engine; null if none. */
+	private long[] rowOrigin, rowSpan;
+
 	// -- constructor --
 
 	/** All planes version */
@@ -82,7 +98,11 @@ public InplaceUnaryTransform(
 			Overlay overlay)
 	{
 		this.dataset = dataset;
+		this.operation = operation;
+		this.outType = outType;
 		setRegion(dataset, overlay);
+		rowOrigin = origin.clone();
+		rowSpan = span.clone();
 		@SuppressWarnings("unchecked")
 		final Img<I> img = (Img<I>)dataset.getImgPlus();
 		final ComplexImageFunction<I,O> f1 =
@@ -108,6 +128,8 @@ public InplaceUnaryTransform(
 			Position planePos)
 	{
 		this.dataset = dataset;
+		this.operation = operation;
+		this.outType = outType;
 		setRegion(dataset, overlay, planePos);
 		@SuppressWarnings("unchecked")
 		final Img<I> img = (Img<I>)dataset.getImgPlus();
@@ -120,8 +142,12 @@ public InplaceUnaryTransform(
 				new PointInputIteratorFactory();
 		boolean rgb = dataset.isRGBMerged();
 		int chIndex = dataset.getAxisIndex(Axes.CHANNEL);
+		rowOrigin = origin.clone();
+		rowSpan = span.clone();
 		if (rgb) {
 			origin[chIndex] = 0;
+			rowOrigin[chIndex] = 0;
+			rowSpan[chIndex] = 3;
 		}
 		assigner1 =
 			new ImageAssignment<I,O, long[]>(img, origin, span, function,
@@ -146,9 +172,12 @@ public InplaceUnaryTransform(
 	// -- public interface --
 
 	public void run() {
-		if (assigner1 != null) assigner1.assign();
-		if (assigner2 != null) assigner2.assign();
-		if (assigner3 != null) assigner3.assign();
+		if (isRowwise()) transformRows();
+		else {
+			if (assigner1 != null) assigner1.assign();
+			if (assigner2 != null) assigner2.assign();
+			if (assigner3 != null) assigner3.assign();
+		}
 		dataset.update();
 	}
 
@@ -158,6 +187,102 @@ public void run() {
 
 	// -- private helpers --
 
+	/**
+	 * Returns true if the row engine can do the transform: the operation must
+	 * produce real values, and 64-bit integers are left to the assigners since
+	 * rows pass through doubles.
+	 */
+	private boolean isRowwise() {
+		if (!(outType instanceof RealType)) return false;
+		if (dataset.isInteger() && dataset.getType().getBitsPerPixel() > 32) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Transforms the region a row at a time, dividing the rows of every plane
+	 * within the region among several threads. Types packing several pixels
+	 * into each storage word are only divided by whole planes of planar images,
+	 * and are otherwise transformed on one thread.
+	 */
+	private void transformRows() {
+		final ImgPlus<? extends RealType<?>> img = dataset.getImgPlus();
+		final int xIndex = dataset.getAxisIndex(Axes.X);
+		final int yIndex = dataset.getAxisIndex(Axes.Y);
+		final int x0 = (int) Math.max(0, rowOrigin[xIndex]);
+		final int x1 =
+			(int) Math.min(img.dimension(xIndex), rowOrigin[xIndex] +
+				rowSpan[xIndex]);
+		final int y0 = (int) Math.max(0, rowOrigin[yIndex]);
+		final int y1 =
+			(int) Math.min(img.dimension(yIndex), rowOrigin[yIndex] +
+				rowSpan[yIndex]);
+		final int height = y1 - y0;
+		if (x0 >= x1 || height <= 0) return;
+
+		// the other axes, lowest first, as RowAccess numbers planes
+		final int numDims = img.numDimensions();
+		final int[] planeAxes = new int[numDims - 2];
+		for (int d = 0, i = 0; d < numDims; d++) {
+			if (d != xIndex && d != yIndex) planeAxes[i++] = d;
+		}
+		long planes = 1;
+		for (final int d : planeAxes) {
+			planes *= rowSpan[d];
+		}
+		final long planeCount = planes;
+		if (planeCount <= 0) return;
+
+		// NB - packed types may only be split between threads by whole planes
+		final boolean byRows = RowAccess.canWriteRowsInParallel(img);
+		final int rowsPerUnit = byRows ? 1 : height;
+		final int threads =
+			byRows || RowAccess.canWritePlanesInParallel(img, xIndex, yIndex)
+				? ParallelLoop.getThreadCount(dataset.getContext()) : 1;
+		ParallelLoop.run(dataset.getContext(), planeCount * height / rowsPerUnit,
+			threads, new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count) {
+					final RowAccess rows = new RowAccess(img, xIndex, yIndex);
+					final double[] row = new double[rows.getWidth()];
+					final ComplexUnaryOperation<O,O> op = operation.copy();
+					final O in = outType.createVariable();
+					final O out = outType.createVariable();
+					final Condition<long[]> cond =
+						condition == null ? null : condition.copy();
+					final long[] position = new long[numDims];
+					final long first = start * rowsPerUnit;
+					final long last = (start + count) * rowsPerUnit;
+					for (long unit = first; unit < last; unit++) {
+						// find the plane and row within the region
+						long index = unit / height;
+						long plane = 0, stride = 1;
+						for (final int d : planeAxes) {
+							position[d] = rowOrigin[d] + index % rowSpan[d];
+							index /= rowSpan[d];
+							plane += position[d] * stride;
+							stride *= img.dimension(d);
+						}
+						final int y = y0 + (int) (unit % height);
+						position[yIndex] = y;
+						rows.read(plane, y, row);
+						for (int x = x0; x < x1; x++) {
+							if (cond != null) {
+								position[xIndex] = x;
+								if (!cond.isTrue(position)) continue;
+							}
+							in.setComplexNumber(row[x], 0);
+							op.compute(in, out);
+							row[x] = out.getRealDouble();
+						}
+						rows.write(plane, y, row);
+					}
+				}
+			});
+	}
+
 	/** All planes version */
 	private void setRegion(Dataset ds, Overlay overlay) {
 
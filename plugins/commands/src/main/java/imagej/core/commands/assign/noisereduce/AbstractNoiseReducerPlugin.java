@@ -106,6 +106,28 @@ public enum NeighborhoodType {RADIAL, RECTANGULAR}
 	public abstract Function<PointSet,DoubleType> getFunction(
 		Function<long[],DoubleType> otherFunc);
 
+	/**
+	 * Returns the rank this noise reducer picks from each neighborhood, or null
+	 * if it is not a rank filter. Rank filters over rectangular neighborhoods are
+	 * computed by a {@link RankFilter} rather than by evaluating
+	 * {@link #getFunction(Function)} at every point.
+	 */
+	public RankFilter.Rank getRank() {
+		return null;
+	}
+
+	/**
+	 * Returns a filter that computes the same values as
+	 * {@link #getFunction(Function)} over the given neighborhood in a single
+	 * sweep of each plane, or null if there is none. By default this is a
+	 * {@link RankFilter} for rank filters over rectangular neighborhoods.
+	 */
+	public RectangularFilter<U> getFilter(ImgPlus<U> img, PointSet neigh) {
+		RankFilter.Rank rank = getRank();
+		if (rank == null || !RectangularFilter.isSupported(img, neigh)) return null;
+		return new RankFilter<U>(img, neigh, rank);
+	}
+
 	@Override
 	public void run() {
 		Neighborhood neighborhood = determineNeighborhood(input.numDimensions());
@@ -118,8 +140,13 @@ public void run() {
 				new RealImageFunction<U,DoubleType>(inputImg, oobFactory, new DoubleType());
 		PointSet ps = neighborhood.getPoints();
 		Reducer<U,DoubleType> reducer =
-				new Reducer<U,DoubleType>(context, inputImg, getFunction(otherFunc), ps);
-		output = reducer.reduceNoise(neighborhood.getDescription());
+				new Reducer<U,DoubleType>(context, inputImg, getFunction(otherFunc),
+					neighborhood);
+		RectangularFilter<U> filter = getFilter(inputImg, ps);
+		if (filter != null) {
+			output = reducer.reduceNoise(neighborhood.getDescription(), filter);
+		}
+		else output = reducer.reduceNoise(neighborhood.getDescription());
 	}
 
 	public void setInput(Dataset ds) {
@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package imagej.core.commands.assign.noisereduce;
+
+import imagej.data.RowAccess;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.ops.pointset.PointSet;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Computes the arithmetic mean over a rectangular XY neighborhood in time
+ * independent of its size. The filter is separable: each row's values are
+ * summed along X by a running sum that adds the column entering the window and
+ * subtracts the one leaving it, and the resulting row sums are accumulated
+ * along Y the same way, one row entering and one leaving per output row.
+ */
+public class BoxFilter<U extends RealType<U>> extends RectangularFilter<U> {
+
+	// -- constants --
+
+	/**
+	 * How many rows the column sums are slid before they are summed afresh, to
+	 * keep rounding from drifting on floating point data.
+	 */
+	private static final int RESUM_INTERVAL = 256;
+
+	// -- constructor --
+
+	/**
+	 * Creates a BoxFilter over a window. The window must be supported as
+	 * determined by {@link #isSupported(Img, PointSet)}.
+	 */
+	public BoxFilter(final ImgPlus<U> input, final PointSet window) {
+		super(input, Collections.singletonList(window));
+	}
+
+	// -- RectangularFilter methods --
+
+	@Override
+	protected void filterRows(final RowAccess in, final RowAccess out,
+		final long plane, final int y0, final int y1)
+	{
+		final int width = in.getWidth();
+		final int height = in.getHeight();
+		final int[] xIndex = mirroredColumns(width);
+		final int lo = minY[0], hi = maxY[0];
+		final double n = (double) (maxX[0] - minX[0] + 1) * (hi - lo + 1);
+		final double[] row = new double[width];
+		final double[] columnSums = new double[width];
+		final double[] result = new double[width];
+		for (int y = y0; y < y1; y++) {
+			if ((y - y0) % RESUM_INTERVAL == 0) {
+				Arrays.fill(columnSums, 0);
+				for (int dy = lo; dy <= hi; dy++) {
+					in.read(plane, mirror(y + dy, height), row);
+					addRowSums(row, xIndex, columnSums, 1);
+				}
+			}
+			else {
+				in.read(plane, mirror(y - 1 + lo, height), row);
+				addRowSums(row, xIndex, columnSums, -1);
+				in.read(plane, mirror(y + hi, height), row);
+				addRowSums(row, xIndex, columnSums, 1);
+			}
+			for (int x = 0; x < width; x++) {
+				result[x] = columnSums[x] / n;
+			}
+			out.write(plane, y, result);
+		}
+	}
+
+	// -- private helpers --
+
+	/**
+	 * Adds (sign 1) or subtracts (sign -1) the window sums along X of a row to
+	 * the column sums.
+	 */
+	private void addRowSums(final double[] row, final int[] xIndex,
+		final double[] columnSums, final int sign)
+	{
+		// the window of x spans xIndex[x + minX - loX] to xIndex[x + maxX - loX]
+		final int first = minX[0] - loX, last = maxX[0] - loX;
+		double sum = 0;
+		for (int i = first; i <= last; i++) {
+			sum += row[xIndex[i]];
+		}
+		final int width = columnSums.length;
+		for (int x = 0; x < width; x++) {
+			columnSums[x] += sign * sum;
+			if (x + 1 < width) {
+				sum += row[xIndex[x + 1 + last]] - row[xIndex[x + first]];
+			}
+		}
+	}
+
+}
@@ -45,4 +45,10 @@
 public interface Neighborhood {
 	public PointSet getPoints();
 	public String getDescription();
+
+	/**
+	 * Creates an equivalent Neighborhood whose points share no state with this
+	 * one, so that each thread of a parallel computation can move its own.
+	 */
+	public Neighborhood copy();
 }
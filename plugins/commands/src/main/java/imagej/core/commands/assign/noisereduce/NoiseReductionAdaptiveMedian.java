@@ -119,7 +119,12 @@ public void run() {
 		final Reducer<U, DoubleType> reducer =
 			new Reducer<U, DoubleType>(context, inputImg, getFunction(otherFunc,
 				pointSets), pointSets.get(0));
-		output = reducer.reduceNoise("Adaptive window neighborhood");
+		if (RankFilter.isSupported(inputImg, pointSets)) {
+			final RankFilter<U> filter =
+				new RankFilter<U>(inputImg, pointSets, RankFilter.Rank.ADAPTIVE_MEDIAN);
+			output = reducer.reduceNoise("Adaptive window neighborhood", filter);
+		}
+		else output = reducer.reduceNoise("Adaptive window neighborhood");
 	}
 
 	// -- private helpers --
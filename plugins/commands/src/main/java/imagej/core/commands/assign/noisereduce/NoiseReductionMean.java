@@ -37,6 +37,7 @@
 
 import imagej.command.Command;
 import imagej.menu.MenuConstants;
+import net.imglib2.img.ImgPlus;
 import net.imglib2.ops.function.Function;
 import net.imglib2.ops.function.real.RealArithmeticMeanFunction;
 import net.imglib2.ops.pointset.PointSet;
@@ -70,4 +71,12 @@ public Function<PointSet, DoubleType> getFunction(
 		return new RealArithmeticMeanFunction<DoubleType>(otherFunc);
 	}
 
+	@Override
+	public RectangularFilter<T> getFilter(final ImgPlus<T> img,
+		final PointSet neigh)
+	{
+		if (!RectangularFilter.isSupported(img, neigh)) return null;
+		return new BoxFilter<T>(img, neigh);
+	}
+
 }
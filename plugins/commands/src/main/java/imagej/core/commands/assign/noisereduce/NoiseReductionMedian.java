@@ -68,4 +68,9 @@ public Function<PointSet, DoubleType> getFunction(
 		return new RealMedianFunction<DoubleType>(otherFunc);
 	}
 
+	@Override
+	public RankFilter.Rank getRank() {
+		return RankFilter.Rank.MEDIAN;
+	}
+
 }
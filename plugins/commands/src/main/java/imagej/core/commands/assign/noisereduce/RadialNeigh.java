@@ -77,4 +77,13 @@ public String getDescription() {
 			" pixel radial neighborhood";
 	}
 
+	/**
+	 * Creates a new RadialNeigh of the same size. Its condition measures the
+	 * distance from the origin of its own space rather than of this one's.
+	 */
+	@Override
+	public RadialNeigh copy() {
+		return new RadialNeigh(numDims, radius);
+	}
+
 }
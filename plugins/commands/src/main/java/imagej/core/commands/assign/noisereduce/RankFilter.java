@@ -0,0 +1,416 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package imagej.core.commands.assign.noisereduce;
+
+import imagej.data.RowAccess;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.ops.pointset.PointSet;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Computes rank filters (minimum, median, maximum and adaptive median) over
+ * rectangular XY neighborhoods. Rather than gathering and sorting a fresh
+ * neighborhood at every point, a window slides along each row: one column of
+ * values leaves it and one enters it per step. Integer data whose range within
+ * a plane is small enough is kept in a histogram whose rank lookups only move
+ * as far as the ranked value moves (Huang's method); other data is kept in a
+ * sorted array.
+ */
+public class RankFilter<U extends RealType<U>> extends
+	RectangularFilter<U>
+{
+
+	// -- constants --
+
+	/** The statistics a RankFilter can compute. */
+	public enum Rank {
+		MINIMUM, MEDIAN, MAXIMUM,
+
+		/**
+		 * The adaptive median of Gonzalez and Woods: the center value is kept
+		 * unless it is an extreme of the smallest window whose median is not, in
+		 * which case it is replaced by that median. If every window's median is an
+		 * extreme, the median of the largest window is used.
+		 */
+		ADAPTIVE_MEDIAN
+	}
+
+	/** The largest number of histogram bins used for integer data. */
+	private static final int MAX_BINS = 1 << 16;
+
+	/** The cursors used to look up the low, middle and high ranks. */
+	private static final int LOW = 0, MIDDLE = 1, HIGH = 2;
+
+	// -- instance variables --
+
+	private final Rank rank;
+
+	// -- constructors --
+
+	/**
+	 * Creates a RankFilter over a single window. The window must be supported as
+	 * determined by {@link #isSupported(Img, List)}.
+	 */
+	public RankFilter(final ImgPlus<U> input, final PointSet window,
+		final Rank rank)
+	{
+		this(input, Collections.singletonList(window), rank);
+	}
+
+	/**
+	 * Creates a RankFilter over a list of windows of increasing size. All but
+	 * {@link Rank#ADAPTIVE_MEDIAN} only use the first window.
+	 */
+	public RankFilter(final ImgPlus<U> input, final List<PointSet> windows,
+		final Rank rank)
+	{
+		super(input, rank == Rank.ADAPTIVE_MEDIAN ? windows : windows.subList(0,
+			Math.min(1, windows.size())));
+		this.rank = rank;
+	}
+
+	// -- RectangularFilter methods --
+
+	@Override
+	protected void filterRows(final RowAccess in, final RowAccess out,
+		final long plane, final int y0, final int y1)
+	{
+		final int width = in.getWidth();
+		final int height = in.getHeight();
+		final Window[] windows = createWindows(in, plane, y0, y1);
+		final int[] xIndex = mirroredColumns(width);
+		final double[][] rows = new double[height][];
+		final int[] lastUse = new int[height];
+		final ArrayDeque<double[]> free = new ArrayDeque<double[]>();
+		final double[] result = new double[width];
+		final double[][][] windowRows = new double[windows.length][][];
+		for (int l = 0; l < windows.length; l++) {
+			windowRows[l] = new double[maxY[l] - minY[l] + 1][];
+		}
+		for (int y = y0; y < y1; y++) {
+			for (int dy = loY; dy <= hiY; dy++) {
+				final int r = mirror(y + dy, height);
+				if (rows[r] == null) {
+					rows[r] = free.isEmpty() ? new double[width] : free.pop();
+					in.read(plane, r, rows[r]);
+				}
+			}
+			final double[] center = rows[y];
+			for (int l = 0; l < windows.length; l++) {
+				final double[][] rowsOfWindow = windowRows[l];
+				for (int i = 0; i < rowsOfWindow.length; i++) {
+					rowsOfWindow[i] = rows[mirror(y + minY[l] + i, height)];
+				}
+				final Window window = windows[l];
+				window.clear();
+				for (final double[] row : rowsOfWindow) {
+					for (int dx = minX[l]; dx <= maxX[l]; dx++) {
+						window.add(row[xIndex[dx - loX]]);
+					}
+				}
+			}
+			for (int x = 0; x < width; x++) {
+				result[x] = value(windows, center[x]);
+				if (x == width - 1) break;
+				for (int l = 0; l < windows.length; l++) {
+					final Window window = windows[l];
+					final int leaving = xIndex[x + minX[l] - loX];
+					final int entering = xIndex[x + 1 + maxX[l] - loX];
+					for (final double[] row : windowRows[l]) {
+						window.remove(row[leaving]);
+						window.add(row[entering]);
+					}
+				}
+			}
+			out.write(plane, y, result);
+			// release the rows the next output row does not need
+			for (int dy = loY; dy <= hiY; dy++) {
+				lastUse[mirror(y + 1 + dy, height)] = y + 1;
+			}
+			for (int dy = loY; dy <= hiY; dy++) {
+				final int r = mirror(y + dy, height);
+				if (rows[r] != null && lastUse[r] != y + 1) {
+					free.push(rows[r]);
+					rows[r] = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates the windows for filtering a band of rows. For integer data the
+	 * rows the band reads are scanned first to size a histogram.
+	 */
+	// -- private helpers --
+
+	private Window[] createWindows(final RowAccess in, final long plane,
+		final int y0, final int y1)
+	{
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		final boolean integer = input.firstElement() instanceof IntegerType;
+		if (integer) {
+			final int height = in.getHeight();
+			final boolean[] scanned = new boolean[height];
+			final double[] row = new double[in.getWidth()];
+			for (int y = y0 + loY; y < y1 + hiY; y++) {
+				final int r = mirror(y, height);
+				if (scanned[r]) continue;
+				scanned[r] = true;
+				in.read(plane, r, row);
+				for (final double v : row) {
+					if (v < min) min = v;
+					if (v > max) max = v;
+				}
+			}
+		}
+		final Window[] windows = new Window[minX.length];
+		for (int l = 0; l < windows.length; l++) {
+			if (integer && max - min < MAX_BINS) {
+				final int cursors = rank == Rank.ADAPTIVE_MEDIAN ? 3 : 1;
+				windows[l] = new HistogramWindow(min, (int) (max - min) + 1, cursors);
+			}
+			else {
+				final int size = (maxX[l] - minX[l] + 1) * (maxY[l] - minY[l] + 1);
+				windows[l] = new SortedWindow(size);
+			}
+		}
+		return windows;
+	}
+
+	private double value(final Window[] windows, final double center) {
+		switch (rank) {
+			case MINIMUM:
+				return windows[0].get(0, 0);
+			case MAXIMUM:
+				return windows[0].get(windows[0].size() - 1, 0);
+			case MEDIAN:
+				return median(windows[0], 0);
+			default:
+				double zMed = Double.NaN;
+				for (final Window window : windows) {
+					final double zMin = window.get(0, LOW);
+					final double zMax = window.get(window.size() - 1, HIGH);
+					zMed = median(window, MIDDLE);
+					if (zMin < zMed && zMed < zMax) {
+						if (zMin < center && center < zMax) return center;
+						return zMed;
+					}
+				}
+				return zMed;
+		}
+	}
+
+	/** Gets the median of a window; the mean of the middle two if even. */
+	private double median(final Window window, final int cursor) {
+		final int size = window.size();
+		final int half = size / 2;
+		if (size % 2 == 1) return window.get(half, cursor);
+		return (window.get(half - 1, cursor) + window.get(half, cursor)) / 2;
+	}
+
+	// -- helper classes --
+
+	/** A multiset of values that can be queried by rank. */
+	private interface Window {
+
+		void clear();
+
+		void add(double value);
+
+		void remove(double value);
+
+		int size();
+
+		/**
+		 * Gets the value of the given rank, counting from zero. Successive lookups
+		 * that pass the same cursor are cheap when the rank's value moves little.
+		 */
+		double get(int rank, int cursor);
+	}
+
+	/**
+	 * A window of integer values counted in a histogram. Bins are grouped in
+	 * blocks whose totals are also kept, so that a cursor can skip over whole
+	 * blocks when the ranked value moves far.
+	 */
+	private static class HistogramWindow implements Window {
+
+		private static final int SHIFT = 4;
+		private static final int BLOCK = 1 << SHIFT;
+		private static final int MASK = BLOCK - 1;
+
+		private final double min;
+		private final int[] counts;
+		private final int[] blockCounts;
+		private final int[] cursorBin;
+		private final int[] cursorBelow;
+		private int size;
+
+		public HistogramWindow(final double min, final int bins,
+			final int cursors)
+		{
+			this.min = min;
+			cursorBin = new int[cursors];
+			cursorBelow = new int[cursors];
+			final int blocks = (bins + MASK) >> SHIFT;
+			counts = new int[blocks << SHIFT];
+			blockCounts = new int[blocks];
+		}
+
+		@Override
+		public void clear() {
+			Arrays.fill(counts, 0);
+			Arrays.fill(blockCounts, 0);
+			Arrays.fill(cursorBin, 0);
+			Arrays.fill(cursorBelow, 0);
+			size = 0;
+		}
+
+		@Override
+		public void add(final double value) {
+			final int bin = (int) (value - min);
+			counts[bin]++;
+			blockCounts[bin >> SHIFT]++;
+			size++;
+			for (int c = 0; c < cursorBin.length; c++) {
+				if (bin < cursorBin[c]) cursorBelow[c]++;
+			}
+		}
+
+		@Override
+		public void remove(final double value) {
+			final int bin = (int) (value - min);
+			counts[bin]--;
+			blockCounts[bin >> SHIFT]--;
+			size--;
+			for (int c = 0; c < cursorBin.length; c++) {
+				if (bin < cursorBin[c]) cursorBelow[c]--;
+			}
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public double get(final int rank, final int cursor) {
+			// NB - below is always the number of values in bins before bin
+			int bin = cursorBin[cursor];
+			int below = cursorBelow[cursor];
+			while (below > rank) {
+				if ((bin & MASK) == 0) {
+					final int previous = blockCounts[(bin >> SHIFT) - 1];
+					if (below - previous > rank) {
+						below -= previous;
+						bin -= BLOCK;
+						continue;
+					}
+				}
+				bin--;
+				below -= counts[bin];
+			}
+			while (below + counts[bin] <= rank) {
+				if ((bin & MASK) == 0) {
+					final int current = blockCounts[bin >> SHIFT];
+					if (below + current <= rank) {
+						below += current;
+						bin += BLOCK;
+						continue;
+					}
+				}
+				below += counts[bin];
+				bin++;
+			}
+			cursorBin[cursor] = bin;
+			cursorBelow[cursor] = below;
+			return min + bin;
+		}
+	}
+
+	/** A window of values kept in sorted order. */
+	private static class SortedWindow implements Window {
+
+		private final double[] values;
+		private int size;
+
+		public SortedWindow(final int capacity) {
+			values = new double[capacity];
+		}
+
+		@Override
+		public void clear() {
+			size = 0;
+		}
+
+		@Override
+		public void add(final double value) {
+			int pos = Arrays.binarySearch(values, 0, size, value);
+			if (pos < 0) pos = -pos - 1;
+			System.arraycopy(values, pos, values, pos + 1, size - pos);
+			values[pos] = value;
+			size++;
+		}
+
+		@Override
+		public void remove(final double value) {
+			final int pos = Arrays.binarySearch(values, 0, size, value);
+			if (pos < 0) return;
+			System.arraycopy(values, pos + 1, values, pos, size - pos - 1);
+			size--;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public double get(final int rank, final int cursor) {
+			return values[rank];
+		}
+	}
+
+}
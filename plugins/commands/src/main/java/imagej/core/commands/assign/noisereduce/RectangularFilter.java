@@ -0,0 +1,233 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package imagej.core.commands.assign.noisereduce;
+
+import imagej.data.ParallelLoop;
+import imagej.data.PlaneStorage;
+import imagej.data.RowAccess;
+
+import java.util.Collections;
+import java.util.List;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.ops.pointset.HyperVolumePointSet;
+import net.imglib2.ops.pointset.PointSet;
+import net.imglib2.type.numeric.RealType;
+
+import org.scijava.Context;
+
+/**
+ * Base class for filters over rectangular XY neighborhoods that work a row at
+ * a time rather than visiting each neighborhood anew. Neighborhoods extending
+ * past the edges of a plane are mirrored with the edge values doubled, as
+ * {@link AbstractNoiseReducerPlugin} does for the general case.
+ */
+public abstract class RectangularFilter<U extends RealType<U>> {
+
+	// -- constants --
+
+	/** The fewest rows worth giving a thread of their own. */
+	private static final int MIN_BAND_HEIGHT = 16;
+
+	// -- instance variables --
+
+	protected final ImgPlus<U> input;
+
+	/** The offsets of each window's edges from its origin. */
+	protected final int[] minX, maxX, minY, maxY;
+
+	/** The offsets of the edges of the union of the windows and the origin. */
+	protected final int loX, hiX, loY, hiY;
+
+	// -- constructor --
+
+	/**
+	 * Creates a filter over the given windows. The windows must be supported as
+	 * determined by {@link #isSupported(Img, List)}.
+	 */
+	protected RectangularFilter(final ImgPlus<U> input,
+		final List<PointSet> windows)
+	{
+		if (!isSupported(input, windows)) {
+			throw new IllegalArgumentException("Unsupported neighborhood");
+		}
+		this.input = input;
+		final int levels = windows.size();
+		minX = new int[levels];
+		maxX = new int[levels];
+		minY = new int[levels];
+		maxY = new int[levels];
+		int lx = 0, hx = 0, ly = 0, hy = 0;
+		for (int l = 0; l < levels; l++) {
+			final PointSet window = windows.get(l);
+			final long[] origin = window.getOrigin();
+			final long[] min = window.findBoundMin();
+			final long[] max = window.findBoundMax();
+			minX[l] = (int) (min[0] - origin[0]);
+			maxX[l] = (int) (max[0] - origin[0]);
+			if (origin.length > 1) {
+				minY[l] = (int) (min[1] - origin[1]);
+				maxY[l] = (int) (max[1] - origin[1]);
+			}
+			lx = Math.min(lx, minX[l]);
+			hx = Math.max(hx, maxX[l]);
+			ly = Math.min(ly, minY[l]);
+			hy = Math.max(hy, maxY[l]);
+		}
+		loX = lx;
+		hiX = hx;
+		loY = ly;
+		hiY = hy;
+	}
+
+	// -- RectangularFilter methods --
+
+	/**
+	 * Returns true if every window is a {@link HyperVolumePointSet} of the same
+	 * dimensionality as the image that only extends along X and Y.
+	 */
+	public static boolean isSupported(final Img<?> img,
+		final List<PointSet> windows)
+	{
+		if (windows.isEmpty()) return false;
+		for (final PointSet window : windows) {
+			if (!(window instanceof HyperVolumePointSet)) return false;
+			if (window.numDimensions() != img.numDimensions()) return false;
+			final long[] origin = window.getOrigin();
+			final long[] min = window.findBoundMin();
+			final long[] max = window.findBoundMax();
+			for (int d = 0; d < origin.length; d++) {
+				final long lo = min[d] - origin[d];
+				final long hi = max[d] - origin[d];
+				if (d >= 2 && (lo != 0 || hi != 0)) return false;
+				if (lo < Integer.MIN_VALUE / 4 || hi > Integer.MAX_VALUE / 4) {
+					return false;
+				}
+			}
+		}
+		for (int d = 0; d < Math.min(2, img.numDimensions()); d++) {
+			if (img.dimension(d) > Integer.MAX_VALUE / 2) return false;
+		}
+		return true;
+	}
+
+	/** Returns true if the window is supported; see above. */
+	public static boolean isSupported(final Img<?> img, final PointSet window) {
+		return isSupported(img, Collections.singletonList(window));
+	}
+
+	/** Filters the input image into a new image of the same type. */
+	public ImgPlus<U> filter() {
+		return filter(null, 1);
+	}
+
+	/**
+	 * Filters the input image into a new image of the same type, using up to
+	 * the given number of threads of the given context. Planes are divided among
+	 * the threads, and when there are fewer planes than threads so are bands of
+	 * rows. Types packing several pixels into each storage word are only divided
+	 * by whole planes of planar images, and are otherwise filtered on one
+	 * thread.
+	 */
+	public ImgPlus<U> filter(final Context context, final int threadCount) {
+		final long[] dims = new long[input.numDimensions()];
+		input.dimensions(dims);
+		final Img<U> img = input.factory().create(dims, input.firstElement());
+		final ImgPlus<U> output = new ImgPlus<U>(img, input);
+		final long planeCount = PlaneStorage.getPlaneCount(input);
+		final int height = dims.length > 1 ? (int) dims[1] : 1;
+		final int threads =
+			RowAccess.canWritePlanesInParallel(output, 0, 1) ? threadCount : 1;
+		int bands = 1;
+		if (planeCount < threads && RowAccess.canWriteRowsInParallel(output)) {
+			final int wanted = (int) ((threads + planeCount - 1) / planeCount);
+			bands = Math.max(1, Math.min(wanted, height / MIN_BAND_HEIGHT));
+		}
+		final int bandCount = bands;
+		final int bandHeight = (height + bandCount - 1) / bandCount;
+		final ParallelLoop.Body body = new ParallelLoop.Body() {
+
+			@Override
+			public void run(final int chunk, final long start, final long count) {
+				final RowAccess in = new RowAccess(input);
+				final RowAccess out = new RowAccess(output);
+				for (long unit = start; unit < start + count; unit++) {
+					final long plane = unit / bandCount;
+					final int y0 = (int) (unit % bandCount) * bandHeight;
+					final int y1 = Math.min(height, y0 + bandHeight);
+					if (y0 < y1) filterRows(in, out, plane, y0, y1);
+				}
+			}
+		};
+		ParallelLoop.run(context, planeCount * bandCount, threads, body);
+		return output;
+	}
+
+	// -- internal methods --
+
+	/**
+	 * Filters the rows from y0 up to but not including y1 of a plane. Called on
+	 * several threads at once, each with its own RowAccess objects.
+	 */
+	protected abstract void filterRows(RowAccess in, RowAccess out, long plane,
+		int y0, int y1);
+
+	/**
+	 * Gets the mirrored column of every X from {@link #loX} up to the width plus
+	 * {@link #hiX}, indexed from zero.
+	 */
+	protected int[] mirroredColumns(final int width) {
+		final int[] columns = new int[width + hiX - loX];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = mirror(i + loX, width);
+		}
+		return columns;
+	}
+
+	/**
+	 * Mirrors an index into the range 0 to size - 1, doubling the edge values
+	 * (..., 1, 0, 0, 1, ..., size - 1, size - 1, ...).
+	 */
+	protected static int mirror(final int index, final int size) {
+		if (size == 1) return 0;
+		final int period = 2 * size;
+		int m = index % period;
+		if (m < 0) m += period;
+		return m < size ? m : period - 1 - m;
+	}
+
+}
@@ -37,6 +37,12 @@
 
 import imagej.data.Dataset;
 import imagej.data.DefaultDataset;
+import imagej.data.ParallelLoop;
+import imagej.data.RowAccess;
+import imagej.data.measure.RegionBlocks;
+
+import java.util.List;
+
 import net.imglib2.img.ImgPlus;
 import net.imglib2.ops.function.Function;
 import net.imglib2.ops.img.SerialImageAssignment;
@@ -61,6 +67,8 @@
 	
 	private final PointSet neighborhood;
 	
+	private final Neighborhood neighborhoodSource;
+	
 	private final ImgPlus<U> input;
 
 	private final StatusService statusService; 
@@ -70,20 +78,38 @@
 	
 	public Reducer(Context context, ImgPlus<U> input, Function<PointSet,V> func,
 		PointSet neighborhood)
+	{
+		this(context, input, func, neighborhood, null);
+	}
+
+	/**
+	 * Creates a Reducer that can work on several threads. Each thread gets its
+	 * own copy of the neighborhood and of the function.
+	 */
+	public Reducer(Context context, ImgPlus<U> input, Function<PointSet,V> func,
+		Neighborhood neighborhood)
+	{
+		this(context, input, func, neighborhood.getPoints(), neighborhood);
+	}
+
+	private Reducer(Context context, ImgPlus<U> input, Function<PointSet,V> func,
+		PointSet neighborhood, Neighborhood neighborhoodSource)
 	{
 		this.context = context;
 		this.input = input;
 		this.inputFunction = func;
 		this.neighborhood = neighborhood;
+		this.neighborhoodSource = neighborhoodSource;
 		this.statusService = context.getService(StatusService.class);
 	}
 
 	// NOTE - because the neighborhood could be a spherical neighborhood that
-	// relies on a WithinRadiusOfPointCondition we cannot parallelize this
-	// algorithm. If we did we'd get one point per Thread with only one being
+	// relies on a WithinRadiusOfPointCondition we cannot share it between
+	// threads. If we did we'd get one point per Thread with only one being
 	// updated correctly. One can see by trial that using a regular
 	// ImageAssignment here results in only a portion of the image getting noise
-	// reduced.
+	// reduced. So when we know the Neighborhood we split the image into blocks
+	// and give each thread its own copy of it; otherwise we work serially.
 	
 	public Dataset reduceNoise(String neighDescrip) {
 		notifyUserAtStart(neighDescrip);
@@ -91,27 +117,89 @@ public Dataset reduceNoise(String neighDescrip) {
 		long[] dims = new long[newImg.numDimensions()];
 		newImg.dimensions(dims);
 		PointSet space = new HyperVolumePointSet(dims);
-		PointSetInputIterator inputIterator =
-				new PointSetInputIterator(space, neighborhood);
-		long[] outputOrigin = new long[input.numDimensions()];
-		long[] outputSpan = outputOrigin.clone();
-		input.dimensions(outputSpan);
-		// NB - regular ImageAssignement won't work here for radial neighborhood due
-		// to the duplication of neighborhoods for parallelization and its
-		// interference with the WithinRadiusOfPointSetOriginCondition.
-		SerialImageAssignment<U,V,PointSet> assigner =
-				new SerialImageAssignment<U,V,PointSet>(
-					newImg,
-					inputFunction,
-					inputIterator,
-					null);
-		assigner.assign();
+		if (neighborhoodSource != null) {
+			assignInParallel(newImg, space);
+		}
+		else {
+			PointSetInputIterator inputIterator =
+					new PointSetInputIterator(space, neighborhood);
+			// NB - regular ImageAssignement won't work here for radial neighborhood
+			// due to the duplication of neighborhoods for parallelization and its
+			// interference with the WithinRadiusOfPointSetOriginCondition.
+			SerialImageAssignment<U,V,PointSet> assigner =
+					new SerialImageAssignment<U,V,PointSet>(
+						newImg,
+						inputFunction,
+						inputIterator,
+						null);
+			assigner.assign();
+		}
+		notifyUserAtEnd(neighDescrip);
+		return new DefaultDataset(context, newImg);
+	}
+
+	/**
+	 * Reduces noise with a {@link RectangularFilter}, which computes the same
+	 * values as the function it stands in for without visiting each
+	 * neighborhood anew.
+	 */
+	public Dataset reduceNoise(String neighDescrip, RectangularFilter<U> filter)
+	{
+		notifyUserAtStart(neighDescrip);
+		ImgPlus<U> newImg = filter.filter(context, ParallelLoop
+			.getThreadCount(context));
 		notifyUserAtEnd(neighDescrip);
 		return new DefaultDataset(context, newImg);
 	}
 
 	// -- private interface --
 	
+	/**
+	 * Assigns each block of the output space on its own thread, serially
+	 * within the block, with a fresh neighborhood per block.
+	 */
+	private void assignInParallel(final ImgPlus<U> newImg, PointSet space) {
+		final List<PointSet> blocks = RegionBlocks.split(space);
+		final int threads =
+			canAssignBlocksInParallel(newImg) ? ParallelLoop
+				.getThreadCount(context) : 1;
+		ParallelLoop.run(context, blocks.size(), threads, new ParallelLoop.Body() {
+
+			@Override
+			public void run(int chunk, long start, long count) {
+				Function<PointSet,V> func = inputFunction.copy();
+				for (int b = (int) start; b < start + count; b++) {
+					PointSet neigh = neighborhoodSource.copy().getPoints();
+					PointSetInputIterator inputIterator =
+							new PointSetInputIterator(blocks.get(b), neigh);
+					SerialImageAssignment<U,V,PointSet> assigner =
+							new SerialImageAssignment<U,V,PointSet>(
+								newImg,
+								func,
+								inputIterator,
+								null);
+					assigner.assign();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns true if the blocks of an image can be assigned on separate threads.
+	 * The blocks are slices along the slowest varying axis that has more than one
+	 * position, so for types packing several pixels into each storage word they
+	 * must be whole planes of a planar image.
+	 */
+	private boolean canAssignBlocksInParallel(final ImgPlus<U> img) {
+		if (RowAccess.canWriteRowsInParallel(img)) return true;
+		for (int d = img.numDimensions() - 1; d >= 2; d--) {
+			if (img.dimension(d) > 1) {
+				return RowAccess.canWritePlanesInParallel(img, 0, 1);
+			}
+		}
+		return false;
+	}
+
 	private void notifyUserAtStart(String neighDescrip) {
 		if (statusService != null)
 			statusService.showStatus(neighDescrip + " ... beginning processing");
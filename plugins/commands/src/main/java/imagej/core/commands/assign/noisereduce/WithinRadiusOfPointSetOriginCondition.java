@@ -73,10 +73,9 @@ public boolean isTrue(final long[] val) {
 
 	@Override
 	public WithinRadiusOfPointSetOriginCondition copy() {
-		// TODO - there is some question as to whether this should copy space or not
-		// As it is I think this class only works with SerialImageAssignments. It
-		// may misbehave when used with regular parallel ImageAssignments. However
-		// it can also be used outside of assignment code as it is a valid condition
+		// NB - the copy still measures from the origin of the same space, so it
+		// cannot follow a copied space around. Parallel code should instead make
+		// a whole new neighborhood per thread via RadialNeigh.copy().
 		return new WithinRadiusOfPointSetOriginCondition(radius, pointSet);
 	}
 
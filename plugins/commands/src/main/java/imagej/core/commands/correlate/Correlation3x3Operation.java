@@ -35,8 +35,6 @@
 
 package imagej.core.commands.correlate;
 
-import imagej.core.commands.neigh.Neighborhood3x3Operation;
-import imagej.core.commands.neigh.Neighborhood3x3Watcher;
 import imagej.data.Dataset;
 import imagej.util.RealRect;
 
@@ -45,7 +43,7 @@
  * kernel as input. Kernel is actually stored as a 1-D array such that
  * {0,1,2,3,4,5,6,7,8} implies this shape: {{0,1,2},{3,4,5},{6,7,8}}. This class
  * is used by the various Shadow implementations, SharpenDataValues,
- * SmoothDataValues, etc.
+ * SmoothDataValues, etc. The work is done by a {@link CorrelationOperation}.
  * 
  * @author Barry DeZonia
  */
@@ -54,15 +52,9 @@ public class Correlation3x3Operation {
 	// -- instance variables --
 
 	/**
-	 * The kernel to correlate an input Dataset by
+	 * The correlation that will run on the input Dataset
 	 */
-	private final double[] kernel;
-
-	/**
-	 * The 3x3 operation that will run on the input Dataset and call back this
-	 * class as needed
-	 */
-	private final Neighborhood3x3Operation neighOperation;
+	private final CorrelationOperation operation;
 
 	// -- constructor --
 
@@ -73,13 +65,12 @@ public class Correlation3x3Operation {
 	public Correlation3x3Operation(final Dataset input, final RealRect selection,
 		final double[] kernel)
 	{
-		this.kernel = kernel;
-		this.neighOperation =
-			new Neighborhood3x3Operation(input, selection,
-				new CorrelateWatcher(input));
-
 		if (kernel.length != 9) throw new IllegalArgumentException(
 			"kernel must contain nine elements (shaped 3x3)");
+
+		operation = new CorrelationOperation(input, kernel, 3, 3);
+		operation.setAxes(0, 1);
+		operation.setSelection(selection);
 	}
 
 	// -- public interface --
@@ -88,76 +79,7 @@ public Correlation3x3Operation(final Dataset input, final RealRect selection,
 	 * Runs the correlation and replaces pixels in place with correlated values
 	 */
 	public void run() {
-		neighOperation.run();
-	}
-
-	// -- private interface --
-
-	/**
-	 * CorrelateWatcher is where the actual correlation value of one output pixel
-	 * is calculated. The watcher is called from Neighborhood3x3Operation visiting
-	 * each pixel in the input image (and all its immediate neighbors) once.
-	 * CorrelateWatcher tallies that information and returns appropriate values as
-	 * necessary.
-	 */
-	private class CorrelateWatcher implements Neighborhood3x3Watcher {
-
-		private double scale;
-		private double sum;
-		private final boolean integerDataset;
-		private final double typeMinValue;
-		private final double typeMaxValue;
-
-		public CorrelateWatcher(final Dataset ds) {
-			integerDataset = ds.isInteger();
-			typeMinValue = ds.getType().getMinValue();
-			typeMaxValue = ds.getType().getMaxValue();
-		}
-
-		/** Precalculates the kernel scale for use later. */
-		@Override
-		public void setup() {
-			scale = 0;
-			for (int i = 0; i < kernel.length; i++)
-				scale += kernel[i];
-			if (scale == 0) scale = 1;
-		}
-
-		/** At each new neighborhood reset its value sum to 0. */
-		@Override
-		public void initializeNeighborhood(final long[] position) {
-			sum = 0;
-		}
-
-		/**
-		 * For each pixel visited in the 3x3 neighborhood add the kernel scaled
-		 * value.
-		 */
-		@Override
-		public void visitLocation(final int dx, final int dy, final double value) {
-			final int index = (dy + 1) * (3) + (dx + 1);
-			sum += value * kernel[index];
-		}
-
-		/**
-		 * Called after all pixels in neighborhood visited - divide the sum by the
-		 * kernel scale.
-		 */
-		@Override
-		public double calcOutputValue() {
-			double value;
-
-			if (integerDataset) {
-				value = (sum + (scale / 2)) / scale;
-				if (value < typeMinValue) value = typeMinValue;
-				if (value > typeMaxValue) value = typeMaxValue;
-			}
-			else {
-				value = sum / scale;
-			}
-			return value;
-		}
-
+		operation.run();
 	}
 
 }
@@ -0,0 +1,741 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package imagej.core.commands.correlate;
+
+import imagej.data.Dataset;
+import imagej.data.ParallelLoop;
+import imagej.data.RowAccess;
+import imagej.data.overlay.Overlay;
+import imagej.util.RealRect;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.imglib2.img.ImgPlus;
+import net.imglib2.meta.Axes;
+import net.imglib2.ops.condition.Condition;
+import net.imglib2.ops.condition.UVInsideRoiCondition;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * CorrelationOperation correlates the planes of a Dataset in place with a
+ * kernel of any size. The kernel is stored as a 1-D array of rows, so a 2x3
+ * kernel {0,1,2,3,4,5} implies this shape: {{0,1},{2,3},{4,5}}. Its origin is
+ * its center, rounding up and to the left for even sizes. Correlated sums are
+ * divided by the sum of the kernel (or 1 if that is zero), and integer results
+ * are rounded and clamped to the range of the type. Neighbors past the edges of
+ * a plane are mirrored as by an {@link OutOfBoundsMirrorFactory}, by default
+ * without doubling the edge values. Convolving is correlating with the kernel
+ * rotated by 180 degrees.
+ * <p>
+ * Sums are computed directly or, for large kernels, by Fourier transform. Done
+ * directly, kernels that are the outer product of a column and a row (rank
+ * one) are applied as a pass along the rows followed by a pass down the
+ * columns, sums are accumulated a block of columns at a time so each block
+ * stays in cache for the whole kernel, and planes are correlated in parallel
+ * (as are bands of rows within a plane when there are fewer planes than
+ * threads, and the type fills whole bytes). By Fourier transform, each plane
+ * is cut into overlapping tiles whose transforms are multiplied by the
+ * kernel's, and tiles are correlated in parallel.
+ * </p>
+ */
+public class CorrelationOperation {
+
+	// -- constants --
+
+	/** The fewest rows worth giving a thread of their own. */
+	private static final int MIN_BAND_HEIGHT = 16;
+
+	/** The number of columns whose sums are accumulated at a time. */
+	private static final int BLOCK_WIDTH = 1024;
+
+	/** How closely a kernel must match a rank one product to be separated. */
+	private static final double SEPARABLE_TOLERANCE = 1e-10;
+
+	/** The largest tile dimension used when correlating by Fourier transform. */
+	private static final int MAX_TILE_SIZE = 1024;
+
+	/** How correlated sums are computed. */
+	public enum Method {
+
+		/** Whichever of the others is expected to be faster for the kernel. */
+		AUTOMATIC,
+
+		/** By summing the weighted neighbors of each point. */
+		DIRECT,
+
+		/** By multiplying the Fourier transforms of tiles by the kernel's. */
+		FOURIER_TRANSFORM
+	}
+
+	// -- instance variables --
+
+	private final Dataset input;
+	private final double[] kernel;
+	private final int kernelWidth;
+	private final int kernelHeight;
+
+	/** The factors of a separable kernel; null if it is not separable. */
+	private final double[] rowKernel, columnKernel;
+
+	private final double scale;
+	private final boolean integerDataset;
+	private final boolean integerKernel;
+	private final double typeMinValue;
+	private final double typeMaxValue;
+
+	/** Transforms of the kernel padded to each tile size used so far. */
+	private final Map<String, double[][]> kernelTransforms =
+		new HashMap<String, double[][]>();
+
+	private int xAxis;
+	private int yAxis;
+	private RealRect selection;
+	private Overlay overlay;
+	private boolean doubleEdges;
+	private Method method = Method.AUTOMATIC;
+
+	// -- constructor --
+
+	/**
+	 * Constructor. takes an input Dataset and a kernel of the given width and
+	 * height that will be used to calculate data values. By default the whole of
+	 * every XY plane is correlated.
+	 */
+	public CorrelationOperation(final Dataset input, final double[] kernel,
+		final int kernelWidth, final int kernelHeight)
+	{
+		if (kernelWidth < 1 || kernelHeight < 1) {
+			throw new IllegalArgumentException("kernel dimensions must be positive");
+		}
+		if (kernel.length != kernelWidth * kernelHeight) {
+			throw new IllegalArgumentException("kernel must contain " +
+				kernelWidth * kernelHeight + " elements (shaped " + kernelWidth + "x" +
+				kernelHeight + ")");
+		}
+		this.input = input;
+		this.kernel = kernel.clone();
+		this.kernelWidth = kernelWidth;
+		this.kernelHeight = kernelHeight;
+		final int xIndex = input.getAxisIndex(Axes.X);
+		final int yIndex = input.getAxisIndex(Axes.Y);
+		xAxis = xIndex < 0 ? 0 : xIndex;
+		yAxis = yIndex < 0 ? 1 : yIndex;
+
+		// a rank one kernel is its largest row scaled down each column
+		int pivot = 0;
+		for (int i = 1; i < kernel.length; i++) {
+			if (Math.abs(kernel[i]) > Math.abs(kernel[pivot])) pivot = i;
+		}
+		final double pivotValue = kernel[pivot];
+		final int pivotRow = pivot / kernelWidth, pivotColumn = pivot % kernelWidth;
+		final double[] row = new double[kernelWidth];
+		final double[] column = new double[kernelHeight];
+		for (int i = 0; i < kernelWidth; i++) {
+			row[i] = kernel[pivotRow * kernelWidth + i] / pivotValue;
+		}
+		for (int j = 0; j < kernelHeight; j++) {
+			column[j] = kernel[j * kernelWidth + pivotColumn];
+		}
+		boolean separable = pivotValue != 0 && kernel.length > 1;
+		for (int j = 0; separable && j < kernelHeight; j++) {
+			for (int i = 0; i < kernelWidth; i++) {
+				final double error = kernel[j * kernelWidth + i] - column[j] * row[i];
+				if (Math.abs(error) > SEPARABLE_TOLERANCE * Math.abs(pivotValue)) {
+					separable = false;
+					break;
+				}
+			}
+		}
+		rowKernel = separable ? row : null;
+		columnKernel = separable ? column : null;
+
+		double sum = 0;
+		boolean integers = true;
+		for (final double k : kernel) {
+			sum += k;
+			if (k != Math.rint(k)) integers = false;
+		}
+		scale = sum == 0 ? 1 : sum;
+		integerKernel = integers;
+		integerDataset = input.isInteger();
+		typeMinValue = input.getType().getMinValue();
+		typeMaxValue = input.getType().getMaxValue();
+	}
+
+	// -- public interface --
+
+	/** Sets the axes of the planes to correlate. */
+	public void setAxes(final int xAxis, final int yAxis) {
+		final int numDims = input.numDimensions();
+		if (xAxis < 0 || xAxis >= numDims || yAxis < 0 || yAxis >= numDims ||
+			xAxis == yAxis)
+		{
+			throw new IllegalArgumentException("Invalid plane axes " + xAxis + ", " +
+				yAxis);
+		}
+		this.xAxis = xAxis;
+		this.yAxis = yAxis;
+	}
+
+	/**
+	 * Restricts correlation to a rectangle of each plane. A zero width or height
+	 * spans the whole plane in that direction.
+	 */
+	public void setSelection(final RealRect selection) {
+		this.selection = selection;
+	}
+
+	/**
+	 * Restricts correlation to the points of each plane inside an overlay, or
+	 * removes any such restriction if null. The overlay's dimensions are matched
+	 * to the plane axes by axis type; if it lacks either axis, its first two
+	 * dimensions are taken as the plane's.
+	 */
+	public void setOverlay(final Overlay overlay) {
+		this.overlay = overlay;
+	}
+
+	/**
+	 * Sets how neighbors past the edges of a plane are mirrored. With
+	 * {@link OutOfBoundsMirrorFactory.Boundary#DOUBLE} the edge values are
+	 * repeated, matching the noise reducers.
+	 */
+	public void setBoundary(final OutOfBoundsMirrorFactory.Boundary boundary) {
+		doubleEdges = boundary == OutOfBoundsMirrorFactory.Boundary.DOUBLE;
+	}
+
+	/** Sets how correlated sums are computed. */
+	public void setMethod(final Method method) {
+		this.method = method;
+	}
+
+	/**
+	 * Returns true if the kernel is applied as separate row and column passes
+	 * when correlating directly.
+	 */
+	public boolean isSeparable() {
+		return rowKernel != null;
+	}
+
+	/**
+	 * Runs the correlation and replaces pixels in place with correlated values
+	 */
+	public void run() {
+		final ImgPlus<? extends RealType<?>> img = input.getImgPlus();
+		final RowAccess access = new RowAccess(img, xAxis, yAxis);
+		final int width = access.getWidth();
+		final int height = access.getHeight();
+
+		// find the rectangle to correlate
+		long minX = 0, minY = 0, maxX = width, maxY = height;
+		if (selection != null) {
+			minX = Math.max(minX, (long) selection.x);
+			minY = Math.max(minY, (long) selection.y);
+			if (selection.width != 0) {
+				maxX = Math.min(maxX, (long) selection.x + (long) selection.width);
+			}
+			if (selection.height != 0) {
+				maxY = Math.min(maxY, (long) selection.y + (long) selection.height);
+			}
+		}
+		PlaneMask mask = null;
+		if (overlay != null) {
+			int u = overlay.getAxisIndex(input.axis(xAxis));
+			int v = overlay.getAxisIndex(input.axis(yAxis));
+			if (u < 0 || v < 0 || u > 1 || v > 1) {
+				u = 0;
+				v = 1;
+			}
+			minX = Math.max(minX, (long) Math.floor(overlay.realMin(u)));
+			minY = Math.max(minY, (long) Math.floor(overlay.realMin(v)));
+			maxX = Math.min(maxX, (long) Math.ceil(overlay.realMax(u)) + 1);
+			maxY = Math.min(maxY, (long) Math.ceil(overlay.realMax(v)) + 1);
+			mask =
+				new PlaneMask(new UVInsideRoiCondition(overlay.getRegionOfInterest()),
+					u, v);
+		}
+		if (minX >= maxX || minY >= maxY) return;
+		final Region region =
+			new Region((int) minX, (int) maxX, (int) minY, (int) maxY);
+
+		final int threads = ParallelLoop.getThreadCount(input.getContext());
+		final int[] tileSize = chooseTileSize(region);
+		if (tileSize == null) correlateDirectly(access, region, mask, threads);
+		else {
+			correlateByTransform(access, region, mask, threads, tileSize[0],
+				tileSize[1]);
+		}
+		input.update();
+	}
+
+	// -- private interface --
+
+	/**
+	 * Correlates every plane by summing the neighbors of each point. Types
+	 * packing several pixels into each storage word are only divided between
+	 * threads by whole planes of planar images, and otherwise use one thread.
+	 */
+	private void correlateDirectly(final RowAccess access, final Region region,
+		final PlaneMask mask, final int threadCount)
+	{
+		final ImgPlus<? extends RealType<?>> img = input.getImgPlus();
+		final int width = access.getWidth();
+		final int height = access.getHeight();
+		final long planeCount = access.getPlaneCount();
+		// NB - packed types may only be split between threads by whole planes
+		final int threads =
+			RowAccess.canWritePlanesInParallel(img, xAxis, yAxis) ? threadCount : 1;
+		int bands = 1;
+		if (planeCount < threads && RowAccess.canWriteRowsInParallel(img)) {
+			final int wanted = (int) ((threads + planeCount - 1) / planeCount);
+			bands =
+				Math.max(1, Math.min(wanted, (region.maxY - region.minY) /
+					MIN_BAND_HEIGHT));
+		}
+		final int bandCount = bands;
+		final int bandHeight =
+			(region.maxY - region.minY + bandCount - 1) / bandCount;
+
+		// rows outside each band are read before any band is replaced
+		final int unitCount = (int) planeCount * bandCount;
+		final double[][][] halos = new double[unitCount][][];
+		for (int unit = 0; unit < unitCount; unit++) {
+			final int y0 = region.minY + (unit % bandCount) * bandHeight;
+			final int y1 = Math.min(region.maxY, y0 + bandHeight);
+			for (int y = y0; y < y1; y++) {
+				for (int j = 0; j < kernelHeight; j++) {
+					final int r = mirror(y + j - kernelHeight / 2, height);
+					if (r >= y0 && r < y1) continue;
+					if (halos[unit] == null) halos[unit] = new double[height][];
+					if (halos[unit][r] == null) {
+						halos[unit][r] = new double[width];
+						access.read(unit / bandCount, r, halos[unit][r]);
+					}
+				}
+			}
+		}
+
+		ParallelLoop.run(input.getContext(), unitCount, threads,
+			new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count) {
+					final RowAccess rows = new RowAccess(img, xAxis, yAxis);
+					final PlaneMask localMask = mask == null ? null : mask.copy();
+					for (long unit = start; unit < start + count; unit++) {
+						final long plane = unit / bandCount;
+						final int y0 = region.minY + (int) (unit % bandCount) * bandHeight;
+						final int y1 = Math.min(region.maxY, y0 + bandHeight);
+						if (y0 >= y1) continue;
+						correlateRows(rows, localMask, plane, region, y0, y1,
+							halos[(int) unit]);
+					}
+				}
+			});
+	}
+
+	/**
+	 * Replaces the rows from y0 up to but not including y1 of a plane, within
+	 * the columns of the region, skipping points outside any mask. Rows outside
+	 * the band are taken from halo.
+	 */
+	private void correlateRows(final RowAccess rows, final PlaneMask mask,
+		final long plane, final Region region, final int y0, final int y1,
+		final double[][] halo)
+	{
+		final int width = rows.getWidth();
+		final int height = rows.getHeight();
+		final int originX = kernelWidth / 2, originY = kernelHeight / 2;
+
+		// the last row of the band each source row is needed for
+		final int[] lastUse = new int[height];
+		for (int y = y0; y < y1; y++) {
+			for (int j = 0; j < kernelHeight; j++) {
+				lastUse[mirror(y + j - originY, height)] = y;
+			}
+		}
+
+		// the mirrored column of every padded index
+		final int[] xIndex = new int[width + kernelWidth - 1];
+		for (int i = 0; i < xIndex.length; i++) {
+			xIndex[i] = mirror(i - originX, width);
+		}
+
+		// source rows are kept padded, or filtered along X if separable
+		final double[][] sources = new double[height][];
+		final double[][] window = new double[kernelHeight][];
+		final double[] raw = new double[width];
+		final double[] sums = new double[Math.min(BLOCK_WIDTH, width)];
+		final double[] output = new double[width];
+
+		for (int y = y0; y < y1; y++) {
+			for (int j = 0; j < kernelHeight; j++) {
+				final int r = mirror(y + j - originY, height);
+				if (sources[r] == null) {
+					final double[] original;
+					if (r >= y0 && r < y1) {
+						rows.read(plane, r, raw);
+						original = raw;
+					}
+					else original = halo[r];
+					sources[r] = createSource(original, xIndex, region);
+				}
+				window[j] = sources[r];
+			}
+			rows.read(plane, y, output);
+			for (int xb = region.minX; xb < region.maxX; xb += sums.length) {
+				final int n = Math.min(sums.length, region.maxX - xb);
+				accumulate(window, xb, n, sums);
+				for (int i = 0; i < n; i++) {
+					final int x = xb + i;
+					if (mask != null && !mask.contains(x, y)) continue;
+					output[x] = outputValue(sums[i]);
+				}
+			}
+			rows.write(plane, y, output);
+			for (int j = 0; j < kernelHeight; j++) {
+				final int r = mirror(y + j - originY, height);
+				if (lastUse[r] == y) sources[r] = null;
+			}
+		}
+	}
+
+	/**
+	 * Creates the source row for an original row: the row padded by the
+	 * kernel's reach on either side, or if the kernel is separable the row
+	 * correlated along X within the columns of the region.
+	 */
+	private double[] createSource(final double[] original, final int[] xIndex,
+		final Region region)
+	{
+		final double[] padded = new double[xIndex.length];
+		for (int i = 0; i < padded.length; i++) {
+			padded[i] = original[xIndex[i]];
+		}
+		if (rowKernel == null) return padded;
+		final double[] filtered = new double[original.length];
+		for (int i = 0; i < kernelWidth; i++) {
+			final double k = rowKernel[i];
+			if (k == 0) continue;
+			for (int x = region.minX; x < region.maxX; x++) {
+				filtered[x] += k * padded[x + i];
+			}
+		}
+		return filtered;
+	}
+
+	/**
+	 * Sums the kernel weighted neighborhoods of n columns starting at xb, given
+	 * the source rows of the kernel's rows.
+	 */
+	private void accumulate(final double[][] window, final int xb, final int n,
+		final double[] sums)
+	{
+		for (int i = 0; i < n; i++) {
+			sums[i] = 0;
+		}
+		if (rowKernel != null) {
+			for (int j = 0; j < kernelHeight; j++) {
+				final double k = columnKernel[j];
+				if (k == 0) continue;
+				final double[] source = window[j];
+				for (int i = 0; i < n; i++) {
+					sums[i] += k * source[xb + i];
+				}
+			}
+			return;
+		}
+		for (int j = 0; j < kernelHeight; j++) {
+			final double[] source = window[j];
+			for (int i = 0; i < kernelWidth; i++) {
+				final double k = kernel[j * kernelWidth + i];
+				if (k == 0) continue;
+				final int offset = xb + i;
+				for (int c = 0; c < n; c++) {
+					sums[c] += k * source[offset + c];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Correlates every plane by Fourier transform, in tiles of the given size.
+	 * The planes are done one after another, with their tiles in parallel.
+	 */
+	private void correlateByTransform(final RowAccess access,
+		final Region region, final PlaneMask mask, final int threads,
+		final int tileWidth, final int tileHeight)
+	{
+		final int width = access.getWidth();
+		final int height = access.getHeight();
+		final int originX = kernelWidth / 2, originY = kernelHeight / 2;
+		final int regionWidth = region.maxX - region.minX;
+		final int regionHeight = region.maxY - region.minY;
+		final int sourceWidth = regionWidth + kernelWidth - 1;
+		final int sourceHeight = regionHeight + kernelHeight - 1;
+		final int stepX = tileWidth - kernelWidth + 1;
+		final int stepY = tileHeight - kernelHeight + 1;
+		final int tilesX = (regionWidth + stepX - 1) / stepX;
+		final int tilesY = (regionHeight + stepY - 1) / stepY;
+		final double[][] kernelTransform = kernelTransform(tileWidth, tileHeight);
+
+		// the region of a plane extended by the kernel's reach, and its sums
+		final double[] source = new double[sourceWidth * sourceHeight];
+		final double[] sums = new double[regionWidth * regionHeight];
+		final double[] row = new double[width];
+		final int[] xIndex = new int[sourceWidth];
+		for (int i = 0; i < sourceWidth; i++) {
+			xIndex[i] = mirror(region.minX + i - originX, width);
+		}
+
+		for (long plane = 0; plane < access.getPlaneCount(); plane++) {
+			for (int sy = 0; sy < sourceHeight; sy++) {
+				access.read(plane, mirror(region.minY + sy - originY, height), row);
+				for (int sx = 0, i = sy * sourceWidth; sx < sourceWidth; sx++, i++) {
+					source[i] = row[xIndex[sx]];
+				}
+			}
+			ParallelLoop.run(input.getContext(), tilesX * tilesY, threads,
+				new ParallelLoop.Body() {
+
+					@Override
+					public void run(final int chunk, final long start, final long count) {
+						final FourierTransform transform =
+							new FourierTransform(tileWidth, tileHeight);
+						final double[] re = new double[tileWidth * tileHeight];
+						final double[] im = new double[re.length];
+						for (long tile = start; tile < start + count; tile++) {
+							final int x0 = (int) (tile % tilesX) * stepX;
+							final int y0 = (int) (tile / tilesX) * stepY;
+							correlateTile(transform, kernelTransform, source, sourceWidth,
+								sourceHeight, x0, y0, re, im);
+							final int w = Math.min(stepX, regionWidth - x0);
+							final int h = Math.min(stepY, regionHeight - y0);
+							for (int j = 0; j < h; j++) {
+								System.arraycopy(re, j * tileWidth, sums, (y0 + j) *
+									regionWidth + x0, w);
+							}
+						}
+					}
+				});
+			for (int y = region.minY; y < region.maxY; y++) {
+				access.read(plane, y, row);
+				final int offset = (y - region.minY) * regionWidth - region.minX;
+				for (int x = region.minX; x < region.maxX; x++) {
+					if (mask != null && !mask.contains(x, y)) continue;
+					double sum = sums[offset + x];
+					// exact sums are integers, so remove the transform's rounding
+					if (integerDataset && integerKernel) sum = Math.rint(sum);
+					row[x] = outputValue(sum);
+				}
+				access.write(plane, y, row);
+			}
+		}
+	}
+
+	/**
+	 * Correlates the tile of the source starting at x0, y0 with the kernel,
+	 * leaving the sums in re from the start of each row.
+	 */
+	private void correlateTile(final FourierTransform transform,
+		final double[][] kernelTransform, final double[] source,
+		final int sourceWidth, final int sourceHeight, final int x0, final int y0,
+		final double[] re, final double[] im)
+	{
+		final int tileWidth = transform.getWidth();
+		final int tileHeight = transform.getHeight();
+		final int w = Math.min(tileWidth, sourceWidth - x0);
+		final int h = Math.min(tileHeight, sourceHeight - y0);
+		for (int i = 0; i < re.length; i++) {
+			re[i] = 0;
+			im[i] = 0;
+		}
+		for (int j = 0; j < h; j++) {
+			System.arraycopy(source, (y0 + j) * sourceWidth + x0, re, j * tileWidth,
+				w);
+		}
+		transform.transform(re, im, false);
+		final double[] kre = kernelTransform[0], kim = kernelTransform[1];
+		for (int i = 0; i < re.length; i++) {
+			final double r = re[i] * kre[i] - im[i] * kim[i];
+			im[i] = re[i] * kim[i] + im[i] * kre[i];
+			re[i] = r;
+		}
+		transform.transform(re, im, true);
+	}
+
+	/**
+	 * Gets the transform of the kernel for tiles of the given size, stored so
+	 * that multiplying by it correlates: each weight is placed at minus its
+	 * offset, wrapped around the tile.
+	 */
+	private double[][] kernelTransform(final int tileWidth, final int tileHeight)
+	{
+		final String key = tileWidth + "x" + tileHeight;
+		double[][] result = kernelTransforms.get(key);
+		if (result == null) {
+			final double[] re = new double[tileWidth * tileHeight];
+			final double[] im = new double[re.length];
+			for (int j = 0; j < kernelHeight; j++) {
+				final int ty = (tileHeight - j) % tileHeight;
+				for (int i = 0; i < kernelWidth; i++) {
+					final int tx = (tileWidth - i) % tileWidth;
+					re[ty * tileWidth + tx] = kernel[j * kernelWidth + i];
+				}
+			}
+			new FourierTransform(tileWidth, tileHeight).transform(re, im, false);
+			result = new double[][] { re, im };
+			kernelTransforms.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Chooses the size of the tiles to correlate by Fourier transform, or
+	 * returns null to correlate directly. The choice minimizes a rough count of
+	 * the arithmetic per point of the region.
+	 */
+	private int[] chooseTileSize(final Region region) {
+		if (method == Method.DIRECT) return null;
+		final int regionWidth = region.maxX - region.minX;
+		final int regionHeight = region.maxY - region.minY;
+		double bestCost = Double.POSITIVE_INFINITY;
+		if (method == Method.AUTOMATIC) {
+			int taps = 0;
+			for (final double k : kernel) {
+				if (k != 0) taps++;
+			}
+			if (rowKernel != null) taps = Math.min(taps, kernelWidth + kernelHeight);
+			bestCost = 2.0 * taps;
+		}
+		int[] best = null;
+		for (int tw = FourierTransform.nextPowerOfTwo(kernelWidth);; tw *= 2) {
+			for (int th = FourierTransform.nextPowerOfTwo(kernelHeight);; th *= 2) {
+				final int stepX = tw - kernelWidth + 1, stepY = th - kernelHeight + 1;
+				final double tiles =
+					(double) ((regionWidth + stepX - 1) / stepX) *
+						((regionHeight + stepY - 1) / stepY);
+				final double size = (double) tw * th;
+				final double perTile = 16 * size * log2(size) + 10 * size;
+				final double cost = tiles * perTile / regionWidth / regionHeight;
+				if (cost < bestCost) {
+					bestCost = cost;
+					best = new int[] { tw, th };
+				}
+				if (th >= regionHeight + kernelHeight - 1 || th >= MAX_TILE_SIZE) break;
+			}
+			if (tw >= regionWidth + kernelWidth - 1 || tw >= MAX_TILE_SIZE) break;
+		}
+		return best;
+	}
+
+	/** Computes the output value of a correlated sum. */
+	private double outputValue(final double sum) {
+		double value;
+		if (integerDataset) {
+			value = (sum + (scale / 2)) / scale;
+			if (value < typeMinValue) value = typeMinValue;
+			if (value > typeMaxValue) value = typeMaxValue;
+		}
+		else {
+			value = sum / scale;
+		}
+		return value;
+	}
+
+	/**
+	 * Mirrors an index into the range 0 to size - 1, either without doubling the
+	 * edge values (..., 2, 1, 0, 1, 2, ..., size - 2, size - 1, size - 2, ...)
+	 * or with them doubled (..., 1, 0, 0, 1, ..., size - 1, size - 1, ...).
+	 */
+	private int mirror(final int index, final int size) {
+		if (!doubleEdges && size == 1) return 0;
+		final int period = doubleEdges ? 2 * size : 2 * size - 2;
+		int m = index % period;
+		if (m < 0) m += period;
+		return m < size ? m : period - 1 - m + (doubleEdges ? 0 : 1);
+	}
+
+	private static double log2(final double value) {
+		return Math.log(value) / Math.log(2);
+	}
+
+	/** The points of each plane inside an overlay. */
+	private static class PlaneMask {
+
+		private final Condition<long[]> condition;
+		private final int u, v;
+		private final long[] position = new long[2];
+
+		private PlaneMask(final Condition<long[]> condition, final int u,
+			final int v)
+		{
+			this.condition = condition;
+			this.u = u;
+			this.v = v;
+		}
+
+		/** Returns true if the point x, y of a plane is inside the overlay. */
+		private boolean contains(final int x, final int y) {
+			position[u] = x;
+			position[v] = y;
+			return condition.isTrue(position);
+		}
+
+		/** Copies the mask for use on another thread. */
+		private PlaneMask copy() {
+			return new PlaneMask(condition.copy(), u, v);
+		}
+	}
+
+	/** The columns and rows of each plane that are correlated. */
+	private static class Region {
+
+		private final int minX, maxX, minY, maxY;
+
+		private Region(final int minX, final int maxX, final int minY,
+			final int maxY)
+		{
+			this.minX = minX;
+			this.maxX = maxX;
+			this.minY = minY;
+			this.maxY = maxY;
+		}
+	}
+
+}
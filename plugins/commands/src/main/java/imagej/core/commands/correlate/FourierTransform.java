@@ -0,0 +1,191 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+package imagej.core.commands.correlate;
+
+/**
+ * A two dimensional fast Fourier transform of complex data, computed in place
+ * by the iterative radix-2 Cooley-Tukey algorithm along the rows and then the
+ * columns. Both dimensions must be powers of two. The inverse transform is
+ * scaled so that it undoes the forward one.
+ * <p>
+ * A FourierTransform is not thread safe; each thread should use its own.
+ * </p>
+ */
+public class FourierTransform {
+
+	// -- instance variables --
+
+	private final int width;
+	private final int height;
+	private final Table rowTable;
+	private final Table columnTable;
+	private final double[] columnRe;
+	private final double[] columnIm;
+
+	// -- constructor --
+
+	public FourierTransform(final int width, final int height) {
+		if (!isPowerOfTwo(width) || !isPowerOfTwo(height)) {
+			throw new IllegalArgumentException("Dimensions must be powers of two: " +
+				width + "x" + height);
+		}
+		this.width = width;
+		this.height = height;
+		rowTable = new Table(width);
+		columnTable = height == width ? rowTable : new Table(height);
+		columnRe = new double[height];
+		columnIm = new double[height];
+	}
+
+	// -- FourierTransform methods --
+
+	/** Returns true if the given value is a positive power of two. */
+	public static boolean isPowerOfTwo(final int value) {
+		return value > 0 && (value & (value - 1)) == 0;
+	}
+
+	/** Returns the smallest power of two that is at least the given value. */
+	public static int nextPowerOfTwo(final int value) {
+		int power = 1;
+		while (power < value) {
+			power <<= 1;
+		}
+		return power;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Transforms the given data in place. The data is stored a row at a time,
+	 * with real and imaginary parts in separate arrays of width * height values.
+	 */
+	public void transform(final double[] re, final double[] im,
+		final boolean inverse)
+	{
+		for (int y = 0; y < height; y++) {
+			transform(re, im, y * width, rowTable, inverse);
+		}
+		for (int x = 0; x < width; x++) {
+			for (int y = 0, i = x; y < height; y++, i += width) {
+				columnRe[y] = re[i];
+				columnIm[y] = im[i];
+			}
+			transform(columnRe, columnIm, 0, columnTable, inverse);
+			for (int y = 0, i = x; y < height; y++, i += width) {
+				re[i] = columnRe[y];
+				im[i] = columnIm[y];
+			}
+		}
+		if (inverse) {
+			final double scale = 1.0 / ((double) width * height);
+			for (int i = 0; i < re.length; i++) {
+				re[i] *= scale;
+				im[i] *= scale;
+			}
+		}
+	}
+
+	// -- private helpers --
+
+	/** Transforms the table's size values from the given offset in place. */
+	private static void transform(final double[] re, final double[] im,
+		final int offset, final Table table, final boolean inverse)
+	{
+		final int n = table.size;
+		if (n == 1) return;
+		final int[] reversed = table.reversed;
+		for (int i = 0; i < n; i++) {
+			final int j = reversed[i];
+			if (i < j) {
+				final double tr = re[offset + i];
+				re[offset + i] = re[offset + j];
+				re[offset + j] = tr;
+				final double ti = im[offset + i];
+				im[offset + i] = im[offset + j];
+				im[offset + j] = ti;
+			}
+		}
+		final double[] cos = table.cos, sin = table.sin;
+		final double sign = inverse ? 1 : -1;
+		for (int size = 2; size <= n; size <<= 1) {
+			final int half = size >> 1;
+			final int step = n / size;
+			for (int start = 0; start < n; start += size) {
+				for (int k = 0, t = 0; k < half; k++, t += step) {
+					final double wr = cos[t], wi = sign * sin[t];
+					final int a = offset + start + k, b = a + half;
+					final double br = re[b] * wr - im[b] * wi;
+					final double bi = re[b] * wi + im[b] * wr;
+					re[b] = re[a] - br;
+					im[b] = im[a] - bi;
+					re[a] += br;
+					im[a] += bi;
+				}
+			}
+		}
+	}
+
+	/** The bit reversal permutation and twiddle factors of one size. */
+	private static class Table {
+
+		private final int size;
+		private final int[] reversed;
+		private final double[] cos, sin;
+
+		private Table(final int size) {
+			this.size = size;
+			reversed = new int[size];
+			final int bits = Integer.numberOfTrailingZeros(size);
+			for (int i = 0; i < size; i++) {
+				reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+			}
+			cos = new double[Math.max(1, size / 2)];
+			sin = new double[cos.length];
+			for (int i = 0; i < cos.length; i++) {
+				final double angle = 2 * Math.PI * i / size;
+				cos[i] = Math.cos(angle);
+				sin[i] = Math.sin(angle);
+			}
+		}
+	}
+
+}
@@ -196,7 +196,8 @@ private int countPixels(final int[] histogram) {
 
 	private void setMinMax(final double min, final double max) {
 		view.setChannelRanges(min, max);
-		view.getProjector().map();
+		// NB - tiled views have no projector, and render tiles as needed
+		if (view.getProjector() != null) view.getProjector().map();
 		view.update();
 	}
 
@@ -264,7 +264,8 @@ private void computeBrightnessContrast() {
 	/** Updates the displayed min/max range to match min and max values. */
 	private void updateDisplay() {
 		view.setChannelRanges(min, max);
-		view.getProjector().map();
+		// NB - tiled views have no projector, and render tiles as needed
+		if (view.getProjector() != null) view.getProjector().map();
 		view.update();
 	}
 
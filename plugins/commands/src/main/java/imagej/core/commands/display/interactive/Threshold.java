@@ -39,7 +39,7 @@
 import imagej.data.Dataset;
 import imagej.data.display.ImageDisplay;
 import imagej.data.display.ImageDisplayService;
-import imagej.data.display.event.AxisPositionEvent;
+import imagej.data.measure.HistogramService;
 import imagej.data.overlay.ThresholdOverlay;
 import imagej.data.threshold.AutoThresholdMethod;
 import imagej.data.threshold.ThresholdService;
@@ -50,20 +50,10 @@
 import imagej.util.Colors;
 import imagej.widget.Button;
 import net.imglib2.Cursor;
-import net.imglib2.IterableInterval;
-import net.imglib2.RandomAccess;
-import net.imglib2.img.Img;
 import net.imglib2.img.ImgPlus;
-import net.imglib2.meta.AxisType;
-import net.imglib2.ops.pointset.HyperVolumePointSet;
-import net.imglib2.ops.pointset.PointSet;
-import net.imglib2.ops.pointset.PointSetIterator;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.view.IntervalView;
-import net.imglib2.view.Views;
 
 import org.scijava.ItemIO;
-import org.scijava.event.EventHandler;
 import org.scijava.plugin.Menu;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
@@ -99,12 +89,9 @@
 //  - fix code that determines histogram table size. The existing code is just
 //     a simple approach
 //  - make min and max fields into sliders. There is a related TODO below.
-//  - note that as designed the stacked histogram is always generated at start.
-//     We could try different approach to speed dialog appearence. But if we do
-//     we need to calc at some point. BTW the design as is will be invalid if
-//     someone opens thresh command, then uses other plugin to change data
-//     values because the stacked (and other) histograms will not be updated.
-//     Maybe handle dataset updated events to recalc hist as needed.
+//  - the data range is found when the dialog opens and not updated if another
+//     plugin changes data values while it is up. The histograms themselves are
+//     kept current by the HistogramService.
 
 /**
  * @author Barry DeZonia
@@ -170,13 +157,10 @@ public class Threshold extends InteractiveCommand {
 	@Parameter
 	private UIService uiSrv;
 
-	// -- instance variables --
-
-	private long[] fullHistogram;
-
-	private long[] planeHistogram;
+	@Parameter
+	private HistogramService histSrv;
 
-	private boolean invalidPlaneHist = true;
+	// -- instance variables --
 
 	private double dataMin, dataMax;
 
@@ -209,11 +193,10 @@ protected void initValues() {
 		boolean alreadyHadOne = threshSrv.hasThreshold(display);
 		ThresholdOverlay overlay = threshSrv.getThreshold(display);
 
-		calcDataRange();
+		// the range is redrawn and measured far more often than it is changed
+		overlay.setMaterialized(true);
 
-		fullHistogram = buildHistogram(true, null);
-		planeHistogram = null;
-		invalidPlaneHist = true;
+		calcDataRange();
 
 		if (!alreadyHadOne) {
 			// default the thresh to something sensible: 85/170 is IJ1's default
@@ -262,17 +245,17 @@ protected void autoThreshold() {
 		else if (method.getMessage() != null) {
 			log.warn(method.getMessage());
 		}
-		double maxRange = histogram().length - 1;
-		// TODO : what is best increment? To avoid roundoff errs use a teeny inc
-		// (like 0.0001 instead of 1). But then result does not match IJ1. With
-		// teeny inc dark bckgrnd bounces from (0,cutoff) to (cutoff,255) rather
-		// than (0,cutoff) to (cutoff+1,255). Think how to best display range values
-		// so that they don't have gaps when displayed in dialog bouncing between
-		// light and dark background.
-		double bot = (darkBackground) ? cutoff + 1 : 0;
-		double top = (darkBackground) ? maxRange : cutoff;
-		minimum = dataMin + (bot / maxRange) * (dataMax - dataMin);
-		maximum = dataMin + (top / maxRange) * (dataMax - dataMin);
+		int binCount = histogram().length;
+		// NB - the range spans exactly the values the histogram service put into
+		// bins bot through top, so it has no gaps between light and dark
+		// background. The top bin ends just below where the next one starts,
+		// except the last bin which also holds dataMax.
+		int bot = (darkBackground) ? cutoff + 1 : 0;
+		int top = (darkBackground) ? binCount - 1 : cutoff;
+		minimum = binStart(bot, binCount);
+		maximum =
+			(top >= binCount - 1) ? dataMax : Math.nextAfter(binStart(top + 1,
+				binCount), Double.NEGATIVE_INFINITY);
 		rangeChanged();
 	}
 
@@ -330,14 +313,6 @@ protected void stackHistogram() {
 		autoThreshold();
 	}
 
-	// -- EventHandlers --
-
-	@EventHandler
-	protected void onEvent(AxisPositionEvent evt) {
-		if (evt.getDisplay() != display) return;
-		invalidPlaneHist = true;
-	}
-
 	// -- helpers --
 
 	private ThresholdOverlay getThreshold() {
@@ -346,13 +321,25 @@ private ThresholdOverlay getThreshold() {
 		return overlay;
 	}
 
+	// gets the histogram of either the whole dataset or the currently viewed
+	// plane. Both are kept by the HistogramService, so this is cheap once done.
+
 	private long[] histogram() {
-		if (stackHistogram) return fullHistogram;
-		if (invalidPlaneHist) {
-			planeHistogram = buildHistogram(false, planeHistogram);
-			invalidPlaneHist = false;
+		Dataset ds = imgDispSrv.getActiveDataset(display);
+		// +1 needed for int but maybe not float
+		int binCount = histogramSize(dataMax - dataMin + 1);
+		if (stackHistogram) {
+			return histSrv.getHistogram(ds, binCount, dataMin, dataMax);
 		}
-		return planeHistogram;
+		return histSrv.getHistogram(ds, viewedPlane(ds), binCount, dataMin,
+			dataMax);
+	}
+
+	// gets the lowest value the HistogramService puts into a bin. It puts a
+	// value v into bin floor(binCount * (v - dataMin) / (dataMax - dataMin)).
+
+	private double binStart(int bin, int binCount) {
+		return dataMin + bin * (dataMax - dataMin) / binCount;
 	}
 
 	private void colorize(ThresholdOverlay overlay) {
@@ -384,114 +371,25 @@ private void getAutoThresholdMethodNames() {
 
 	private void calcDataRange() {
 		Dataset ds = imgDispSrv.getActiveDataset(display);
-		dataMin = Double.POSITIVE_INFINITY;
-		dataMax = Double.NEGATIVE_INFINITY;
-		ImgPlus<? extends RealType<?>> imgPlus = ds.getImgPlus();
-		Cursor<? extends RealType<?>> cursor = imgPlus.cursor();
-		while (cursor.hasNext()) {
-			cursor.fwd();
-			double value = cursor.get().getRealDouble();
-			if (!Double.isNaN(value)) {
-				if (value < dataMin) dataMin = value;
-				if (value > dataMax) dataMax = value;
-			}
-		}
+		double[] range = histSrv.getDataRange(ds);
+		dataMin = range[0];
+		dataMax = range[1];
 	}
 
-	// builds the histogram from either the whole data range or the currently
-	// viewed plane
+	// gets the index of the currently viewed plane, numbered as in
+	// Dataset.getPlane()
 
-	private long[] buildHistogram(boolean allData, long[] existingHist) {
-		// return buildHistogramFromPointSets(allData, existingHist);
-		return buildHistogramFromViews(allData, existingHist);
-	}
-
-	private long[] buildHistogramFromViews(boolean allData, long[] existingHist) {
-		Dataset ds = imgDispSrv.getActiveDataset(display);
-		long[] min = new long[ds.numDimensions()];
-		long[] max = min.clone();
-		max[0] = ds.dimension(0) - 1;
-		max[1] = ds.dimension(1) - 1;
-		for (int d = 2; d < ds.numDimensions(); d++) {
-			if (allData) {
-				min[d] = 0;
-				max[d] = ds.dimension(d) - 1;
-			}
-			else { // viewed data only
-				AxisType axisType = ds.axis(d);
-				long pos = display.getLongPosition(axisType);
-				min[d] = pos;
-				max[d] = pos;
-			}
-		}
-		Img<? extends RealType<?>> img = ds.getImgPlus();
-		IntervalView<? extends RealType<?>> view = Views.interval(img, min, max);
-		IterableInterval<? extends RealType<?>> data = Views.iterable(view);
-		final long[] histogram;
-		if (existingHist == null) {
-			// +1 needed for int but maybe not float
-			histogram = allocateHistogram(dataMax - dataMin + 1);
-		}
-		else {
-			zeroOut(existingHist);
-			histogram = existingHist;
-		}
-		Cursor<? extends RealType<?>> cursor = data.cursor();
-		while (cursor.hasNext()) {
-			double value = cursor.next().getRealDouble();
-			double relPos = (value - dataMin) / (dataMax - dataMin);
-			int binNumber = (int) Math.round((histogram.length - 1) * relPos);
-			histogram[binNumber]++;
-		}
-		return histogram;
-	}
-
-	@SuppressWarnings("unused")
-	private long[] buildHistogramFromPointSets(boolean allData,
-		long[] existingHist)
-	{
-		Dataset ds = imgDispSrv.getActiveDataset(display);
-		final long[] histogram;
-		if (existingHist == null) {
-			// +1 needed for int but maybe not float
-			histogram = allocateHistogram(dataMax - dataMin + 1);
-		}
-		else {
-			zeroOut(existingHist);
-			histogram = existingHist;
-		}
-		RandomAccess<? extends RealType<?>> accessor =
-			ds.getImgPlus().randomAccess();
-		PointSet points = allData ? allPlanes(ds) : viewedPlane(ds);
-		PointSetIterator iter = points.iterator();
-		while (iter.hasNext()) {
-			long[] pos = iter.next();
-			accessor.setPosition(pos);
-			double value = accessor.get().getRealDouble();
-			double relPos = (value - dataMin) / (dataMax - dataMin);
-			int binNumber = (int) Math.round((histogram.length - 1) * relPos);
-			histogram[binNumber]++;
+	private long viewedPlane(Dataset dataset) {
+		long plane = 0;
+		long stride = 1;
+		for (int d = 2; d < dataset.numDimensions(); d++) {
+			plane += stride * display.getLongPosition(dataset.axis(d));
+			stride *= dataset.dimension(d);
 		}
-		return histogram;
+		return plane;
 	}
 
-	private PointSet allPlanes(Dataset dataset) {
-		return new HyperVolumePointSet(dataset.getDims());
-	}
-
-	private PointSet viewedPlane(Dataset dataset) {
-		long[] pt1 = new long[dataset.numDimensions()];
-		long[] pt2 = new long[dataset.numDimensions()];
-		for (int i = 2; i < pt1.length; i++) {
-			AxisType axisType = dataset.axis(i);
-			pt1[i] = pt2[i] = display.getLongPosition(axisType);
-		}
-		pt2[0] = dataset.dimension(0) - 1;
-		pt2[1] = dataset.dimension(1) - 1;
-		return new HyperVolumePointSet(pt1, pt2);
-	}
-
-	private long[] allocateHistogram(double dataRange) {
+	private int histogramSize(double dataRange) {
 		// TODO - size of histogram affects speed of all autothresh methods
 		// What is the best way to determine size?
 		// Do we want some power of two as size? For now yes.
@@ -504,12 +402,6 @@ private long[] allocateHistogram(double dataRange) {
 			}
 		}
 		if (histSize == -1) histSize = MAX;
-		return new long[histSize];
-	}
-
-	private void zeroOut(long[] histogram) {
-		for (int i = 0; i < histogram.length; i++) {
-			histogram[i] = 0;
-		}
+		return histSize;
 	}
 }
@@ -113,6 +113,12 @@ public FindEdgesWatcher(final Dataset input) {
 			typeMaxValue = input.getType().getMaxValue();
 		}
 
+		private FindEdgesWatcher(final FindEdgesWatcher other) {
+			integerDataset = other.integerDataset;
+			typeMinValue = other.typeMinValue;
+			typeMaxValue = other.typeMaxValue;
+		}
+
 		/**
 		 * Create the local neighborhood variables
 		 */
@@ -159,6 +165,11 @@ public double calcOutputValue() {
 
 			return value;
 		}
+
+		@Override
+		public FindEdgesWatcher copy() {
+			return new FindEdgesWatcher(this);
+		}
 	}
 
 }
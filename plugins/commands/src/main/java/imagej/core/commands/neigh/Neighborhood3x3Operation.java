@@ -36,30 +36,38 @@
 package imagej.core.commands.neigh;
 
 import imagej.data.Dataset;
-import imagej.data.Extents;
-import imagej.data.Position;
+import imagej.data.ParallelLoop;
+import imagej.data.PlaneStorage;
+import imagej.data.RowAccess;
 import imagej.util.RealRect;
-import net.imglib2.Cursor;
-import net.imglib2.RandomAccess;
-import net.imglib2.RandomAccessible;
-import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.view.Views;
 
 /**
  * Neighborhood3x3Operation - a helper class for 3x3 neighborhood operation
  * plugins such as SmoothDataValues, SharpenDataValues, and FindEdges. Does the
  * work of communicating with a Neighborhood3x3Watcher.
+ * <p>
+ * Rather than copying the whole image, each plane is streamed a row at a time
+ * through a buffer of the three original rows around the current one, which is
+ * replaced in place. Planes are processed in parallel, and when there are
+ * fewer planes than threads so are bands of rows within a plane. Every thread
+ * works with its own copy of the watcher.
+ * </p>
  * 
  * @author Barry DeZonia
  */
 public class Neighborhood3x3Operation {
 
+	// -- constants --
+
+	/** The fewest rows worth giving a thread of their own. */
+	private static final int MIN_BAND_HEIGHT = 16;
+
 	// -- instance variables --
 
 	private final Dataset input;
-	private Img<? extends RealType<?>> inputImage;
-	private Img<? extends RealType<?>> inputImageCopy;
+	private ImgPlus<? extends RealType<?>> inputImage;
 	private final RealRect selection;
 	private final Neighborhood3x3Watcher watcher;
 
@@ -103,29 +111,9 @@ private void checkInput() {
 
 	private void setupWorkingData() {
 		inputImage = input.getImgPlus();
-		inputImageCopy = cloneImage(inputImage);
 	}
 
 	private void runAssignment() {
-		final long[] planeDims = new long[inputImage.numDimensions() - 2];
-		for (int i = 0; i < planeDims.length; i++)
-			planeDims[i] = inputImage.dimension(i + 2);
-		final Extents extents = new Extents(planeDims);
-		final Position planePos = extents.createPosition();
-		if (planeDims.length == 0) { // dataset is 2d only
-			applyOperationToPlane(planePos);
-		}
-		else { // 3 or more dimensions
-			while (planePos.hasNext()) {
-				planePos.fwd();
-				applyOperationToPlane(planePos);
-			}
-		}
-		input.update();
-	}
-
-	private void applyOperationToPlane(final Position planePos) {
-
 		final long[] imageDims = new long[inputImage.numDimensions()];
 		inputImage.dimensions(imageDims);
 
@@ -133,82 +121,144 @@ private void applyOperationToPlane(final Position planePos) {
 
 		if (selection.height == 0) selection.height = (int) imageDims[1];
 
-		// output is done by changin input image in place
-		final RandomAccess<? extends RealType<?>> outputAccessor =
-			inputImage.randomAccess();
-
-		// input is a copy of the original data with out of bounds access enabled
-		final RandomAccessible<? extends RealType<?>> inputInterval =
-			Views.extendMirrorSingle(inputImageCopy);
-
-		final RandomAccess<? extends RealType<?>> extendedInput =
-			inputInterval.randomAccess();
-
-		// initialize the watcher
-		watcher.setup();
-
-		final long[] inputPosition = new long[imageDims.length];
-		final long[] localInputPosition = new long[imageDims.length];
-
-		for (int i = 2; i < inputPosition.length; i++) {
-			inputPosition[i] = planePos.getLongPosition(i - 2);
-			localInputPosition[i] = planePos.getLongPosition(i - 2);
+		final int width = (int) imageDims[0];
+		final int height = (int) imageDims[1];
+		final int minX = (int) Math.max(0, (long) selection.x);
+		final int minY = (int) Math.max(0, (long) selection.y);
+		final int maxX =
+			(int) Math.min(width, (long) selection.x + (long) selection.width);
+		final int maxY =
+			(int) Math.min(height, (long) selection.y + (long) selection.height);
+		if (minX >= maxX || minY >= maxY) return;
+
+		final long planeCount = PlaneStorage.getPlaneCount(inputImage);
+		// NB - packed types may only be split between threads by whole planes
+		final int threads =
+			RowAccess.canWritePlanesInParallel(inputImage, 0, 1) ? ParallelLoop
+				.getThreadCount(input.getContext()) : 1;
+		int bands = 1;
+		if (planeCount < threads && RowAccess.canWriteRowsInParallel(inputImage))
+		{
+			final int wanted = (int) ((threads + planeCount - 1) / planeCount);
+			bands = Math.max(1, Math.min(wanted, (maxY - minY) / MIN_BAND_HEIGHT));
+		}
+		final int bandCount = bands;
+		final int bandHeight = (maxY - minY + bandCount - 1) / bandCount;
+
+		// the rows just outside each band are read before any band is replaced
+		final double[][] above = new double[(int) planeCount * bandCount][];
+		final double[][] below = new double[above.length][];
+		final RowAccess access = new RowAccess(inputImage);
+		for (int unit = 0; unit < above.length; unit++) {
+			final long plane = unit / bandCount;
+			final int y0 = minY + (unit % bandCount) * bandHeight;
+			final int y1 = Math.min(maxY, y0 + bandHeight);
+			if (y0 >= y1) continue;
+			above[unit] = new double[width];
+			below[unit] = new double[width];
+			access.read(plane, mirror(y0 - 1, height), above[unit]);
+			access.read(plane, mirror(y1, height), below[unit]);
 		}
 
-		final long minX = (long) selection.x;
-		final long minY = (long) selection.y;
-		final long width = (long) selection.width;
-		final long height = (long) selection.height;
-		for (long y = minY; y < minY + height; y++) {
-			inputPosition[1] = y;
-			for (long x = minX; x < minX + width; x++) {
-				inputPosition[0] = x;
-				watcher.initializeNeighborhood(inputPosition);
-
-				for (int dy = -1; dy <= 1; dy++) {
-					localInputPosition[1] = inputPosition[1] + dy;
-					for (int dx = -1; dx <= 1; dx++) {
-						localInputPosition[0] = inputPosition[0] + dx;
-						extendedInput.setPosition(localInputPosition);
-						final double localValue = extendedInput.get().getRealDouble();
-						watcher.visitLocation(dx, dy, localValue);
+		ParallelLoop.run(input.getContext(), above.length, threads,
+			new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count) {
+					final RowAccess rows = new RowAccess(inputImage);
+					final Neighborhood3x3Watcher localWatcher = watcher.copy();
+					final long[] position = new long[imageDims.length];
+					for (long unit = start; unit < start + count; unit++) {
+						final long plane = unit / bandCount;
+						final int y0 = minY + (int) (unit % bandCount) * bandHeight;
+						final int y1 = Math.min(maxY, y0 + bandHeight);
+						if (y0 >= y1) continue;
+						setPlanePosition(plane, imageDims, position);
+						applyOperationToRows(rows, localWatcher, plane, position, minX,
+							maxX, y0, y1, above[(int) unit], below[(int) unit]);
 					}
 				}
-				// assign output
-				outputAccessor.setPosition(inputPosition);
-				outputAccessor.get().setReal(watcher.calcOutputValue());
-			}
-		}
+			});
+		input.update();
 	}
 
-	// TODO - eliminate when ImgLib allows ability to duplicate/clone an Img
-	// TODO - find a way to eliminate use of raw types here
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private Img<? extends RealType<?>> cloneImage(final Img image) {
-		// TODO - used to be able to call Image::clone()
-		// For now copy data by hand
-
-		final long[] dimensions = new long[image.numDimensions()];
-		image.dimensions(dimensions);
-
-		final Img<? extends RealType<?>> copyOfImg =
-			image.factory().create(dimensions, image.firstElement());
-
-		final long[] position = new long[dimensions.length];
+	/**
+	 * Replaces the rows from y0 up to but not including y1 of a plane, within
+	 * the columns from minX up to but not including maxX.
+	 */
+	private void applyOperationToRows(final RowAccess rows,
+		final Neighborhood3x3Watcher localWatcher, final long plane,
+		final long[] position, final int minX, final int maxX, final int y0,
+		final int y1, final double[] firstAbove, final double[] lastBelow)
+	{
+		final int width = rows.getWidth();
+		final int height = rows.getHeight();
 
-		final Cursor<? extends RealType<?>> cursor = image.localizingCursor();
+		// the mirrored column of every x from -1 to width
+		final int[] xIndex = new int[width + 2];
+		for (int i = 0; i < xIndex.length; i++) {
+			xIndex[i] = mirror(i - 1, width);
+		}
 
-		final RandomAccess<? extends RealType<?>> access =
-			copyOfImg.randomAccess();
+		// initialize the watcher
+		localWatcher.setup();
+
+		// a ring of the original rows above, at and below the current row
+		double[] prev = firstAbove.clone();
+		double[] curr = new double[width];
+		double[] next = new double[width];
+		final double[] output = new double[width];
+		rows.read(plane, y0, curr);
+
+		for (int y = y0; y < y1; y++) {
+			if (y + 1 < y1) rows.read(plane, mirror(y + 1, height), next);
+			else System.arraycopy(lastBelow, 0, next, 0, width);
+			position[1] = y;
+			System.arraycopy(curr, 0, output, 0, width);
+			for (int x = minX; x < maxX; x++) {
+				position[0] = x;
+				localWatcher.initializeNeighborhood(position);
+				final int left = xIndex[x], right = xIndex[x + 2];
+				localWatcher.visitLocation(-1, -1, prev[left]);
+				localWatcher.visitLocation(0, -1, prev[x]);
+				localWatcher.visitLocation(1, -1, prev[right]);
+				localWatcher.visitLocation(-1, 0, curr[left]);
+				localWatcher.visitLocation(0, 0, curr[x]);
+				localWatcher.visitLocation(1, 0, curr[right]);
+				localWatcher.visitLocation(-1, 1, next[left]);
+				localWatcher.visitLocation(0, 1, next[x]);
+				localWatcher.visitLocation(1, 1, next[right]);
+				output[x] = localWatcher.calcOutputValue();
+			}
+			rows.write(plane, y, output);
+			final double[] recycled = prev;
+			prev = curr;
+			curr = next;
+			next = recycled;
+		}
+	}
 
-		while (cursor.hasNext()) {
-			cursor.next();
-			final double currValue = cursor.get().getRealDouble();
-			cursor.localize(position);
-			access.setPosition(position);
-			access.get().setReal(currValue);
+	/** Sets the positions beyond X and Y from a plane index. */
+	private static void setPlanePosition(final long plane, final long[] dims,
+		final long[] position)
+	{
+		long index = plane;
+		for (int d = 2; d < dims.length; d++) {
+			position[d] = index % dims[d];
+			index /= dims[d];
 		}
+	}
 
-		return copyOfImg;
+	/**
+	 * Mirrors an index into the range 0 to size - 1 without doubling the edge
+	 * values (..., 2, 1, 0, 1, 2, ..., size - 2, size - 1, size - 2, ...), as
+	 * Views.extendMirrorSingle() does.
+	 */
+	private static int mirror(final int index, final int size) {
+		if (size == 1) return 0;
+		final int period = 2 * size - 2;
+		int m = index % period;
+		if (m < 0) m += period;
+		return m < size ? m : period - m;
 	}
 }
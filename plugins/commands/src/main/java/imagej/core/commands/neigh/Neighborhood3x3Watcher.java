@@ -67,4 +67,10 @@ public interface Neighborhood3x3Watcher {
 	 */
 	double calcOutputValue();
 
+	/**
+	 * Creates a new watcher that computes the same operation with state of its
+	 * own, so that several neighborhoods can be watched on separate threads.
+	 */
+	Neighborhood3x3Watcher copy();
+
 }
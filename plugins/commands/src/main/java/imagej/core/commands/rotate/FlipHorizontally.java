@@ -38,17 +38,13 @@
 import imagej.command.Command;
 import imagej.command.ContextCommand;
 import imagej.data.Dataset;
-import imagej.data.Extents;
-import imagej.data.Position;
+import imagej.data.ParallelLoop;
 import imagej.data.display.ImageDisplay;
 import imagej.data.display.ImageDisplayService;
 import imagej.data.display.OverlayService;
 import imagej.menu.MenuConstants;
 import imagej.util.RealRect;
-import net.imglib2.RandomAccess;
-import net.imglib2.img.ImgPlus;
 import net.imglib2.meta.Axes;
-import net.imglib2.type.numeric.RealType;
 
 import org.scijava.ItemIO;
 import org.scijava.plugin.Menu;
@@ -118,79 +114,8 @@ private void flipPixels(final Dataset input, final RealRect selection) {
 			height = (long) selection.height;
 		}
 
-		final long[] planeDims = new long[dims.length - 2];
-		int d = 0;
-		for (int i = 0; i < dims.length; i++) {
-			if (i == xAxis) continue;
-			if (i == yAxis) continue;
-			planeDims[d++] = dims[i];
-		}
-
-		final Position planePos = new Extents(planeDims).createPosition();
-
-		if (dims.length == 2) { // a single plane
-			flipPlane(input, xAxis, yAxis, new long[] {}, oX, oY, width, height);
-		}
-		else { // has multiple planes
-			final long[] planeIndex = new long[planeDims.length];
-			while (planePos.hasNext()) {
-				planePos.fwd();
-				planePos.localize(planeIndex);
-				flipPlane(input, xAxis, yAxis, planeIndex, oX, oY, width, height);
-			}
-		}
+		PlaneTransformer.flipHorizontally(input.getImgPlus(), xAxis, yAxis, oX, oY,
+			width, height, getContext(), ParallelLoop.getThreadCount(getContext()));
 		input.update();
 	}
-
-	private void flipPlane(final Dataset input, final int xAxis, final int yAxis,
-		final long[] planeIndex, final long oX, final long oY, final long width,
-		final long height)
-	{
-		if (height == 1) return;
-
-		final ImgPlus<? extends RealType<?>> imgPlus = input.getImgPlus();
-
-		final RandomAccess<? extends RealType<?>> acc1 = imgPlus.randomAccess();
-		final RandomAccess<? extends RealType<?>> acc2 = imgPlus.randomAccess();
-
-		final long[] pos1 = new long[planeIndex.length + 2];
-		final long[] pos2 = new long[planeIndex.length + 2];
-
-		int d = 0;
-		for (int i = 0; i < pos1.length; i++) {
-			if (i == xAxis) continue;
-			if (i == yAxis) continue;
-			pos1[i] = planeIndex[d];
-			pos2[i] = planeIndex[d];
-			d++;
-		}
-
-		long col1, col2;
-
-		if ((width & 1) == 0) { // even number of cols
-			col2 = width / 2;
-			col1 = col2 - 1;
-		}
-		else { // odd number of cols
-			col2 = width / 2 + 1;
-			col1 = col2 - 2;
-		}
-
-		while (col1 >= 0) {
-			pos1[xAxis] = oX + col1;
-			pos2[xAxis] = oX + col2;
-			for (long y = oY; y < oY + height; y++) {
-				pos1[yAxis] = y;
-				pos2[yAxis] = y;
-				acc1.setPosition(pos1);
-				acc2.setPosition(pos2);
-				final double value1 = acc1.get().getRealDouble();
-				final double value2 = acc2.get().getRealDouble();
-				acc1.get().setReal(value2);
-				acc2.get().setReal(value1);
-			}
-			col1--;
-			col2++;
-		}
-	}
 }
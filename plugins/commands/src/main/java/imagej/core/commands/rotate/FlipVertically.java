@@ -38,17 +38,13 @@
 import imagej.command.Command;
 import imagej.command.ContextCommand;
 import imagej.data.Dataset;
-import imagej.data.Extents;
-import imagej.data.Position;
+import imagej.data.ParallelLoop;
 import imagej.data.display.ImageDisplay;
 import imagej.data.display.ImageDisplayService;
 import imagej.data.display.OverlayService;
 import imagej.menu.MenuConstants;
 import imagej.util.RealRect;
-import net.imglib2.RandomAccess;
-import net.imglib2.img.ImgPlus;
 import net.imglib2.meta.Axes;
-import net.imglib2.type.numeric.RealType;
 
 import org.scijava.ItemIO;
 import org.scijava.plugin.Menu;
@@ -118,79 +114,8 @@ private void flipPixels(final Dataset input, final RealRect selection) {
 			height = (long) selection.height;
 		}
 
-		final long[] planeDims = new long[dims.length - 2];
-		int d = 0;
-		for (int i = 0; i < dims.length; i++) {
-			if (i == xAxis) continue;
-			if (i == yAxis) continue;
-			planeDims[d++] = dims[i];
-		}
-
-		final Position planePos = new Extents(planeDims).createPosition();
-
-		if (dims.length == 2) { // a single plane
-			flipPlane(input, xAxis, yAxis, new long[] {}, oX, oY, width, height);
-		}
-		else { // has multiple planes
-			final long[] planeIndex = new long[planeDims.length];
-			while (planePos.hasNext()) {
-				planePos.fwd();
-				planePos.localize(planeIndex);
-				flipPlane(input, xAxis, yAxis, planeIndex, oX, oY, width, height);
-			}
-		}
+		PlaneTransformer.flipVertically(input.getImgPlus(), xAxis, yAxis, oX, oY,
+			width, height, getContext(), ParallelLoop.getThreadCount(getContext()));
 		input.update();
 	}
-
-	private void flipPlane(final Dataset input, final int xAxis, final int yAxis,
-		final long[] planeIndex, final long oX, final long oY, final long width,
-		final long height)
-	{
-		if (height == 1) return;
-
-		final ImgPlus<? extends RealType<?>> imgPlus = input.getImgPlus();
-
-		final RandomAccess<? extends RealType<?>> acc1 = imgPlus.randomAccess();
-		final RandomAccess<? extends RealType<?>> acc2 = imgPlus.randomAccess();
-
-		final long[] pos1 = new long[planeIndex.length + 2];
-		final long[] pos2 = new long[planeIndex.length + 2];
-
-		int d = 0;
-		for (int i = 0; i < pos1.length; i++) {
-			if (i == xAxis) continue;
-			if (i == yAxis) continue;
-			pos1[i] = planeIndex[d];
-			pos2[i] = planeIndex[d];
-			d++;
-		}
-
-		long row1, row2;
-
-		if ((height & 1) == 0) { // even number of rows
-			row2 = height / 2;
-			row1 = row2 - 1;
-		}
-		else { // odd number of rows
-			row2 = height / 2 + 1;
-			row1 = row2 - 2;
-		}
-
-		while (row1 >= 0) {
-			pos1[yAxis] = oY + row1;
-			pos2[yAxis] = oY + row2;
-			for (long x = oX; x < oX + width; x++) {
-				pos1[xAxis] = x;
-				pos2[xAxis] = x;
-				acc1.setPosition(pos1);
-				acc2.setPosition(pos2);
-				final double value1 = acc1.get().getRealDouble();
-				final double value2 = acc2.get().getRealDouble();
-				acc1.get().setReal(value2);
-				acc2.get().setReal(value1);
-			}
-			row1--;
-			row2++;
-		}
-	}
 }
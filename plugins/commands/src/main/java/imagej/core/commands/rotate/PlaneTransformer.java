@@ -0,0 +1,450 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.core.commands.rotate;
+
+import imagej.data.ParallelLoop;
+import imagej.data.PlaneStorage;
+import imagej.data.RowAccess;
+
+import java.lang.reflect.Array;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+import org.scijava.Context;
+
+/**
+ * Flips and rotates the XY planes of an image a plane at a time, working on
+ * the primitive arrays of the planes whenever {@link PlaneStorage} can reach
+ * them. Planes, or the rows of a plane, are divided among several threads.
+ * Types packing several pixels into each storage word are only flipped by
+ * whole planes of planar images, and on one thread otherwise.
+ * <p>
+ * Flips are done in place by swapping rows or the pixels within rows.
+ * Rotations by 90 degrees copy each plane in square blocks, so that both the
+ * rows read and the columns written stay in cache. The rotated planes of a
+ * planar image are written back into the arrays they came from, which are then
+ * handed to the rotated image, so no second copy of the image is made.
+ * </p>
+ */
+final class PlaneTransformer {
+
+	/** The edge length of the square blocks planes are rotated in. */
+	private static final int BLOCK_SIZE = 64;
+
+	private PlaneTransformer() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Mirrors the given rectangle of every XY plane of an image left to right,
+	 * in place. The rectangle is clipped to the plane.
+	 */
+	public static void flipHorizontally(final Img<? extends RealType<?>> img,
+		final int xAxis, final int yAxis, final long x, final long y,
+		final long width, final long height, final Context context,
+		final int threads)
+	{
+		final RowAccess shape = new RowAccess(img, xAxis, yAxis);
+		final int x0 = (int) Math.max(0, x);
+		final int x1 = (int) Math.min(shape.getWidth(), x + width);
+		final int y0 = (int) Math.max(0, y);
+		final int y1 = (int) Math.min(shape.getHeight(), y + height);
+		if (x1 - x0 < 2 || y1 <= y0) return;
+		final int rows = y1 - y0;
+		final boolean direct = shape.isDirect();
+		// NB - packed types may only be split between threads by whole planes
+		final boolean byRows = RowAccess.canWriteRowsInParallel(img);
+		final int rowsPerUnit = byRows ? 1 : rows;
+		final int threadCount =
+			byRows || RowAccess.canWritePlanesInParallel(img, xAxis, yAxis)
+				? threads : 1;
+		ParallelLoop.run(context, shape.getPlaneCount() * rows / rowsPerUnit,
+			threadCount, new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count)
+				{
+					final RowAccess access = new RowAccess(img, xAxis, yAxis);
+					final double[] row = new double[access.getWidth()];
+					final int span = x1 - x0;
+					Object temp = null;
+					long lastPlane = -1;
+					PlaneStorage storage = null;
+					final long firstUnit = start * rowsPerUnit;
+					final long lastUnit = (start + count) * rowsPerUnit;
+					for (long unit = firstUnit; unit < lastUnit; unit++) {
+						final long plane = unit / rows;
+						final int r = y0 + (int) (unit % rows);
+						if (direct) {
+							if (plane != lastPlane) {
+								storage = PlaneStorage.get(img, plane);
+								lastPlane = plane;
+							}
+							final Object array = storage.getArray();
+							if (temp == null) temp = newArray(array, span);
+							final int first = storage.getOffset() + r * row.length + x0;
+							copy(array, first, temp, span - 1, -1, span);
+							System.arraycopy(temp, 0, array, first, span);
+						}
+						else {
+							access.read(plane, r, row);
+							for (int i = x0, j = x1 - 1; i < j; i++, j--) {
+								final double value = row[i];
+								row[i] = row[j];
+								row[j] = value;
+							}
+							access.write(plane, r, row);
+						}
+					}
+				}
+			});
+	}
+
+	/**
+	 * Mirrors the given rectangle of every XY plane of an image top to bottom,
+	 * in place. The rectangle is clipped to the plane.
+	 */
+	public static void flipVertically(final Img<? extends RealType<?>> img,
+		final int xAxis, final int yAxis, final long x, final long y,
+		final long width, final long height, final Context context,
+		final int threads)
+	{
+		final RowAccess shape = new RowAccess(img, xAxis, yAxis);
+		final int x0 = (int) Math.max(0, x);
+		final int x1 = (int) Math.min(shape.getWidth(), x + width);
+		final int y0 = (int) Math.max(0, y);
+		final int y1 = (int) Math.min(shape.getHeight(), y + height);
+		if (x1 <= x0 || y1 - y0 < 2) return;
+		final int pairs = (y1 - y0) / 2;
+		final boolean direct = shape.isDirect();
+		// NB - packed types may only be split between threads by whole planes
+		final boolean byRows = RowAccess.canWriteRowsInParallel(img);
+		final int pairsPerUnit = byRows ? 1 : pairs;
+		final int threadCount =
+			byRows || RowAccess.canWritePlanesInParallel(img, xAxis, yAxis)
+				? threads : 1;
+		ParallelLoop.run(context, shape.getPlaneCount() * pairs / pairsPerUnit,
+			threadCount, new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count)
+				{
+					final RowAccess access = new RowAccess(img, xAxis, yAxis);
+					final double[] top = new double[access.getWidth()];
+					final double[] bottom = new double[access.getWidth()];
+					final int span = x1 - x0;
+					Object temp = null;
+					long lastPlane = -1;
+					PlaneStorage storage = null;
+					final long firstUnit = start * pairsPerUnit;
+					final long lastUnit = (start + count) * pairsPerUnit;
+					for (long unit = firstUnit; unit < lastUnit; unit++) {
+						final long plane = unit / pairs;
+						final int r1 = y0 + (int) (unit % pairs);
+						final int r2 = y1 - 1 - (r1 - y0);
+						if (direct) {
+							if (plane != lastPlane) {
+								storage = PlaneStorage.get(img, plane);
+								lastPlane = plane;
+							}
+							final Object array = storage.getArray();
+							if (temp == null) temp = newArray(array, span);
+							final int first1 = storage.getOffset() + r1 * top.length + x0;
+							final int first2 = storage.getOffset() + r2 * top.length + x0;
+							System.arraycopy(array, first1, temp, 0, span);
+							System.arraycopy(array, first2, array, first1, span);
+							System.arraycopy(temp, 0, array, first2, span);
+						}
+						else {
+							access.read(plane, r1, top);
+							access.read(plane, r2, bottom);
+							for (int i = x0; i < x1; i++) {
+								final double value = top[i];
+								top[i] = bottom[i];
+								bottom[i] = value;
+							}
+							access.write(plane, r1, top);
+							access.write(plane, r2, bottom);
+						}
+					}
+				}
+			});
+	}
+
+	/**
+	 * Rotates every XY plane of an image by 90 degrees, the XY planes being
+	 * those of the first two dimensions. The input must not be used afterwards,
+	 * since its planes may be handed to the result.
+	 * 
+	 * @param clockwise Whether to rotate to the right rather than to the left.
+	 * @return the rotated image, or null if the image's storage cannot be
+	 *         reached directly.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static Img<? extends RealType<?>> rotate(
+		final ImgPlus<? extends RealType<?>> img, final boolean clockwise,
+		final Context context, final int threads)
+	{
+		if (img.numDimensions() < 2 || !PlaneStorage.isSupported(img)) {
+			return null;
+		}
+		final long[] dims = new long[img.numDimensions()];
+		img.dimensions(dims);
+		final int width = (int) dims[0];
+		final int height = (int) dims[1];
+		dims[0] = height;
+		dims[1] = width;
+		final long planes = PlaneStorage.getPlaneCount(img);
+		final RealType<?> type = img.firstElement();
+
+		// output pixel (height-1-y, x) or (y, width-1-x) comes from input (x, y)
+		final int base = clockwise ? height - 1 : (width - 1) * height;
+		final int xStep = clockwise ? height : -height;
+		final int yStep = clockwise ? -1 : 1;
+
+		final Img<?> container = img.getImg();
+		if (container instanceof PlanarImg && planes <= Integer.MAX_VALUE) {
+			final PlanarImg<?, ?> input = (PlanarImg<?, ?>) container;
+			final PlanarImg output =
+				(PlanarImg) new PlaneSharingFactory().create(dims, (NativeType) type);
+			if (planes >= threads) {
+				ParallelLoop.run(context, planes, threads, new ParallelLoop.Body() {
+
+					@Override
+					public void run(final int chunk, final long start,
+						final long count)
+					{
+						Object scratch = null;
+						for (long p = start; p < start + count; p++) {
+							final PlaneStorage plane = PlaneStorage.get(img, p);
+							if (scratch == null) {
+								scratch = newArray(plane.getArray(), plane.getLength());
+							}
+							rotateRows(plane, scratch, 0, width, base, xStep, yStep, 0,
+								height);
+							System.arraycopy(scratch, 0, plane.getArray(), 0, plane
+								.getLength());
+							output.setPlane((int) p, input.getPlane((int) p));
+						}
+					}
+				});
+			}
+			else {
+				// too few planes to go around, so share the rows of each plane
+				for (long p = 0; p < planes; p++) {
+					final PlaneStorage plane = PlaneStorage.get(img, p);
+					final Object scratch =
+						newArray(plane.getArray(), plane.getLength());
+					ParallelLoop.run(context, height, threads,
+						new ParallelLoop.Body() {
+
+							@Override
+							public void run(final int chunk, final long start,
+								final long count)
+							{
+								rotateRows(plane, scratch, 0, width, base, xStep, yStep,
+									(int) start, (int) (start + count));
+							}
+						});
+					System.arraycopy(scratch, 0, plane.getArray(), 0, plane
+						.getLength());
+					output.setPlane((int) p, input.getPlane((int) p));
+				}
+			}
+			return output;
+		}
+
+		final Img<? extends RealType<?>> output =
+			img.factory().create(dims, (RealType) type);
+		if (!PlaneStorage.isSupported(output)) return null;
+		final int bands = (height + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		ParallelLoop.run(context, planes * bands, threads,
+			new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count) {
+					for (long unit = start; unit < start + count; unit++) {
+						final long p = unit / bands;
+						final int y0 = (int) (unit % bands) * BLOCK_SIZE;
+						final PlaneStorage dst = PlaneStorage.get(output, p);
+						rotateRows(PlaneStorage.get(img, p), dst.getArray(), dst
+							.getOffset(), width, base, xStep, yStep, y0, Math.min(height,
+							y0 + BLOCK_SIZE));
+					}
+				}
+			});
+		return output;
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Copies rows y0 up to y1 of a plane into a rotated plane, one square block
+	 * at a time. Pixel (x, y) goes to index offset + base + x * xStep + y *
+	 * yStep of the destination array.
+	 */
+	private static void rotateRows(final PlaneStorage src, final Object dst,
+		final int offset, final int width, final int base, final int xStep,
+		final int yStep, final int y0, final int y1)
+	{
+		final Object array = src.getArray();
+		for (int by = y0; by < y1; by += BLOCK_SIZE) {
+			final int yEnd = Math.min(by + BLOCK_SIZE, y1);
+			for (int bx = 0; bx < width; bx += BLOCK_SIZE) {
+				final int count = Math.min(BLOCK_SIZE, width - bx);
+				for (int y = by; y < yEnd; y++) {
+					copy(array, src.getOffset() + y * width + bx, dst, offset + base +
+						bx * xStep + y * yStep, xStep, count);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies count consecutive elements of one primitive array into another,
+	 * advancing by the given step in the destination.
+	 */
+	private static void copy(final Object src, final int srcIndex,
+		final Object dst, final int dstIndex, final int step, final int count)
+	{
+		int d = dstIndex;
+		if (src instanceof byte[]) {
+			final byte[] s = (byte[]) src, t = (byte[]) dst;
+			for (int i = srcIndex; i < srcIndex + count; i++, d += step) {
+				t[d] = s[i];
+			}
+		}
+		else if (src instanceof short[]) {
+			final short[] s = (short[]) src, t = (short[]) dst;
+			for (int i = srcIndex; i < srcIndex + count; i++, d += step) {
+				t[d] = s[i];
+			}
+		}
+		else if (src instanceof int[]) {
+			final int[] s = (int[]) src, t = (int[]) dst;
+			for (int i = srcIndex; i < srcIndex + count; i++, d += step) {
+				t[d] = s[i];
+			}
+		}
+		else if (src instanceof long[]) {
+			final long[] s = (long[]) src, t = (long[]) dst;
+			for (int i = srcIndex; i < srcIndex + count; i++, d += step) {
+				t[d] = s[i];
+			}
+		}
+		else if (src instanceof float[]) {
+			final float[] s = (float[]) src, t = (float[]) dst;
+			for (int i = srcIndex; i < srcIndex + count; i++, d += step) {
+				t[d] = s[i];
+			}
+		}
+		else {
+			final double[] s = (double[]) src, t = (double[]) dst;
+			for (int i = srcIndex; i < srcIndex + count; i++, d += step) {
+				t[d] = s[i];
+			}
+		}
+	}
+
+	/** Creates a primitive array of the same kind as the given one. */
+	private static Object newArray(final Object like, final int length) {
+		return Array.newInstance(like.getClass().getComponentType(), length);
+	}
+
+	/**
+	 * Creates planar images whose planes are left empty, to be filled with
+	 * {@link PlanarImg#setPlane} by the caller.
+	 */
+	private static class PlaneSharingFactory<T extends NativeType<T>> extends
+		PlanarImgFactory<T>
+	{
+
+		@Override
+		public PlanarImg<T, ByteArray> createByteInstance(final long[] dimensions,
+			final int entitiesPerPixel)
+		{
+			return new PlanarImg<T, ByteArray>(dimensions, entitiesPerPixel);
+		}
+
+		@Override
+		public PlanarImg<T, ShortArray> createShortInstance(
+			final long[] dimensions, final int entitiesPerPixel)
+		{
+			return new PlanarImg<T, ShortArray>(dimensions, entitiesPerPixel);
+		}
+
+		@Override
+		public PlanarImg<T, IntArray> createIntInstance(final long[] dimensions,
+			final int entitiesPerPixel)
+		{
+			return new PlanarImg<T, IntArray>(dimensions, entitiesPerPixel);
+		}
+
+		@Override
+		public PlanarImg<T, LongArray> createLongInstance(final long[] dimensions,
+			final int entitiesPerPixel)
+		{
+			return new PlanarImg<T, LongArray>(dimensions, entitiesPerPixel);
+		}
+
+		@Override
+		public PlanarImg<T, FloatArray> createFloatInstance(
+			final long[] dimensions, final int entitiesPerPixel)
+		{
+			return new PlanarImg<T, FloatArray>(dimensions, entitiesPerPixel);
+		}
+
+		@Override
+		public PlanarImg<T, DoubleArray> createDoubleInstance(
+			final long[] dimensions, final int entitiesPerPixel)
+		{
+			return new PlanarImg<T, DoubleArray>(dimensions, entitiesPerPixel);
+		}
+	}
+
+}
@@ -131,5 +131,10 @@ public long[] calcOutputDimensions(final long[] inputDimensions) {
 		public boolean isShapePreserving() {
 			return false;
 		}
+
+		@Override
+		public int getQuarterTurns() {
+			return 3;
+		}
 	}
 }
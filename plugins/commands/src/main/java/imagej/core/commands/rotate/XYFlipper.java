@@ -38,6 +38,7 @@
 import imagej.core.commands.imglib.OutputAlgorithm;
 import imagej.data.Dataset;
 import imagej.data.Extents;
+import imagej.data.ParallelLoop;
 import imagej.data.Position;
 import imagej.util.RealRect;
 import net.imglib2.RandomAccess;
@@ -98,6 +99,12 @@ void calcOutputPosition(long[] inputDimensions, long[] inputPosition,
 		 * Returns if this transformation does not reorder X & Y axes
 		 */
 		boolean isShapePreserving();
+
+		/**
+		 * Returns the number of quarter turns to the right this transformation
+		 * rotates XY planes by, or 0 if it is not such a rotation
+		 */
+		int getQuarterTurns();
 	}
 
 	// -- constructor --
@@ -113,23 +120,16 @@ public XYFlipper(final Dataset dataset, final RealRect bounds,
 	// -- public interface : implementation of OutputAlgorithm methods --
 
 	/**
-	 * Makes sure input is okay and creates output image
+	 * Makes sure input is okay
 	 */
 	@Override
 	public boolean checkInput() {
-		final Img inputImage = dataset.getImgPlus(); // TODO - raw type required
-																									// here
+		final Img inputImage = dataset.getImgPlus();
 
 		inputDimensions = new long[inputImage.numDimensions()];
 
 		inputImage.dimensions(inputDimensions);
 
-		final long[] outputDimensions =
-			flipper.calcOutputDimensions(inputDimensions);
-
-		outputImage =
-			inputImage.factory().create(outputDimensions, inputImage.firstElement());
-
 		return true;
 	}
 
@@ -149,6 +149,20 @@ public String getErrorMessage() {
 	public boolean process() {
 		final Img<? extends RealType<?>> inputImage = dataset.getImgPlus();
 
+		// rotations of directly accessible planes need no pixel by pixel copy
+		final int turns = flipper.getQuarterTurns();
+		if (turns == 1 || turns == 3) {
+			outputImage =
+				PlaneTransformer.rotate(dataset.getImgPlus(), turns == 1, dataset
+					.getContext(), ParallelLoop.getThreadCount(dataset.getContext()));
+			if (outputImage != null) return true;
+		}
+
+		final Img rawImage = inputImage; // TODO - raw type required here
+		outputImage =
+			rawImage.factory().create(flipper.calcOutputDimensions(inputDimensions),
+				rawImage.firstElement());
+
 		inputAccessor = inputImage.randomAccess();
 		outputAccessor = outputImage.randomAccess();
 
@@ -37,6 +37,9 @@
 
 import imagej.command.DynamicCommand;
 import imagej.data.Dataset;
+import imagej.data.ParallelLoop;
+import imagej.data.PlaneStorage;
+import imagej.data.RowAccess;
 import imagej.module.DefaultModuleItem;
 import imagej.util.Prefs;
 import net.imglib2.Cursor;
@@ -44,6 +47,7 @@
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.img.ImgPlus;
+import net.imglib2.img.basictypeaccess.PlanarAccess;
 import net.imglib2.meta.Axes;
 import net.imglib2.meta.AxisType;
 import net.imglib2.ops.function.Function;
@@ -56,6 +60,7 @@
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.DoubleType;
 
+import org.scijava.Context;
 import org.scijava.ItemIO;
 import org.scijava.plugin.Parameter;
 
@@ -142,7 +147,13 @@ else if (dataset.getType().getClass() == newType.getClass()) {
 			imgPlus = copyToCompositeGrayscale((ImgPlus) inputImg, newType);
 		}
 		else {
-			imgPlus = copyToType(inputImg, newType);
+			// the input is discarded, so its planes can be handed to the output
+			final ImgFactory<? extends RealType<?>> factory = inputImg.factory();
+			@SuppressWarnings("unchecked")
+			final ImgFactory<T> typedFactory = (ImgFactory<T>) factory;
+			imgPlus =
+				copyToType(inputImg, newType, typedFactory, true, dataset
+					.getContext());
 		}
 		dataset.setRGBMerged(false);  // event order requires this before setImgPlus()
 		dataset.setImgPlus(imgPlus);
@@ -172,20 +183,72 @@ else if (dataset.getType().getClass() == newType.getClass()) {
 	public static <T extends RealType<T>> ImgPlus<T> copyToType(
 		final ImgPlus<? extends RealType<?>> inputImg, final T newType,
 		final ImgFactory<T> imgFactory)
+	{
+		return copyToType(inputImg, newType, imgFactory, false, null);
+	}
+
+	// -- private helpers --
+
+	/**
+	 * Creates an {@link Img} of the given type and fills it from the input. Rows
+	 * are converted a whole row at a time, several threads each taking a share
+	 * of the rows, straight between primitive arrays whenever the storage of the
+	 * images can be reached. If planes may be reused, planes of a planar input
+	 * whose values all fit the new type are shared with the output instead of
+	 * copied; the input must then no longer be used.
+	 */
+	private static <T extends RealType<T>> ImgPlus<T> copyToType(
+		final ImgPlus<? extends RealType<?>> inputImg, final T newType,
+		final ImgFactory<T> imgFactory, final boolean reusePlanes,
+		final Context context)
 	{
 		final long[] dims = new long[inputImg.numDimensions()];
 		inputImg.dimensions(dims);
 		final Img<T> outputImg = imgFactory.create(dims, newType);
 
-		final Cursor<? extends RealType<?>> in = inputImg.localizingCursor();
-		final RandomAccess<T> out = outputImg.randomAccess();
+		final RealType<?> inType = inputImg.firstElement();
+		final double outTypeMin = newType.getMinValue();
+		final double outTypeMax = newType.getMaxValue();
+		final boolean inputIs1Bit = inType.getBitsPerPixel() == 1;
 
-		final double outTypeMin = out.get().getMinValue();
-		final double outTypeMax = out.get().getMaxValue();
+		final PlaneStorage.Kind kind = PlaneStorage.getKind(inType);
+		if (!isRowwise(dims)) {
+			copyPixels(inputImg, outputImg, outTypeMin, outTypeMax, inputIs1Bit);
+		}
+		else if (reusePlanes || kind == null ||
+			kind != PlaneStorage.getKind(newType) ||
+			!PlaneStorage.copy(inputImg, outputImg))
+		{
+			final boolean[] reused =
+				reusePlanes ? sharePlanes(inputImg, outputImg, context) : null;
+			// values of a narrower type always fit into a wider one
+			final boolean clamp =
+				inputIs1Bit || inType.getMinValue() < outTypeMin ||
+					inType.getMaxValue() > outTypeMax;
+			copyRows(inputImg, outputImg, outTypeMin, outTypeMax, inputIs1Bit,
+				clamp, reused, context);
+		}
+		// else the storage was the same and the planes were copied verbatim
+
+		return new ImgPlus<T>(outputImg, inputImg);
+	}
 
-		final boolean inputIs1Bit = in.get().getBitsPerPixel() == 1;
+	/** Gets whether an image of the given dimensions has rows to stream. */
+	private static boolean isRowwise(final long[] dims) {
+		if (dims.length == 0) return false;
+		if (dims[0] > Integer.MAX_VALUE) return false;
+		return dims.length == 1 || dims[1] <= Integer.MAX_VALUE;
+	}
 
-		final long[] pos = new long[dims.length];
+	/** Copies an image one pixel at a time. */
+	private static <T extends RealType<T>> void copyPixels(
+		final Img<? extends RealType<?>> inputImg, final Img<T> outputImg,
+		final double outTypeMin, final double outTypeMax,
+		final boolean inputIs1Bit)
+	{
+		final Cursor<? extends RealType<?>> in = inputImg.localizingCursor();
+		final RandomAccess<T> out = outputImg.randomAccess();
+		final long[] pos = new long[inputImg.numDimensions()];
 		while (in.hasNext()) {
 			in.fwd();
 			in.localize(pos);
@@ -196,12 +259,120 @@ public static <T extends RealType<T>> ImgPlus<T> copyToType(
 			if (inputIs1Bit && value > 0) value = outTypeMax;
 			out.get().setReal(value);
 		}
+	}
 
-		return new ImgPlus<T>(outputImg, inputImg);
+	/**
+	 * Copies the rows of an image into another of the same dimensions,
+	 * skipping the planes marked as reused.
+	 */
+	private static void copyRows(final Img<? extends RealType<?>> inputImg,
+		final Img<? extends RealType<?>> outputImg, final double outTypeMin,
+		final double outTypeMax, final boolean inputIs1Bit, final boolean clamp,
+		final boolean[] reused, final Context context)
+	{
+		final RowAccess shape = new RowAccess(outputImg);
+		final int width = shape.getWidth();
+		final int height = shape.getHeight();
+		final long planes = shape.getPlaneCount();
+		// NB - packed types may only be split between threads by whole planes
+		final boolean byRows = RowAccess.canWriteRowsInParallel(outputImg);
+		final int rowsPerUnit = byRows ? 1 : height;
+		final int threads =
+			byRows || RowAccess.canWritePlanesInParallel(outputImg, 0, 1)
+				? ParallelLoop.getThreadCount(context) : 1;
+		ParallelLoop.run(context, planes * height / rowsPerUnit, threads,
+			new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count) {
+					final RowAccess in = new RowAccess(inputImg);
+					final RowAccess out = new RowAccess(outputImg);
+					final double[] row = new double[width];
+					final long first = start * rowsPerUnit;
+					final long last = (start + count) * rowsPerUnit;
+					for (long unit = first; unit < last; unit++) {
+						final long plane = unit / height;
+						if (reused != null && reused[(int) plane]) continue;
+						final int y = (int) (unit % height);
+						in.read(plane, y, row);
+						if (clamp) {
+							for (int x = 0; x < width; x++) {
+								double value = row[x];
+								if (value < outTypeMin) value = outTypeMin;
+								if (value > outTypeMax) value = outTypeMax;
+								if (inputIs1Bit && value > 0) value = outTypeMax;
+								row[x] = value;
+							}
+						}
+						out.write(plane, y, row);
+					}
+				}
+			});
+	}
+
+	/**
+	 * Hands the planes of a planar input to a planar output whose pixels are
+	 * stored in the same kind of array, for those planes whose values all lie
+	 * within the range of the output type.
+	 * 
+	 * @return which planes were shared, or null if none could be
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static boolean[] sharePlanes(
+		final ImgPlus<? extends RealType<?>> inputImg,
+		final Img<? extends RealType<?>> outputImg, final Context context)
+	{
+		Img<?> container = inputImg;
+		while (container instanceof ImgPlus) {
+			container = ((ImgPlus<?>) container).getImg();
+		}
+		if (!(container instanceof PlanarAccess) ||
+			!(outputImg instanceof PlanarAccess) ||
+			!PlaneStorage.isSupported(inputImg) ||
+			!PlaneStorage.isSupported(outputImg))
+		{
+			return null;
+		}
+		final PlanarAccess in = (PlanarAccess) container;
+		final PlanarAccess out = (PlanarAccess) outputImg;
+		if (in.getPlane(0).getClass() != out.getPlane(0).getClass()) return null;
+		final long planes = PlaneStorage.getPlaneCount(inputImg);
+		if (planes > Integer.MAX_VALUE) return null;
+		final double min = outputImg.firstElement().getMinValue();
+		final double max = outputImg.firstElement().getMaxValue();
+		final boolean[] reused = new boolean[(int) planes];
+		ParallelLoop.run(context, planes, ParallelLoop.getThreadCount(context),
+			new ParallelLoop.Body() {
+
+				@Override
+				public void run(final int chunk, final long start, final long count) {
+					for (long p = start; p < start + count; p++) {
+						if (!fits(PlaneStorage.get(inputImg, p), min, max)) continue;
+						// each plane is a separate slot, so no locking is needed
+						out.setPlane((int) p, in.getPlane((int) p));
+						reused[(int) p] = true;
+					}
+				}
+			});
+		return reused;
+	}
+
+	/** Gets whether every value of a plane lies within the given range. */
+	private static boolean fits(final PlaneStorage plane, final double min,
+		final double max)
+	{
+		if (plane == null) return false;
+		final double[] values = new double[Math.min(plane.getLength(), 4096)];
+		for (int i = 0; i < plane.getLength(); i += values.length) {
+			final int count = Math.min(values.length, plane.getLength() - i);
+			plane.getReals(i, values, count);
+			for (int j = 0; j < count; j++) {
+				if (values[j] < min || values[j] > max) return false;
+			}
+		}
+		return true;
 	}
 
-	// -- private helpers --
-	
 	// TODO - make public?
 
 	/**
@@ -0,0 +1,201 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.core.commands.assign;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.ops.function.Function;
+import net.imglib2.ops.parse.RealEquationFunctionParser;
+import net.imglib2.ops.util.Tuple2;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link CompiledEquation}. Compiled equations are compared
+ * with the ops function tree {@link RealEquationFunctionParser} parses the
+ * same equation into, at every point of a small three dimensional image.
+ */
+public class CompiledEquationTest {
+
+	private static final long[] DIMS = { 7, 5, 3 };
+
+	private ImgPlus<FloatType> img;
+
+	@Before
+	public void setUp() {
+		final Img<FloatType> data =
+			new ArrayImgFactory<FloatType>().create(DIMS, new FloatType());
+		final RandomAccess<FloatType> access = data.randomAccess();
+		final long[] pos = new long[DIMS.length];
+		for (pos[2] = 0; pos[2] < DIMS[2]; pos[2]++) {
+			for (pos[1] = 0; pos[1] < DIMS[1]; pos[1]++) {
+				for (pos[0] = 0; pos[0] < DIMS[0]; pos[0]++) {
+					access.setPosition(pos);
+					access.get().setReal((3 * pos[0] + 7 * pos[1] + 11 * pos[2]) % 17 -
+						5.25);
+				}
+			}
+		}
+		img = new ImgPlus<FloatType>(data);
+	}
+
+	@Test
+	public void testOperators() {
+		assertCompiled("img + 40");
+		assertCompiled("img - 2.5");
+		assertCompiled("img * img");
+		assertCompiled("100 / img");
+		assertCompiled("img / 0");
+		assertCompiled("2 ^ img");
+		assertCompiled("img ^ 2");
+		assertCompiled("-img");
+		assertCompiled("+img - (-3)");
+		assertCompiled("E + PI * img");
+	}
+
+	@Test
+	public void testPrecedence() {
+		assertCompiled("1 + 2 * img");
+		assertCompiled("(1 + 2) * img");
+		assertCompiled("img - 3 - 4");
+		assertCompiled("img / 3 / 4");
+		assertCompiled("img - 3 * 4 / 5 + 6");
+		assertCompiled("2 * img ^ 2");
+		assertCompiled("(img + 1) ^ 3 / 4");
+		assertCompiled("-(img - 3) * 2");
+		assertCompiled("((img))");
+	}
+
+	@Test
+	public void testFunctions() {
+		final String[] functions =
+			{ "abs", "acos", "asin", "atan", "cbrt", "ceil", "cos", "cosh", "exp",
+				"expm1", "floor", "log", "log10", "log1p", "signum", "sin", "sinh",
+				"sqrt", "tan", "tanh" };
+		for (final String function : functions) {
+			assertCompiled(function + "(img)");
+			assertCompiled(function + "(img / 20)");
+		}
+		assertCompiled("sqrt(abs(img)) + cos(img * PI / 7)");
+	}
+
+	@Test
+	public void testCoordinates() {
+		assertCompiled("[x,y], x^2 + y^2");
+		assertCompiled("[x,y,z], x + 10 * y + 100 * z");
+		assertCompiled("[u1,v1,w1] , -2.003*u1 + 8.41*w1 + E + PI");
+		assertCompiled("[a,b,c], cos(c*PI/7) + sin(b*PI/12) - a * img");
+		assertCompiled("[x], x");
+	}
+
+	@Test
+	public void testUsesImage() {
+		assertTrue(CompiledEquation.compile("img + 1", 3).usesImage());
+		assertFalse(CompiledEquation.compile("[x,y], x + y", 3).usesImage());
+	}
+
+	@Test
+	public void testNotCompiled() {
+		// outside the compiled core, left to the function tree
+		assertNull(CompiledEquation.compile("img ^ 2 ^ 3", 3));
+		assertNull(CompiledEquation.compile("-img ^ 2", 3));
+		assertNull(CompiledEquation.compile("gamma(img)", 3));
+		assertNull(CompiledEquation.compile("img % 3", 3));
+		assertNull(CompiledEquation.compile("img < 3", 3));
+		// not valid equations
+		assertNull(CompiledEquation.compile("[x,x], x", 3));
+		assertNull(CompiledEquation.compile("[x,y,z,t], x", 3));
+		assertNull(CompiledEquation.compile("img +", 3));
+		assertNull(CompiledEquation.compile("(img", 3));
+		assertNull(CompiledEquation.compile("img img", 3));
+		assertNull(CompiledEquation.compile("q + 1", 3));
+	}
+
+	// -- helper methods --
+
+	/**
+	 * Asserts that the equation compiles and agrees with its function tree at
+	 * every point of the image, evaluating a row at a time.
+	 */
+	private void assertCompiled(final String equation) {
+		final Tuple2<Function<long[], DoubleType>, String> parsed =
+			new RealEquationFunctionParser().parse(equation, img);
+		assertNull(equation, parsed.get2());
+		final Function<long[], DoubleType> function = parsed.get1();
+		final CompiledEquation compiled =
+			CompiledEquation.compile(equation, DIMS.length);
+		assertNotNull(equation, compiled);
+
+		final int width = (int) DIMS[0];
+		final CompiledEquation.Evaluator evaluator =
+			compiled.createEvaluator(width);
+		final RandomAccess<FloatType> access = img.randomAccess();
+		final DoubleType expected = new DoubleType();
+		final double[] row = new double[width + 2];
+		final double[] values = new double[width + 2];
+		final long[] pos = new long[DIMS.length];
+		for (pos[2] = 0; pos[2] < DIMS[2]; pos[2]++) {
+			for (pos[1] = 0; pos[1] < DIMS[1]; pos[1]++) {
+				// offset the row within its arrays as partial regions do
+				for (pos[0] = 0; pos[0] < width; pos[0]++) {
+					access.setPosition(pos);
+					row[(int) pos[0] + 1] = access.get().getRealDouble();
+				}
+				pos[0] = 0;
+				evaluator.evaluate(pos, 0, width, row, 1, values);
+				for (pos[0] = 0; pos[0] < width; pos[0]++) {
+					function.compute(pos, expected);
+					final double value = values[(int) pos[0] + 1];
+					final double e = expected.getRealDouble();
+					assertEquals(equation + " at " + pos[0] + "," + pos[1] + "," +
+						pos[2], e, value, 1e-9 * Math.max(1, Math.abs(e)));
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,210 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.core.commands.assign;
+
+import static org.junit.Assert.assertEquals;
+import imagej.data.Dataset;
+import imagej.data.DatasetService;
+import imagej.data.Extents;
+import imagej.data.ParallelLoopService;
+import imagej.data.Position;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+import net.imglib2.ops.operation.complex.unary.ComplexUnaryOperation;
+import net.imglib2.ops.operation.real.unary.RealAddConstant;
+import net.imglib2.ops.operation.real.unary.RealMultiplyConstant;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.Unsigned12BitType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Unit tests for {@link InplaceUnaryTransform}. Transformed images are compared
+ * with the operation applied to each pixel of a copy one at a time.
+ */
+public class InplaceUnaryTransformTest {
+
+	/** Row widths that are not multiples of the 64 bit storage words. */
+	private static final int[] WIDTHS = { 70, 130, 5 };
+
+	private Context context;
+
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class, ParallelLoopService.class);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testByteTypes() {
+		for (final int width : WIDTHS) {
+			assertTransform(new UnsignedByteType(), width, 255);
+			assertTransform(new FloatType(), width, 1000);
+		}
+	}
+
+	@Test
+	public void testPackedTypes() {
+		for (final int width : WIDTHS) {
+			assertTransform(new BitType(), width, 1);
+			assertTransform(new Unsigned12BitType(), width, 4095);
+		}
+	}
+
+	// -- helper methods --
+
+	private <T extends RealType<T> & NativeType<T>> void assertTransform(
+		final T type, final int width, final int maxValue)
+	{
+		final double[] addends = { 0.6, 37.4, -3 };
+		for (final double addend : addends) {
+			assertTransform(new PlanarImgFactory<T>(), type, width, maxValue,
+				new RealAddConstant<DoubleType, DoubleType>(addend));
+			assertTransform(new ArrayImgFactory<T>(), type, width, maxValue,
+				new RealAddConstant<DoubleType, DoubleType>(addend));
+		}
+		assertTransform(new ArrayImgFactory<T>(), type, width, maxValue,
+			new RealMultiplyConstant<DoubleType, DoubleType>(0.5));
+	}
+
+	private <T extends RealType<T> & NativeType<T>> void assertTransform(
+		final ImgFactory<T> factory, final T type, final int width,
+		final int maxValue, final ComplexUnaryOperation<DoubleType, DoubleType> op)
+	{
+		final long[] dims = { width, 9, 3 };
+		final String message =
+			type.getClass().getSimpleName() + " in " +
+				factory.getClass().getSimpleName() + " " + Arrays.toString(dims);
+
+		// every plane
+		Dataset ds = createDataset(factory, type, dims, maxValue);
+		Img<T> expected = transformed(ds, op, -1);
+		new InplaceUnaryTransform<T, DoubleType>(op, new DoubleType(), ds, null)
+			.run();
+		assertImagesEqual(message, expected, ds);
+
+		// a single plane
+		ds = createDataset(factory, type, dims, maxValue);
+		expected = transformed(ds, op, 1);
+		final Position planePos =
+			new Extents(new long[] { dims[2] }).createPosition();
+		planePos.setPosition(1, 0);
+		new InplaceUnaryTransform<T, DoubleType>(op, new DoubleType(), ds, null,
+			planePos).run();
+		assertImagesEqual(message + " plane 1", expected, ds);
+	}
+
+	private <T extends RealType<T> & NativeType<T>> Dataset createDataset(
+		final ImgFactory<T> factory, final T type, final long[] dims,
+		final int maxValue)
+	{
+		final Img<T> img = factory.create(dims, type);
+		final Random random = new Random(dims[0]);
+		for (final T t : img) {
+			t.setReal(random.nextInt(maxValue + 1));
+		}
+		return context.getService(DatasetService.class).create(
+			new ImgPlus<T>(img, "temp", new AxisType[] { Axes.X, Axes.Y,
+				Axes.Z }));
+	}
+
+	/**
+	 * Applies an operation to a copy of the pixels of a Dataset one at a time,
+	 * within the given Z plane or every plane if it is negative.
+	 */
+	private <T extends RealType<T>> Img<T> transformed(final Dataset ds,
+		final ComplexUnaryOperation<DoubleType, DoubleType> op, final long z)
+	{
+		@SuppressWarnings("unchecked")
+		final Img<T> copy = ((Img<T>) ds.getImgPlus()).copy();
+		final Cursor<T> cursor = copy.localizingCursor();
+		final DoubleType in = new DoubleType();
+		final DoubleType out = new DoubleType();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			if (z >= 0 && cursor.getLongPosition(2) != z) continue;
+			in.setReal(cursor.get().getRealDouble());
+			op.compute(in, out);
+			cursor.get().setReal(out.getRealDouble());
+		}
+		return copy;
+	}
+
+	private <T extends RealType<T>> void assertImagesEqual(final String message,
+		final Img<T> expected, final Dataset ds)
+	{
+		final Cursor<T> cursor = expected.localizingCursor();
+		final RandomAccess<? extends RealType<?>> access =
+			ds.getImgPlus().randomAccess();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			access.setPosition(cursor);
+			assertEquals(message + " at " + Arrays.toString(position(cursor)),
+				cursor.get().getRealDouble(), access.get().getRealDouble(), 0);
+		}
+	}
+
+	private long[] position(final Cursor<?> cursor) {
+		final long[] pos = new long[cursor.numDimensions()];
+		cursor.localize(pos);
+		return pos;
+	}
+
+}
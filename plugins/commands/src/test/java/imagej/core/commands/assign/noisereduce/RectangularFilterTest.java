@@ -0,0 +1,299 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.core.commands.assign.noisereduce;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.ops.function.Function;
+import net.imglib2.ops.function.real.RealAdaptiveMedianFunction;
+import net.imglib2.ops.function.real.RealArithmeticMeanFunction;
+import net.imglib2.ops.function.real.RealImageFunction;
+import net.imglib2.ops.function.real.RealMaxFunction;
+import net.imglib2.ops.function.real.RealMedianFunction;
+import net.imglib2.ops.function.real.RealMinFunction;
+import net.imglib2.ops.img.SerialImageAssignment;
+import net.imglib2.ops.input.PointSetInputIterator;
+import net.imglib2.ops.pointset.HyperVolumePointSet;
+import net.imglib2.ops.pointset.PointSet;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory.Boundary;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link RankFilter} and {@link BoxFilter}. Each filter is
+ * compared with the neighborhood function it stands in for, evaluated at every
+ * point with a mirroring out of bounds strategy the way {@link Reducer} does.
+ */
+public class RectangularFilterTest {
+
+	/** Three planes of 9 x 7, so that every window reaches past the edges. */
+	private static final long[] DIMENSIONS = { 9, 7, 3 };
+
+	/** The kinds of neighborhood function the filters stand in for. */
+	private enum Kind {
+		MINIMUM, MEDIAN, MAXIMUM, MEAN
+	}
+
+	@Test
+	public void testHistogramRanks() {
+		// unsigned bytes are ranked in a histogram
+		final ImgPlus<UnsignedByteType> img =
+			planar(new UnsignedByteType(), 0, 256, 1);
+		for (final PointSet window : windows()) {
+			assertRanks(img, window);
+		}
+	}
+
+	@Test
+	public void testWideIntegerRanks() {
+		// integers spread over more than 65536 values are ranked by sorting
+		final ImgPlus<IntType> img = array(new IntType(), -100000, 200000, 2);
+		for (final PointSet window : windows()) {
+			assertRanks(img, window);
+		}
+	}
+
+	@Test
+	public void testFloatRanks() {
+		final ImgPlus<FloatType> img = planar(new FloatType(), -1, 2, 3);
+		for (final PointSet window : windows()) {
+			assertRanks(img, window);
+		}
+	}
+
+	@Test
+	public void testMedianWithNaN() {
+		final ImgPlus<FloatType> img = array(new FloatType(), 0, 10, 4);
+		final Random random = new Random(5);
+		final Cursor<FloatType> cursor = img.cursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			if (random.nextInt(5) == 0) cursor.get().set(Float.NaN);
+		}
+		for (final PointSet window : windows()) {
+			assertImagesEqual(reference(img, window, Kind.MEDIAN),
+				new RankFilter<FloatType>(img, window, RankFilter.Rank.MEDIAN)
+					.filter(), 0);
+		}
+	}
+
+	@Test
+	public void testAdaptiveMedian() {
+		final ImgPlus<UnsignedByteType> bytes =
+			planar(new UnsignedByteType(), 0, 256, 6);
+		final ImgPlus<FloatType> floats = array(new FloatType(), 0, 1, 7);
+		// salt and pepper noise, so that the windows have to grow
+		final Random random = new Random(8);
+		final Cursor<UnsignedByteType> cursor = bytes.cursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			final int r = random.nextInt(4);
+			if (r < 2) cursor.get().set(r * 255);
+		}
+		final List<PointSet> windows =
+			Arrays.asList(window(1, 1, 1, 1), window(2, 2, 2, 2), window(3, 3, 3, 3));
+		assertAdaptive(bytes, windows);
+		assertAdaptive(floats, windows);
+	}
+
+	@Test
+	public void testBandsMatchWholePlanes() {
+		// one tall plane is split into bands of rows when given several threads
+		final Img<UnsignedByteType> tall =
+			new ArrayImgFactory<UnsignedByteType>().create(new long[] { 20, 70, 1 },
+				new UnsignedByteType());
+		final ImgPlus<UnsignedByteType> img =
+			fill(new ImgPlus<UnsignedByteType>(tall), 0, 256, 9);
+		final RankFilter<UnsignedByteType> filter =
+			new RankFilter<UnsignedByteType>(img, window(2, 1, 1, 2),
+				RankFilter.Rank.MEDIAN);
+		assertImagesEqual(filter.filter(), filter.filter(null, 4), 0);
+	}
+
+	// -- helper methods --
+
+	/** Compares every rank and the mean with their neighborhood functions. */
+	private <T extends RealType<T>> void assertRanks(final ImgPlus<T> img,
+		final PointSet window)
+	{
+		assertImagesEqual(reference(img, window, Kind.MINIMUM),
+			new RankFilter<T>(img, window, RankFilter.Rank.MINIMUM).filter(), 0);
+		assertImagesEqual(reference(img, window, Kind.MEDIAN),
+			new RankFilter<T>(img, window, RankFilter.Rank.MEDIAN).filter(), 0);
+		assertImagesEqual(reference(img, window, Kind.MAXIMUM),
+			new RankFilter<T>(img, window, RankFilter.Rank.MAXIMUM).filter(), 0);
+		// running sums of floating point values round differently
+		final double tolerance = img.firstElement() instanceof FloatType ? 1e-5 : 0;
+		assertImagesEqual(reference(img, window, Kind.MEAN), new BoxFilter<T>(img,
+			window).filter(), tolerance);
+	}
+
+	private <T extends RealType<T>> void assertAdaptive(final ImgPlus<T> img,
+		final List<PointSet> windows)
+	{
+		final ImgPlus<T> expected = img.copy();
+		final Function<PointSet, DoubleType> func =
+			new RealAdaptiveMedianFunction<DoubleType>(imageFunction(img), windows);
+		assign(img, expected, windows.get(0), func);
+		assertImagesEqual(expected, new RankFilter<T>(img, windows,
+			RankFilter.Rank.ADAPTIVE_MEDIAN).filter(), 0);
+	}
+
+	/** Windows that are odd and even, square and not, centered and not. */
+	private List<PointSet> windows() {
+		return Arrays.asList(window(1, 1, 1, 1), window(0, 0, 0, 0), window(2, 1,
+			1, 0), window(0, 3, 2, 2), window(4, 2, 3, 2));
+	}
+
+	/**
+	 * Creates a window reaching the given distances left, up, right and down of
+	 * its origin.
+	 */
+	private PointSet window(final int left, final int up, final int right,
+		final int down)
+	{
+		return new HyperVolumePointSet(new long[DIMENSIONS.length], new long[] {
+			left, up, 0 }, new long[] { right, down, 0 });
+	}
+
+	/** Applies a neighborhood function at every point like {@link Reducer}. */
+	private <T extends RealType<T>> ImgPlus<T> reference(final ImgPlus<T> img,
+		final PointSet window, final Kind kind)
+	{
+		final Function<long[], DoubleType> otherFunc = imageFunction(img);
+		final Function<PointSet, DoubleType> func;
+		switch (kind) {
+			case MINIMUM:
+				func = new RealMinFunction<DoubleType>(otherFunc);
+				break;
+			case MEDIAN:
+				func = new RealMedianFunction<DoubleType>(otherFunc);
+				break;
+			case MAXIMUM:
+				func = new RealMaxFunction<DoubleType>(otherFunc);
+				break;
+			default:
+				func = new RealArithmeticMeanFunction<DoubleType>(otherFunc);
+		}
+		final ImgPlus<T> output = img.copy();
+		assign(img, output, window, func);
+		return output;
+	}
+
+	private <T extends RealType<T>> Function<long[], DoubleType> imageFunction(
+		final ImgPlus<T> img)
+	{
+		final OutOfBoundsMirrorFactory<T, RandomAccessibleInterval<T>> oobFactory =
+			new OutOfBoundsMirrorFactory<T, RandomAccessibleInterval<T>>(
+				Boundary.DOUBLE);
+		return new RealImageFunction<T, DoubleType>(img, oobFactory,
+			new DoubleType());
+	}
+
+	private <T extends RealType<T>> void assign(final ImgPlus<T> img,
+		final ImgPlus<T> output, final PointSet window,
+		final Function<PointSet, DoubleType> func)
+	{
+		final long[] dims = new long[img.numDimensions()];
+		img.dimensions(dims);
+		final PointSetInputIterator iter =
+			new PointSetInputIterator(new HyperVolumePointSet(dims), window);
+		new SerialImageAssignment<T, DoubleType, PointSet>(output, func, iter, null)
+			.assign();
+	}
+
+	private <T extends RealType<T>> ImgPlus<T> planar(final T type,
+		final double min, final double range, final long seed)
+	{
+		final Img<T> img = new PlanarImgFactory<T>().create(DIMENSIONS, type);
+		return fill(new ImgPlus<T>(img), min, range, seed);
+	}
+
+	private <T extends RealType<T>> ImgPlus<T> array(final T type,
+		final double min, final double range, final long seed)
+	{
+		final Img<T> img = new ArrayImgFactory<T>().create(DIMENSIONS, type);
+		return fill(new ImgPlus<T>(img), min, range, seed);
+	}
+
+	/** Fills an image with random values, whole for integer types. */
+	private <T extends RealType<T>> ImgPlus<T> fill(final ImgPlus<T> img,
+		final double min, final double range, final long seed)
+	{
+		final Random random = new Random(seed);
+		final Cursor<T> cursor = img.cursor();
+		while (cursor.hasNext()) {
+			final double value = min + range * random.nextDouble();
+			cursor.next().setReal(Math.floor(value * 64) / 64);
+		}
+		return img;
+	}
+
+	/** Compares two images value by value; NaN equals NaN. */
+	private <T extends RealType<T>> void assertImagesEqual(
+		final ImgPlus<T> expected, final ImgPlus<T> actual, final double tolerance)
+	{
+		final long[] pos = new long[expected.numDimensions()];
+		final Cursor<T> cursor = expected.localizingCursor();
+		final RandomAccess<T> access = actual.randomAccess();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.localize(pos);
+			access.setPosition(pos);
+			assertEquals("at " + Arrays.toString(pos), cursor.get()
+				.getRealDouble(), access.get().getRealDouble(), tolerance);
+		}
+	}
+
+}
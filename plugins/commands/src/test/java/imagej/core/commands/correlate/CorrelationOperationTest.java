@@ -0,0 +1,524 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.core.commands.correlate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import imagej.core.commands.neigh.Neighborhood3x3Operation;
+import imagej.core.commands.neigh.Neighborhood3x3Watcher;
+import imagej.data.Dataset;
+import imagej.data.DatasetService;
+import imagej.data.ParallelLoopService;
+import imagej.data.overlay.EllipseOverlay;
+import imagej.util.RealRect;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.meta.Axes;
+import net.imglib2.meta.AxisType;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory;
+import net.imglib2.outofbounds.OutOfBoundsMirrorFactory.Boundary;
+import net.imglib2.roi.RegionOfInterest;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Unit tests for {@link CorrelationOperation}. Correlated planes are compared
+ * with sums of the weighted neighbors of each point taken one at a time, and
+ * 3x3 kernels with the {@link Neighborhood3x3Operation} the Smooth, Sharpen and
+ * Shadows commands used before.
+ */
+public class CorrelationOperationTest {
+
+	/** Three planes of 11 x 7, not square so that X and Y are not confused. */
+	private static final long[] DIMENSIONS = { 11, 7, 3 };
+
+	private Context context;
+
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class, ParallelLoopService.class);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void test3x3MatchesNeighborhoodOperation() {
+		final double[][] kernels =
+			{ { 1, 1, 1, 1, 1, 1, 1, 1, 1 }, { -1, -1, -1, -1, 12, -1, -1, -1, -1 },
+				{ 1, 2, 1, 0, 1, 0, -1, -2, -1 }, { 0, -1, 0, -1, 4, -1, 0, -1, 0 } };
+		final RealRect[] selections =
+			{ new RealRect(), new RealRect(2, 1, 5, 4), new RealRect(8, 5, 10, 10) };
+		for (final double[] kernel : kernels) {
+			for (final RealRect selection : selections) {
+				assert3x3(new UnsignedByteType(), kernel, selection);
+				assert3x3(new FloatType(), kernel, selection);
+			}
+		}
+	}
+
+	@Test
+	public void testDirectMatchesSummation() {
+		final double[][] kernels =
+			{ random(15, 1),
+				separable(new double[] { 1, 2, 1 }, new double[] { 1, 4, 6, 4, 1 }),
+				{ 1, -2, 3, -4, 5, -6, 7 }, random(8, 2) };
+		final int[][] shapes = { { 5, 3 }, { 3, 5 }, { 7, 1 }, { 4, 2 } };
+		for (int k = 0; k < kernels.length; k++) {
+			for (final RealRect selection : new RealRect[] { new RealRect(),
+				new RealRect(3, 2, 4, 3) })
+			{
+				assertDirect(new UnsignedByteType(), kernels[k], shapes[k][0],
+					shapes[k][1], selection);
+				assertDirect(new FloatType(), kernels[k], shapes[k][0], shapes[k][1],
+					selection);
+			}
+		}
+	}
+
+	@Test
+	public void testTransformMatchesDirect() {
+		// kernels that need one tile, several overlapping tiles, and that reach
+		// further past the edges than the planes are wide
+		final int[][] shapes =
+			{ { 3, 3 }, { 5, 5 }, { 7, 3 }, { 9, 5 }, { 15, 11 } };
+		for (int k = 0; k < shapes.length; k++) {
+			final int w = shapes[k][0], h = shapes[k][1];
+			final double[] kernel = random(w * h, 10 + k);
+			for (final RealRect selection : new RealRect[] { new RealRect(),
+				new RealRect(0, 4, 6, 10) })
+			{
+				assertTransform(new UnsignedByteType(), kernel, w, h, selection);
+				assertTransform(new FloatType(), kernel, w, h, selection);
+			}
+		}
+	}
+
+	@Test
+	public void testOtherAxes() {
+		// correlate the XZ planes of an array image
+		final Dataset ds =
+			dataset(new FloatType(), new ArrayImgFactory<FloatType>(), 4);
+		final ImgPlus<FloatType> original = imgPlus(ds).copy();
+		final double[] kernel = random(9, 5);
+		final CorrelationOperation operation =
+			new CorrelationOperation(ds, kernel, 3, 3);
+		operation.setAxes(0, 2);
+		operation.setMethod(CorrelationOperation.Method.DIRECT);
+		operation.run();
+		assertImagesEqual(correlate(original, kernel, 3, 3, 0, 2, new RealRect()),
+			imgPlus(ds), 1e-4);
+	}
+
+	@Test
+	public void testBoundaries() {
+		// kernels reaching past one edge, and past both edges of the planes
+		final int[][] shapes = { { 5, 3 }, { 15, 11 } };
+		final CorrelationOperation.Method[] methods =
+			{ CorrelationOperation.Method.DIRECT,
+				CorrelationOperation.Method.FOURIER_TRANSFORM };
+		for (final Boundary boundary : Boundary.values()) {
+			for (final CorrelationOperation.Method method : methods) {
+				for (int k = 0; k < shapes.length; k++) {
+					final int w = shapes[k][0], h = shapes[k][1];
+					final double[] kernel = random(w * h, 20 + k);
+					assertBoundary(new UnsignedByteType(), kernel, w, h, boundary,
+						method, 0);
+					assertBoundary(new FloatType(), kernel, w, h, boundary, method,
+						1e-4);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testOverlayOnYXPlanes() {
+		// X is the second axis, so the overlay's X must be matched to it
+		final double[] kernel = random(15, 3);
+		final CorrelationOperation.Method[] methods =
+			{ CorrelationOperation.Method.DIRECT,
+				CorrelationOperation.Method.FOURIER_TRANSFORM };
+		for (final CorrelationOperation.Method method : methods) {
+			assertOverlay(new UnsignedByteType(), kernel, method, 0);
+			assertOverlay(new FloatType(), kernel, method, 1e-4);
+		}
+	}
+
+	// -- helper methods --
+
+	private <T extends RealType<T> & NativeType<T>> void assertBoundary(
+		final T type, final double[] kernel, final int kernelWidth,
+		final int kernelHeight, final Boundary boundary,
+		final CorrelationOperation.Method method, final double tolerance)
+	{
+		final Dataset ds = dataset(type, new PlanarImgFactory<T>(), 9);
+		final ImgPlus<T> original = imgPlus(ds).copy();
+		final CorrelationOperation operation =
+			new CorrelationOperation(ds, kernel, kernelWidth, kernelHeight);
+		operation.setBoundary(boundary);
+		operation.setMethod(method);
+		operation.run();
+		assertImagesEqual(correlate(original, kernel, kernelWidth, kernelHeight,
+			0, 1, new RealRect(), boundary == Boundary.DOUBLE), imgPlus(ds),
+			tolerance);
+	}
+
+	private <T extends RealType<T> & NativeType<T>> void assertOverlay(
+		final T type, final double[] kernel,
+		final CorrelationOperation.Method method, final double tolerance)
+	{
+		final Img<T> img =
+			new PlanarImgFactory<T>().create(new long[] { 7, 11, 3 }, type);
+		fill(img, 8);
+		final Dataset ds =
+			context.getService(DatasetService.class).create(
+				new ImgPlus<T>(img, "YX", new AxisType[] { Axes.Y, Axes.X, Axes.Z }));
+		final ImgPlus<T> original = imgPlus(ds).copy();
+		final EllipseOverlay overlay = new EllipseOverlay(context);
+		overlay.setOrigin(6, 0);
+		overlay.setOrigin(3, 1);
+		overlay.setRadius(3.5, 0);
+		overlay.setRadius(2.5, 1);
+		final CorrelationOperation operation =
+			new CorrelationOperation(ds, kernel, 5, 3);
+		operation.setOverlay(overlay);
+		operation.setMethod(method);
+		operation.run();
+
+		final ImgPlus<T> correlated =
+			correlate(original, kernel, 5, 3, 1, 0, new RealRect());
+		final RegionOfInterest roi = overlay.getRegionOfInterest();
+		final Cursor<T> cursor = correlated.localizingCursor();
+		final RandomAccess<T> before = original.randomAccess();
+		final long[] pos = new long[correlated.numDimensions()];
+		int inside = 0;
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.localize(pos);
+			if (roi.contains(new double[] { pos[1], pos[0] })) inside++;
+			else {
+				// points outside the overlay keep their values
+				before.setPosition(pos);
+				cursor.get().setReal(before.get().getRealDouble());
+			}
+		}
+		assertTrue(inside > 0 && inside < correlated.size());
+		assertImagesEqual(correlated, imgPlus(ds), tolerance);
+	}
+
+	private <T extends RealType<T> & NativeType<T>> void assert3x3(final T type,
+		final double[] kernel, final RealRect selection)
+	{
+		final Dataset expected = dataset(type, new PlanarImgFactory<T>(), 6);
+		final Dataset actual = dataset(type, new PlanarImgFactory<T>(), 6);
+		new Neighborhood3x3Operation(expected, copy(selection),
+			new CorrelateWatcher(kernel, expected)).run();
+		new Correlation3x3Operation(actual, copy(selection), kernel).run();
+		assertImagesEqual(imgPlus(expected), imgPlus(actual), 0);
+	}
+
+	private <T extends RealType<T> & NativeType<T>> void assertDirect(
+		final T type, final double[] kernel, final int kernelWidth,
+		final int kernelHeight, final RealRect selection)
+	{
+		final Dataset ds = dataset(type, new PlanarImgFactory<T>(), 7);
+		final ImgPlus<T> original = imgPlus(ds).copy();
+		final CorrelationOperation operation =
+			new CorrelationOperation(ds, kernel, kernelWidth, kernelHeight);
+		operation.setSelection(copy(selection));
+		operation.setMethod(CorrelationOperation.Method.DIRECT);
+		operation.run();
+		final double tolerance = ds.isInteger() ? 0 : 1e-4;
+		assertImagesEqual(correlate(original, kernel, kernelWidth, kernelHeight,
+			0, 1, selection), imgPlus(ds), tolerance);
+	}
+
+	private <T extends RealType<T> & NativeType<T>> void assertTransform(
+		final T type, final double[] kernel, final int kernelWidth,
+		final int kernelHeight, final RealRect selection)
+	{
+		final Dataset direct = dataset(type, new PlanarImgFactory<T>(), 11);
+		final Dataset transformed = dataset(type, new ArrayImgFactory<T>(), 11);
+		for (final Dataset ds : new Dataset[] { direct, transformed }) {
+			final CorrelationOperation operation =
+				new CorrelationOperation(ds, kernel, kernelWidth, kernelHeight);
+			operation.setSelection(copy(selection));
+			operation.setMethod(ds == direct ? CorrelationOperation.Method.DIRECT
+				: CorrelationOperation.Method.FOURIER_TRANSFORM);
+			operation.run();
+		}
+		// integer sums are rounded to remove the transform's error exactly
+		final double tolerance = direct.isInteger() ? 0 : 1e-4;
+		assertImagesEqual(imgPlus(direct), imgPlus(transformed), tolerance);
+	}
+
+	/**
+	 * Correlates an image by summing the weighted neighbors of each point one at
+	 * a time, mirroring past the edges without doubling them.
+	 */
+	private <T extends RealType<T>> ImgPlus<T> correlate(final ImgPlus<T> img,
+		final double[] kernel, final int kernelWidth, final int kernelHeight,
+		final int xAxis, final int yAxis, final RealRect selection)
+	{
+		return correlate(img, kernel, kernelWidth, kernelHeight, xAxis, yAxis,
+			selection, false);
+	}
+
+	/**
+	 * Correlates an image by summing the weighted neighbors of each point one at
+	 * a time, mirroring past the edges with or without doubling them.
+	 */
+	private <T extends RealType<T>> ImgPlus<T> correlate(final ImgPlus<T> img,
+		final double[] kernel, final int kernelWidth, final int kernelHeight,
+		final int xAxis, final int yAxis, final RealRect selection,
+		final boolean doubleEdges)
+	{
+		final int width = (int) img.dimension(xAxis);
+		final int height = (int) img.dimension(yAxis);
+		final long minX = (long) selection.x, minY = (long) selection.y;
+		final long maxX =
+			selection.width == 0 ? width : Math.min(width, minX +
+				(long) selection.width);
+		final long maxY =
+			selection.height == 0 ? height : Math.min(height, minY +
+				(long) selection.height);
+		double scale = 0;
+		for (final double k : kernel) {
+			scale += k;
+		}
+		if (scale == 0) scale = 1;
+		final T type = img.firstElement();
+		final boolean integer = type instanceof IntegerType;
+		final ImgPlus<T> output = img.copy();
+		final RandomAccess<T> in = img.randomAccess();
+		final Cursor<T> cursor = output.localizingCursor();
+		final long[] pos = new long[img.numDimensions()];
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.localize(pos);
+			final long x = pos[xAxis], y = pos[yAxis];
+			if (x < minX || x >= maxX || y < minY || y >= maxY) continue;
+			double sum = 0;
+			for (int j = 0; j < kernelHeight; j++) {
+				for (int i = 0; i < kernelWidth; i++) {
+					pos[xAxis] = mirror(x + i - kernelWidth / 2, width, doubleEdges);
+					pos[yAxis] = mirror(y + j - kernelHeight / 2, height, doubleEdges);
+					in.setPosition(pos);
+					sum += kernel[j * kernelWidth + i] * in.get().getRealDouble();
+				}
+			}
+			double value;
+			if (integer) {
+				value = (sum + scale / 2) / scale;
+				if (value < type.getMinValue()) value = type.getMinValue();
+				if (value > type.getMaxValue()) value = type.getMaxValue();
+			}
+			else value = sum / scale;
+			cursor.get().setReal(value);
+		}
+		return output;
+	}
+
+	/**
+	 * Mirrors an index as an {@link OutOfBoundsMirrorFactory} does, with or
+	 * without doubling the edge values, by reflecting it until it is in range.
+	 */
+	private long mirror(final long index, final int size,
+		final boolean doubleEdges)
+	{
+		long m = index;
+		while (m < 0 || m >= size) {
+			if (size == 1 && !doubleEdges) m = 0;
+			else if (m < 0) m = doubleEdges ? -m - 1 : -m;
+			else m = doubleEdges ? 2 * size - 1 - m : 2 * size - 2 - m;
+		}
+		return m;
+	}
+
+	private <T extends RealType<T> & NativeType<T>> Dataset dataset(
+		final T type, final ImgFactory<T> factory, final long seed)
+	{
+		final Img<T> img = factory.create(DIMENSIONS, type);
+		fill(img, seed);
+		return context.getService(DatasetService.class).create(
+			new ImgPlus<T>(img));
+	}
+
+	/** Fills an image with random bytes, or random floats from -100 to 100. */
+	private <T extends RealType<T>> void fill(final Img<T> img, final long seed)
+	{
+		final Random random = new Random(seed);
+		final boolean floating = img.firstElement() instanceof FloatType;
+		for (final T t : img) {
+			t.setReal(floating ? 200 * random.nextDouble() - 100 : random
+				.nextInt(256));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends RealType<T>> ImgPlus<T> imgPlus(final Dataset ds) {
+		return (ImgPlus<T>) ds.getImgPlus();
+	}
+
+	/** Copies a selection, which Neighborhood3x3Operation may modify. */
+	private RealRect copy(final RealRect rect) {
+		return new RealRect(rect.x, rect.y, rect.width, rect.height);
+	}
+
+	/** Creates a kernel of small random integers. */
+	private double[] random(final int size, final long seed) {
+		final Random random = new Random(seed);
+		final double[] kernel = new double[size];
+		for (int i = 0; i < size; i++) {
+			kernel[i] = random.nextInt(9) - 3;
+		}
+		return kernel;
+	}
+
+	/** Creates the outer product of a column and a row. */
+	private double[] separable(final double[] row, final double[] column) {
+		final double[] kernel = new double[row.length * column.length];
+		for (int j = 0; j < column.length; j++) {
+			for (int i = 0; i < row.length; i++) {
+				kernel[j * row.length + i] = column[j] * row[i];
+			}
+		}
+		return kernel;
+	}
+
+	/** Compares two images value by value. */
+	private <T extends RealType<T>> void assertImagesEqual(
+		final ImgPlus<T> expected, final ImgPlus<T> actual, final double tolerance)
+	{
+		final long[] pos = new long[expected.numDimensions()];
+		final Cursor<T> cursor = expected.localizingCursor();
+		final RandomAccess<T> access = actual.randomAccess();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.localize(pos);
+			access.setPosition(pos);
+			final double e = cursor.get().getRealDouble();
+			assertEquals("at " + Arrays.toString(pos), e, access.get()
+				.getRealDouble(), tolerance * Math.max(1, Math.abs(e)));
+		}
+	}
+
+	// -- helper classes --
+
+	/** The watcher Correlation3x3Operation gave Neighborhood3x3Operation. */
+	private static class CorrelateWatcher implements Neighborhood3x3Watcher {
+
+		private final double[] kernel;
+		private final boolean integerDataset;
+		private final double typeMinValue;
+		private final double typeMaxValue;
+		private double scale;
+		private double sum;
+
+		public CorrelateWatcher(final double[] kernel, final Dataset ds) {
+			this.kernel = kernel;
+			integerDataset = ds.isInteger();
+			typeMinValue = ds.getType().getMinValue();
+			typeMaxValue = ds.getType().getMaxValue();
+		}
+
+		private CorrelateWatcher(final CorrelateWatcher other) {
+			kernel = other.kernel;
+			integerDataset = other.integerDataset;
+			typeMinValue = other.typeMinValue;
+			typeMaxValue = other.typeMaxValue;
+		}
+
+		@Override
+		public void setup() {
+			scale = 0;
+			for (int i = 0; i < kernel.length; i++)
+				scale += kernel[i];
+			if (scale == 0) scale = 1;
+		}
+
+		@Override
+		public void initializeNeighborhood(final long[] position) {
+			sum = 0;
+		}
+
+		@Override
+		public void visitLocation(final int dx, final int dy, final double value) {
+			final int index = (dy + 1) * (3) + (dx + 1);
+			sum += value * kernel[index];
+		}
+
+		@Override
+		public double calcOutputValue() {
+			double value;
+			if (integerDataset) {
+				value = (sum + (scale / 2)) / scale;
+				if (value < typeMinValue) value = typeMinValue;
+				if (value > typeMaxValue) value = typeMaxValue;
+			}
+			else {
+				value = sum / scale;
+			}
+			return value;
+		}
+
+		@Override
+		public Neighborhood3x3Watcher copy() {
+			return new CorrelateWatcher(this);
+		}
+	}
+
+}
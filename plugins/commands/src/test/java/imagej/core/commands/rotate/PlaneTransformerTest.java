@@ -0,0 +1,321 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.core.commands.rotate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import imagej.data.Dataset;
+import imagej.data.DatasetService;
+import imagej.data.ParallelLoopService;
+import imagej.util.RealRect;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.Unsigned12BitType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Unit tests for {@link PlaneTransformer}. Flips are compared with pixels
+ * swapped one at a time through a RandomAccess, and rotations with the pixel
+ * by pixel copy {@link XYFlipper} makes for transformations that are not
+ * quarter turns.
+ */
+public class PlaneTransformerTest {
+
+	/** Planes wider than a rotation block and neither square nor even. */
+	private static final long[] DIMENSIONS = { 70, 45, 3 };
+
+	private Context context;
+
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class, ParallelLoopService.class);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testFlips() {
+		final long[][] rectangles =
+			{ { 0, 0, 70, 45 }, { 3, 4, 20, 9 }, { -3, 2, 20, 100 },
+				{ 60, 40, 20, 20 }, { 5, 5, 1, 1 } };
+		for (final long[] r : rectangles) {
+			assertFlips(new PlanarImgFactory<UnsignedByteType>(),
+				new UnsignedByteType(), DIMENSIONS, 0, 1, r);
+			assertFlips(new ArrayImgFactory<FloatType>(), new FloatType(),
+				new long[] { 9, 6, 2, 2 }, 0, 1, r);
+			// cells, and planes other than XY, are flipped through a RandomAccess
+			assertFlips(new CellImgFactory<UnsignedByteType>(5),
+				new UnsignedByteType(), DIMENSIONS, 0, 1, r);
+			assertFlips(new PlanarImgFactory<FloatType>(), new FloatType(),
+				DIMENSIONS, 0, 2, r);
+		}
+	}
+
+	@Test
+	public void testFlipPackedTypes() {
+		// rows of 70 pixels share storage words with their neighbors
+		final long[][] rectangles =
+			{ { 0, 0, 70, 45 }, { 3, 4, 20, 9 }, { 60, 40, 20, 20 } };
+		for (final long[] r : rectangles) {
+			assertFlips(new PlanarImgFactory<BitType>(), new BitType(), DIMENSIONS,
+				0, 1, r);
+			assertFlips(new ArrayImgFactory<BitType>(), new BitType(), DIMENSIONS,
+				0, 1, r);
+			assertFlips(new PlanarImgFactory<Unsigned12BitType>(),
+				new Unsigned12BitType(), DIMENSIONS, 0, 1, r);
+			assertFlips(new ArrayImgFactory<Unsigned12BitType>(),
+				new Unsigned12BitType(), DIMENSIONS, 0, 1, r);
+			assertFlips(new PlanarImgFactory<Unsigned12BitType>(),
+				new Unsigned12BitType(), DIMENSIONS, 0, 2, r);
+		}
+	}
+
+	@Test
+	public void testRotatePlanar() {
+		// as many planes as threads, so planes are rotated in parallel
+		assertRotations(new PlanarImgFactory<UnsignedByteType>(),
+			new UnsignedByteType(), DIMENSIONS, 3);
+		// fewer planes than threads, so the rows of each plane are shared
+		assertRotations(new PlanarImgFactory<FloatType>(), new FloatType(),
+			DIMENSIONS, 8);
+		assertRotations(new PlanarImgFactory<FloatType>(), new FloatType(),
+			new long[] { 130, 1 }, 4);
+	}
+
+	@Test
+	public void testRotateArray() {
+		assertRotations(new ArrayImgFactory<UnsignedByteType>(),
+			new UnsignedByteType(), DIMENSIONS, 2);
+		assertRotations(new ArrayImgFactory<FloatType>(), new FloatType(),
+			new long[] { 7, 150, 2, 2 }, 3);
+	}
+
+	@Test
+	public void testRotateCellsUnsupported() {
+		final Img<FloatType> img =
+			create(new CellImgFactory<FloatType>(5), new FloatType(), DIMENSIONS);
+		assertNull(PlaneTransformer.rotate(new ImgPlus<FloatType>(img), true,
+			context, 2));
+	}
+
+	// -- helper methods --
+
+	private <T extends RealType<T> & NativeType<T>> void assertFlips(
+		final ImgFactory<T> factory, final T type, final long[] dims,
+		final int xAxis, final int yAxis, final long[] r)
+	{
+		final Img<T> horizontal = create(factory, type, dims);
+		final Img<T> expected = horizontal.copy();
+		flip(expected, xAxis, yAxis, r, true);
+		PlaneTransformer.flipHorizontally(horizontal, xAxis, yAxis, r[0], r[1],
+			r[2], r[3], context, 4);
+		assertImagesEqual(expected, horizontal);
+
+		final Img<T> vertical = create(factory, type, dims);
+		final Img<T> expectedVertical = vertical.copy();
+		flip(expectedVertical, xAxis, yAxis, r, false);
+		PlaneTransformer.flipVertically(vertical, xAxis, yAxis, r[0], r[1], r[2],
+			r[3], context, 4);
+		assertImagesEqual(expectedVertical, vertical);
+	}
+
+	/**
+	 * Flips the given rectangle of every plane, clipped to the plane, by
+	 * swapping pixels one at a time.
+	 */
+	private <T extends RealType<T>> void flip(final Img<T> img,
+		final int xAxis, final int yAxis, final long[] r, final boolean horizontal)
+	{
+		final long x0 = Math.max(0, r[0]);
+		final long x1 = Math.min(img.dimension(xAxis), r[0] + r[2]);
+		final long y0 = Math.max(0, r[1]);
+		final long y1 = Math.min(img.dimension(yAxis), r[1] + r[3]);
+		final RandomAccess<T> a = img.randomAccess();
+		final RandomAccess<T> b = img.randomAccess();
+		final Cursor<T> cursor = img.localizingCursor();
+		final long[] pos = new long[img.numDimensions()];
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.localize(pos);
+			final long x = pos[xAxis], y = pos[yAxis];
+			if (x < x0 || x >= x1 || y < y0 || y >= y1) continue;
+			// swap each pair once, from the pixel in the first half
+			if (horizontal) {
+				if (2 * x >= x0 + x1 - 1) continue;
+				a.setPosition(pos);
+				pos[xAxis] = x0 + x1 - 1 - x;
+			}
+			else {
+				if (2 * y >= y0 + y1 - 1) continue;
+				a.setPosition(pos);
+				pos[yAxis] = y0 + y1 - 1 - y;
+			}
+			b.setPosition(pos);
+			final double value = a.get().getRealDouble();
+			a.get().setReal(b.get().getRealDouble());
+			b.get().setReal(value);
+		}
+	}
+
+	private <T extends RealType<T> & NativeType<T>> void assertRotations(
+		final ImgFactory<T> factory, final T type, final long[] dims,
+		final int threads)
+	{
+		for (final boolean clockwise : new boolean[] { true, false }) {
+			final Img<T> img = create(factory, type, dims);
+			final Dataset ds =
+				context.getService(DatasetService.class).create(
+					new ImgPlus<T>(img.copy()));
+			final XYFlipper flipper =
+				new XYFlipper(ds, new RealRect(), new PixelRotation(clockwise));
+			flipper.checkInput();
+			flipper.process();
+			final Img<? extends RealType<?>> expected = flipper.getResult();
+			final Img<? extends RealType<?>> actual =
+				PlaneTransformer.rotate(new ImgPlus<T>(img), clockwise, context,
+					threads);
+			assertImagesEqual(expected, actual);
+		}
+	}
+
+	private <T extends RealType<T> & NativeType<T>> Img<T> create(
+		final ImgFactory<T> factory, final T type, final long[] dims)
+	{
+		final Img<T> img = factory.create(dims, type);
+		final Random random = new Random(Arrays.hashCode(dims));
+		for (final T t : img) {
+			t.setReal(random.nextInt((int) Math.min(256, type.getMaxValue() + 1)));
+		}
+		return img;
+	}
+
+	private void assertImagesEqual(final Img<? extends RealType<?>> expected,
+		final Img<? extends RealType<?>> actual)
+	{
+		final long[] dims = new long[expected.numDimensions()];
+		final long[] actualDims = new long[actual.numDimensions()];
+		expected.dimensions(dims);
+		actual.dimensions(actualDims);
+		assertArrayEquals(dims, actualDims);
+		final long[] pos = new long[dims.length];
+		final Cursor<? extends RealType<?>> cursor = expected.localizingCursor();
+		final RandomAccess<? extends RealType<?>> access = actual.randomAccess();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.localize(pos);
+			access.setPosition(pos);
+			assertEquals("at " + Arrays.toString(pos), cursor.get()
+				.getRealDouble(), access.get().getRealDouble(), 0);
+		}
+	}
+
+	// -- helper classes --
+
+	/**
+	 * A quarter turn that does not say it is one, so XYFlipper copies it pixel
+	 * by pixel.
+	 */
+	private static class PixelRotation implements
+		XYFlipper.FlipCoordinateTransformer
+	{
+
+		private final boolean clockwise;
+
+		public PixelRotation(final boolean clockwise) {
+			this.clockwise = clockwise;
+		}
+
+		@Override
+		public long[] calcOutputDimensions(final long[] inputDimensions) {
+			final long[] outputDims = inputDimensions.clone();
+			outputDims[0] = inputDimensions[1];
+			outputDims[1] = inputDimensions[0];
+			return outputDims;
+		}
+
+		@Override
+		public void calcOutputPosition(final long[] inputDimensions,
+			final long[] inputPosition, final long[] outputPosition)
+		{
+			if (clockwise) {
+				outputPosition[0] = inputDimensions[1] - inputPosition[1] - 1;
+				outputPosition[1] = inputPosition[0];
+			}
+			else {
+				outputPosition[0] = inputPosition[1];
+				outputPosition[1] = inputDimensions[0] - inputPosition[0] - 1;
+			}
+			for (int i = 2; i < inputDimensions.length; i++) {
+				outputPosition[i] = inputPosition[i];
+			}
+		}
+
+		@Override
+		public boolean isShapePreserving() {
+			return false;
+		}
+
+		@Override
+		public int getQuarterTurns() {
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,145 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2013 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of any organization.
+ * #L%
+ */
+
+
+package imagej.core.commands.typechange;
+
+import static org.junit.Assert.assertEquals;
+import imagej.data.Dataset;
+import imagej.data.DatasetService;
+import imagej.data.ParallelLoopService;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.img.ImgPlus;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.img.planar.PlanarImgFactory;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.Unsigned12BitType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Unit tests for {@link TypeChanger}. Converted images are compared with each
+ * input value clamped and assigned to the new type one pixel at a time.
+ */
+public class TypeChangerTest {
+
+	/** Row widths that are not multiples of the 64 bit storage words. */
+	private static final int[] WIDTHS = { 70, 100, 130, 3 };
+
+	private Context context;
+
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class, ParallelLoopService.class);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testChangeToUINT1() {
+		for (final int width : WIDTHS) {
+			assertChange(new ArrayImgFactory<FloatType>(), width, new BitType());
+			assertChange(new PlanarImgFactory<FloatType>(), width, new BitType());
+			assertChange(new CellImgFactory<FloatType>(5), width, new BitType());
+		}
+	}
+
+	@Test
+	public void testChangeToUINT12() {
+		for (final int width : WIDTHS) {
+			assertChange(new ArrayImgFactory<FloatType>(), width,
+				new Unsigned12BitType());
+			assertChange(new PlanarImgFactory<FloatType>(), width,
+				new Unsigned12BitType());
+			assertChange(new CellImgFactory<FloatType>(5), width,
+				new Unsigned12BitType());
+		}
+	}
+
+	// -- helper methods --
+
+	private <T extends RealType<T>> void assertChange(
+		final ImgFactory<FloatType> factory, final int width, final T newType)
+	{
+		final long[] dims = { width, 9, 4 };
+		final Img<FloatType> img = factory.create(dims, new FloatType());
+		final Random random = new Random(width);
+		for (final FloatType t : img) {
+			t.setReal(random.nextInt(5000) - 200 + 0.25 * random.nextInt(4));
+		}
+		final Dataset ds =
+			context.getService(DatasetService.class).create(
+				new ImgPlus<FloatType>(img));
+		final Img<FloatType> input = img.copy();
+
+		TypeChanger.changeType(ds, newType, false);
+
+		final String message =
+			newType.getClass().getSimpleName() + " from " +
+				factory.getClass().getSimpleName() + " " + Arrays.toString(dims);
+		assertEquals(message, newType.getClass(), ds.getType().getClass());
+		final T expected = newType.createVariable();
+		final Cursor<FloatType> cursor = input.localizingCursor();
+		final RandomAccess<? extends RealType<?>> access =
+			ds.getImgPlus().randomAccess();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			access.setPosition(cursor);
+			double value = cursor.get().getRealDouble();
+			if (value < newType.getMinValue()) value = newType.getMinValue();
+			if (value > newType.getMaxValue()) value = newType.getMaxValue();
+			expected.setReal(value);
+			assertEquals(message, expected.getRealDouble(), access.get()
+				.getRealDouble(), 0);
+		}
+	}
+
+}
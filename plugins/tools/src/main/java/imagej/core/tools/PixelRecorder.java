@@ -155,7 +155,7 @@ public boolean record(final MsEvent evt) {
 			final DatasetView view =
 					imageDisplayService.getActiveDatasetView(imageDisplay);
 			ARGBScreenImage screenImage = view.getScreenImage();
-			int[] argbPixels = view.getScreenImage().getData();
+			int[] argbPixels = screenImage.getData();
 			int pixelIndex = (int) (cy*screenImage.dimension(0) + cx);
 			int argb = argbPixels[pixelIndex];
 			int r = (argb >> 16) & 0xff;
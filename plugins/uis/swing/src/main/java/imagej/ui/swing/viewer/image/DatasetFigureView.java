@@ -36,14 +36,19 @@
 package imagej.ui.swing.viewer.image;
 
 import imagej.data.Dataset;
+import imagej.data.display.DatasetTileRenderer;
 import imagej.data.display.DatasetView;
+import imagej.data.display.ImageCanvas;
 import imagej.data.display.event.DataViewUpdatedEvent;
 import imagej.util.awt.AWTImageTools;
 
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.Shape;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.util.List;
 
 import org.jhotdraw.draw.Drawing;
 import org.jhotdraw.draw.ImageFigure;
@@ -53,7 +58,8 @@
 
 /**
  * A figure view that links an ImageJ {@link DatasetView} to a JHotDraw
- * {@link ImageFigure}.
+ * {@link ImageFigure}. Planes of more than {@link #TILED_PLANE_SIZE} pixels are
+ * shown in tiled mode, drawing only the tiles within the viewport.
  * 
  * @author Curtis Rueden
  * @author Lee Kamentsky
@@ -61,7 +67,11 @@
 public class DatasetFigureView extends AbstractContextual implements FigureView
 {
 
+	/** The number of pixels above which planes are shown as tiles. */
+	public static final long TILED_PLANE_SIZE = 4096L * 4096L;
+
 	private final DatasetView datasetView;
+	private final ImageCanvas imageCanvas;
 	private final ImageFigure figure;
 
 	public DatasetFigureView(final SwingImageDisplayViewer displayViewer,
@@ -69,9 +79,14 @@ public DatasetFigureView(final SwingImageDisplayViewer displayViewer,
 	{
 		setContext(datasetView.getContext());
 		this.datasetView = datasetView;
+		imageCanvas = displayViewer.getDisplay().getCanvas();
+		final Dataset data = datasetView.getData();
+		if (data.dimension(0) * data.dimension(1) > TILED_PLANE_SIZE) {
+			datasetView.setTiled(true);
+		}
 		final JHotDrawImageCanvas canvas = displayViewer.getCanvas();
 		final Drawing drawing = canvas.getDrawing();
-		figure = new ImageFigure();
+		figure = new DatasetImageFigure();
 		figure.setSelectable(false);
 		figure.setTransformable(false);
 		final Dataset dataset = datasetView.getData();
@@ -93,6 +108,15 @@ protected void onDataViewUpdatedEvent(final DataViewUpdatedEvent event) {
 	public void update() {
 		final LogService log = getContext().getService(LogService.class);
 		log.debug("Updating image figure: " + this);
+		if (datasetView.isTiled()) {
+			// NB - tiles are drawn from the view when the figure is painted
+			final Dataset dataset = datasetView.getData();
+			figure.willChange();
+			figure.setBounds(new Rectangle2D.Double(0, 0, dataset.dimension(0),
+				dataset.dimension(1)));
+			figure.changed();
+			return;
+		}
 		final Image image = datasetView.getScreenImage().image();
 		final BufferedImage bufImage = AWTImageTools.makeBuffered(image);
 		figure.setBounds(new Rectangle2D.Double(0, 0, bufImage.getWidth(),
@@ -117,4 +141,36 @@ public void dispose() {
 		getFigure().requestRemove();
 	}
 
+	// -- Helper classes --
+
+	/**
+	 * An image figure which, when the view is tiled, draws the tiles of the view
+	 * that intersect the viewport instead of an image of the whole plane.
+	 */
+	private class DatasetImageFigure extends ImageFigure {
+
+		@Override
+		protected void drawFill(final Graphics2D g) {
+			if (!datasetView.isTiled()) {
+				super.drawFill(g);
+				return;
+			}
+			final List<DatasetTileRenderer.Tile> tiles =
+				datasetView.getVisibleTiles(imageCanvas);
+			if (tiles == null) return;
+			// NB - zoomed out tiles may reach up to a step past the plane
+			final Shape clip = g.getClip();
+			g.clip(getBounds());
+			for (final DatasetTileRenderer.Tile tile : tiles) {
+				final Image image = tile.getImage().image();
+				final int w = image.getWidth(null);
+				final int h = image.getHeight(null);
+				final int x = (int) tile.getX(), y = (int) tile.getY();
+				final int step = tile.getStep();
+				g.drawImage(image, x, y, x + w * step, y + h * step, 0, 0, w, h, null);
+			}
+			g.setClip(clip);
+		}
+	}
+
 }
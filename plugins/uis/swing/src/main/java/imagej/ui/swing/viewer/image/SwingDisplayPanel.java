@@ -206,7 +206,8 @@ public void redraw() {
 			display.getContext().getService(ImageDisplayService.class);
 		final DatasetView view = imageDisplayService.getActiveDatasetView(display);
 		if (view == null) return; // no active dataset
-		view.getProjector().map();
+		// NB - tiled views have no projector, and render tiles as needed
+		if (view.getProjector() != null) view.getProjector().map();
 		displayViewer.getCanvas().update();
 	}
 